@@ -0,0 +1,91 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Helpers to set up the local datasets used by benchmarks. Datasets themselves are
+ * written by the storage engines' TestDomainGenerator classes.
+ */
+public final class BenchmarkDatasets {
+
+  public static final String DOMAIN_NAME = "benchmark_domain";
+
+  private BenchmarkDatasets() {
+  }
+
+  public static File createTemporaryDirectory(String prefix) throws IOException {
+    File directory = File.createTempFile(prefix, "");
+    if (!directory.delete() || !directory.mkdirs()) {
+      throw new IOException("Could not create temporary directory " + directory);
+    }
+    return directory;
+  }
+
+  // Where TestDomainGenerator should write a domain so that the storage engine can read it
+  // from the given data directory
+  public static String getRemoteDomainRoot(File dataDirectory) {
+    return dataDirectory.getAbsolutePath() + "/" + DOMAIN_NAME;
+  }
+
+  public static ByteBuffer[] toByteBuffers(List<byte[]> keys) {
+    ByteBuffer[] result = new ByteBuffer[keys.size()];
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = ByteBuffer.wrap(keys.get(i));
+    }
+    return result;
+  }
+
+  public static List<byte[]> getAllKeys(Map<Integer, List<byte[]>> partitionedKeys) {
+    List<byte[]> result = new ArrayList<byte[]>();
+    for (List<byte[]> keys : partitionedKeys.values()) {
+      result.addAll(keys);
+    }
+    return result;
+  }
+
+  // Random keys that are (with overwhelming probability) not in a generated dataset,
+  // since generators use a different seed
+  public static ByteBuffer[] getMissingKeys(int numKeys, int keyLength) {
+    Random random = new Random(42);
+    ByteBuffer[] result = new ByteBuffer[numKeys];
+    for (int i = 0; i < numKeys; ++i) {
+      byte[] key = new byte[keyLength];
+      random.nextBytes(key);
+      result[i] = ByteBuffer.wrap(key);
+    }
+    return result;
+  }
+
+  // Shuffle in place, deterministically, so that lookups do not follow the on-disk order
+  public static void shuffle(ByteBuffer[] keys) {
+    Random random = new Random(1);
+    for (int i = keys.length - 1; i > 0; --i) {
+      int j = random.nextInt(i + 1);
+      ByteBuffer tmp = keys[i];
+      keys[i] = keys[j];
+      keys[j] = tmp;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.hasher;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Murmur64Hasher hashing keys of various lengths into key hashes of various sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Murmur64HasherBenchmark {
+
+  private static final int NUM_KEYS = 1024;
+
+  @Param({"8", "32", "256"})
+  public int keyLength;
+
+  @Param({"10", "20"})
+  public int hashLength;
+
+  private final Murmur64Hasher hasher = new Murmur64Hasher();
+  private ByteBuffer[] keys;
+  private byte[] hash;
+  private int nextKeyIndex = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(11);
+    keys = new ByteBuffer[NUM_KEYS];
+    for (int i = 0; i < NUM_KEYS; ++i) {
+      byte[] key = new byte[keyLength];
+      random.nextBytes(key);
+      keys[i] = ByteBuffer.wrap(key);
+    }
+    hash = new byte[hashLength];
+  }
+
+  @Benchmark
+  public byte[] hash() {
+    ByteBuffer key = keys[nextKeyIndex];
+    nextKeyIndex = (nextKeyIndex + 1) & (NUM_KEYS - 1);
+    hasher.hash(key, hashLength, hash);
+    return hash;
+  }
+}
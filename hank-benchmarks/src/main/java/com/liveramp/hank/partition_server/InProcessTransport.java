@@ -0,0 +1,83 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.io.ByteArrayOutputStream;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.TProcessor;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+
+/**
+ * Client side transport that hands each request directly to a processor, in the calling thread,
+ * on flush. This measures serialization and request processing without any networking.
+ */
+class InProcessTransport extends TTransport {
+
+  private final TProcessor processor;
+  private final ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+  private final ByteArrayOutputStream responseBytes = new ByteArrayOutputStream();
+  private final TMemoryInputTransport serverInputTransport = new TMemoryInputTransport();
+  private final TProtocol serverInputProtocol = new TCompactProtocol(serverInputTransport);
+  private final TProtocol serverOutputProtocol = new TCompactProtocol(new TIOStreamTransport(responseBytes));
+  private final TMemoryInputTransport responseTransport = new TMemoryInputTransport();
+
+  public InProcessTransport(TProcessor processor) {
+    this.processor = processor;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return true;
+  }
+
+  @Override
+  public void open() throws TTransportException {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  @Override
+  public int read(byte[] buf, int off, int len) throws TTransportException {
+    return responseTransport.read(buf, off, len);
+  }
+
+  @Override
+  public void write(byte[] buf, int off, int len) throws TTransportException {
+    requestBytes.write(buf, off, len);
+  }
+
+  @Override
+  public void flush() throws TTransportException {
+    serverInputTransport.reset(requestBytes.toByteArray());
+    requestBytes.reset();
+    responseBytes.reset();
+    try {
+      processor.process(serverInputProtocol, serverOutputProtocol);
+    } catch (TException e) {
+      throw new TTransportException(e);
+    }
+    responseTransport.reset(responseBytes.toByteArray());
+  }
+}
@@ -0,0 +1,236 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liveramp.hank.benchmark.BenchmarkDatasets;
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.config.BaseReaderConfigurator;
+import com.liveramp.hank.config.ReaderConfigurator;
+import com.liveramp.hank.config.SimpleDataDirectoriesConfigurator;
+import com.liveramp.hank.coordinator.Coordinator;
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.coordinator.DomainAndVersion;
+import com.liveramp.hank.coordinator.Host;
+import com.liveramp.hank.coordinator.HostDomain;
+import com.liveramp.hank.coordinator.PartitionServerAddress;
+import com.liveramp.hank.coordinator.Ring;
+import com.liveramp.hank.coordinator.RingGroup;
+import com.liveramp.hank.coordinator.mock.MockCoordinator;
+import com.liveramp.hank.coordinator.mock.MockDomain;
+import com.liveramp.hank.coordinator.mock.MockDomainGroup;
+import com.liveramp.hank.generated.HankBulkResponse;
+import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.partitioner.Murmur64Partitioner;
+import com.liveramp.hank.storage.cueball.Cueball;
+import com.liveramp.hank.storage.cueball.TestDomainGenerator;
+import com.liveramp.hank.test.coordinator.MockHost;
+import com.liveramp.hank.test.coordinator.MockHostDomain;
+import com.liveramp.hank.test.coordinator.MockRing;
+import com.liveramp.hank.test.coordinator.MockRingGroup;
+
+/**
+ * PartitionServerHandler GET and GET BULK against a Cueball domain, either calling the handler
+ * directly or going through Thrift serialization over an in-process transport.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PartitionServerHandlerBenchmark {
+
+  private static final int NUM_RECORDS = 1000000;
+  private static final int NUM_PARTITIONS = 4;
+  private static final int KEY_SIZE = 16;
+  private static final int KEY_HASH_SIZE = 10;
+  private static final int VALUE_SIZE = 16;
+  private static final int HASH_INDEX_BITS = 12;
+  private static final int DOMAIN_ID = 0;
+  private static final String RING_GROUP_NAME = "benchmark_ring_group";
+  private static final PartitionServerAddress ADDRESS = new PartitionServerAddress("localhost", 12345);
+
+  @Param({"direct", "in_process"})
+  public String transport;
+
+  @Param({"10", "100"})
+  public int bulkSize;
+
+  @Param({"false", "true"})
+  public boolean getBulkGroupByPartition;
+
+  private File dataDirectory;
+  private PartitionServerHandler handler;
+  private com.liveramp.hank.generated.PartitionServer.Iface iface;
+  private ByteBuffer[] keys;
+  private List<List<ByteBuffer>> bulkRequests;
+  private int nextKeyIndex = 0;
+  private int nextBulkRequestIndex = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dataDirectory = BenchmarkDatasets.createTemporaryDirectory("partition_server_handler_benchmark");
+    Cueball cueball = new Cueball(KEY_HASH_SIZE, new Murmur64Hasher(), VALUE_SIZE, HASH_INDEX_BITS, "", null,
+        NoCueballCompressionCodec.class, new MockDomain(BenchmarkDatasets.DOMAIN_NAME), 0, false);
+    keys = BenchmarkDatasets.toByteBuffers(BenchmarkDatasets.getAllKeys(TestDomainGenerator.generate(cueball,
+        BenchmarkDatasets.getRemoteDomainRoot(dataDirectory), NUM_RECORDS, KEY_SIZE, KEY_HASH_SIZE, VALUE_SIZE,
+        new Murmur64Hasher(), NUM_PARTITIONS, new Murmur64Partitioner())));
+    BenchmarkDatasets.shuffle(keys);
+    bulkRequests = new ArrayList<List<ByteBuffer>>();
+    for (int i = 0; i + bulkSize <= keys.length; i += bulkSize) {
+      bulkRequests.add(new ArrayList<ByteBuffer>(Arrays.asList(keys).subList(i, i + bulkSize)));
+    }
+
+    final Domain domain = new MockDomain(BenchmarkDatasets.DOMAIN_NAME, DOMAIN_ID, NUM_PARTITIONS,
+        new Murmur64Partitioner(), cueball, null, null);
+    handler = new PartitionServerHandler(ADDRESS, new BenchmarkPartitionServerConfigurator(dataDirectory, getBulkGroupByPartition),
+        getCoordinator(domain));
+
+    if (transport.equals("direct")) {
+      iface = handler;
+    } else if (transport.equals("in_process")) {
+      iface = new com.liveramp.hank.generated.PartitionServer.Client(new TCompactProtocol(
+          new InProcessTransport(new com.liveramp.hank.generated.PartitionServer.Processor(handler))));
+    } else {
+      throw new IllegalArgumentException("Unknown transport: " + transport);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    handler.shutDown();
+    FileUtils.deleteDirectory(dataDirectory);
+  }
+
+  @Benchmark
+  public HankResponse get() throws TException {
+    ByteBuffer key = keys[nextKeyIndex];
+    if (++nextKeyIndex == keys.length) {
+      nextKeyIndex = 0;
+    }
+    return iface.get(DOMAIN_ID, key);
+  }
+
+  @Benchmark
+  public HankBulkResponse getBulk() throws TException {
+    List<ByteBuffer> bulkRequest = bulkRequests.get(nextBulkRequestIndex);
+    if (++nextBulkRequestIndex == bulkRequests.size()) {
+      nextBulkRequestIndex = 0;
+    }
+    return iface.getBulk(DOMAIN_ID, bulkRequest);
+  }
+
+  // All partitions of the given domain are served at version 0 by the host at ADDRESS
+  private static Coordinator getCoordinator(final Domain domain) {
+    final Host host = new MockHost(ADDRESS) {
+      @Override
+      public HostDomain getHostDomain(Domain domain) {
+        int[] partitionNumberAndVersionPairs = new int[2 * NUM_PARTITIONS];
+        for (int i = 0; i < NUM_PARTITIONS; ++i) {
+          partitionNumberAndVersionPairs[2 * i] = i;
+          partitionNumberAndVersionPairs[2 * i + 1] = 0;
+        }
+        return new MockHostDomain(domain, partitionNumberAndVersionPairs);
+      }
+    };
+    final MockDomainGroup domainGroup = new MockDomainGroup("benchmark_domain_group") {
+      @Override
+      public Set<DomainAndVersion> getDomainVersions() throws IOException {
+        return Collections.singleton(new DomainAndVersion(domain, 0));
+      }
+    };
+    final MockRingGroup ringGroup = new MockRingGroup(domainGroup, RING_GROUP_NAME, null);
+    final Ring ring = new MockRing(null, ringGroup, 0) {
+      @Override
+      public Host getHostByAddress(PartitionServerAddress address) {
+        return host;
+      }
+    };
+    return new MockCoordinator() {
+      @Override
+      public RingGroup getRingGroup(String ringGroupName) {
+        return new MockRingGroup(domainGroup, RING_GROUP_NAME, null) {
+          @Override
+          public Ring getRingForHost(PartitionServerAddress hostAddress) {
+            return ring;
+          }
+        };
+      }
+    };
+  }
+
+  private static class BenchmarkPartitionServerConfigurator extends MockPartitionServerConfigurator {
+
+    private final File dataDirectory;
+    private final boolean getBulkGroupByPartition;
+
+    public BenchmarkPartitionServerConfigurator(File dataDirectory, boolean getBulkGroupByPartition) {
+      super(ADDRESS.getPortNumber(), null, RING_GROUP_NAME, dataDirectory.getAbsolutePath());
+      this.dataDirectory = dataDirectory;
+      this.getBulkGroupByPartition = getBulkGroupByPartition;
+    }
+
+    @Override
+    public int getNumConcurrentGetBulkTasks() {
+      return 4;
+    }
+
+    @Override
+    public int getGetBulkTaskSize() {
+      return 16;
+    }
+
+    @Override
+    public boolean getGetBulkGroupByPartition() {
+      return getBulkGroupByPartition;
+    }
+
+    @Override
+    public ReaderConfigurator getReaderConfigurator(int numTotalPartitions) {
+      return new BaseReaderConfigurator(new SimpleDataDirectoriesConfigurator(dataDirectory.getAbsolutePath()),
+          0, 0, 0, 1, numTotalPartitions);
+    }
+  }
+}
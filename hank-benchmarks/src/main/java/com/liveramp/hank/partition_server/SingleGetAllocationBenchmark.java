@@ -0,0 +1,254 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.liveramp.commons.util.BytesUtils;
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.config.PartitionServerConfigurator;
+import com.liveramp.hank.config.ReaderConfigurator;
+import com.liveramp.hank.coordinator.Coordinator;
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.coordinator.Host;
+import com.liveramp.hank.coordinator.PartitionServerAddress;
+import com.liveramp.hank.coordinator.Ring;
+import com.liveramp.hank.coordinator.RingGroup;
+import com.liveramp.hank.coordinator.mock.MockCoordinator;
+import com.liveramp.hank.coordinator.mock.MockDomain;
+import com.liveramp.hank.coordinator.mock.MockDomainGroup;
+import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.partitioner.Murmur64Partitioner;
+import com.liveramp.hank.storage.Reader;
+import com.liveramp.hank.storage.StorageEngine;
+import com.liveramp.hank.storage.cueball.Cueball;
+import com.liveramp.hank.storage.cueball.CueballReader;
+import com.liveramp.hank.storage.cueball.CueballWriter;
+import com.liveramp.hank.storage.mock.MockStorageEngine;
+import com.liveramp.hank.test.coordinator.MockHost;
+import com.liveramp.hank.test.coordinator.MockRing;
+import com.liveramp.hank.test.coordinator.MockRingGroup;
+
+/**
+ * Measures the single key GET path from PartitionServerHandler.get() down to the Reader,
+ * with a handler set up on mock coordinator objects and serving a real Cueball partition.
+ * <p/>
+ * Run the main method to fail if the steady state allocates on the heap, as measured
+ * by the JMH GC profiler.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SingleGetAllocationBenchmark {
+
+  // Some slack for the profiler's own noise
+  private static final double MAX_ALLOCATED_BYTES_PER_GET = 1.0;
+
+  private static final int NUM_RECORDS = 100000;
+  private static final int KEY_SIZE = 16;
+  private static final int KEY_HASH_SIZE = 10;
+  private static final int VALUE_SIZE = 16;
+  private static final int HASH_INDEX_BITS = 12;
+  private static final int DOMAIN_ID = 0;
+  private static final PartitionServerAddress ADDRESS = new PartitionServerAddress("localhost", 12345);
+
+  @Param({"false", "true"})
+  public boolean memoryMapped;
+
+  @Param({"0", "67108864"})
+  public long valueCacheNumBytesCapacity;
+
+  private File partitionRoot;
+  private PartitionServerHandler handler;
+  // Every other key is not in the partition
+  private ByteBuffer[] keys;
+  private int nextKeyIndex = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    partitionRoot = File.createTempFile("single_get_allocation_benchmark", "");
+    if (!partitionRoot.delete() || !partitionRoot.mkdirs()) {
+      throw new IOException("Could not create directory " + partitionRoot);
+    }
+    keys = writePartition(partitionRoot.getAbsolutePath());
+    handler = createHandler(partitionRoot.getAbsolutePath(), memoryMapped, valueCacheNumBytesCapacity);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    handler.shutDown();
+    FileUtils.deleteDirectory(partitionRoot);
+  }
+
+  @Benchmark
+  public HankResponse get() {
+    ByteBuffer key = keys[nextKeyIndex];
+    if (++nextKeyIndex == keys.length) {
+      nextKeyIndex = 0;
+    }
+    return handler.get(DOMAIN_ID, key);
+  }
+
+  // A handler serving a single domain with a single partition, read from the given directory
+  private static PartitionServerHandler createHandler(final String partitionRoot,
+                                                      final boolean memoryMapped,
+                                                      final long valueCacheNumBytesCapacity) throws IOException {
+    StorageEngine storageEngine = new MockStorageEngine() {
+      @Override
+      public Reader getReader(ReaderConfigurator configurator, int partitionNumber) throws IOException {
+        return new CueballReader(partitionRoot, KEY_HASH_SIZE, new Murmur64Hasher(),
+            VALUE_SIZE, HASH_INDEX_BITS, new NoCueballCompressionCodec(), 0, 0, memoryMapped, 1, 0, false);
+      }
+    };
+    Domain domain = new MockDomain("benchmark", DOMAIN_ID, 1, new Murmur64Partitioner(), storageEngine, null, null);
+    MockDomainGroup domainGroup = new MockDomainGroup("benchmark");
+    domainGroup.setDomainVersion(domain, 0);
+    MockHost host = new MockHost(ADDRESS);
+    host.addMockDomain(domain, 0, 0);
+    final Set<Ring> rings = new HashSet<Ring>();
+    final RingGroup ringGroup = new MockRingGroup(domainGroup, "benchmark", rings) {
+      @Override
+      public Ring getRingForHost(PartitionServerAddress hostAddress) {
+        return rings.iterator().next();
+      }
+    };
+    rings.add(new MockRing(Collections.<Host>singleton(host), ringGroup, 0));
+    Coordinator coordinator = new MockCoordinator() {
+      @Override
+      public RingGroup getRingGroup(String ringGroupName) {
+        return ringGroup;
+      }
+    };
+    PartitionServerConfigurator configurator = new MockPartitionServerConfigurator(ADDRESS.getPortNumber(),
+        coordinator, "benchmark", partitionRoot) {
+      // No timer aggregation: logging aggregated statistics allocates, even though it is amortized
+      @Override
+      public int getGetTimerAggregatorWindow() {
+        return 0;
+      }
+
+      // Keep reusing the thread local result buffer
+      @Override
+      public int getBufferReuseMaxSize() {
+        return Integer.MAX_VALUE;
+      }
+
+      @Override
+      public long getValueCacheNumBytesCapacity() {
+        return valueCacheNumBytesCapacity;
+      }
+    };
+    return new PartitionServerHandler(ADDRESS, configurator, coordinator);
+  }
+
+  // Write a Cueball base of random records, and return keys to look up
+  private static ByteBuffer[] writePartition(String partitionRoot) throws IOException {
+    Random random = new Random(7);
+    Murmur64Hasher hasher = new Murmur64Hasher();
+    byte[][] keyHashes = new byte[NUM_RECORDS][];
+    ByteBuffer[] keys = new ByteBuffer[2 * NUM_RECORDS];
+    for (int i = 0; i < NUM_RECORDS; ++i) {
+      byte[] key = new byte[KEY_SIZE];
+      random.nextBytes(key);
+      keyHashes[i] = new byte[KEY_HASH_SIZE];
+      hasher.hash(ByteBuffer.wrap(key), KEY_HASH_SIZE, keyHashes[i]);
+      keys[2 * i] = ByteBuffer.wrap(key);
+      byte[] missingKey = new byte[KEY_SIZE];
+      random.nextBytes(missingKey);
+      keys[2 * i + 1] = ByteBuffer.wrap(missingKey);
+    }
+    // Records must be written in key hash order
+    Arrays.sort(keyHashes, new Comparator<byte[]>() {
+      @Override
+      public int compare(byte[] a, byte[] b) {
+        return BytesUtils.compareBytesUnsigned(a, 0, b, 0, KEY_HASH_SIZE);
+      }
+    });
+    CueballWriter writer = new CueballWriter(
+        new FileOutputStream(partitionRoot + "/" + Cueball.getName(0, true)),
+        KEY_HASH_SIZE, hasher, VALUE_SIZE, new NoCueballCompressionCodec(), HASH_INDEX_BITS);
+    byte[] value = new byte[VALUE_SIZE];
+    for (byte[] keyHash : keyHashes) {
+      random.nextBytes(value);
+      writer.writeHash(ByteBuffer.wrap(keyHash), ByteBuffer.wrap(value));
+    }
+    writer.close();
+    return keys;
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    Options options = new OptionsBuilder()
+        .include(SingleGetAllocationBenchmark.class.getName())
+        .addProfiler(GCProfiler.class)
+        .build();
+    Collection<RunResult> runResults = new Runner(options).run();
+    for (RunResult runResult : runResults) {
+      BenchmarkParams params = runResult.getParams();
+      for (Map.Entry<String, Result> entry : runResult.getSecondaryResults().entrySet()) {
+        // Normalized allocation rate, in bytes per operation
+        if (entry.getKey().endsWith("gc.alloc.rate.norm")) {
+          double allocatedBytesPerGet = entry.getValue().getScore();
+          System.out.println(String.format("memoryMapped=%s, valueCacheNumBytesCapacity=%s: %.2f bytes allocated per GET",
+              params.getParam("memoryMapped"), params.getParam("valueCacheNumBytesCapacity"), allocatedBytesPerGet));
+          if (allocatedBytesPerGet > MAX_ALLOCATED_BYTES_PER_GET) {
+            throw new IllegalStateException("Single GET path allocates " + allocatedBytesPerGet
+                + " bytes per operation, expected at most " + MAX_ALLOCATED_BYTES_PER_GET);
+          }
+        }
+      }
+    }
+  }
+}
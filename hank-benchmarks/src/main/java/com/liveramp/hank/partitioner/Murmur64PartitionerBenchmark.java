@@ -0,0 +1,76 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partitioner;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Murmur64Partitioner assigning keys of various lengths to partitions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Murmur64PartitionerBenchmark {
+
+  private static final int NUM_KEYS = 1024;
+
+  @Param({"8", "32", "256"})
+  public int keyLength;
+
+  @Param({"32", "1024"})
+  public int numPartitions;
+
+  private final Murmur64Partitioner partitioner = new Murmur64Partitioner();
+  private ByteBuffer[] keys;
+  private int nextKeyIndex = 0;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    Random random = new Random(13);
+    keys = new ByteBuffer[NUM_KEYS];
+    for (int i = 0; i < NUM_KEYS; ++i) {
+      byte[] key = new byte[keyLength];
+      random.nextBytes(key);
+      keys[i] = ByteBuffer.wrap(key);
+    }
+  }
+
+  @Benchmark
+  public int partition() {
+    ByteBuffer key = keys[nextKeyIndex];
+    nextKeyIndex = (nextKeyIndex + 1) & (NUM_KEYS - 1);
+    return partitioner.partition(key, numPartitions);
+  }
+}
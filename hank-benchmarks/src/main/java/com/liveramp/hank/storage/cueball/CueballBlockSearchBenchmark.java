@@ -0,0 +1,118 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.storage.cueball;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liveramp.hank.benchmark.BenchmarkDatasets;
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.config.BaseReaderConfigurator;
+import com.liveramp.hank.config.SimpleDataDirectoriesConfigurator;
+import com.liveramp.hank.coordinator.mock.MockDomain;
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.partitioner.Murmur64Partitioner;
+import com.liveramp.hank.storage.Reader;
+import com.liveramp.hank.storage.ReaderResult;
+
+/**
+ * CueballReader GET with a linear scan or a binary search of blocks, for different numbers of records per block.
+ * Blocks are uncompressed and memory mapped, and the cache is disabled, so that lookups are dominated by the search.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CueballBlockSearchBenchmark {
+
+  static final int KEY_SIZE = 16;
+  static final int KEY_HASH_SIZE = 10;
+  static final int VALUE_SIZE = 16;
+  static final int HASH_INDEX_BITS = 12;
+
+  @Param({"hit", "miss"})
+  public String lookup;
+
+  // Average number of records per block
+  @Param({"4", "32", "256"})
+  public int blockFill;
+
+  @Param({"false", "true"})
+  public boolean binarySearchBlocks;
+
+  private File dataDirectory;
+  private Reader reader;
+  private ByteBuffer[] keys;
+  private int nextKeyIndex = 0;
+  private final ReaderResult result = new ReaderResult();
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dataDirectory = BenchmarkDatasets.createTemporaryDirectory("cueball_block_search_benchmark");
+    Cueball cueball = new Cueball(KEY_HASH_SIZE, new Murmur64Hasher(), VALUE_SIZE, HASH_INDEX_BITS, "", null,
+        NoCueballCompressionCodec.class, new MockDomain(BenchmarkDatasets.DOMAIN_NAME), 0, true, binarySearchBlocks);
+    ByteBuffer[] writtenKeys = BenchmarkDatasets.toByteBuffers(TestDomainGenerator.generate(cueball,
+        BenchmarkDatasets.getRemoteDomainRoot(dataDirectory), blockFill << HASH_INDEX_BITS, KEY_SIZE, KEY_HASH_SIZE,
+        VALUE_SIZE, new Murmur64Hasher(), 1, new Murmur64Partitioner()).get(0));
+    if (lookup.equals("hit")) {
+      keys = writtenKeys;
+      BenchmarkDatasets.shuffle(keys);
+    } else {
+      keys = BenchmarkDatasets.getMissingKeys(writtenKeys.length, KEY_SIZE);
+    }
+    reader = cueball.getReader(new BaseReaderConfigurator(
+        new SimpleDataDirectoriesConfigurator(dataDirectory.getAbsolutePath()),
+        -1, 0, 0, 1, 1), 0);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.close();
+    FileUtils.deleteDirectory(dataDirectory);
+  }
+
+  @Benchmark
+  public ReaderResult get() throws IOException {
+    ByteBuffer key = keys[nextKeyIndex];
+    if (++nextKeyIndex == keys.length) {
+      nextKeyIndex = 0;
+    }
+    result.clear();
+    reader.get(key, result);
+    return result;
+  }
+}
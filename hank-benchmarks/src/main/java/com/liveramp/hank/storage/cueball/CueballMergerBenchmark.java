@@ -0,0 +1,135 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage.cueball;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liveramp.hank.benchmark.BenchmarkDatasets;
+import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
+import com.liveramp.hank.coordinator.mock.MockDomainVersion;
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.partitioner.Murmur64Partitioner;
+import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.Writer;
+import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
+
+/**
+ * CueballMerger merging a base with a number of deltas into a new base. Each delta
+ * updates a disjoint subset of the base's keys. mergeSort only reads the merged records,
+ * without writing the new base.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CueballMergerBenchmark {
+
+  private static final int NUM_RECORDS = 1000000;
+
+  @Param({"1", "8", "32", "128"})
+  public int numDeltas;
+
+  @Param({"none", "gzip", "snappy", "lz4"})
+  public String compressionCodec;
+
+  private File dataDirectory;
+  private CueballCompressionCodec codec;
+  private CueballFilePath base;
+  private List<CueballFilePath> deltas;
+  private String newBasePath;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, InstantiationException, IllegalAccessException {
+    dataDirectory = BenchmarkDatasets.createTemporaryDirectory("cueball_merger_benchmark");
+    codec = CueballReaderBenchmark.getCompressionCodecClass(compressionCodec).newInstance();
+    Cueball cueball = CueballReaderBenchmark.getCueball(compressionCodec, false);
+    String remoteDomainRoot = BenchmarkDatasets.getRemoteDomainRoot(dataDirectory);
+    LocalPartitionRemoteFileOps partitionRemoteFileOps = new LocalPartitionRemoteFileOps(remoteDomainRoot, 0);
+    String partitionRoot = remoteDomainRoot + "/0";
+
+    List<byte[]> keys = TestDomainGenerator.generate(cueball, remoteDomainRoot, NUM_RECORDS,
+        CueballReaderBenchmark.KEY_SIZE, CueballReaderBenchmark.KEY_HASH_SIZE, CueballReaderBenchmark.VALUE_SIZE,
+        new Murmur64Hasher(), 1, new Murmur64Partitioner()).get(0);
+    base = new CueballFilePath(partitionRoot + "/" + Cueball.getName(0, true));
+
+    // Delta i is version i + 1 and contains every numDeltas-th key, starting at key i (still in key hash order)
+    deltas = new ArrayList<CueballFilePath>();
+    Random random = new Random(5);
+    byte[] value = new byte[CueballReaderBenchmark.VALUE_SIZE];
+    for (int i = 0; i < numDeltas; ++i) {
+      Writer writer = cueball.getWriter(new MockDomainVersion(i + 1, 0L, new IncrementalDomainVersionProperties.Delta(i)),
+          partitionRemoteFileOps, 0);
+      for (int k = i; k < keys.size(); k += numDeltas) {
+        random.nextBytes(value);
+        writer.write(ByteBuffer.wrap(keys.get(k)), ByteBuffer.wrap(value));
+      }
+      writer.close();
+      deltas.add(new CueballFilePath(partitionRoot + "/" + Cueball.getName(i + 1, false)));
+    }
+    newBasePath = partitionRoot + "/" + Cueball.getName(numDeltas + 1, true);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(dataDirectory);
+  }
+
+  @Benchmark
+  public void merge() throws IOException {
+    new CueballMerger().merge(base, deltas, newBasePath, CueballReaderBenchmark.KEY_HASH_SIZE,
+        CueballReaderBenchmark.VALUE_SIZE, null, CueballReaderBenchmark.HASH_INDEX_BITS, codec);
+  }
+
+  @Benchmark
+  public int mergeSort() throws IOException {
+    CueballStreamBufferMergeSort mergeSort = new CueballStreamBufferMergeSort(base, deltas,
+        CueballReaderBenchmark.KEY_HASH_SIZE, CueballReaderBenchmark.VALUE_SIZE,
+        CueballReaderBenchmark.HASH_INDEX_BITS, codec, null);
+    int numRecords = 0;
+    try {
+      while (mergeSort.nextKeyHashAndValueAndStreamIndex() != null) {
+        ++numRecords;
+      }
+    } finally {
+      mergeSort.close();
+    }
+    return numRecords;
+  }
+}
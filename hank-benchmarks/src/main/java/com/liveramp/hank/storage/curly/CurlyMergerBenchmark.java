@@ -0,0 +1,117 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage.curly;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liveramp.hank.benchmark.BenchmarkDatasets;
+import com.liveramp.hank.coordinator.mock.MockDomainVersion;
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.partitioner.Murmur64Partitioner;
+import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.Writer;
+import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
+
+/**
+ * CurlyMerger appending a number of delta record files to a base record file.
+ * Since the merge modifies the base, a fresh copy of it is made before each invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CurlyMergerBenchmark {
+
+  private static final int NUM_RECORDS = 1000000;
+
+  @Param({"1", "8", "32"})
+  public int numDeltas;
+
+  private File dataDirectory;
+  private LocalPartitionRemoteFileOps partitionRemoteFileOps;
+  private File pristineBase;
+  private CurlyFilePath base;
+  private List<String> deltaRemoteFiles;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dataDirectory = BenchmarkDatasets.createTemporaryDirectory("curly_merger_benchmark");
+    Curly curly = CurlyReaderBenchmark.getCurly("none");
+    String remoteDomainRoot = BenchmarkDatasets.getRemoteDomainRoot(dataDirectory);
+    partitionRemoteFileOps = new LocalPartitionRemoteFileOps(remoteDomainRoot, 0);
+    String partitionRoot = remoteDomainRoot + "/0";
+
+    List<byte[]> keys = TestDomainGenerator.generate(curly, remoteDomainRoot, NUM_RECORDS,
+        CurlyReaderBenchmark.KEY_SIZE, CurlyReaderBenchmark.KEY_HASH_SIZE, CurlyReaderBenchmark.VALUE_SIZE,
+        new Murmur64Hasher(), 1, new Murmur64Partitioner()).get(0);
+    pristineBase = new File(partitionRoot + "/" + Curly.getName(0, true));
+    base = new CurlyFilePath(partitionRoot + "/" + Curly.getName(numDeltas + 1, true));
+
+    // Delta i is version i + 1 and contains every numDeltas-th key, starting at key i (still in key hash order)
+    deltaRemoteFiles = new ArrayList<String>();
+    Random random = new Random(5);
+    byte[] value = new byte[CurlyReaderBenchmark.VALUE_SIZE];
+    for (int i = 0; i < numDeltas; ++i) {
+      Writer writer = curly.getWriter(new MockDomainVersion(i + 1, 0L, new IncrementalDomainVersionProperties.Delta(i)),
+          partitionRemoteFileOps, 0);
+      for (int k = i; k < keys.size(); k += numDeltas) {
+        random.nextBytes(value);
+        writer.write(ByteBuffer.wrap(keys.get(k)), ByteBuffer.wrap(value));
+      }
+      writer.close();
+      deltaRemoteFiles.add(Curly.getName(i + 1, false));
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void copyBase() throws IOException {
+    FileUtils.copyFile(pristineBase, new File(base.getPath()));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(dataDirectory);
+  }
+
+  @Benchmark
+  public long[] merge() throws IOException {
+    return new CurlyMerger().merge(base, deltaRemoteFiles, partitionRemoteFileOps);
+  }
+}
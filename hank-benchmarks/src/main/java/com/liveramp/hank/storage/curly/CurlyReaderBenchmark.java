@@ -0,0 +1,133 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage.curly;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liveramp.hank.benchmark.BenchmarkDatasets;
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.config.BaseReaderConfigurator;
+import com.liveramp.hank.config.SimpleDataDirectoriesConfigurator;
+import com.liveramp.hank.coordinator.mock.MockDomain;
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.partitioner.Murmur64Partitioner;
+import com.liveramp.hank.storage.Reader;
+import com.liveramp.hank.storage.ReaderResult;
+
+/**
+ * CurlyReader GET, for keys that are in the partition (hit) or not (miss),
+ * with or without block compression and cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CurlyReaderBenchmark {
+
+  static final int NUM_RECORDS = 1000000;
+  static final int KEY_SIZE = 16;
+  static final int KEY_HASH_SIZE = 10;
+  static final int VALUE_SIZE = 64;
+  static final int HASH_INDEX_BITS = 12;
+  static final long MAX_ALLOWED_PART_SIZE = 10L * 1024 * 1024 * 1024;
+  static final int RECORD_FILE_READ_BUFFER_BYTES = 32 * 1024;
+  static final int COMPRESSED_BLOCK_SIZE_THRESHOLD = 8 * 1024;
+  static final int OFFSET_IN_BLOCK_NUM_BYTES = 2;
+
+  @Param({"hit", "miss"})
+  public String lookup;
+
+  @Param({"none", "DEFLATE", "ZSTD"})
+  public String blockCompressionCodec;
+
+  @Param({"0", "100000"})
+  public long cacheNumItemsCapacity;
+
+  private File dataDirectory;
+  private Reader reader;
+  private ByteBuffer[] keys;
+  private int nextKeyIndex = 0;
+  private final ReaderResult result = new ReaderResult();
+
+  static Curly getCurly(String blockCompressionCodec) {
+    if (blockCompressionCodec.equals("none")) {
+      return new Curly(KEY_HASH_SIZE, new Murmur64Hasher(), MAX_ALLOWED_PART_SIZE, HASH_INDEX_BITS,
+          RECORD_FILE_READ_BUFFER_BYTES, "", null, NoCueballCompressionCodec.class,
+          new MockDomain(BenchmarkDatasets.DOMAIN_NAME), 0, -1, null, -1, -1);
+    } else {
+      return new Curly(KEY_HASH_SIZE, new Murmur64Hasher(), MAX_ALLOWED_PART_SIZE, HASH_INDEX_BITS,
+          RECORD_FILE_READ_BUFFER_BYTES, "", null, NoCueballCompressionCodec.class,
+          new MockDomain(BenchmarkDatasets.DOMAIN_NAME), 0, -1, CurlyBlockCompressionCodec.valueOf(blockCompressionCodec),
+          COMPRESSED_BLOCK_SIZE_THRESHOLD, OFFSET_IN_BLOCK_NUM_BYTES);
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dataDirectory = BenchmarkDatasets.createTemporaryDirectory("curly_reader_benchmark");
+    Curly curly = getCurly(blockCompressionCodec);
+    ByteBuffer[] writtenKeys = BenchmarkDatasets.toByteBuffers(TestDomainGenerator.generate(curly,
+        BenchmarkDatasets.getRemoteDomainRoot(dataDirectory), NUM_RECORDS, KEY_SIZE, KEY_HASH_SIZE, VALUE_SIZE,
+        new Murmur64Hasher(), 1, new Murmur64Partitioner()).get(0));
+    if (lookup.equals("hit")) {
+      keys = writtenKeys;
+      BenchmarkDatasets.shuffle(keys);
+    } else {
+      keys = BenchmarkDatasets.getMissingKeys(writtenKeys.length, KEY_SIZE);
+    }
+    reader = curly.getReader(new BaseReaderConfigurator(
+        new SimpleDataDirectoriesConfigurator(dataDirectory.getAbsolutePath()),
+        -1, cacheNumItemsCapacity, 0, 1, 1), 0);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.close();
+    FileUtils.deleteDirectory(dataDirectory);
+  }
+
+  @Benchmark
+  public ReaderResult get() throws IOException {
+    ByteBuffer key = keys[nextKeyIndex];
+    if (++nextKeyIndex == keys.length) {
+      nextKeyIndex = 0;
+    }
+    result.clear();
+    reader.get(key, result);
+    return result;
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage.curly;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liveramp.hank.benchmark.BenchmarkDatasets;
+import com.liveramp.hank.coordinator.mock.MockDomainVersion;
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.partitioner.Murmur64Partitioner;
+import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.Writer;
+import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
+
+/**
+ * CurlyWriter throughput, in records written per second. Each invocation writes
+ * a full base (record file and key file) for a single partition.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CurlyWriterBenchmark {
+
+  private static final int NUM_RECORDS = 100000;
+
+  @Param({"none", "DEFLATE"})
+  public String blockCompressionCodec;
+
+  private File dataDirectory;
+  private Curly curly;
+  private LocalPartitionRemoteFileOps partitionRemoteFileOps;
+  private ByteBuffer[] keys;
+  private ByteBuffer[] values;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dataDirectory = BenchmarkDatasets.createTemporaryDirectory("curly_writer_benchmark");
+    curly = CurlyReaderBenchmark.getCurly(blockCompressionCodec);
+    String remoteDomainRoot = BenchmarkDatasets.getRemoteDomainRoot(dataDirectory);
+    // Keys come back in key hash order, which is the order in which they must be written
+    keys = BenchmarkDatasets.toByteBuffers(TestDomainGenerator.generate(curly, remoteDomainRoot, NUM_RECORDS,
+        CurlyReaderBenchmark.KEY_SIZE, CurlyReaderBenchmark.KEY_HASH_SIZE, CurlyReaderBenchmark.VALUE_SIZE,
+        new Murmur64Hasher(), 1, new Murmur64Partitioner()).get(0));
+    values = new ByteBuffer[keys.length];
+    Random random = new Random(3);
+    for (int i = 0; i < values.length; ++i) {
+      byte[] value = new byte[CurlyReaderBenchmark.VALUE_SIZE];
+      random.nextBytes(value);
+      values[i] = ByteBuffer.wrap(value);
+    }
+    partitionRemoteFileOps = new LocalPartitionRemoteFileOps(remoteDomainRoot, 0);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(dataDirectory);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM_RECORDS)
+  public long write() throws IOException {
+    Writer writer = curly.getWriter(new MockDomainVersion(1, 0L, new IncrementalDomainVersionProperties.Base()),
+        partitionRemoteFileOps, 0);
+    for (int i = 0; i < keys.length; ++i) {
+      keys[i].rewind();
+      values[i].rewind();
+      writer.write(keys[i], values[i]);
+    }
+    writer.close();
+    return writer.getNumBytesWritten();
+  }
+}
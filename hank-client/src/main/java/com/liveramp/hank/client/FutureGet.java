@@ -23,7 +23,7 @@ import org.apache.log4j.Logger;
 import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
 
-public class FutureGet extends FutureTask<Object> {
+public class FutureGet extends FutureTask<Object> implements GetCallback {
 
   private static final Logger LOG = Logger.getLogger(FutureGet.class);
 
@@ -34,6 +34,32 @@ public class FutureGet extends FutureTask<Object> {
     this.runnable = runnable;
   }
 
+  // Create a FutureGet that is not executed, but completed by a call to onComplete()
+  FutureGet() {
+    this(new CallbackGetTaskRunnable());
+  }
+
+  @Override
+  public void onComplete(HankResponse response) {
+    ((CallbackGetTaskRunnable)runnable).response = response;
+    set(null);
+  }
+
+  private static class CallbackGetTaskRunnable implements GetTaskRunnableIface {
+
+    private volatile HankResponse response = null;
+
+    @Override
+    public void run() {
+      // No-op
+    }
+
+    @Override
+    public HankResponse getResponse() {
+      return response;
+    }
+  }
+
   // Wait for termination and return response
   public HankResponse getResponse() {
     try {
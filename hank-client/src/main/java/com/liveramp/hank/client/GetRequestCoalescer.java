@@ -0,0 +1,97 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.liveramp.commons.util.BytesUtils;
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.generated.HankResponse;
+
+/**
+ * Coalesces concurrent GET requests of the same key in the same domain: the first caller sends the request,
+ * and callers requesting the same key while it is in flight are completed with its response.
+ * As with cached responses, the same response instance is shared by all of them.
+ */
+class GetRequestCoalescer {
+
+  private final ConcurrentMap<DomainAndKey, InFlightGet> inFlightGets = new ConcurrentHashMap<DomainAndKey, InFlightGet>();
+
+  // Return null if a request for the same key is already in flight, in which case the given callback will be
+  // completed with its response. Otherwise, the caller must send the request and complete the returned InFlightGet.
+  public InFlightGet join(Domain domain, ByteBuffer key, GetCallback callback) {
+    DomainAndKey domainAndKey = new DomainAndKey(domain, key);
+    while (true) {
+      InFlightGet inFlightGet = inFlightGets.get(domainAndKey);
+      if (inFlightGet == null) {
+        InFlightGet newInFlightGet = new InFlightGet(new DomainAndKey(domain, BytesUtils.byteBufferDeepCopy(key)));
+        inFlightGet = inFlightGets.putIfAbsent(newInFlightGet.domainAndKey, newInFlightGet);
+        if (inFlightGet == null) {
+          return newInFlightGet;
+        }
+      }
+      if (inFlightGet.addWaiter(callback)) {
+        return null;
+      }
+      // The request completed in the meantime, it is no longer in flight
+    }
+  }
+
+  int getNumInFlightGets() {
+    return inFlightGets.size();
+  }
+
+  class InFlightGet {
+
+    private final DomainAndKey domainAndKey;
+    private final List<GetCallback> waiters = new ArrayList<GetCallback>();
+    private boolean isDone = false;
+
+    private InFlightGet(DomainAndKey domainAndKey) {
+      this.domainAndKey = domainAndKey;
+    }
+
+    // Return false if the request has already completed
+    private synchronized boolean addWaiter(GetCallback callback) {
+      if (isDone) {
+        return false;
+      }
+      waiters.add(callback);
+      return true;
+    }
+
+    // Complete all callers that joined this request, outside of any lock
+    public void complete(HankResponse response) {
+      // Remove before completing so that completed requests are never joined
+      inFlightGets.remove(domainAndKey);
+      List<GetCallback> callbacks;
+      synchronized (this) {
+        isDone = true;
+        callbacks = new ArrayList<GetCallback>(waiters);
+        waiters.clear();
+      }
+      for (GetCallback callback : callbacks) {
+        callback.onComplete(response);
+      }
+    }
+  }
+}
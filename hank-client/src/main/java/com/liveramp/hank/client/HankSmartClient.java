@@ -21,14 +21,18 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
+import org.apache.thrift.async.TAsyncClientManager;
 
 import com.liveramp.commons.util.BytesUtils;
 import com.liveramp.hank.config.HankSmartClientConfigurator;
@@ -45,11 +49,13 @@ import com.liveramp.hank.coordinator.RingGroupDataLocationChangeListener;
 import com.liveramp.hank.generated.HankBulkResponse;
 import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
-import com.liveramp.hank.util.AtomicLongCollection;
+import com.liveramp.hank.metrics.Gauge;
+import com.liveramp.hank.metrics.MetricsRegistry;
+import com.liveramp.hank.partition_server.LatencyHistogram;
+import com.liveramp.hank.partition_server.LatencyHistogramRecorder;
 import com.liveramp.hank.util.FormatUtils;
-import com.liveramp.hank.util.HankResponseMemoryUsageEstimator;
 import com.liveramp.hank.util.HankTimer;
-import com.liveramp.hank.util.SynchronizedMemoryBoundCacheExpiring;
+import com.liveramp.hank.util.StripedLongCollection;
 import com.liveramp.hank.util.UpdateStatisticsRunnable;
 
 import static com.liveramp.hank.client.HostConnectionPool.getHostListShuffleSeed;
@@ -61,12 +67,15 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   private static final HankResponse NO_SUCH_DOMAIN = HankResponse.xception(HankException.no_such_domain(true));
   private static final HankBulkResponse NO_SUCH_DOMAIN_BULK = HankBulkResponse.xception(HankException.no_such_domain(true));
   private static final HankResponse NO_REPLICA = HankResponse.xception(HankException.no_replica(true));
+  private static final HankResponse COALESCED_GET_FAILED = HankResponse.xception(HankException.internal_error("Coalesced GET request failed"));
 
   private static final long GET_TASK_EXECUTOR_THREAD_KEEP_ALIVE_TIME = 1;
   private static final TimeUnit GET_TASK_EXECUTOR_THREAD_KEEP_ALIVE_TIME_UNIT = TimeUnit.MINUTES;
   private static final long GET_TASK_EXECUTOR_AWAIT_TERMINATION_VALUE = 1;
   private static final TimeUnit GET_TASK_EXECUTOR_AWAIT_TERMINATION_UNIT = TimeUnit.SECONDS;
   private static final int GET_TASK_EXECUTOR_QUEUE_SIZE = 1024;
+  // Bound on the wait for asynchronous GET BULK batches when no bulk query timeout is configured
+  private static final long GET_BULK_ASYNC_MAX_WAIT_MS = TimeUnit.MINUTES.toMillis(1);
 
   private static final int UPDATE_RUNTIME_STATISTICS_THREAD_SLEEP_TIME_MS_DEFAULT = 30000;
   private static final int UPDATE_RUNTIME_STATISTICS_NUM_MEASUREMENTS = 3;
@@ -82,13 +91,26 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   private final int establishConnectionTimeoutMs;
   private final int queryTimeoutMs;
   private final int bulkQueryTimeoutMs;
+  private final ReplicaSelection replicaSelection;
 
-  private final SynchronizedMemoryBoundCacheExpiring<DomainAndKey, HankResponse> responseCache;
+  private final ResponseCache responseCache;
+  private final MetricsRegistry metricsRegistry = new MetricsRegistry();
   // 0: num queries
   // 1: num cache hits
-  private final AtomicLongCollection requestsCounters;
+  private final StripedLongCollection requestsCounters;
+  // Client-side latencies of synchronous GET and GET BULK requests
+  private final LatencyHistogramRecorder getRequestsLatencyRecorder = new LatencyHistogramRecorder();
+  private final LatencyHistogramRecorder getBulkRequestsLatencyRecorder = new LatencyHistogramRecorder();
 
   private final ThreadPoolExecutor getTaskExecutor;
+  // Null when asynchronous connections are not enabled
+  private final TAsyncClientManager asyncClientManager;
+  private final ThreadPoolExecutor asyncCallbackExecutor;
+  private final int asyncMaxNumCallsInFlightPerConnection;
+  // Null when hedging is not enabled
+  private final RequestHedger requestHedger;
+  // Null when request coalescing is not enabled
+  private final GetRequestCoalescer requestCoalescer;
 
   private final UpdateRuntimeStatisticsRunnable updateRuntimeStatisticsRunnable;
   private final Thread updateRuntimeStatisticsThread;
@@ -155,14 +177,15 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     this.establishConnectionTimeoutMs = options.getEstablishConnectionTimeoutMs();
     this.queryTimeoutMs = options.getQueryTimeoutMs();
     this.bulkQueryTimeoutMs = options.getBulkQueryTimeoutMs();
-    this.responseCache = new SynchronizedMemoryBoundCacheExpiring<DomainAndKey, HankResponse>(
+    this.replicaSelection = options.getReplicaSelection();
+    this.responseCache = new ResponseCache(
         options.getResponseCacheEnabled(),
         options.getResponseCacheNumBytesCapacity(),
         options.getResponseCacheNumItemsCapacity(),
-        options.getResponseCacheExpirationSeconds(),
-        new DomainAndKey.DomainAndKeyMemoryUsageEstimator(),
-        new HankResponseMemoryUsageEstimator());
-    this.requestsCounters = new AtomicLongCollection(2, new long[]{0, 0});
+        options.getResponseCacheConcurrencyLevel(),
+        options.getResponseCacheExpirationSeconds());
+    this.requestsCounters = metricsRegistry.getCounters("client", "requests", "cache_hits");
+    registerGauges();
 
     // This creates a thread pool executor with a specific maximum number of threads.
     // We allow core threads to timeout after the keep alive time. We use a custom bounded
@@ -176,6 +199,38 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         new AlwaysBlockingLinkedBlockingQueue(GET_TASK_EXECUTOR_QUEUE_SIZE));
     getTaskExecutor.allowCoreThreadTimeOut(true);
 
+    // Asynchronous connections are all driven by the selector thread of a single manager
+    // Their callbacks run on a separate pool, so that slow application callbacks do not stall the selector
+    this.asyncMaxNumCallsInFlightPerConnection = options.getAsyncMaxNumCallsInFlightPerConnection();
+    if (options.getAsyncEnabled()) {
+      this.asyncClientManager = new TAsyncClientManager();
+      int asyncCallbackThreadPoolSize = Math.max(1, options.getAsyncCallbackThreadPoolSize());
+      this.asyncCallbackExecutor = new ThreadPoolExecutor(
+          asyncCallbackThreadPoolSize,
+          asyncCallbackThreadPoolSize,
+          GET_TASK_EXECUTOR_THREAD_KEEP_ALIVE_TIME,
+          GET_TASK_EXECUTOR_THREAD_KEEP_ALIVE_TIME_UNIT,
+          new LinkedBlockingQueue<Runnable>(),
+          new AsyncCallbackThreadFactory());
+      asyncCallbackExecutor.allowCoreThreadTimeOut(true);
+    } else {
+      this.asyncClientManager = null;
+      this.asyncCallbackExecutor = null;
+    }
+
+    if (options.getHedgeDelayPercentile() > 0) {
+      this.requestHedger = new RequestHedger(options.getHedgeDelayPercentile(), options.getHedgeMinDelayMs(),
+          options.getHedgeThreadPoolMaxSize(), asyncClientManager != null, RequestHedger.getCounters(metricsRegistry));
+    } else {
+      this.requestHedger = null;
+    }
+
+    if (options.getRequestCoalescingEnabled()) {
+      this.requestCoalescer = new GetRequestCoalescer();
+    } else {
+      this.requestCoalescer = null;
+    }
+
     // Initialize Load statistics runner
     updateRuntimeStatisticsRunnable = new UpdateRuntimeStatisticsRunnable();
     updateRuntimeStatisticsThread = new Thread(updateRuntimeStatisticsRunnable, "Update Load Statistics");
@@ -198,11 +253,13 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         = new HashMap<HostAddress, HostConnectionPool>();
     final Map<Integer, Map<Integer, HostConnectionPool>> newDomainToPartitionToConnectionPool
         = new HashMap<Integer, Map<Integer, HostConnectionPool>>();
+    final Map<Integer, Long> newDomainToServedVersions = new HashMap<Integer, Long>();
 
     // Build new cache
     buildNewConnectionCache(
         newPartitionServerAddressToConnectionPool,
-        newDomainToPartitionToConnectionPool);
+        newDomainToPartitionToConnectionPool,
+        newDomainToServedVersions);
 
     // Switch old cache for new cache
     final Map<HostAddress, HostConnectionPool> oldPartitionServerAddressToConnectionPool
@@ -211,6 +268,8 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       partitionServerAddressToConnectionPool = newPartitionServerAddressToConnectionPool;
       domainToPartitionToConnectionPool = newDomainToPartitionToConnectionPool;
     }
+    // Cached responses of domains whose served versions changed are invalidated
+    responseCache.setServedVersions(newDomainToServedVersions);
 
     // Clean up old cache when new cache is in place
     for (Map.Entry<HostAddress, HostConnectionPool> entry
@@ -271,11 +330,14 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
 
   private void buildNewConnectionCache(
       final Map<HostAddress, HostConnectionPool> newPartitionServerAddressToConnectionPool,
-      final Map<Integer, Map<Integer, HostConnectionPool>> newDomainToPartitionToConnectionPool)
+      final Map<Integer, Map<Integer, HostConnectionPool>> newDomainToPartitionToConnectionPool,
+      final Map<Integer, Long> newDomainToServedVersions)
       throws IOException, TException {
 
     final Map<Integer, Map<Integer, List<HostAddress>>> newDomainToPartitionToPartitionServerAddressList
         = new HashMap<Integer, Map<Integer, List<HostAddress>>>();
+    // Minimum and maximum versions of each domain being served
+    final Map<Integer, int[]> newDomainToServedVersionsRange = new HashMap<Integer, int[]>();
 
     for (Ring ring : ringGroup.getRings()) {
       for (Host host : ring.getHosts()) {
@@ -307,6 +369,15 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
                 partitionToAdresses.put(partition.getPartitionNumber(), partitionsList);
               }
               partitionsList.add(hostAddress);
+              Integer version = partition.getCurrentDomainVersion();
+              int versionNumber = version == null ? -1 : version;
+              int[] servedVersionsRange = newDomainToServedVersionsRange.get(domain.getId());
+              if (servedVersionsRange == null) {
+                newDomainToServedVersionsRange.put(domain.getId(), new int[]{versionNumber, versionNumber});
+              } else {
+                servedVersionsRange[0] = Math.min(servedVersionsRange[0], versionNumber);
+                servedVersionsRange[1] = Math.max(servedVersionsRange[1], versionNumber);
+              }
             }
           }
         }
@@ -320,16 +391,23 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
               + " with connection try lock timeout = " + tryLockConnectionTimeoutMs + "ms"
               + ", connection establishment timeout = " + establishConnectionTimeoutMs + "ms"
               + ", query timeout = " + queryTimeoutMs + "ms"
-              + ", bulk query timeout = " + bulkQueryTimeoutMs + "ms");
+              + ", bulk query timeout = " + bulkQueryTimeoutMs + "ms"
+              + ", asynchronous = " + (asyncClientManager != null));
           List<HostConnection> hostConnections = new ArrayList<HostConnection>(numConnectionsPerHost);
+          // All connections to the host share its load
+          ReplicaLoad load = new ReplicaLoad();
           for (int i = 0; i < numConnectionsPerHost; i++) {
             hostConnections.add(new HostConnection(host,
                 tryLockConnectionTimeoutMs,
                 establishConnectionTimeoutMs,
                 queryTimeoutMs,
-                bulkQueryTimeoutMs));
+                bulkQueryTimeoutMs,
+                asyncClientManager,
+                asyncMaxNumCallsInFlightPerConnection,
+                asyncCallbackExecutor,
+                load));
           }
-          hostConnectionPool = HostConnectionPool.createFromList(hostConnections, null);
+          hostConnectionPool = HostConnectionPool.createFromList(hostConnections, null, replicaSelection);
         }
         newPartitionServerAddressToConnectionPool.put(hostAddress, hostConnectionPool);
       }
@@ -348,10 +426,14 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         }
         Integer partitionId = partitionToAddressesEntry.getKey();
         partitionToConnectionPool.put(partitionId,
-            HostConnectionPool.createFromList(connections, getHostListShuffleSeed(domainId, partitionId)));
+            HostConnectionPool.createFromList(connections, getHostListShuffleSeed(domainId, partitionId), replicaSelection));
       }
       newDomainToPartitionToConnectionPool.put(domainId, partitionToConnectionPool);
     }
+
+    for (Map.Entry<Integer, int[]> entry : newDomainToServedVersionsRange.entrySet()) {
+      newDomainToServedVersions.put(entry.getKey(), ResponseCache.getServedVersions(entry.getValue()[0], entry.getValue()[1]));
+    }
   }
 
   // Synchronous get
@@ -363,7 +445,12 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       LOG.error(getLogPrefix() + "No such Domain: " + domainName);
       return NO_SUCH_DOMAIN;
     }
-    return _get(domain, key);
+    long startTimeNanos = System.nanoTime();
+    try {
+      return _get(domain, key);
+    } finally {
+      getRequestsLatencyRecorder.recordSince(startTimeNanos);
+    }
   }
 
   // Synchronous getBulk
@@ -375,17 +462,12 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       LOG.error(getLogPrefix() + "No such Domain: " + domainName);
       return NO_SUCH_DOMAIN_BULK;
     }
-    // Execute futures
-    List<FutureGet> futureGets = new ArrayList<FutureGet>(keys.size());
-    for (ByteBuffer key : keys) {
-      futureGets.add(_concurrentGet(domain, key));
-    }
-    // Build responses list
-    List<HankResponse> allResponses = new ArrayList<HankResponse>(keys.size());
-    for (FutureGet futureGet : futureGets) {
-      allResponses.add(futureGet.getResponse());
+    long startTimeNanos = System.nanoTime();
+    try {
+      return _getBulk(domain, keys);
+    } finally {
+      getBulkRequestsLatencyRecorder.recordSince(startTimeNanos);
     }
-    return HankBulkResponse.responses(allResponses);
   }
 
   // Asynchronous get
@@ -424,11 +506,116 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
   }
 
   private FutureGet _concurrentGet(Domain domain, ByteBuffer key) {
+    if (asyncClientManager != null) {
+      // Completed by a callback, without using a thread from the executor
+      FutureGet futureGet = new FutureGet();
+      _getAsync(domain, key, futureGet);
+      return futureGet;
+    }
     FutureGet futureGet = new FutureGet(new GetTaskRunnable(domain, key));
     getTaskExecutor.execute(futureGet);
     return futureGet;
   }
 
+  private void _getAsync(final Domain domain, final ByteBuffer key, final GetCallback callback) {
+    // Check for null keys
+    if (key == null) {
+      throw new NullKeyException();
+    }
+    // Check for empty keys
+    if (key.remaining() == 0) {
+      throw new EmptyKeyException();
+    }
+
+    // Responses are cached with the versions served when they were requested
+    final Long servedVersions = responseCache.getServedVersions(domain);
+
+    // Attempt to load from cache
+    HankResponse cachedResponse = responseCache.get(domain, key);
+    if (cachedResponse != null) {
+      // One request, in cache
+      requestsCounters.increment(1, 1);
+      callback.onComplete(cachedResponse);
+      return;
+    }
+
+    // Determine HostConnectionPool to use
+    final int partition = domain.getPartitioner().partition(key, domain.getNumParts());
+    int keyHash = domain.getPartitioner().partition(key, Integer.MAX_VALUE);
+    HostConnectionPool hostConnectionPool = getHostConnectionPool(domain, partition);
+    if (hostConnectionPool == null) {
+      // One request, not in cache
+      requestsCounters.increment(1, 0);
+      callback.onComplete(NO_REPLICA);
+      return;
+    }
+    // Join a request of the same key that is already in flight
+    final GetRequestCoalescer.InFlightGet inFlightGet;
+    if (requestCoalescer != null) {
+      inFlightGet = requestCoalescer.join(domain, key, new GetCallback() {
+        @Override
+        public void onComplete(HankResponse response) {
+          // One request, not in cache
+          requestsCounters.increment(1, 0);
+          callback.onComplete(response);
+        }
+      });
+      if (inFlightGet == null) {
+        return;
+      }
+    } else {
+      inFlightGet = null;
+    }
+    // Perform get
+    GetCallback responseCallback = new GetCallback() {
+      @Override
+      public void onComplete(HankResponse response) {
+        // Cache response if necessary, do not cache exceptions
+        responseCache.put(domain, key, servedVersions, response);
+        if (inFlightGet != null) {
+          inFlightGet.complete(response);
+        }
+        if (response.is_set_xception()) {
+          LOG.error(getLogPrefix() + "Failed to perform get: domain " + domain.getName() + ", partition " + partition + ", key: " + BytesUtils.bytesToHexString(key) + ", partitioner: " + domain.getPartitioner() + ", response: " + response);
+        }
+        // One request, not in cache
+        requestsCounters.increment(1, 0);
+        callback.onComplete(response);
+      }
+    };
+    try {
+      if (requestHedger != null) {
+        hostConnectionPool.getHedgedAsync(domain, key, queryMaxNumTries, keyHash, requestHedger, responseCallback);
+      } else {
+        hostConnectionPool.getAsync(domain, key, queryMaxNumTries, keyHash, responseCallback);
+      }
+    } catch (RuntimeException e) {
+      // Do not leave callers that joined this request waiting
+      if (inFlightGet != null) {
+        inFlightGet.complete(COALESCED_GET_FAILED);
+      }
+      throw e;
+    }
+  }
+
+  // Return the HostConnectionPool serving the given partition, or null if there is none
+  private HostConnectionPool getHostConnectionPool(Domain domain, int partition) {
+    Map<Integer, HostConnectionPool> partitionToConnectionPool;
+    synchronized (connectionCacheLock) {
+      partitionToConnectionPool = domainToPartitionToConnectionPool.get(domain.getId());
+    }
+    if (partitionToConnectionPool == null) {
+      LOG.error(getLogPrefix() + String.format("Could not find domain to partition map for domain %s (id: %d)", domain.getName(), domain.getId()));
+      return null;
+    }
+    HostConnectionPool hostConnectionPool = partitionToConnectionPool.get(partition);
+    if (hostConnectionPool == null) {
+      // this is a problem, since the cache must not have been loaded correctly
+      LOG.error(getLogPrefix() + String.format("Could not find list of hosts for domain %s (id: %d) when looking for partition %d", domain.getName(), domain.getId(), partition));
+    }
+    return hostConnectionPool;
+  }
+
   private HankResponse _get(Domain domain, ByteBuffer key) {
     // Check for null keys
     if (key == null) {
@@ -439,8 +626,11 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       throw new EmptyKeyException();
     }
 
+    // Responses are cached with the versions served when they were requested
+    Long servedVersions = responseCache.getServedVersions(domain);
+
     // Attempt to load from cache
-    HankResponse cachedResponse = responseCache.get(new DomainAndKey(domain, key));
+    HankResponse cachedResponse = responseCache.get(domain, key);
     if (cachedResponse != null) {
       // One request, in cache
       requestsCounters.increment(1, 1);
@@ -451,31 +641,39 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
         int partition = domain.getPartitioner().partition(key, domain.getNumParts());
         int keyHash = domain.getPartitioner().partition(key, Integer.MAX_VALUE);
 
-        Map<Integer, HostConnectionPool> partitionToConnectionPool;
-        synchronized (connectionCacheLock) {
-          partitionToConnectionPool = domainToPartitionToConnectionPool.get(domain.getId());
-        }
-        if (partitionToConnectionPool == null) {
-          LOG.error(getLogPrefix() + String.format("Could not find domain to partition map for domain %s (id: %d)", domain.getName(), domain.getId()));
-          return NO_REPLICA;
-        }
-
-        HostConnectionPool hostConnectionPool = partitionToConnectionPool.get(partition);
+        HostConnectionPool hostConnectionPool = getHostConnectionPool(domain, partition);
         if (hostConnectionPool == null) {
-          // this is a problem, since the cache must not have been loaded correctly
-          LOG.error(getLogPrefix() + String.format("Could not find list of hosts for domain %s (id: %d) when looking for partition %d", domain.getName(), domain.getId(), partition));
           return NO_REPLICA;
         }
         if (LOG.isTraceEnabled()) {
           LOG.trace("Looking in domain " + domain.getName() + ", in partition " + partition + ", for key: " + BytesUtils.bytesToHexString(key));
         }
+        // Join a request of the same key that is already in flight
+        GetRequestCoalescer.InFlightGet inFlightGet = null;
+        if (requestCoalescer != null) {
+          FutureGet coalescedGet = new FutureGet();
+          inFlightGet = requestCoalescer.join(domain, key, coalescedGet);
+          if (inFlightGet == null) {
+            return coalescedGet.getResponse();
+          }
+        }
         // Perform get
-        HankResponse response = hostConnectionPool.get(domain, key, queryMaxNumTries, keyHash);
-        // Cache response if necessary, do not cache exceptions
-        if (responseCache.isEnabled() && response.is_set_not_found() || response.is_set_value()) {
-          responseCache.put(
-              new DomainAndKey(domain, BytesUtils.byteBufferDeepCopy(key)),
-              response.deepCopy());
+        HankResponse response = null;
+        try {
+          if (requestHedger != null) {
+            FutureGet futureGet = new FutureGet();
+            hostConnectionPool.getHedgedAsync(domain, key, queryMaxNumTries, keyHash, requestHedger, futureGet);
+            response = futureGet.getResponse();
+          } else {
+            response = hostConnectionPool.get(domain, key, queryMaxNumTries, keyHash);
+          }
+          // Cache response if necessary, do not cache exceptions
+          responseCache.put(domain, key, servedVersions, response);
+        } finally {
+          // Do not leave callers that joined this request waiting
+          if (inFlightGet != null) {
+            inFlightGet.complete(response != null ? response : COALESCED_GET_FAILED);
+          }
         }
         if (response.is_set_xception()) {
           LOG.error(getLogPrefix() + "Failed to perform get: domain " + domain.getName() + ", partition " + partition + ", key: " + BytesUtils.bytesToHexString(key) + ", partitioner: " + domain.getPartitioner() + ", response: " + response);
@@ -488,6 +686,221 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     }
   }
 
+  // Keys are grouped by the set of hosts serving their partition, and each group is sent
+  // as a single GET BULK request. Responses are reassembled in the order of the given keys.
+  private HankBulkResponse _getBulk(Domain domain, List<ByteBuffer> keys) {
+    HankResponse[] responses = new HankResponse[keys.size()];
+
+    // Responses are cached with the versions served when they were requested
+    Long servedVersions = responseCache.getServedVersions(domain);
+
+    // Build batches
+    Map<Set<Host>, GetBulkBatch> hostsToBatch = new HashMap<Set<Host>, GetBulkBatch>();
+    for (int keyIndex = 0; keyIndex < keys.size(); ++keyIndex) {
+      ByteBuffer key = keys.get(keyIndex);
+      // Check for null keys
+      if (key == null) {
+        throw new NullKeyException();
+      }
+      // Check for empty keys
+      if (key.remaining() == 0) {
+        throw new EmptyKeyException();
+      }
+      // Attempt to load from cache
+      HankResponse cachedResponse = responseCache.get(domain, key);
+      if (cachedResponse != null) {
+        // One request, in cache
+        requestsCounters.increment(1, 1);
+        responses[keyIndex] = cachedResponse;
+        continue;
+      }
+      // Determine HostConnectionPool to use
+      int partition = domain.getPartitioner().partition(key, domain.getNumParts());
+      HostConnectionPool hostConnectionPool = getHostConnectionPool(domain, partition);
+      if (hostConnectionPool == null) {
+        // One request, not in cache
+        requestsCounters.increment(1, 0);
+        responses[keyIndex] = NO_REPLICA;
+        continue;
+      }
+      GetBulkBatch batch = hostsToBatch.get(hostConnectionPool.getHosts());
+      if (batch == null) {
+        batch = new GetBulkBatch(domain, hostConnectionPool, servedVersions);
+        hostsToBatch.put(hostConnectionPool.getHosts(), batch);
+      }
+      batch.add(keyIndex, key);
+    }
+
+    List<GetBulkBatch> batches = new ArrayList<GetBulkBatch>(hostsToBatch.values());
+    if (asyncClientManager != null) {
+      executeAsync(batches);
+    } else {
+      execute(batches);
+    }
+
+    // Reassemble responses
+    for (GetBulkBatch batch : batches) {
+      batch.fillResponses(responses);
+    }
+    List<HankResponse> allResponses = new ArrayList<HankResponse>(keys.size());
+    for (HankResponse response : responses) {
+      allResponses.add(response);
+    }
+    return HankBulkResponse.responses(allResponses);
+  }
+
+  // Execute batches in parallel. The last one is executed in the calling thread.
+  private void execute(List<GetBulkBatch> batches) {
+    List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>(batches.size());
+    for (int i = 0; i < batches.size() - 1; ++i) {
+      FutureTask<Object> task = new FutureTask<Object>(batches.get(i), null);
+      getTaskExecutor.execute(task);
+      tasks.add(task);
+    }
+    if (!batches.isEmpty()) {
+      batches.get(batches.size() - 1).run();
+    }
+    for (FutureTask<Object> task : tasks) {
+      try {
+        task.get();
+      } catch (Throwable t) {
+        LOG.error(getLogPrefix() + "Throwable while executing GET BULK batch", t);
+      }
+    }
+  }
+
+  // Issue all batches asynchronously and wait for their completion
+  private void executeAsync(List<GetBulkBatch> batches) {
+    final CountDownLatch latch = new CountDownLatch(batches.size());
+    for (final GetBulkBatch batch : batches) {
+      GetBulkCallback callback = new GetBulkCallback() {
+        @Override
+        public void onComplete(HankBulkResponse response) {
+          batch.bulkResponse = response;
+          latch.countDown();
+        }
+      };
+      if (requestHedger != null) {
+        batch.hostConnectionPool.getBulkHedgedAsync(batch.domain.getId(), batch.keys, queryMaxNumTries, requestHedger, callback);
+      } else {
+        batch.hostConnectionPool.getBulkAsync(batch.domain.getId(), batch.keys, queryMaxNumTries, callback);
+      }
+    }
+    try {
+      if (!latch.await(getBulkAsyncMaxWaitMs(), TimeUnit.MILLISECONDS)) {
+        LOG.error(getLogPrefix() + "Timed out waiting for " + latch.getCount() + " GET BULK batches");
+      }
+    } catch (InterruptedException e) {
+      LOG.error(getLogPrefix() + "Interrupted while waiting for GET BULK batches", e);
+      Thread.currentThread().interrupt();
+    }
+    // Batches that did not complete in time are failed by fillResponses()
+  }
+
+  // Every try of a batch is bounded by the bulk query timeout, plus the time to establish a connection
+  private long getBulkAsyncMaxWaitMs() {
+    if (bulkQueryTimeoutMs == 0) {
+      return GET_BULK_ASYNC_MAX_WAIT_MS;
+    }
+    return (long) Math.max(1, queryMaxNumTries) * (bulkQueryTimeoutMs + establishConnectionTimeoutMs);
+  }
+
+  private class GetBulkBatch implements Runnable {
+
+    private final Domain domain;
+    private final HostConnectionPool hostConnectionPool;
+    private final Long servedVersions;
+    private final List<Integer> keyIndices = new ArrayList<Integer>();
+    private final List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+    private volatile HankBulkResponse bulkResponse = null;
+
+    private GetBulkBatch(Domain domain, HostConnectionPool hostConnectionPool, Long servedVersions) {
+      this.domain = domain;
+      this.hostConnectionPool = hostConnectionPool;
+      this.servedVersions = servedVersions;
+    }
+
+    public void add(int keyIndex, ByteBuffer key) {
+      keyIndices.add(keyIndex);
+      keys.add(key);
+    }
+
+    @Override
+    public void run() {
+      if (requestHedger != null) {
+        final CountDownLatch latch = new CountDownLatch(1);
+        hostConnectionPool.getBulkHedgedAsync(domain.getId(), keys, queryMaxNumTries, requestHedger, new GetBulkCallback() {
+          @Override
+          public void onComplete(HankBulkResponse response) {
+            bulkResponse = response;
+            latch.countDown();
+          }
+        });
+        try {
+          if (!latch.await(getBulkAsyncMaxWaitMs(), TimeUnit.MILLISECONDS)) {
+            LOG.error(getLogPrefix() + "Timed out waiting for hedged GET BULK batch");
+          }
+        } catch (InterruptedException e) {
+          LOG.error(getLogPrefix() + "Interrupted while waiting for hedged GET BULK batch", e);
+          Thread.currentThread().interrupt();
+        }
+      } else {
+        bulkResponse = hostConnectionPool.getBulk(domain.getId(), keys, queryMaxNumTries);
+      }
+    }
+
+    public void fillResponses(HankResponse[] responses) {
+      // Read the response once: a batch that timed out may still complete concurrently
+      HankBulkResponse bulkResponse = this.bulkResponse;
+      if (bulkResponse == null) {
+        bulkResponse = HankBulkResponse.xception(HankException.internal_error("GET BULK batch did not complete"));
+      } else if (bulkResponse.is_set_responses() && bulkResponse.get_responses().size() != keys.size()) {
+        bulkResponse = HankBulkResponse.xception(HankException.internal_error("GET BULK batch returned "
+            + bulkResponse.get_responses().size() + " responses for " + keys.size() + " keys"));
+      }
+      for (int i = 0; i < keys.size(); ++i) {
+        ByteBuffer key = keys.get(i);
+        if (bulkResponse.is_set_xception()) {
+          // Whole batch failed (retries have already been performed by the connection pool)
+          requestsCounters.increment(1, 0);
+          responses[keyIndices.get(i)] = HankResponse.xception(bulkResponse.get_xception());
+          continue;
+        }
+        HankResponse response = bulkResponse.get_responses().get(i);
+        if (response.is_set_xception()) {
+          // Failed individually, fall back to a single GET, which will fail over to other replicas
+          responses[keyIndices.get(i)] = _get(domain, key);
+          continue;
+        }
+        // Cache response if necessary
+        responseCache.put(domain, key, servedVersions, response);
+        // One request, not in cache
+        requestsCounters.increment(1, 0);
+        responses[keyIndices.get(i)] = response;
+      }
+    }
+  }
+
+  // Counters and gauges of this client, to be exported by the application (for example with a JmxMetricsExporter)
+  public MetricsRegistry getMetricsRegistry() {
+    return metricsRegistry;
+  }
+
+  private void registerGauges() {
+    metricsRegistry.register("client.response_cache.num_items", new Gauge() {
+      @Override
+      public long getValue() {
+        return responseCache.size();
+      }
+    });
+    metricsRegistry.register("client.response_cache.num_managed_bytes", new Gauge() {
+      @Override
+      public long getValue() {
+        return responseCache.getNumManagedBytes();
+      }
+    });
+  }
+
   @Override
   public void stop() {
     stopGetTaskExecutor();
@@ -501,7 +914,14 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     } catch (InterruptedException e) {
       LOG.info(getLogPrefix() + "Interrupted while waiting for updater threads to terminate during shutdown.");
     }
+    if (requestHedger != null) {
+      requestHedger.stop();
+    }
     disconnect();
+    if (asyncClientManager != null) {
+      asyncClientManager.stop();
+      asyncCallbackExecutor.shutdown();
+    }
   }
 
   private void stopGetTaskExecutor() {
@@ -578,6 +998,16 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
     }
   }
 
+  private static class AsyncCallbackThreadFactory implements ThreadFactory {
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread result = new Thread(runnable, "AsyncCallbackThread");
+      result.setDaemon(true);
+      return result;
+    }
+  }
+
   private static class GetTaskThreadFactory implements ThreadFactory {
 
     @Override
@@ -592,6 +1022,7 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
 
     private final Map<PartitionServerAddress, ConnectionLoad> partitionServerToConnectionLoad;
     private final HankTimer timer = new HankTimer();
+    private long[] requestsCounterValuesAtLastLog = new long[2];
 
     public UpdateRuntimeStatisticsRunnable() {
       super(UPDATE_RUNTIME_STATISTICS_THREAD_SLEEP_TIME_MS_DEFAULT);
@@ -635,9 +1066,11 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
       long timerDurationMs = timer.getDurationMs();
       timer.restart();
       // Log requests counters
-      long[] requestsCounterValues = requestsCounters.getAsArrayAndSet(0, 0);
-      long numRequests = requestsCounterValues[0];
-      long numCacheHits = requestsCounterValues[1];
+      // Counters are cumulative, log what they counted since the last time
+      long[] requestsCounterValues = requestsCounters.getAsArray();
+      long numRequests = requestsCounterValues[0] - requestsCounterValuesAtLastLog[0];
+      long numCacheHits = requestsCounterValues[1] - requestsCounterValuesAtLastLog[1];
+      requestsCounterValuesAtLastLog = requestsCounterValues;
       if (timerDurationMs != 0 && numRequests != 0) {
         double throughput = (double)numRequests / ((double)timerDurationMs / 1000d);
         double cacheHitRate = (double)numCacheHits / (double)numRequests;
@@ -646,6 +1079,41 @@ public class HankSmartClient implements HankSmartClientIface, RingGroupDataLocat
             + ", client-side cache hit rate: " + FormatUtils.formatDouble(cacheHitRate * 100) + "%"
             + ", cache: " + responseCache.size() + " items totaling " + FormatUtils.formatNumBytes(responseCache.getNumManagedBytes()));
       }
+      // Log latencies
+      LatencyHistogram getLatencies = getRequestsLatencyRecorder.getIntervalHistogram();
+      LatencyHistogram getBulkLatencies = getBulkRequestsLatencyRecorder.getIntervalHistogram();
+      logLatencyHistogram("GET", getLatencies);
+      logLatencyHistogram("GET BULK", getBulkLatencies);
+      // Update hedge delays and log hedging counters
+      if (requestHedger != null) {
+        requestHedger.updateDelays();
+        long[] hedgingCounterValues = requestHedger.getIntervalCounters();
+        long numHedgeableRequests = hedgingCounterValues[0];
+        long numHedgedRequests = hedgingCounterValues[1];
+        long numHedgeWins = hedgingCounterValues[2];
+        if (numHedgeableRequests != 0) {
+          LOG.info(getLogPrefix()
+              + "Hedge rate: " + FormatUtils.formatDouble((double)numHedgedRequests / (double)numHedgeableRequests * 100) + "%"
+              + ", hedges that responded first: " + numHedgeWins + "/" + numHedgedRequests
+              + ", hedge delays (GET / GET BULK): " + formatHedgeDelay(requestHedger.getGetDelayNanos())
+              + " / " + formatHedgeDelay(requestHedger.getGetBulkDelayNanos()));
+        }
+      }
+    }
+
+    private String formatHedgeDelay(long delayNanos) {
+      if (delayNanos < 0) {
+        return "unknown";
+      }
+      return FormatUtils.formatDouble(delayNanos / 1000000d) + " ms";
+    }
+
+    private void logLatencyHistogram(String requestType, LatencyHistogram latencyHistogram) {
+      if (latencyHistogram.getTotalCount() != 0) {
+        LOG.info(getLogPrefix() + "Client-side " + requestType + " latency (mean / 50% / 99% / 99.9%): "
+            + latencyHistogram.format() + ", max: " + FormatUtils.formatDouble(latencyHistogram.getMaximum()) + " ms"
+            + " (" + latencyHistogram.getTotalCount() + " requests)");
+      }
     }
 
     @Override
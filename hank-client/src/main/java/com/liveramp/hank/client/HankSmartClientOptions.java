@@ -29,6 +29,15 @@ public class HankSmartClientOptions {
   private long responseCacheNumBytesCapacity = 0;
   private int responseCacheNumItemsCapacity = 0;
   private long responseCacheExpirationSeconds = 0;
+  private int responseCacheConcurrencyLevel = 1;
+  private boolean requestCoalescingEnabled = false;
+  private boolean asyncEnabled = false;
+  private int asyncMaxNumCallsInFlightPerConnection = 1;
+  private int asyncCallbackThreadPoolSize = 4;
+  private ReplicaSelection replicaSelection = ReplicaSelection.ROUND_ROBIN;
+  private double hedgeDelayPercentile = 0;
+  private int hedgeMinDelayMs = 1;
+  private int hedgeThreadPoolMaxSize = 256;
 
   public int getNumConnectionsPerHost() {
     return numConnectionsPerHost;
@@ -128,4 +137,97 @@ public class HankSmartClientOptions {
     this.responseCacheExpirationSeconds = responseCacheExpirationSeconds;
     return this;
   }
+
+  public int getResponseCacheConcurrencyLevel() {
+    return responseCacheConcurrencyLevel;
+  }
+
+  // Number of independently locked stripes the response cache is split in, rounded up to a power of two
+  public HankSmartClientOptions setResponseCacheConcurrencyLevel(int responseCacheConcurrencyLevel) {
+    this.responseCacheConcurrencyLevel = responseCacheConcurrencyLevel;
+    return this;
+  }
+
+  public boolean getRequestCoalescingEnabled() {
+    return requestCoalescingEnabled;
+  }
+
+  // Concurrent GET requests of the same key in the same domain share a single request to the partition servers
+  public HankSmartClientOptions setRequestCoalescingEnabled(boolean requestCoalescingEnabled) {
+    this.requestCoalescingEnabled = requestCoalescingEnabled;
+    return this;
+  }
+
+  public boolean getAsyncEnabled() {
+    return asyncEnabled;
+  }
+
+  // Use asynchronous connections, shared by concurrent queries and driven by a single selector thread
+  public HankSmartClientOptions setAsyncEnabled(boolean asyncEnabled) {
+    this.asyncEnabled = asyncEnabled;
+    return this;
+  }
+
+  public int getAsyncMaxNumCallsInFlightPerConnection() {
+    return asyncMaxNumCallsInFlightPerConnection;
+  }
+
+  // Number of queries each asynchronous connection has in flight at once. Each of them uses its own socket,
+  // hence a host gets numConnectionsPerHost * asyncMaxNumCallsInFlightPerConnection sockets.
+  public HankSmartClientOptions setAsyncMaxNumCallsInFlightPerConnection(int asyncMaxNumCallsInFlightPerConnection) {
+    this.asyncMaxNumCallsInFlightPerConnection = asyncMaxNumCallsInFlightPerConnection;
+    return this;
+  }
+
+  public int getAsyncCallbackThreadPoolSize() {
+    return asyncCallbackThreadPoolSize;
+  }
+
+  // Threads running the callbacks of asynchronous queries, so that they do not run in the selector thread
+  public HankSmartClientOptions setAsyncCallbackThreadPoolSize(int asyncCallbackThreadPoolSize) {
+    this.asyncCallbackThreadPoolSize = asyncCallbackThreadPoolSize;
+    return this;
+  }
+
+  public ReplicaSelection getReplicaSelection() {
+    return replicaSelection;
+  }
+
+  // Strategy used to pick which host serving a partition a query is sent to
+  public HankSmartClientOptions setReplicaSelection(ReplicaSelection replicaSelection) {
+    this.replicaSelection = replicaSelection;
+    return this;
+  }
+
+  public double getHedgeDelayPercentile() {
+    return hedgeDelayPercentile;
+  }
+
+  // When positive, a query that has not returned after this percentile of recent query latencies
+  // is also sent to another host serving the partition, and the first response is used. 0 disables hedging.
+  public HankSmartClientOptions setHedgeDelayPercentile(double hedgeDelayPercentile) {
+    this.hedgeDelayPercentile = hedgeDelayPercentile;
+    return this;
+  }
+
+  public int getHedgeMinDelayMs() {
+    return hedgeMinDelayMs;
+  }
+
+  // Lower bound of the hedge delay
+  public HankSmartClientOptions setHedgeMinDelayMs(int hedgeMinDelayMs) {
+    this.hedgeMinDelayMs = hedgeMinDelayMs;
+    return this;
+  }
+
+  public int getHedgeThreadPoolMaxSize() {
+    return hedgeThreadPoolMaxSize;
+  }
+
+  // Maximum number of threads performing hedged queries over synchronous connections.
+  // When they are all busy, queries are not hedged.
+  public HankSmartClientOptions setHedgeThreadPoolMaxSize(int hedgeThreadPoolMaxSize) {
+    this.hedgeThreadPoolMaxSize = hedgeThreadPoolMaxSize;
+    return this;
+  }
 }
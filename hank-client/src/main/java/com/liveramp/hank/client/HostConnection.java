@@ -24,22 +24,47 @@ import com.liveramp.hank.generated.PartitionServer;
 import com.liveramp.hank.zookeeper.WatchedNodeListener;
 import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
+import org.apache.thrift.async.AsyncMethodCallback;
+import org.apache.thrift.async.TAsyncClientManager;
 import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TNonblockingSocket;
 import org.apache.thrift.transport.TSocket;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * A connection to a partition server.
+ * <p/>
+ * In synchronous mode (the default), the connection uses a blocking socket and
+ * carries exactly one query at a time. Callers lock the connection for the
+ * duration of their query.
+ * <p/>
+ * In asynchronous mode (when a TAsyncClientManager is supplied), the connection
+ * is a small pool of non blocking sockets driven by the manager's selector thread.
+ * Thrift does not multiplex calls, so each socket carries one query at a time and
+ * a connection opens as many sockets as it has queries in flight. Further queries
+ * are queued until a socket is idle, without blocking any thread and without
+ * locking the connection. Callbacks are executed on a callback executor, off the
+ * selector thread.
+ */
 public class HostConnection implements WatchedNodeListener<HostState> {
 
   private static final Logger LOG = Logger.getLogger(HostConnection.class);
+  // Bound of the wait for a synchronous query in asynchronous mode when the query has no timeout
+  private static final long ASYNC_QUERY_MAX_WAIT_MS = TimeUnit.MINUTES.toMillis(1);
 
   private final int tryLockTimeoutMs;
   private final int establishConnectionTimeoutMs;
@@ -50,6 +75,23 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   private PartitionServer.Client client;
   private final Host host;
   protected final ReentrantLock lock = new ReentrantLock(true); // Use a fair ReentrantLock
+  private final ReplicaLoad load;
+
+  // Asynchronous mode
+  private final TAsyncClientManager asyncClientManager;
+  private final Executor asyncCallbackExecutor;
+  // Calls waiting for an idle async client, also guards async clients
+  private final LinkedList<AsyncCall<?, ?>> asyncCalls = new LinkedList<AsyncCall<?, ?>>();
+  private final List<AsyncChannel> asyncChannels = new ArrayList<AsyncChannel>();
+  private final LinkedList<AsyncChannel> idleAsyncChannels = new LinkedList<AsyncChannel>();
+
+  // Callback of an asynchronous query. Exactly one of the methods will be called.
+  interface AsyncCallback<T> {
+
+    public void onComplete(T response);
+
+    public void onError(IOException e);
+  }
 
   // A timeout of 0 means no timeout
   public HostConnection(Host host,
@@ -57,19 +99,63 @@ public class HostConnection implements WatchedNodeListener<HostState> {
                         int establishConnectionTimeoutMs,
                         int queryTimeoutMs,
                         int bulkQueryTimeoutMs) throws TException, IOException {
+    this(host, tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs, null);
+  }
+
+  // A null async client manager means synchronous mode
+  public HostConnection(Host host,
+                        int tryLockTimeoutMs,
+                        int establishConnectionTimeoutMs,
+                        int queryTimeoutMs,
+                        int bulkQueryTimeoutMs,
+                        TAsyncClientManager asyncClientManager) throws TException, IOException {
+    this(host, tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs, asyncClientManager,
+        1, null, new ReplicaLoad());
+  }
+
+  // The load should be shared by all connections to the same host.
+  // In asynchronous mode, up to asyncMaxNumCallsInFlight calls are sent concurrently, each on its own socket,
+  // and callbacks run on the given executor (in the selector thread if it is null).
+  HostConnection(Host host,
+                 int tryLockTimeoutMs,
+                 int establishConnectionTimeoutMs,
+                 int queryTimeoutMs,
+                 int bulkQueryTimeoutMs,
+                 TAsyncClientManager asyncClientManager,
+                 int asyncMaxNumCallsInFlight,
+                 Executor asyncCallbackExecutor,
+                 ReplicaLoad load) throws TException, IOException {
     this.host = host;
+    this.load = load;
     this.tryLockTimeoutMs = tryLockTimeoutMs;
     this.establishConnectionTimeoutMs = establishConnectionTimeoutMs;
     this.queryTimeoutMs = queryTimeoutMs;
     this.bulkQueryTimeoutMs = bulkQueryTimeoutMs;
+    this.asyncClientManager = asyncClientManager;
+    this.asyncCallbackExecutor = asyncCallbackExecutor;
+    if (asyncClientManager != null) {
+      for (int i = 0; i < Math.max(1, asyncMaxNumCallsInFlight); ++i) {
+        AsyncChannel channel = new AsyncChannel();
+        asyncChannels.add(channel);
+        idleAsyncChannels.add(channel);
+      }
+    }
     host.setStateChangeListener(this);
     onWatchedNodeChange(host.getState());
   }
 
+  boolean isAsync() {
+    return asyncClientManager != null;
+  }
+
   Host getHost() {
     return host;
   }
 
+  ReplicaLoad getLoad() {
+    return load;
+  }
+
   boolean isServing() {
     try {
       return HostState.SERVING.equals(host.getState());
@@ -99,6 +185,10 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   }
 
   boolean tryLockRespectingFairness() {
+    // Asynchronous connections are never locked, report whether they are idle instead
+    if (isAsync()) {
+      return !isLocked();
+    }
     try {
       // Note: tryLock() does not respect fairness, using tryLock(0, unit) instead
       return lock.tryLock(0, TimeUnit.MILLISECONDS);
@@ -122,6 +212,11 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   }
 
   public HankResponse get(int domainId, ByteBuffer key) throws IOException {
+    if (isAsync()) {
+      SynchronousAsyncCallback<HankResponse> callback = new SynchronousAsyncCallback<HankResponse>(getAsyncQueryMaxWaitMs(queryTimeoutMs));
+      getAsync(domainId, key, callback);
+      return callback.getResponse();
+    }
     // Lock the connection only if needed
     if (!lock.isHeldByCurrentThread()) {
       // Try to lock within a given timeframe
@@ -156,6 +251,11 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   }
 
   public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) throws IOException {
+    if (isAsync()) {
+      SynchronousAsyncCallback<HankBulkResponse> callback = new SynchronousAsyncCallback<HankBulkResponse>(getAsyncQueryMaxWaitMs(bulkQueryTimeoutMs));
+      getBulkAsync(domainId, keys, callback);
+      return callback.getResponse();
+    }
     // Lock the connection only if needed
     if (!lock.isHeldByCurrentThread()) {
       // Try to lock within a given timeframe
@@ -195,7 +295,311 @@ public class HostConnection implements WatchedNodeListener<HostState> {
     }
   }
 
+  // A query may first wait for the query in flight on its socket, and for the connection to be established
+  private long getAsyncQueryMaxWaitMs(int queryTimeoutMs) {
+    if (queryTimeoutMs == 0) {
+      return ASYNC_QUERY_MAX_WAIT_MS;
+    }
+    return 2L * queryTimeoutMs + establishConnectionTimeoutMs;
+  }
+
+  // In synchronous mode, this is equivalent to get() followed by a call to the callback
+  void getAsync(int domainId, ByteBuffer key, AsyncCallback<HankResponse> callback) {
+    if (!isAsync()) {
+      HankResponse response;
+      try {
+        response = get(domainId, key);
+      } catch (IOException e) {
+        callback.onError(e);
+        return;
+      }
+      callback.onComplete(response);
+      return;
+    }
+    enqueueAsyncCall(new AsyncGetCall(domainId, key, callback));
+  }
+
+  // In synchronous mode, this is equivalent to getBulk() followed by a call to the callback
+  void getBulkAsync(int domainId, List<ByteBuffer> keys, AsyncCallback<HankBulkResponse> callback) {
+    if (!isAsync()) {
+      HankBulkResponse response;
+      try {
+        response = getBulk(domainId, keys);
+      } catch (IOException e) {
+        callback.onError(e);
+        return;
+      }
+      callback.onComplete(response);
+      return;
+    }
+    enqueueAsyncCall(new AsyncGetBulkCall(domainId, keys, callback));
+  }
+
+  private void enqueueAsyncCall(AsyncCall<?, ?> call) {
+    synchronized (asyncCalls) {
+      asyncCalls.add(call);
+    }
+    startAsyncCalls();
+  }
+
+  // Start queued calls on idle async clients, failing calls that cannot be started
+  private void startAsyncCalls() {
+    while (true) {
+      AsyncCall<?, ?> call;
+      IOException error = null;
+      synchronized (asyncCalls) {
+        if (asyncCalls.isEmpty() || idleAsyncChannels.isEmpty()) {
+          return;
+        }
+        call = asyncCalls.poll();
+        AsyncChannel channel = idleAsyncChannels.poll();
+        try {
+          // Check availability
+          if (!isServing() && !isOffline()) {
+            throw new IOException("Connection to host is not available (host is not serving).");
+          }
+          // Connect if necessary
+          if (channel.client == null) {
+            channel.connect();
+          }
+          call.start(channel);
+          continue;
+        } catch (TException e) {
+          channel.disconnect();
+          error = new IOException("Failed to start asynchronous query", e);
+        } catch (IOException e) {
+          error = e;
+        }
+        idleAsyncChannels.add(channel);
+      }
+      // Call callback outside of the lock
+      call.fail(error);
+    }
+  }
+
+  private void releaseAsyncChannel(AsyncChannel channel, boolean disconnect) {
+    synchronized (asyncCalls) {
+      if (disconnect || channel.disconnectOnRelease) {
+        channel.disconnect();
+      }
+      idleAsyncChannels.add(channel);
+    }
+    startAsyncCalls();
+  }
+
+  // Closing the socket of a call in flight would leave the call pending until it times out, if ever,
+  // hence busy channels are only disconnected once their call is over
+  private void disconnectAsync() {
+    synchronized (asyncCalls) {
+      for (AsyncChannel channel : asyncChannels) {
+        if (idleAsyncChannels.contains(channel)) {
+          channel.disconnect();
+        } else {
+          channel.disconnectOnRelease = true;
+        }
+      }
+    }
+  }
+
+  // One of the sockets of this connection, each carries one call at a time. Guarded by asyncCalls.
+  private class AsyncChannel {
+
+    private TNonblockingSocket socket;
+    private PartitionServer.AsyncClient client;
+    private boolean disconnectOnRelease = false;
+
+    private void connect() throws IOException {
+      if (LOG.isTraceEnabled()) {
+        LOG.trace("Trying to connect asynchronously to " + host.getAddress());
+      }
+      socket = new TNonblockingSocket(host.getAddress().getHostName(),
+          host.getAddress().getPortNumber(),
+          establishConnectionTimeoutMs);
+      client = new PartitionServer.AsyncClient(new TCompactProtocol.Factory(), asyncClientManager, socket);
+    }
+
+    private void disconnect() {
+      if (socket != null) {
+        socket.close();
+      }
+      socket = null;
+      client = null;
+      disconnectOnRelease = false;
+    }
+  }
+
+  private abstract class AsyncCall<C, T> implements AsyncMethodCallback<C> {
+
+    private final AsyncCallback<T> callback;
+    private AsyncChannel channel;
+
+    protected AsyncCall(AsyncCallback<T> callback) {
+      this.callback = callback;
+    }
+
+    private void start(AsyncChannel channel) throws TException {
+      this.channel = channel;
+      start(channel.client);
+    }
+
+    protected abstract void start(PartitionServer.AsyncClient asyncClient) throws TException;
+
+    protected abstract T getResult(C call) throws TException, IOException;
+
+    @Override
+    public void onComplete(C call) {
+      final T response;
+      try {
+        response = getResult(call);
+      } catch (TException e) {
+        onError(e);
+        return;
+      } catch (IOException e) {
+        // Server side error, the connection is still healthy
+        releaseAsyncChannel(channel, false);
+        fail(e);
+        return;
+      }
+      releaseAsyncChannel(channel, false);
+      dispatch(new Runnable() {
+        @Override
+        public void run() {
+          callback.onComplete(response);
+        }
+      });
+    }
+
+    @Override
+    public void onError(Exception e) {
+      // Disconnect, the next call on this client will reconnect
+      releaseAsyncChannel(channel, true);
+      fail(e instanceof IOException ? (IOException)e : new IOException("Failed to execute asynchronous query", e));
+    }
+
+    protected void fail(final IOException e) {
+      dispatch(new Runnable() {
+        @Override
+        public void run() {
+          callback.onError(e);
+        }
+      });
+    }
+
+    // Callbacks run on the callback executor so that a slow one does not stall the selector thread,
+    // except those of synchronous queries which only wake up the waiting thread
+    private void dispatch(Runnable runnable) {
+      if (asyncCallbackExecutor == null || callback instanceof SynchronousAsyncCallback) {
+        runnable.run();
+        return;
+      }
+      try {
+        asyncCallbackExecutor.execute(runnable);
+      } catch (RejectedExecutionException e) {
+        // Executor is shut down
+        runnable.run();
+      }
+    }
+  }
+
+  private class AsyncGetCall extends AsyncCall<PartitionServer.AsyncClient.get_call, HankResponse> {
+
+    private final int domainId;
+    private final ByteBuffer key;
+
+    private AsyncGetCall(int domainId, ByteBuffer key, AsyncCallback<HankResponse> callback) {
+      super(callback);
+      this.domainId = domainId;
+      this.key = key;
+    }
+
+    @Override
+    protected void start(PartitionServer.AsyncClient asyncClient) throws TException {
+      asyncClient.setTimeout(queryTimeoutMs);
+      asyncClient.get(domainId, key, this);
+    }
+
+    @Override
+    protected HankResponse getResult(PartitionServer.AsyncClient.get_call call) throws TException, IOException {
+      HankResponse result = call.getResult();
+      if (result.is_set_xception()) {
+        throw new IOException("Server failed to execute GET: " + result.get_xception());
+      }
+      return result;
+    }
+  }
+
+  private class AsyncGetBulkCall extends AsyncCall<PartitionServer.AsyncClient.getBulk_call, HankBulkResponse> {
+
+    private final int domainId;
+    private final List<ByteBuffer> keys;
+
+    private AsyncGetBulkCall(int domainId, List<ByteBuffer> keys, AsyncCallback<HankBulkResponse> callback) {
+      super(callback);
+      this.domainId = domainId;
+      this.keys = keys;
+    }
+
+    @Override
+    protected void start(PartitionServer.AsyncClient asyncClient) throws TException {
+      asyncClient.setTimeout(bulkQueryTimeoutMs);
+      asyncClient.getBulk(domainId, keys, this);
+    }
+
+    @Override
+    protected HankBulkResponse getResult(PartitionServer.AsyncClient.getBulk_call call) throws TException, IOException {
+      HankBulkResponse result = call.getResult();
+      if (result.is_set_xception()) {
+        throw new IOException("Server failed to execute GET BULK: " + result.get_xception());
+      }
+      return result;
+    }
+  }
+
+  // Used to wait for the result of an asynchronous query
+  private static class SynchronousAsyncCallback<T> implements AsyncCallback<T> {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final long maxWaitMs;
+    private volatile T response;
+    private volatile IOException error;
+
+    private SynchronousAsyncCallback(long maxWaitMs) {
+      this.maxWaitMs = maxWaitMs;
+    }
+
+    @Override
+    public void onComplete(T response) {
+      this.response = response;
+      latch.countDown();
+    }
+
+    @Override
+    public void onError(IOException e) {
+      this.error = e;
+      latch.countDown();
+    }
+
+    public T getResponse() throws IOException {
+      try {
+        if (!latch.await(maxWaitMs, TimeUnit.MILLISECONDS)) {
+          throw new IOException("Exceeded " + maxWaitMs + "ms while waiting for asynchronous query");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while waiting for asynchronous query", e);
+      }
+      if (error != null) {
+        throw error;
+      }
+      return response;
+    }
+  }
+
   public void disconnect() {
+    if (isAsync()) {
+      disconnectAsync();
+      return;
+    }
     if (transport != null) {
       transport.close();
     }
@@ -237,6 +641,11 @@ public class HostConnection implements WatchedNodeListener<HostState> {
 
   @Override
   public void onWatchedNodeChange(HostState hostState) {
+    if (isAsync()) {
+      // Asynchronous connections reconnect lazily
+      disconnectAsync();
+      return;
+    }
     if (hostState != null && hostState == HostState.SERVING) {
       // Reconnect
       lock();
@@ -262,6 +671,12 @@ public class HostConnection implements WatchedNodeListener<HostState> {
   }
 
   public boolean isLocked() {
+    if (isAsync()) {
+      // Busy when all async clients carry a call
+      synchronized (asyncCalls) {
+        return idleAsyncChannels.isEmpty();
+      }
+    }
     return lock.isLocked();
   }
 }
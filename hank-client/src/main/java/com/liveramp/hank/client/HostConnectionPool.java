@@ -22,11 +22,15 @@ import com.liveramp.hank.coordinator.Host;
 import com.liveramp.hank.generated.HankBulkResponse;
 import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.partition_server.LatencyHistogramRecorder;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * HostConnectionPool manages a collection of connections to Hosts. For a given
@@ -60,6 +64,12 @@ import java.util.*;
  * case of failure, HostConnectionPool will re-attempt a given number of times,
  * each time determining a new connection to use as described earlier. (And
  * using a local Host iterator.)
+ * <p/>
+ * When a ReplicaSelection other than ROUND_ROBIN is used, the initial connection
+ * is instead taken from the least loaded serving Host, as measured by the
+ * outstanding requests and moving average latency of each Host. The Host that
+ * the strategy above would have picked first wins ties, which preserves
+ * key-affinity. Retries after a failure proceed as described above.
  */
 public class HostConnectionPool {
 
@@ -68,8 +78,13 @@ public class HostConnectionPool {
   private ArrayList<List<HostConnectionAndHostIndex>> hostToConnections
       = new ArrayList<List<HostConnectionAndHostIndex>>();
 
+  private final Set<Host> hosts;
+
   private int globalPreviouslyUsedHostIndex;
   private final Random random = new Random();
+  private final ReplicaSelection replicaSelection;
+  // Load of each host, by host index
+  private final List<ReplicaLoad> hostLoads = new ArrayList<ReplicaLoad>();
 
   private static final HankResponse NO_CONNECTION_AVAILABLE_RESPONSE
       = HankResponse.xception(HankException.no_connection_available(true));
@@ -94,10 +109,19 @@ public class HostConnectionPool {
   }
 
   HostConnectionPool(Map<Host, List<HostConnection>> hostToConnectionsMap, Integer hostShuffleSeed) {
+    this(hostToConnectionsMap, hostShuffleSeed, ReplicaSelection.ROUND_ROBIN);
+  }
+
+  HostConnectionPool(Map<Host, List<HostConnection>> hostToConnectionsMap,
+                     Integer hostShuffleSeed,
+                     ReplicaSelection replicaSelection) {
+    this.replicaSelection = replicaSelection;
     if (hostToConnectionsMap.size() == 0) {
       throw new RuntimeException("HostConnectionPool must be initialized with a non empty collection of connections.");
     }
 
+    hosts = new HashSet<Host>(hostToConnectionsMap.keySet());
+
     // Shuffle the list of hosts (tentatively in a deterministic fashion). This will ensure failing requests to a host fall back
     // to different hosts across connection pools, but also that the order in which we try is consistent across
     // connection pools for a given seed (partition id).
@@ -119,6 +143,8 @@ public class HostConnectionPool {
       // Shuffle list of connections for that host, so that different pools try connections in different orders
       Collections.shuffle(connections, random);
       hostToConnections.add(connections);
+      // Connections to the same host share their load
+      hostLoads.add(connections.get(0).hostConnection.getLoad());
       ++hostIndex;
     }
 
@@ -128,6 +154,12 @@ public class HostConnectionPool {
   }
 
   static HostConnectionPool createFromList(Collection<HostConnection> connections, Integer hostShuffleSeed) {
+    return createFromList(connections, hostShuffleSeed, ReplicaSelection.ROUND_ROBIN);
+  }
+
+  static HostConnectionPool createFromList(Collection<HostConnection> connections,
+                                           Integer hostShuffleSeed,
+                                           ReplicaSelection replicaSelection) {
     Map<Host, List<HostConnection>> hostToConnectionsMap = new HashMap<Host, List<HostConnection>>();
     for (HostConnection connection : connections) {
       List<HostConnection> connectionList = hostToConnectionsMap.get(connection.getHost());
@@ -137,7 +169,7 @@ public class HostConnectionPool {
       }
       connectionList.add(connection);
     }
-    return new HostConnectionPool(hostToConnectionsMap, hostShuffleSeed);
+    return new HostConnectionPool(hostToConnectionsMap, hostShuffleSeed, replicaSelection);
   }
 
   Collection<HostConnection> getConnections() {
@@ -150,9 +182,20 @@ public class HostConnectionPool {
     return connections;
   }
 
+  // Set of Hosts this pool has connections to
+  Set<Host> getHosts() {
+    return hosts;
+  }
+
   // Return a connection to a host, initially skipping the previously used host
   private synchronized HostConnectionAndHostIndex getConnectionToUse() {
-    HostConnectionAndHostIndex result = getNextConnectionToUse(globalPreviouslyUsedHostIndex);
+    HostConnectionAndHostIndex result = null;
+    if (replicaSelection != ReplicaSelection.ROUND_ROBIN) {
+      result = getLeastLoadedConnectionToUse(getNextHostIndexToUse(globalPreviouslyUsedHostIndex));
+    }
+    if (result == null) {
+      result = getNextConnectionToUse(globalPreviouslyUsedHostIndex);
+    }
     if (result != null) {
       globalPreviouslyUsedHostIndex = result.hostIndex;
     }
@@ -162,9 +205,107 @@ public class HostConnectionPool {
   // Attempt to find a connection for that key where it is likely to be in the cache if it was queried
   // recently. (Globally random, but deterministic on the key.)
   private HostConnectionAndHostIndex getConnectionToUseForKey(int keyHash) {
+    if (replicaSelection != ReplicaSelection.ROUND_ROBIN) {
+      // The key's host is the one following keyHash % numHosts
+      HostConnectionAndHostIndex result
+          = getLeastLoadedConnectionToUse(getNextHostIndexToUse(keyHash % hostToConnections.size()));
+      if (result != null) {
+        return result;
+      }
+    }
     return getNextConnectionToUse(keyHash % hostToConnections.size());
   }
 
+  // Return a connection to the least loaded serving host, or null if no host is serving.
+  // Hosts are considered starting from the preferred host, which wins ties.
+  private synchronized HostConnectionAndHostIndex getLeastLoadedConnectionToUse(int preferredHostIndex) {
+    List<Integer> servingHostIndices = new ArrayList<Integer>(hostToConnections.size());
+    int hostIndex = preferredHostIndex;
+    for (int tryId = 0; tryId < hostToConnections.size(); ++tryId) {
+      // If a host has one unavailable connection, it is itself unavailable
+      if (hostToConnections.get(hostIndex).get(0).hostConnection.isServing()) {
+        servingHostIndices.add(hostIndex);
+      }
+      hostIndex = getNextHostIndexToUse(hostIndex);
+    }
+    if (servingHostIndices.isEmpty()) {
+      return null;
+    }
+    long nowNanos = System.nanoTime();
+    int bestHostIndex = servingHostIndices.get(0);
+    switch (replicaSelection) {
+      case POWER_OF_TWO_CHOICES:
+        // Compare the first serving host with another random one
+        if (servingHostIndices.size() > 1) {
+          int otherHostIndex = servingHostIndices.get(1 + random.nextInt(servingHostIndices.size() - 1));
+          if (hostLoads.get(otherHostIndex).getCost(nowNanos) < hostLoads.get(bestHostIndex).getCost(nowNanos)) {
+            bestHostIndex = otherHostIndex;
+          }
+        }
+        break;
+      case LEAST_OUTSTANDING_REQUESTS:
+        for (int servingHostIndex : servingHostIndices) {
+          if (hostLoads.get(servingHostIndex).getNumOutstandingRequests()
+              < hostLoads.get(bestHostIndex).getNumOutstandingRequests()) {
+            bestHostIndex = servingHostIndex;
+          }
+        }
+        break;
+      default:
+        break;
+    }
+    // Use an unused (unlocked) connection to that host if there is one, otherwise a random one
+    List<HostConnectionAndHostIndex> connectionAndHostList = hostToConnections.get(bestHostIndex);
+    for (HostConnectionAndHostIndex connectionAndHostIndex : connectionAndHostList) {
+      if (connectionAndHostIndex.hostConnection.tryLockRespectingFairness()) {
+        // Note: here the returned connection is already locked.
+        return connectionAndHostIndex;
+      }
+    }
+    return connectionAndHostList.get(random.nextInt(connectionAndHostList.size()));
+  }
+
+  // Return a connection to a serving host other than the excluded one, or null if there is none
+  private synchronized HostConnectionAndHostIndex getHedgeConnectionToUse(int excludedHostIndex) {
+    int hostIndex = excludedHostIndex;
+    for (int tryId = 0; tryId < hostToConnections.size() - 1; ++tryId) {
+      hostIndex = getNextHostIndexToUse(hostIndex);
+      List<HostConnectionAndHostIndex> connectionAndHostList = hostToConnections.get(hostIndex);
+      // If a host has one unavailable connection, it is itself unavailable
+      if (!connectionAndHostList.get(0).hostConnection.isServing()) {
+        continue;
+      }
+      for (HostConnectionAndHostIndex connectionAndHostIndex : connectionAndHostList) {
+        if (connectionAndHostIndex.hostConnection.tryLockRespectingFairness()) {
+          // Note: here the returned connection is already locked.
+          return connectionAndHostIndex;
+        }
+      }
+      return connectionAndHostList.get(random.nextInt(connectionAndHostList.size()));
+    }
+    return null;
+  }
+
+  // Return the start time of the request when loads are tracked, 0 otherwise
+  private long requestStarted(HostConnectionAndHostIndex connectionAndHostIndex) {
+    if (replicaSelection == ReplicaSelection.ROUND_ROBIN) {
+      return 0;
+    }
+    return hostLoads.get(connectionAndHostIndex.hostIndex).requestStarted();
+  }
+
+  private void requestEnded(HostConnectionAndHostIndex connectionAndHostIndex, long startNanos, boolean failed) {
+    if (replicaSelection == ReplicaSelection.ROUND_ROBIN) {
+      return;
+    }
+    ReplicaLoad load = hostLoads.get(connectionAndHostIndex.hostIndex);
+    if (failed) {
+      load.requestFailed(startNanos);
+    } else {
+      load.requestCompleted(startNanos);
+    }
+  }
+
   // Return a connection to an arbitrary host, initially skipping the supplied host (likely because there was
   // a failure using a connection to it)
   private synchronized HostConnectionAndHostIndex getNextConnectionToUse(int previouslyUsedHostIndex) {
@@ -256,9 +397,13 @@ public class HostConnectionPool {
         return NO_CONNECTION_AVAILABLE_RESPONSE;
       } else {
         // Perform query
+        long startNanos = requestStarted(connectionAndHostIndex);
         try {
-          return connectionAndHostIndex.hostConnection.get(domainId, key);
+          HankResponse response = connectionAndHostIndex.hostConnection.get(domainId, key);
+          requestEnded(connectionAndHostIndex, startNanos, false);
+          return response;
         } catch (IOException e) {
+          requestEnded(connectionAndHostIndex, startNanos, true);
           // In case of error, keep count of the number of times we retry
           ++numTries;
           if (numTries < maxNumTries) {
@@ -299,9 +444,13 @@ public class HostConnectionPool {
         return NO_CONNECTION_AVAILABLE_BULK_RESPONSE;
       } else {
         // Perform query
+        long startNanos = requestStarted(connectionAndHostIndex);
         try {
-          return connectionAndHostIndex.hostConnection.getBulk(domainId, keys);
+          HankBulkResponse response = connectionAndHostIndex.hostConnection.getBulk(domainId, keys);
+          requestEnded(connectionAndHostIndex, startNanos, false);
+          return response;
         } catch (IOException e) {
+          requestEnded(connectionAndHostIndex, startNanos, true);
           // In case of error, keep count of the number of times we retry
           ++numTries;
           if (numTries < maxNumTries) {
@@ -321,6 +470,311 @@ public class HostConnectionPool {
     }
   }
 
+  // Asynchronous version of get(). Retries are performed in the same way, but no thread is blocked
+  // when the connections are asynchronous. The callback is called exactly once.
+  public void getAsync(Domain domain, ByteBuffer key, int maxNumTries, Integer keyHash, GetCallback callback) {
+    HostConnectionAndHostIndex connectionAndHostIndex;
+    if (keyHash == null) {
+      connectionAndHostIndex = getConnectionToUse();
+    } else {
+      connectionAndHostIndex = getConnectionToUseForKey(keyHash);
+    }
+    new AsyncGetRequest(domain, key, maxNumTries, callback).execute(connectionAndHostIndex);
+  }
+
+  // Asynchronous version of getBulk(). The callback is called exactly once.
+  public void getBulkAsync(int domainId, List<ByteBuffer> keys, int maxNumTries, GetBulkCallback callback) {
+    new AsyncGetBulkRequest(domainId, keys, maxNumTries, callback).execute(getConnectionToUse());
+  }
+
+  // Hedged version of getAsync(). If no response was received after the hedger's delay, a duplicate query is sent
+  // to another host, without retries. The first successful response is returned and the other one is ignored.
+  // The callback is called exactly once.
+  public void getHedgedAsync(final Domain domain,
+                             final ByteBuffer key,
+                             final int maxNumTries,
+                             final Integer keyHash,
+                             RequestHedger hedger,
+                             final GetCallback callback) {
+    long delayNanos = hedger.getGetDelayNanos();
+    if (delayNanos < 0 || hostToConnections.size() < 2) {
+      getAsync(domain, key, maxNumTries, keyHash, callback);
+      return;
+    }
+    new HedgedRequest<HankResponse>(keyHash, maxNumTries, hedger, hedger.getGetLatencyRecorder()) {
+
+      @Override
+      protected void execute(HostConnectionAndHostIndex connectionAndHostIndex, int numTries, final boolean isHedge) {
+        new AsyncGetRequest(domain, key, numTries, new GetCallback() {
+          @Override
+          public void onComplete(HankResponse response) {
+            onResponse(response, response.is_set_xception(), isHedge);
+          }
+        }).execute(connectionAndHostIndex);
+      }
+
+      @Override
+      protected void complete(HankResponse response) {
+        callback.onComplete(response);
+      }
+    }.start(delayNanos);
+  }
+
+  // Hedged version of getBulkAsync(), see getHedgedAsync()
+  public void getBulkHedgedAsync(final int domainId,
+                                 final List<ByteBuffer> keys,
+                                 final int maxNumTries,
+                                 RequestHedger hedger,
+                                 final GetBulkCallback callback) {
+    long delayNanos = hedger.getGetBulkDelayNanos();
+    if (delayNanos < 0 || hostToConnections.size() < 2) {
+      getBulkAsync(domainId, keys, maxNumTries, callback);
+      return;
+    }
+    new HedgedRequest<HankBulkResponse>(null, maxNumTries, hedger, hedger.getGetBulkLatencyRecorder()) {
+
+      @Override
+      protected void execute(HostConnectionAndHostIndex connectionAndHostIndex, int numTries, final boolean isHedge) {
+        new AsyncGetBulkRequest(domainId, keys, numTries, new GetBulkCallback() {
+          @Override
+          public void onComplete(HankBulkResponse response) {
+            onResponse(response, response.is_set_xception(), isHedge);
+          }
+        }).execute(connectionAndHostIndex);
+      }
+
+      @Override
+      protected void complete(HankBulkResponse response) {
+        callback.onComplete(response);
+      }
+    }.start(delayNanos);
+  }
+
+  // A query that is sent to a second host if the first one is slow to respond. Connections are selected
+  // by the thread that uses them, since synchronous connections are locked by the selecting thread.
+  private abstract class HedgedRequest<T> {
+
+    private final Integer keyHash;
+    private final int maxNumTries;
+    private final RequestHedger hedger;
+    private final LatencyHistogramRecorder firstQueryLatencyRecorder;
+    private final AtomicBoolean isComplete = new AtomicBoolean(false);
+    private final AtomicInteger numPendingQueries = new AtomicInteger(1);
+    // -1 until the first query has selected its host
+    private volatile int firstHostIndex = -1;
+    private volatile long firstQueryStartNanos;
+    // Null until the hedge is scheduled
+    private volatile ScheduledFuture<?> hedgeFuture;
+    // Last failed response, returned if all queries fail
+    private volatile T failedResponse;
+
+    private HedgedRequest(Integer keyHash, int maxNumTries, RequestHedger hedger,
+                          LatencyHistogramRecorder firstQueryLatencyRecorder) {
+      this.keyHash = keyHash;
+      this.maxNumTries = maxNumTries;
+      this.hedger = hedger;
+      this.firstQueryLatencyRecorder = firstQueryLatencyRecorder;
+    }
+
+    // Send the query using the given connection, and call onResponse() when done
+    protected abstract void execute(HostConnectionAndHostIndex connectionAndHostIndex, int numTries, boolean isHedge);
+
+    protected abstract void complete(T response);
+
+    void start(long delayNanos) {
+      hedger.requestStarted();
+      firstQueryStartNanos = System.nanoTime();
+      Runnable firstQuery = new Runnable() {
+        @Override
+        public void run() {
+          HostConnectionAndHostIndex connectionAndHostIndex;
+          if (keyHash == null) {
+            connectionAndHostIndex = getConnectionToUse();
+          } else {
+            connectionAndHostIndex = getConnectionToUseForKey(keyHash);
+          }
+          if (connectionAndHostIndex != null) {
+            firstHostIndex = connectionAndHostIndex.hostIndex;
+          }
+          execute(connectionAndHostIndex, maxNumTries, false);
+        }
+      };
+      // Schedule the hedge first, since the first query completes before returning when it runs in this thread
+      hedgeFuture = hedger.schedule(new Runnable() {
+        @Override
+        public void run() {
+          if (!isComplete.get() && firstHostIndex >= 0) {
+            // Do not hedge when all threads are busy
+            hedger.tryExecute(new Runnable() {
+              @Override
+              public void run() {
+                hedge();
+              }
+            });
+          }
+        }
+      }, delayNanos);
+      // When all threads are busy, the first query runs in this thread
+      if (!hedger.tryExecute(firstQuery)) {
+        firstQuery.run();
+      }
+    }
+
+    private void hedge() {
+      HostConnectionAndHostIndex connectionAndHostIndex = getHedgeConnectionToUse(firstHostIndex);
+      if (connectionAndHostIndex == null) {
+        return;
+      }
+      numPendingQueries.incrementAndGet();
+      hedger.hedgeSent();
+      execute(connectionAndHostIndex, 1, true);
+    }
+
+    protected void onResponse(T response, boolean isFailed, boolean isHedge) {
+      if (!isHedge) {
+        // Hedge delays are based on the latency of first queries, whether the hedge responded first or not
+        firstQueryLatencyRecorder.recordSince(firstQueryStartNanos);
+      }
+      if (isFailed) {
+        failedResponse = response;
+        // Wait for the other query if it is still pending
+        if (numPendingQueries.decrementAndGet() == 0 && isComplete.compareAndSet(false, true)) {
+          cancelHedge();
+          complete(failedResponse);
+        }
+      } else if (isComplete.compareAndSet(false, true)) {
+        cancelHedge();
+        if (isHedge) {
+          hedger.hedgeWon();
+        }
+        complete(response);
+      }
+    }
+
+    private void cancelHedge() {
+      ScheduledFuture<?> future = hedgeFuture;
+      if (future != null) {
+        future.cancel(false);
+      }
+    }
+  }
+
+  private class AsyncGetRequest implements HostConnection.AsyncCallback<HankResponse> {
+
+    private final Domain domain;
+    private final ByteBuffer key;
+    private final int maxNumTries;
+    private final GetCallback callback;
+    private HostConnectionAndHostIndex connectionAndHostIndex;
+    private int numTries = 0;
+    private long startNanos;
+
+    private AsyncGetRequest(Domain domain, ByteBuffer key, int maxNumTries, GetCallback callback) {
+      this.domain = domain;
+      this.key = key;
+      this.maxNumTries = maxNumTries;
+      this.callback = callback;
+    }
+
+    private void execute(HostConnectionAndHostIndex connectionAndHostIndex) {
+      this.connectionAndHostIndex = connectionAndHostIndex;
+      // If we couldn't find any available connection, return corresponding error response
+      if (connectionAndHostIndex == null) {
+        LOG.error("No connection is available. Giving up. Domain = " + domain.getName() + ", Key=" + BytesUtils.bytesToHexString(key));
+        callback.onComplete(NO_CONNECTION_AVAILABLE_RESPONSE);
+      } else {
+        startNanos = requestStarted(connectionAndHostIndex);
+        connectionAndHostIndex.hostConnection.getAsync(domain.getId(), key, this);
+      }
+    }
+
+    @Override
+    public void onComplete(HankResponse response) {
+      requestEnded(connectionAndHostIndex, startNanos, false);
+      callback.onComplete(response);
+    }
+
+    @Override
+    public void onError(IOException e) {
+      requestEnded(connectionAndHostIndex, startNanos, true);
+      // In case of error, keep count of the number of times we retry
+      ++numTries;
+      if (numTries < maxNumTries) {
+        // Simply log the error and retry, skipping the previous host used (since it failed)
+        LOG.error("Failed to perform query with host: "
+            + connectionAndHostIndex.hostConnection.getHost().getAddress()
+            + ". Retrying. Try " + numTries + "/" + maxNumTries
+            + ", Domain = " + domain.getName()
+            + ", Key = " + BytesUtils.bytesToHexString(key), e);
+        execute(getNextConnectionToUse(connectionAndHostIndex.hostIndex));
+      } else {
+        // If we have exhausted tries, return an exception response
+        LOG.error("Failed to perform query with host: "
+            + connectionAndHostIndex.hostConnection.getHost().getAddress()
+            + ". Giving up. Try " + numTries + "/" + maxNumTries
+            + ", Domain = " + domain.getName()
+            + ", Key = " + BytesUtils.bytesToHexString(key), e);
+        callback.onComplete(HankResponse.xception(HankException.failed_retries(maxNumTries)));
+      }
+    }
+  }
+
+  private class AsyncGetBulkRequest implements HostConnection.AsyncCallback<HankBulkResponse> {
+
+    private final int domainId;
+    private final List<ByteBuffer> keys;
+    private final int maxNumTries;
+    private final GetBulkCallback callback;
+    private HostConnectionAndHostIndex connectionAndHostIndex;
+    private int numTries = 0;
+    private long startNanos;
+
+    private AsyncGetBulkRequest(int domainId, List<ByteBuffer> keys, int maxNumTries, GetBulkCallback callback) {
+      this.domainId = domainId;
+      this.keys = keys;
+      this.maxNumTries = maxNumTries;
+      this.callback = callback;
+    }
+
+    private void execute(HostConnectionAndHostIndex connectionAndHostIndex) {
+      this.connectionAndHostIndex = connectionAndHostIndex;
+      // If we couldn't find any available connection, return corresponding error response
+      if (connectionAndHostIndex == null) {
+        LOG.error("No connection is available. Giving up. Num keys = " + keys.size());
+        callback.onComplete(NO_CONNECTION_AVAILABLE_BULK_RESPONSE);
+      } else {
+        startNanos = requestStarted(connectionAndHostIndex);
+        connectionAndHostIndex.hostConnection.getBulkAsync(domainId, keys, this);
+      }
+    }
+
+    @Override
+    public void onComplete(HankBulkResponse response) {
+      requestEnded(connectionAndHostIndex, startNanos, false);
+      callback.onComplete(response);
+    }
+
+    @Override
+    public void onError(IOException e) {
+      requestEnded(connectionAndHostIndex, startNanos, true);
+      // In case of error, keep count of the number of times we retry
+      ++numTries;
+      if (numTries < maxNumTries) {
+        // Simply log the error and retry, skipping the previous host used (since it failed)
+        LOG.error("Failed to perform query with host #" + connectionAndHostIndex.hostIndex
+            + ". Retrying. Try " + numTries + "/" + maxNumTries
+            + ", Num keys = " + keys.size(), e);
+        execute(getNextConnectionToUse(connectionAndHostIndex.hostIndex));
+      } else {
+        // If we have exhausted tries, return an exception response
+        LOG.error("Failed to perform query with host #" + connectionAndHostIndex.hostIndex
+            + ". Giving up. Try " + numTries + "/" + maxNumTries
+            + ", Num keys = " + keys.size(), e);
+        callback.onComplete(HankBulkResponse.xception(HankException.failed_retries(maxNumTries)));
+      }
+    }
+  }
+
   public static Integer getHostListShuffleSeed(Integer domainId, Integer partitionId) {
     return (domainId + 1) * (partitionId + 1);
   }
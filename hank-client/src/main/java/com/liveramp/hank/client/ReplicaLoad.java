@@ -0,0 +1,82 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Number of outstanding requests and moving average latency of the requests sent to a host, shared by
+ * all connections to that host. The average immediately rises to a higher latency and otherwise decays
+ * over time, so that a slow host is avoided right away and tried again once it has been left alone for a while.
+ */
+class ReplicaLoad {
+
+  // Time constant of the moving average
+  private static final double DECAY_NANOS = 5e9;
+  // Latency recorded for failed requests
+  private static final long FAILED_REQUEST_LATENCY_NANOS = 1000000000L;
+
+  private final AtomicInteger numOutstandingRequests = new AtomicInteger(0);
+  private double latencyNanos = 0;
+  private long lastUpdateNanos = System.nanoTime();
+
+  // Return the start time of the request
+  long requestStarted() {
+    numOutstandingRequests.incrementAndGet();
+    return System.nanoTime();
+  }
+
+  void requestCompleted(long startNanos) {
+    long nowNanos = System.nanoTime();
+    numOutstandingRequests.decrementAndGet();
+    recordLatency(nowNanos - startNanos, nowNanos);
+  }
+
+  void requestFailed(long startNanos) {
+    long nowNanos = System.nanoTime();
+    numOutstandingRequests.decrementAndGet();
+    recordLatency(Math.max(nowNanos - startNanos, FAILED_REQUEST_LATENCY_NANOS), nowNanos);
+  }
+
+  int getNumOutstandingRequests() {
+    return numOutstandingRequests.get();
+  }
+
+  synchronized double getLatencyNanos(long nowNanos) {
+    return latencyNanos * getDecay(nowNanos);
+  }
+
+  // Moving average latency weighted by the number of outstanding requests, including the one being routed
+  double getCost(long nowNanos) {
+    return getLatencyNanos(nowNanos) * (getNumOutstandingRequests() + 1);
+  }
+
+  private synchronized void recordLatency(long requestLatencyNanos, long nowNanos) {
+    double weight = getDecay(nowNanos);
+    double decayedLatencyNanos = latencyNanos * weight;
+    if (requestLatencyNanos > decayedLatencyNanos) {
+      latencyNanos = requestLatencyNanos;
+    } else {
+      latencyNanos = decayedLatencyNanos + requestLatencyNanos * (1 - weight);
+    }
+    lastUpdateNanos = nowNanos;
+  }
+
+  private double getDecay(long nowNanos) {
+    return Math.exp(-Math.max(0, nowNanos - lastUpdateNanos) / DECAY_NANOS);
+  }
+}
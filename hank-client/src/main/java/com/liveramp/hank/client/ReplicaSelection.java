@@ -0,0 +1,35 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.client;
+
+/**
+ * Strategy used by a HostConnectionPool to pick the host a query is sent to. Whenever hosts are
+ * equally loaded, the host that key-affinity (or round-robin when there is no key) would pick wins,
+ * so that values stay in the same host's caches.
+ */
+public enum ReplicaSelection {
+
+  // Pick hosts in turn, or by key hash when a key is supplied, regardless of their load
+  ROUND_ROBIN,
+
+  // Compare the preferred host with another random host and pick the one with the lowest moving average latency
+  // weighted by outstanding requests
+  POWER_OF_TWO_CHOICES,
+
+  // Pick the host with the fewest outstanding requests
+  LEAST_OUTSTANDING_REQUESTS
+}
@@ -0,0 +1,217 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.client;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.liveramp.hank.metrics.MetricsRegistry;
+import com.liveramp.hank.partition_server.LatencyHistogram;
+import com.liveramp.hank.partition_server.LatencyHistogramRecorder;
+import com.liveramp.hank.util.StripedLongCollection;
+
+/**
+ * Decides when a hedged request sends a duplicate to another host, and executes hedged requests.
+ * The hedge delay is a percentile of the latencies of first queries (not of hedged requests as a whole,
+ * which hedges make faster) measured over the last statistics interval.
+ * Until latencies have been measured, requests are not hedged.
+ * <p/>
+ * With synchronous connections, each request is performed by a thread of a bounded executor, so that
+ * the caller can return the first response while the other request is still blocked on its connection.
+ * When all threads are busy, first queries run in the calling thread and hedges are not sent.
+ * With asynchronous connections, requests are simply started from the calling thread.
+ */
+class RequestHedger {
+
+  private static final long THREAD_KEEP_ALIVE_TIME_SECONDS = 60;
+
+  private final double delayPercentile;
+  private final long minDelayNanos;
+  // -1 when latencies are unknown
+  private volatile long getDelayNanos = -1;
+  private volatile long getBulkDelayNanos = -1;
+  // Null when connections are asynchronous
+  private final ThreadPoolExecutor executor;
+  private final ScheduledThreadPoolExecutor timer;
+  // Latencies of first queries
+  private final LatencyHistogramRecorder getLatencyRecorder = new LatencyHistogramRecorder();
+  private final LatencyHistogramRecorder getBulkLatencyRecorder = new LatencyHistogramRecorder();
+  static final String[] COUNTER_NAMES = new String[]{
+      "requests",
+      "hedged_requests",
+      "hedge_wins"};
+  private static final int NUM_REQUESTS = 0;
+  private static final int NUM_HEDGED_REQUESTS = 1;
+  private static final int NUM_HEDGE_WINS = 2;
+  // Cumulative counters, incremented by every request
+  private final StripedLongCollection counters;
+  // Only accessed by the statistics thread
+  private long[] countersAtIntervalStart;
+
+  RequestHedger(double delayPercentile, int minDelayMs, int threadPoolMaxSize, boolean asyncConnections) {
+    this(delayPercentile, minDelayMs, threadPoolMaxSize, asyncConnections, new StripedLongCollection(COUNTER_NAMES.length));
+  }
+
+  // Counters are usually obtained from a MetricsRegistry with getCounters()
+  RequestHedger(double delayPercentile,
+                int minDelayMs,
+                int threadPoolMaxSize,
+                boolean asyncConnections,
+                StripedLongCollection counters) {
+    this.counters = counters;
+    this.countersAtIntervalStart = counters.getAsArray();
+    this.delayPercentile = delayPercentile;
+    this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMs);
+    if (asyncConnections) {
+      this.executor = null;
+    } else {
+      // No queue: tasks are rejected when all threads are busy
+      this.executor = new ThreadPoolExecutor(
+          threadPoolMaxSize,
+          threadPoolMaxSize,
+          THREAD_KEEP_ALIVE_TIME_SECONDS,
+          TimeUnit.SECONDS,
+          new SynchronousQueue<Runnable>(),
+          new HedgeThreadFactory("Hedged Request Thread"));
+      executor.allowCoreThreadTimeOut(true);
+    }
+    this.timer = new ScheduledThreadPoolExecutor(1, new HedgeThreadFactory("Hedge Timer Thread"));
+    // Hedges of requests that completed before their delay are cancelled, do not keep them queued
+    timer.setRemoveOnCancelPolicy(true);
+  }
+
+  // Counters of hedged requests, registered as "client.hedging.<counter>"
+  static StripedLongCollection getCounters(MetricsRegistry metricsRegistry) {
+    return metricsRegistry.getCounters("client.hedging", COUNTER_NAMES);
+  }
+
+  // Delay before a duplicate of a GET request is sent, or -1 if GET requests should not be hedged
+  long getGetDelayNanos() {
+    return getDelayNanos;
+  }
+
+  // Delay before a duplicate of a GET BULK request is sent, or -1 if GET BULK requests should not be hedged
+  long getGetBulkDelayNanos() {
+    return getBulkDelayNanos;
+  }
+
+  // Latencies of the first queries of hedged GET requests
+  LatencyHistogramRecorder getGetLatencyRecorder() {
+    return getLatencyRecorder;
+  }
+
+  // Latencies of the first queries of hedged GET BULK requests
+  LatencyHistogramRecorder getGetBulkLatencyRecorder() {
+    return getBulkLatencyRecorder;
+  }
+
+  // Called at the end of each statistics interval
+  void updateDelays() {
+    updateDelays(getLatencyRecorder.getIntervalHistogram(), getBulkLatencyRecorder.getIntervalHistogram());
+  }
+
+  // Empty histograms leave delays unchanged
+  void updateDelays(LatencyHistogram getLatencies, LatencyHistogram getBulkLatencies) {
+    if (getLatencies.getTotalCount() != 0) {
+      getDelayNanos = getDelayNanos(getLatencies);
+    }
+    if (getBulkLatencies.getTotalCount() != 0) {
+      getBulkDelayNanos = getDelayNanos(getBulkLatencies);
+    }
+  }
+
+  private long getDelayNanos(LatencyHistogram latencies) {
+    // Latencies are in milliseconds
+    long delayNanos = (long)(latencies.getValueAtPercentile(delayPercentile) * 1000000d);
+    return Math.max(minDelayNanos, delayNanos);
+  }
+
+  // Return false if the runnable could not be executed because all threads are busy
+  boolean tryExecute(Runnable runnable) {
+    if (executor == null) {
+      runnable.run();
+      return true;
+    }
+    try {
+      executor.execute(runnable);
+      return true;
+    } catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  // The returned future should be cancelled if the runnable becomes useless
+  ScheduledFuture<?> schedule(Runnable runnable, long delayNanos) {
+    return timer.schedule(runnable, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  int getNumScheduledTasks() {
+    return timer.getQueue().size();
+  }
+
+  void requestStarted() {
+    counters.add(NUM_REQUESTS, 1);
+  }
+
+  void hedgeSent() {
+    counters.add(NUM_HEDGED_REQUESTS, 1);
+  }
+
+  void hedgeWon() {
+    counters.add(NUM_HEDGE_WINS, 1);
+  }
+
+  // Return the number of requests, hedged requests and hedges that responded first since the last call
+  long[] getIntervalCounters() {
+    long[] countersNow = counters.getAsArray();
+    long[] result = new long[countersNow.length];
+    for (int i = 0; i < countersNow.length; ++i) {
+      result[i] = countersNow[i] - countersAtIntervalStart[i];
+    }
+    countersAtIntervalStart = countersNow;
+    return result;
+  }
+
+  void stop() {
+    timer.shutdownNow();
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  private static class HedgeThreadFactory implements ThreadFactory {
+
+    private final String name;
+    private int threadId = 0;
+
+    private HedgeThreadFactory(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public synchronized Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, name + " " + threadId++);
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.client;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import com.liveramp.commons.util.BytesUtils;
+import com.liveramp.commons.util.MemoryUsageEstimator;
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.util.HankResponseMemoryUsageEstimator;
+import com.liveramp.hank.util.StripedMemoryBoundCache;
+
+/**
+ * Client-side cache of GET responses, split in independently locked stripes.
+ * <p/>
+ * Responses are tagged with the versions of their domain that were being served when they were requested.
+ * When hosts start or finish serving another version of a domain, all cached responses of that domain
+ * are invalidated at once: they are ignored by lookups, and eventually overwritten or evicted.
+ * Responses also expire after a fixed period.
+ */
+class ResponseCache {
+
+  private static final Logger LOG = Logger.getLogger(ResponseCache.class);
+
+  private final StripedMemoryBoundCache<DomainAndKey, VersionedResponse> cache;
+  private final long expirationPeriodMs;
+  // Domain id to the range of versions being served (see getServedVersions), replaced as a whole
+  private volatile Map<Integer, Long> domainIdToServedVersions = Collections.emptyMap();
+
+  public ResponseCache(boolean isEnabled,
+                       long numBytesCapacity,
+                       int numItemsCapacity,
+                       int concurrencyLevel,
+                       long expirationPeriodSeconds) {
+    this.cache = new StripedMemoryBoundCache<DomainAndKey, VersionedResponse>(
+        isEnabled,
+        numBytesCapacity,
+        numItemsCapacity,
+        concurrencyLevel,
+        new DomainAndKey.DomainAndKeyMemoryUsageEstimator(),
+        new VersionedResponseMemoryUsageEstimator());
+    this.expirationPeriodMs = expirationPeriodSeconds * 1000;
+  }
+
+  public boolean isEnabled() {
+    return cache.isEnabled();
+  }
+
+  // Return an identifier of the versions of the given domain that are currently being served,
+  // to be passed to put() with the response of a request. Null when they are not known.
+  public Long getServedVersions(Domain domain) {
+    if (!isEnabled()) {
+      return null;
+    }
+    return domainIdToServedVersions.get(domain.getId());
+  }
+
+  public HankResponse get(Domain domain, ByteBuffer key) {
+    if (!isEnabled()) {
+      return null;
+    }
+    VersionedResponse cachedResponse = cache.get(new DomainAndKey(domain, key));
+    if (cachedResponse == null
+        || !cachedResponse.isServedVersions(getServedVersions(domain))
+        || System.currentTimeMillis() - cachedResponse.timestamp >= expirationPeriodMs) {
+      return null;
+    }
+    return cachedResponse.response;
+  }
+
+  // Only values and not found responses are cached. The key and response are copied.
+  public void put(Domain domain, ByteBuffer key, Long servedVersions, HankResponse response) {
+    if (!isEnabled() || servedVersions == null || !(response.is_set_value() || response.is_set_not_found())) {
+      return;
+    }
+    cache.put(new DomainAndKey(domain, BytesUtils.byteBufferDeepCopy(key)),
+        new VersionedResponse(response.deepCopy(), servedVersions, System.currentTimeMillis()));
+  }
+
+  // Called with the versions of each domain being served by the ring group, whenever data locations change
+  public void setServedVersions(Map<Integer, Long> newDomainIdToServedVersions) {
+    if (!isEnabled()) {
+      return;
+    }
+    for (Map.Entry<Integer, Long> entry : domainIdToServedVersions.entrySet()) {
+      if (!entry.getValue().equals(newDomainIdToServedVersions.get(entry.getKey()))) {
+        LOG.info("Served versions of domain " + entry.getKey() + " changed, invalidating its cached responses");
+      }
+    }
+    domainIdToServedVersions = newDomainIdToServedVersions;
+  }
+
+  // Identify a range of served versions. Unknown versions are represented by -1.
+  public static long getServedVersions(int minVersion, int maxVersion) {
+    return ((long)minVersion << 32) | (maxVersion & 0xffffffffL);
+  }
+
+  public int size() {
+    return cache.size();
+  }
+
+  public long getNumManagedBytes() {
+    return cache.getNumManagedBytes();
+  }
+
+  private static class VersionedResponse {
+
+    private final HankResponse response;
+    private final long servedVersions;
+    private final long timestamp;
+
+    private VersionedResponse(HankResponse response, long servedVersions, long timestamp) {
+      this.response = response;
+      this.servedVersions = servedVersions;
+      this.timestamp = timestamp;
+    }
+
+    private boolean isServedVersions(Long servedVersions) {
+      return servedVersions != null && this.servedVersions == servedVersions;
+    }
+  }
+
+  private static class VersionedResponseMemoryUsageEstimator implements MemoryUsageEstimator<VersionedResponse> {
+
+    private final HankResponseMemoryUsageEstimator responseEstimator = new HankResponseMemoryUsageEstimator();
+
+    @Override
+    public long estimateMemorySize(VersionedResponse item) {
+      return responseEstimator.estimateMemorySize(item.response);
+    }
+  }
+}
@@ -0,0 +1,65 @@
+package com.liveramp.hank.client;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.coordinator.mock.MockDomain;
+import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestGetRequestCoalescer extends BaseTestCase {
+
+  private static class RecordingCallback implements GetCallback {
+
+    private final List<HankResponse> responses = new ArrayList<HankResponse>();
+
+    @Override
+    public void onComplete(HankResponse response) {
+      responses.add(response);
+    }
+  }
+
+  @Test
+  public void testCoalescing() {
+    GetRequestCoalescer coalescer = new GetRequestCoalescer();
+    Domain domain0 = new MockDomain("domain0", 0, 1, null, null, null, null);
+    Domain domain1 = new MockDomain("domain1", 1, 1, null, null, null, null);
+    ByteBuffer key = ByteBuffer.wrap(new byte[]{1, 2, 3});
+    RecordingCallback callback = new RecordingCallback();
+
+    GetRequestCoalescer.InFlightGet inFlightGet = coalescer.join(domain0, key, callback);
+    assertNotNull(inFlightGet);
+    // Same key, joins the request in flight
+    assertNull(coalescer.join(domain0, ByteBuffer.wrap(new byte[]{1, 2, 3}), callback));
+    assertNull(coalescer.join(domain0, key, callback));
+    // Other domain or other key
+    GetRequestCoalescer.InFlightGet otherDomainGet = coalescer.join(domain1, key, callback);
+    assertNotNull(otherDomainGet);
+    GetRequestCoalescer.InFlightGet otherKeyGet = coalescer.join(domain0, ByteBuffer.wrap(new byte[]{4}), callback);
+    assertNotNull(otherKeyGet);
+    assertEquals(3, coalescer.getNumInFlightGets());
+
+    HankResponse response = HankResponse.value(ByteBuffer.wrap(new byte[]{5}));
+    inFlightGet.complete(response);
+    assertEquals(2, callback.responses.size());
+    assertSame(response, callback.responses.get(0));
+    assertSame(response, callback.responses.get(1));
+    assertEquals(2, coalescer.getNumInFlightGets());
+
+    // Completed requests are not joined
+    assertNotNull(coalescer.join(domain0, key, callback));
+
+    otherDomainGet.complete(HankResponse.not_found(true));
+    otherKeyGet.complete(HankResponse.not_found(true));
+    assertEquals(2, callback.responses.size());
+  }
+}
@@ -84,7 +84,6 @@ public class TestHankSmartClient extends BaseTestCase {
 
   private static class MockPartitionServerHandler implements PartitionServer.Iface {
     private final HankResponse response;
-    private final HankBulkResponse bulkResponse;
     private Mode mode = Mode.NORMAL;
     private int numRequests = 0;
 
@@ -97,9 +96,6 @@ public class TestHankSmartClient extends BaseTestCase {
 
     public MockPartitionServerHandler(ByteBuffer result) {
       this.response = HankResponse.value(result);
-      List<HankResponse> responses = new ArrayList<HankResponse>();
-      responses.add(HankResponse.value(result));
-      this.bulkResponse = HankBulkResponse.responses(responses);
     }
 
     @Override
@@ -117,7 +113,15 @@ public class TestHankSmartClient extends BaseTestCase {
     public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) throws TException {
       applyMode();
       numRequests += keys.size();
-      return bulkResponse;
+      List<HankResponse> responses = new ArrayList<HankResponse>();
+      for (ByteBuffer key : keys) {
+        if (key.equals(KEY_NOT_FOUND)) {
+          responses.add(HankResponse.not_found(true));
+        } else {
+          responses.add(response);
+        }
+      }
+      return HankBulkResponse.responses(responses);
     }
 
     public int getNumRequests() {
@@ -258,6 +262,17 @@ public class TestHankSmartClient extends BaseTestCase {
               .setResponseCacheNumItemsCapacity(1)
               .setResponseCacheNumBytesCapacity(-1)
               .setResponseCacheExpirationSeconds(1));
+      final HankSmartClient versionedCachingClient = new HankSmartClient(mockCoord, "myRingGroup",
+          new HankSmartClientOptions()
+              .setResponseCacheEnabled(true)
+              .setResponseCacheNumItemsCapacity(10)
+              .setResponseCacheNumBytesCapacity(-1)
+              .setResponseCacheExpirationSeconds(3600));
+      final HankSmartClient asyncClient = new HankSmartClient(mockCoord, "myRingGroup",
+          new HankSmartClientOptions()
+              .setQueryTimeoutMs(1000)
+              .setNumConnectionsPerHost(2)
+              .setAsyncEnabled(true));
 
       // Test invalid get
       assertEquals(HankResponse.xception(HankException.no_such_domain(true)), client.get("nonexistent_domain", null));
@@ -278,6 +293,35 @@ public class TestHankSmartClient extends BaseTestCase {
       bulkRequest1.add(KEY_2);
       assertEquals(bulkResponse1, client.getBulk("existent_domain", bulkRequest1));
 
+      // Test getBulk with several keys per host, responses should be in request order
+      HankBulkResponse bulkResponse2 = HankBulkResponse.responses(new ArrayList<HankResponse>());
+      bulkResponse2.get_responses().add(HankResponse.value(VALUE_2));
+      bulkResponse2.get_responses().add(HankResponse.not_found(true));
+      bulkResponse2.get_responses().add(HankResponse.value(VALUE_1));
+      bulkResponse2.get_responses().add(HankResponse.value(VALUE_1));
+      List<ByteBuffer> bulkRequest2 = new ArrayList<ByteBuffer>();
+      bulkRequest2.add(KEY_2);
+      bulkRequest2.add(KEY_NOT_FOUND);
+      bulkRequest2.add(KEY_1);
+      bulkRequest2.add(KEY_1);
+      assertEquals(bulkResponse2, client.getBulk("existent_domain", bulkRequest2));
+
+      // Test asynchronous connections
+      assertEquals(HankResponse.value(VALUE_1), asyncClient.get("existent_domain", KEY_1));
+      assertEquals(HankResponse.not_found(true), asyncClient.get("existent_domain", KEY_NOT_FOUND));
+      assertEquals(bulkResponse2, asyncClient.getBulk("existent_domain", bulkRequest2));
+      List<ByteBuffer> concurrentRequest = new ArrayList<ByteBuffer>();
+      for (int i = 0; i < 100; ++i) {
+        concurrentRequest.add(i % 2 == 0 ? KEY_1 : KEY_2);
+      }
+      List<FutureGet> futureGets = asyncClient.concurrentGet("existent_domain", concurrentRequest);
+      for (int i = 0; i < futureGets.size(); ++i) {
+        assertEquals(HankResponse.value(i % 2 == 0 ? VALUE_1 : VALUE_2), futureGets.get(i).getResponse());
+      }
+      assertEquals(HankResponse.xception(HankException.no_such_domain(true)),
+          asyncClient.concurrentGet("nonexistent_domain", KEY_1).getResponse());
+      asyncClient.stop();
+
       // Test get with null key
       try {
         client.get("existent_domain", null);
@@ -381,6 +425,29 @@ public class TestHankSmartClient extends BaseTestCase {
       assertEquals(HankResponse.not_found(true), cachingClient.get("existent_domain", KEY_NOT_FOUND));
       assertEquals(2, iface1.getNumRequests());
 
+      // Test caching while a host is updated in place
+      iface1.clearNumRequests();
+      assertEquals(HankResponse.value(VALUE_1), versionedCachingClient.get("existent_domain", KEY_1));
+      assertEquals(HankResponse.value(VALUE_1), versionedCachingClient.get("existent_domain", KEY_1));
+      assertEquals(1, iface1.getNumRequests());
+
+      // Host 1 serves a new version of its partition without leaving the SERVING state
+      assertEquals(HostState.SERVING, host1.getState());
+      host1.getAssignedDomains().iterator().next().getPartitions().iterator().next().setCurrentDomainVersion(2);
+      versionedCachingClient.onDataLocationChange(mockCoord.getRingGroup("myRingGroup"));
+
+      // Cached response of the previous version is invalidated
+      WaitUntil.orDie(new Condition() {
+        @Override
+        public boolean test() {
+          versionedCachingClient.get("existent_domain", KEY_1);
+          return iface1.getNumRequests() == 2;
+        }
+      });
+      // Response of the new version is cached
+      assertEquals(HankResponse.value(VALUE_1), versionedCachingClient.get("existent_domain", KEY_1));
+      assertEquals(2, iface1.getNumRequests());
+
     } finally {
       server1.stop();
       server2.stop();
@@ -422,6 +489,7 @@ public class TestHankSmartClient extends BaseTestCase {
 
   private Host getHost(final Domain domain, PartitionServerAddress address, final int partNum)
       throws IOException {
+    final HostDomainPartition partition = new MockHostDomainPartition(partNum, 1);
     MockHost hc = new MockHost(address) {
       @Override
       public Set<HostDomain> getAssignedDomains() throws IOException {
@@ -433,9 +501,7 @@ public class TestHankSmartClient extends BaseTestCase {
 
           @Override
           public Set<HostDomainPartition> getPartitions() {
-            return Collections
-                .singleton((HostDomainPartition) new MockHostDomainPartition(
-                    partNum, 1));
+            return Collections.singleton(partition);
           }
         });
       }
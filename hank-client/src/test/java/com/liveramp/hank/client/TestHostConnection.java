@@ -19,11 +19,19 @@ package com.liveramp.hank.client;
 import java.io.IOException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 import org.apache.thrift.TException;
+import org.apache.thrift.async.TAsyncClientManager;
 import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.server.THsHaServer;
 import org.apache.thrift.server.TServer;
@@ -46,6 +54,7 @@ import com.liveramp.hank.util.HankTimer;
 import com.liveramp.hank.util.WaitUntil;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -253,6 +262,236 @@ public class TestHostConnection extends BaseTestCase {
     }
   }
 
+  @Test
+  public void testAsyncCallsInFlight() throws Exception {
+    mockHost.setState(HostState.SERVING);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger numGetsStarted = new AtomicInteger(0);
+    IfaceWithShutdown blockingIface = new IfaceWithShutdown() {
+      @Override
+      public void shutDown() throws InterruptedException {
+      }
+
+      @Override
+      public HankResponse get(int domain_id, ByteBuffer key) throws TException {
+        numGetsStarted.incrementAndGet();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        return RESPONSE_1;
+      }
+
+      @Override
+      public HankBulkResponse getBulk(int domain_id, List<ByteBuffer> keys) throws TException {
+        return RESPONSE_BULK_1;
+      }
+    };
+    startMockPartitionServerThread(blockingIface, 4);
+
+    TAsyncClientManager asyncClientManager = new TAsyncClientManager();
+    ExecutorService callbackExecutor = Executors.newFixedThreadPool(1);
+    try {
+      HostConnection connection = new HostConnection(mockHost, 1000, 1000, 5000, 5000,
+          asyncClientManager, 3, callbackExecutor, new ReplicaLoad());
+      List<RecordingCallback<HankResponse>> callbacks = new ArrayList<RecordingCallback<HankResponse>>();
+      for (int i = 0; i < 4; ++i) {
+        RecordingCallback<HankResponse> callback = new RecordingCallback<HankResponse>();
+        callbacks.add(callback);
+        connection.getAsync(0, KEY_1, callback);
+      }
+      // 3 calls reach the server concurrently, the 4th one is queued
+      WaitUntil.orDie(new Condition() {
+        @Override
+        public boolean test() {
+          return numGetsStarted.get() == 3;
+        }
+      });
+      assertTrue(connection.isLocked());
+      Thread.sleep(100);
+      assertEquals(3, numGetsStarted.get());
+      release.countDown();
+      for (RecordingCallback<HankResponse> callback : callbacks) {
+        assertEquals(RESPONSE_1, callback.await());
+      }
+      assertEquals(4, numGetsStarted.get());
+      assertFalse(connection.isLocked());
+    } finally {
+      release.countDown();
+      asyncClientManager.stop();
+      callbackExecutor.shutdown();
+    }
+  }
+
+  @Test
+  public void testAsyncCallbacksDoNotBlockSelector() throws Exception {
+    mockHost.setState(HostState.SERVING);
+    startMockPartitionServerThread(mockIface, 2);
+
+    TAsyncClientManager asyncClientManager = new TAsyncClientManager();
+    ExecutorService callbackExecutor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        return new Thread(runnable, "callback");
+      }
+    });
+    final CountDownLatch releaseSlowCallback = new CountDownLatch(1);
+    try {
+      HostConnection connection = new HostConnection(mockHost, 1000, 1000, 5000, 5000,
+          asyncClientManager, 2, callbackExecutor, new ReplicaLoad());
+      // A callback that blocks until released
+      RecordingCallback<HankResponse> slowCallback = new RecordingCallback<HankResponse>() {
+        @Override
+        public void onComplete(HankResponse response) {
+          try {
+            releaseSlowCallback.await();
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          }
+          super.onComplete(response);
+        }
+      };
+      connection.getAsync(0, KEY_1, slowCallback);
+      // Other queries still complete, on the callback threads
+      RecordingCallback<HankResponse> callback = new RecordingCallback<HankResponse>();
+      connection.getAsync(0, KEY_1, callback);
+      assertEquals(RESPONSE_1, callback.await());
+      assertEquals("callback", callback.threadName);
+      assertEquals(RESPONSE_BULK_1, connection.getBulk(0, Collections.singletonList(KEY_1)));
+      releaseSlowCallback.countDown();
+      assertEquals(RESPONSE_1, slowCallback.await());
+    } finally {
+      releaseSlowCallback.countDown();
+      asyncClientManager.stop();
+      callbackExecutor.shutdown();
+    }
+  }
+
+  @Test
+  public void testAsyncErrors() throws Exception {
+    TAsyncClientManager asyncClientManager = new TAsyncClientManager();
+    ExecutorService callbackExecutor = Executors.newFixedThreadPool(1);
+    try {
+      HostConnection connection = new HostConnection(mockHost, 1000, 1000, 1000, 1000,
+          asyncClientManager, 2, callbackExecutor, new ReplicaLoad());
+      // Host is not serving
+      mockHost.setState(HostState.IDLE);
+      RecordingCallback<HankResponse> callback = new RecordingCallback<HankResponse>();
+      connection.getAsync(0, KEY_1, callback);
+      try {
+        callback.await();
+        fail("Should fail");
+      } catch (IOException e) {
+        assertEquals("Connection to host is not available (host is not serving).", e.getMessage());
+      }
+      // Host is serving but no server is running
+      mockHost.setState(HostState.SERVING);
+      for (int i = 0; i < 3; ++i) {
+        callback = new RecordingCallback<HankResponse>();
+        connection.getAsync(0, KEY_1, callback);
+        try {
+          callback.await();
+          fail("Should fail");
+        } catch (IOException e) {
+          // Expected
+        }
+      }
+      // Recovers once the server is up
+      startMockPartitionServerThread(mockIface, 1);
+      assertEquals(RESPONSE_1, connection.get(0, KEY_1));
+    } finally {
+      asyncClientManager.stop();
+      callbackExecutor.shutdown();
+    }
+  }
+
+  @Test
+  public void testAsyncHostStateChangeWithCallInFlight() throws Exception {
+    mockHost.setState(HostState.SERVING);
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    IfaceWithShutdown blockingIface = new IfaceWithShutdown() {
+      @Override
+      public void shutDown() throws InterruptedException {
+      }
+
+      @Override
+      public HankResponse get(int domain_id, ByteBuffer key) throws TException {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+        return RESPONSE_1;
+      }
+
+      @Override
+      public HankBulkResponse getBulk(int domain_id, List<ByteBuffer> keys) throws TException {
+        return RESPONSE_BULK_1;
+      }
+    };
+    startMockPartitionServerThread(blockingIface, 2);
+
+    TAsyncClientManager asyncClientManager = new TAsyncClientManager();
+    ExecutorService callbackExecutor = Executors.newFixedThreadPool(1);
+    try {
+      // No query timeout
+      final HostConnection connection = new HostConnection(mockHost, 1000, 1000, 0, 0,
+          asyncClientManager, 1, callbackExecutor, new ReplicaLoad());
+      RecordingCallback<HankResponse> callback = new RecordingCallback<HankResponse>();
+      connection.getAsync(0, KEY_1, callback);
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      // The host state changes while the call is in flight
+      mockHost.setState(HostState.SERVING);
+      release.countDown();
+      // The call still completes and its socket is available again
+      assertEquals(RESPONSE_1, callback.await());
+      WaitUntil.orDie(new Condition() {
+        @Override
+        public boolean test() {
+          return !connection.isLocked();
+        }
+      });
+      assertEquals(RESPONSE_1, connection.get(0, KEY_1));
+    } finally {
+      release.countDown();
+      asyncClientManager.stop();
+      callbackExecutor.shutdown();
+    }
+  }
+
+  private static class RecordingCallback<T> implements HostConnection.AsyncCallback<T> {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private T response;
+    private IOException error;
+    private String threadName;
+
+    @Override
+    public void onComplete(T response) {
+      this.response = response;
+      this.threadName = Thread.currentThread().getName();
+      latch.countDown();
+    }
+
+    @Override
+    public void onError(IOException e) {
+      this.error = e;
+      this.threadName = Thread.currentThread().getName();
+      latch.countDown();
+    }
+
+    public T await() throws IOException, InterruptedException {
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+      if (error != null) {
+        throw error;
+      }
+      return response;
+    }
+  }
+
   public static class MockPartitionServer implements Runnable {
 
     private final IfaceWithShutdown handler;
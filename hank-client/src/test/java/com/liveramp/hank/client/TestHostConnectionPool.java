@@ -24,6 +24,7 @@ import com.liveramp.hank.coordinator.mock.MockDomain;
 import com.liveramp.hank.generated.HankBulkResponse;
 import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.partition_server.LatencyHistogram;
 import com.liveramp.hank.partition_server.IfaceWithShutdown;
 import com.liveramp.hank.test.BaseTestCase;
 import com.liveramp.hank.test.coordinator.MockHost;
@@ -125,6 +126,19 @@ public class TestHostConnectionPool extends BaseTestCase {
     }
   }
 
+  private static class SlowResponse1Iface extends MockIface {
+
+    @Override
+    public HankResponse getCore(int domain_id, ByteBuffer key) throws TException {
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return RESPONSE_1;
+    }
+  }
+
   private class HankExceptionIface extends MockIface {
 
     @Override
@@ -437,6 +451,102 @@ public class TestHostConnectionPool extends BaseTestCase {
     }
   }
 
+  @Test
+  public void testPowerOfTwoChoicesAvoidsSlowHost() throws IOException, TException, InterruptedException {
+
+    MockIface iface1 = new SlowResponse1Iface();
+    MockIface iface2 = new Response1Iface();
+
+    startMockPartitionServerThread1(iface1, 1);
+    startMockPartitionServerThread2(iface2, 1);
+
+    Map<Host, List<HostConnection>> hostToConnectionsMap = new HashMap<Host, List<HostConnection>>();
+
+    int tryLockTimeoutMs = 0;
+    int establishConnectionTimeoutMs = 0;
+    int queryTimeoutMs = 0;
+    int bulkQueryTimeoutMs = 0;
+
+    hostToConnectionsMap.put(mockHost1, Collections.singletonList(new HostConnection(mockHost1,
+        tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs)));
+    hostToConnectionsMap.put(mockHost2, Collections.singletonList(new HostConnection(mockHost2,
+        tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs)));
+
+    HostConnectionPool hostConnectionPool
+        = new HostConnectionPool(hostToConnectionsMap, null, ReplicaSelection.POWER_OF_TWO_CHOICES);
+
+    mockHost1.setState(HostState.SERVING);
+    mockHost2.setState(HostState.SERVING);
+
+    for (int i = 0; i < 20; ++i) {
+      assertEquals(RESPONSE_1, hostConnectionPool.get(mockDomain, KEY_1, 1, null));
+    }
+    // Once its latency is known, the slow host should not be queried anymore
+    assertTrue("Slow host should have served at most one request", iface1.numGets <= 1);
+    assertEquals("Fast host should have served all other requests", 20 - iface1.numGets, iface2.numGets);
+  }
+
+  @Test
+  public void testHedgedRequests() throws IOException, TException, InterruptedException {
+
+    MockIface iface1 = new SlowResponse1Iface();
+    MockIface iface2 = new Response1Iface();
+
+    startMockPartitionServerThread1(iface1, 1);
+    startMockPartitionServerThread2(iface2, 1);
+
+    Map<Host, List<HostConnection>> hostToConnectionsMap = new HashMap<Host, List<HostConnection>>();
+
+    int tryLockTimeoutMs = 0;
+    int establishConnectionTimeoutMs = 0;
+    int queryTimeoutMs = 0;
+    int bulkQueryTimeoutMs = 0;
+
+    hostToConnectionsMap.put(mockHost1, Collections.singletonList(new HostConnection(mockHost1,
+        tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs)));
+    hostToConnectionsMap.put(mockHost2, Collections.singletonList(new HostConnection(mockHost2,
+        tryLockTimeoutMs, establishConnectionTimeoutMs, queryTimeoutMs, bulkQueryTimeoutMs)));
+
+    HostConnectionPool hostConnectionPool = new HostConnectionPool(hostToConnectionsMap, null);
+
+    mockHost1.setState(HostState.SERVING);
+    mockHost2.setState(HostState.SERVING);
+
+    final RequestHedger hedger = new RequestHedger(99, 20, 4, false);
+    try {
+      // Requests are not hedged until latencies are known
+      LatencyHistogram latencies = new LatencyHistogram();
+      latencies.recordValue(1000);
+      hedger.updateDelays(latencies, new LatencyHistogram());
+      assertEquals(20000000, hedger.getGetDelayNanos());
+      assertEquals(-1, hedger.getGetBulkDelayNanos());
+
+      for (int i = 0; i < 10; ++i) {
+        FutureGet futureGet = new FutureGet();
+        hostConnectionPool.getHedgedAsync(mockDomain, KEY_1, 1, null, hedger, futureGet);
+        assertEquals(RESPONSE_1, futureGet.getResponse());
+      }
+      // Only queries sent to the slow host are hedged, and the fast host always responds first
+      long[] counters = hedger.getIntervalCounters();
+      assertEquals(10, counters[0]);
+      assertTrue("Queries sent to the slow host should have been hedged", counters[1] > 0);
+      assertEquals("Hedges should have responded first", counters[1], counters[2]);
+      // Hedges of queries that responded in time were cancelled
+      assertEquals(0, hedger.getNumScheduledTasks());
+
+      // Delays are based on the latency of first queries, including the slow ones that lost to their hedge
+      WaitUntil.orDie(new Condition() {
+        @Override
+        public boolean test() {
+          hedger.updateDelays();
+          return hedger.getGetDelayNanos() >= 50000000;
+        }
+      });
+    } finally {
+      hedger.stop();
+    }
+  }
+
   private static void stopPartitionServer(TestHostConnection.MockPartitionServer mockPartitionServer, Thread mockPartitionServerThread) throws InterruptedException {
     if (mockPartitionServer != null) {
       LOG.info("Stopping partition server...");
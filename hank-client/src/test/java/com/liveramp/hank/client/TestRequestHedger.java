@@ -0,0 +1,141 @@
+package com.liveramp.hank.client;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.liveramp.hank.metrics.MetricsRegistry;
+import com.liveramp.hank.partition_server.LatencyHistogram;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestRequestHedger extends BaseTestCase {
+
+  @Test
+  public void testThreadPoolIsBounded() throws Exception {
+    RequestHedger hedger = new RequestHedger(99, 1, 2, false);
+    final CountDownLatch blocked = new CountDownLatch(2);
+    final CountDownLatch release = new CountDownLatch(1);
+    Runnable blocking = new Runnable() {
+      @Override
+      public void run() {
+        blocked.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    try {
+      assertTrue(hedger.tryExecute(blocking));
+      assertTrue(hedger.tryExecute(blocking));
+      blocked.await();
+      // All threads are busy
+      assertFalse(hedger.tryExecute(blocking));
+      release.countDown();
+    } finally {
+      hedger.stop();
+    }
+  }
+
+  @Test
+  public void testAsyncConnectionsRunInCallingThread() {
+    RequestHedger hedger = new RequestHedger(99, 1, 0, true);
+    final Thread callingThread = Thread.currentThread();
+    final boolean[] ran = new boolean[]{false};
+    try {
+      assertTrue(hedger.tryExecute(new Runnable() {
+        @Override
+        public void run() {
+          ran[0] = Thread.currentThread() == callingThread;
+        }
+      }));
+      assertTrue(ran[0]);
+    } finally {
+      hedger.stop();
+    }
+  }
+
+  @Test
+  public void testCancelledHedgesAreNotKept() {
+    RequestHedger hedger = new RequestHedger(99, 1, 1, false);
+    try {
+      Runnable noop = new Runnable() {
+        @Override
+        public void run() {
+        }
+      };
+      ScheduledFuture<?> future1 = hedger.schedule(noop, TimeUnit.HOURS.toNanos(1));
+      ScheduledFuture<?> future2 = hedger.schedule(noop, TimeUnit.HOURS.toNanos(1));
+      assertEquals(2, hedger.getNumScheduledTasks());
+      future1.cancel(false);
+      future2.cancel(false);
+      assertEquals(0, hedger.getNumScheduledTasks());
+    } finally {
+      hedger.stop();
+    }
+  }
+
+  @Test
+  public void testDelays() {
+    RequestHedger hedger = new RequestHedger(50, 2, 1, false);
+    try {
+      // Unknown until latencies are recorded
+      hedger.updateDelays();
+      assertEquals(-1, hedger.getGetDelayNanos());
+      assertEquals(-1, hedger.getGetBulkDelayNanos());
+
+      // Percentile of the first query latencies
+      for (int i = 0; i < 100; ++i) {
+        hedger.getGetLatencyRecorder().recordNanos(TimeUnit.MILLISECONDS.toNanos(10));
+      }
+      hedger.updateDelays();
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(10), hedger.getGetDelayNanos(), TimeUnit.MILLISECONDS.toNanos(1));
+      assertEquals(-1, hedger.getGetBulkDelayNanos());
+
+      // Bounded by the minimum delay, and unchanged when nothing was recorded
+      hedger.getGetBulkLatencyRecorder().recordNanos(TimeUnit.MICROSECONDS.toNanos(100));
+      hedger.updateDelays();
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(10), hedger.getGetDelayNanos(), TimeUnit.MILLISECONDS.toNanos(1));
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(2), hedger.getGetBulkDelayNanos());
+
+      hedger.updateDelays(new LatencyHistogram(), new LatencyHistogram());
+      assertEquals(TimeUnit.MILLISECONDS.toNanos(2), hedger.getGetBulkDelayNanos());
+    } finally {
+      hedger.stop();
+    }
+  }
+
+  @Test
+  public void testCounters() {
+    MetricsRegistry metricsRegistry = new MetricsRegistry();
+    RequestHedger hedger = new RequestHedger(99, 1, 1, true, RequestHedger.getCounters(metricsRegistry));
+    try {
+      for (int i = 0; i < 3; ++i) {
+        hedger.requestStarted();
+      }
+      hedger.hedgeSent();
+      hedger.hedgeWon();
+      long[] counters = hedger.getIntervalCounters();
+      assertEquals(3, counters[0]);
+      assertEquals(1, counters[1]);
+      assertEquals(1, counters[2]);
+
+      // Interval counters start over, exported counters are cumulative
+      hedger.requestStarted();
+      counters = hedger.getIntervalCounters();
+      assertEquals(1, counters[0]);
+      assertEquals(0, counters[1]);
+      assertEquals(Long.valueOf(4), metricsRegistry.getValues().get("client.hedging.requests"));
+      assertEquals(Long.valueOf(1), metricsRegistry.getValues().get("client.hedging.hedge_wins"));
+    } finally {
+      hedger.stop();
+    }
+  }
+}
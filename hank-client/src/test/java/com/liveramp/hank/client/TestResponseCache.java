@@ -0,0 +1,83 @@
+package com.liveramp.hank.client;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.liveramp.hank.coordinator.Domain;
+import com.liveramp.hank.coordinator.mock.MockDomain;
+import com.liveramp.hank.generated.HankException;
+import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TestResponseCache extends BaseTestCase {
+
+  private final Domain domain0 = new MockDomain("domain0", 0, 1, null, null, null, null);
+  private final Domain domain1 = new MockDomain("domain1", 1, 1, null, null, null, null);
+  private final ByteBuffer key = ByteBuffer.wrap(new byte[]{1, 2, 3});
+  private final HankResponse value = HankResponse.value(ByteBuffer.wrap(new byte[]{4}));
+
+  @Test
+  public void testVersionInvalidation() {
+    ResponseCache cache = new ResponseCache(true, 1 << 20, 100, 4, 3600);
+    // Versions are unknown until data locations are loaded
+    assertNull(cache.getServedVersions(domain0));
+    cache.put(domain0, key, cache.getServedVersions(domain0), value);
+    assertNull(cache.get(domain0, key));
+
+    Map<Integer, Long> servedVersions = new HashMap<Integer, Long>();
+    servedVersions.put(0, ResponseCache.getServedVersions(1, 1));
+    servedVersions.put(1, ResponseCache.getServedVersions(1, 1));
+    cache.setServedVersions(servedVersions);
+    cache.put(domain0, key, cache.getServedVersions(domain0), value);
+    cache.put(domain1, key, cache.getServedVersions(domain1), HankResponse.not_found(true));
+    // Exceptions are not cached
+    cache.put(domain1, ByteBuffer.wrap(new byte[]{5}), cache.getServedVersions(domain1), HankResponse.xception(HankException.no_replica(true)));
+    assertEquals(value, cache.get(domain0, key));
+    assertEquals(HankResponse.not_found(true), cache.get(domain1, key));
+    assertNull(cache.get(domain1, ByteBuffer.wrap(new byte[]{5})));
+
+    // Domain 0 starts being updated: only its responses are invalidated
+    Long oldServedVersions = cache.getServedVersions(domain0);
+    servedVersions = new HashMap<Integer, Long>(servedVersions);
+    servedVersions.put(0, ResponseCache.getServedVersions(1, 2));
+    cache.setServedVersions(servedVersions);
+    assertNull(cache.get(domain0, key));
+    assertEquals(HankResponse.not_found(true), cache.get(domain1, key));
+
+    // A response requested before the change is not cached as current
+    cache.put(domain0, key, oldServedVersions, value);
+    assertNull(cache.get(domain0, key));
+    cache.put(domain0, key, cache.getServedVersions(domain0), value);
+    assertEquals(value, cache.get(domain0, key));
+
+    // Domain no longer served
+    cache.setServedVersions(Collections.singletonMap(0, ResponseCache.getServedVersions(1, 2)));
+    assertNull(cache.get(domain1, key));
+  }
+
+  @Test
+  public void testExpiration() {
+    ResponseCache cache = new ResponseCache(true, 1 << 20, 100, 1, 0);
+    cache.setServedVersions(Collections.singletonMap(0, ResponseCache.getServedVersions(1, 1)));
+    cache.put(domain0, key, cache.getServedVersions(domain0), value);
+    assertEquals(1, cache.size());
+    assertNull(cache.get(domain0, key));
+  }
+
+  @Test
+  public void testDisabled() {
+    ResponseCache cache = new ResponseCache(false, 1 << 20, 100, 4, 3600);
+    cache.setServedVersions(Collections.singletonMap(0, ResponseCache.getServedVersions(1, 1)));
+    assertNull(cache.getServedVersions(domain0));
+    cache.put(domain0, key, ResponseCache.getServedVersions(1, 1), value);
+    assertNull(cache.get(domain0, key));
+    assertEquals(0, cache.size());
+  }
+}
@@ -24,6 +24,8 @@ public class BaseReaderConfigurator implements ReaderConfigurator {
   private final long cacheNumBytesCapacity;
   private final long cacheNumItemsCapacity;
   private final int bufferReuseMaxSize;
+  private final int cacheConcurrencyLevel;
+  private final long blockCacheNumBytesCapacity;
   private final int numTotalPartitions;
 
   public BaseReaderConfigurator(DataDirectoriesConfigurator dataDirectoriesConfigurator,
@@ -31,10 +33,32 @@ public class BaseReaderConfigurator implements ReaderConfigurator {
                                 long cacheNumItemsCapacity,
                                 int bufferReuseMaxSize,
                                 int numTotalPartitions) {
+    this(dataDirectoriesConfigurator, cacheNumBytesCapacity, cacheNumItemsCapacity, bufferReuseMaxSize, 1, numTotalPartitions);
+  }
+
+  public BaseReaderConfigurator(DataDirectoriesConfigurator dataDirectoriesConfigurator,
+                                long cacheNumBytesCapacity,
+                                long cacheNumItemsCapacity,
+                                int bufferReuseMaxSize,
+                                int cacheConcurrencyLevel,
+                                int numTotalPartitions) {
+    this(dataDirectoriesConfigurator, cacheNumBytesCapacity, cacheNumItemsCapacity, bufferReuseMaxSize,
+        cacheConcurrencyLevel, 0, numTotalPartitions);
+  }
+
+  public BaseReaderConfigurator(DataDirectoriesConfigurator dataDirectoriesConfigurator,
+                                long cacheNumBytesCapacity,
+                                long cacheNumItemsCapacity,
+                                int bufferReuseMaxSize,
+                                int cacheConcurrencyLevel,
+                                long blockCacheNumBytesCapacity,
+                                int numTotalPartitions) {
     this.dataDirectoriesConfigurator = dataDirectoriesConfigurator;
     this.cacheNumBytesCapacity = cacheNumBytesCapacity;
     this.cacheNumItemsCapacity = cacheNumItemsCapacity;
     this.bufferReuseMaxSize = bufferReuseMaxSize;
+    this.cacheConcurrencyLevel = cacheConcurrencyLevel;
+    this.blockCacheNumBytesCapacity = blockCacheNumBytesCapacity;
     this.numTotalPartitions = numTotalPartitions;
   }
 
@@ -59,6 +83,19 @@ public class BaseReaderConfigurator implements ReaderConfigurator {
     return bufferReuseMaxSize;
   }
 
+  @Override
+  public int getCacheConcurrencyLevel() {
+    return cacheConcurrencyLevel;
+  }
+
+  @Override
+  public long getBlockCacheNumBytesCapacity() {
+    if (blockCacheNumBytesCapacity < 0) {
+      return blockCacheNumBytesCapacity;
+    }
+    return blockCacheNumBytesCapacity / numTotalPartitions;
+  }
+
   @Override
   public Set<String> getDataDirectories() {
     return dataDirectoriesConfigurator.getDataDirectories();
@@ -23,4 +23,10 @@ public interface ReaderConfigurator extends DataDirectoriesConfigurator {
   public long getCacheNumItemsCapacity();
 
   public int getBufferReuseMaxSize();
+
+  // Number of independently locked stripes of reader caches
+  public int getCacheConcurrencyLevel();
+
+  // Capacity of the caches of decompressed blocks, 0 to disable them
+  public long getBlockCacheNumBytesCapacity();
 }
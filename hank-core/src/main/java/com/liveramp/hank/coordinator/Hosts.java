@@ -39,6 +39,8 @@ public final class Hosts {
   private static final String UPDATE_ETA_STATISTIC_KEY = "update_eta";
   private static final String FILESYSTEM_STATISTICS_KEY = "filesystem_statistics";
   private static final String RUNTIME_STATISTICS_KEY = "runtime_statistics";
+  private static final String UPDATE_WHILE_SERVING_STATISTIC_KEY = "update_while_serving";
+  private static final String DATA_SERVER_RESTART_REQUIRED_STATISTIC_KEY = "data_server_restart_required";
 
   private Hosts() {
   }
@@ -232,6 +234,33 @@ public final class Hosts {
     return results;
   }
 
+  // Advertise that the partition server running this host can execute updates while serving
+  public static void setUpdateWhileServing(Host host, boolean updateWhileServing) throws IOException {
+    if (updateWhileServing) {
+      host.setEphemeralStatistic(UPDATE_WHILE_SERVING_STATISTIC_KEY, Boolean.toString(true));
+    } else {
+      host.deleteStatistic(UPDATE_WHILE_SERVING_STATISTIC_KEY);
+    }
+  }
+
+  public static boolean isUpdateWhileServing(Host host) throws IOException {
+    return Boolean.parseBoolean(host.getStatistic(UPDATE_WHILE_SERVING_STATISTIC_KEY));
+  }
+
+  // Signal that the data server must restart to serve all up-to-date partitions (some could not be swapped in
+  // during an update while serving). The restart is scheduled by the ring group conductor.
+  public static void setDataServerRestartRequired(Host host, boolean dataServerRestartRequired) throws IOException {
+    if (dataServerRestartRequired) {
+      host.setEphemeralStatistic(DATA_SERVER_RESTART_REQUIRED_STATISTIC_KEY, Boolean.toString(true));
+    } else {
+      host.deleteStatistic(DATA_SERVER_RESTART_REQUIRED_STATISTIC_KEY);
+    }
+  }
+
+  public static boolean isDataServerRestartRequired(Host host) throws IOException {
+    return Boolean.parseBoolean(host.getStatistic(DATA_SERVER_RESTART_REQUIRED_STATISTIC_KEY));
+  }
+
   public static void setUpdateETA(Host host, long updateETA) throws IOException {
     host.setEphemeralStatistic(Hosts.UPDATE_ETA_STATISTIC_KEY, Long.toString(updateETA));
   }
@@ -114,6 +114,7 @@ public class ZkHost extends AbstractHost {
     this.metadata.addListener(new HostMetadataDataLocationChangeNotifier());
     this.assignments = new WatchedThriftNode<HostAssignmentsMetadata>(zk, ZkPath.append(path, ASSIGNMENTS_PATH),
         true, create ? CreateMode.PERSISTENT : null, initialAssignments, new HostAssignmentsMetadata());
+    this.assignments.addListener(new HostAssignmentsDataLocationChangeNotifier());
     if (create) {
       zk.create(ZkPath.append(path, CURRENT_COMMAND_PATH), null);
       zk.create(ZkPath.append(path, COMMAND_QUEUE_PATH), null);
@@ -148,6 +149,15 @@ public class ZkHost extends AbstractHost {
     }
   }
 
+  // Partitions and their current versions change while the host is serving, when it is updated in place
+  private class HostAssignmentsDataLocationChangeNotifier implements WatchedNodeListener<HostAssignmentsMetadata> {
+
+    @Override
+    public void onWatchedNodeChange(HostAssignmentsMetadata hostAssignmentsMetadata) {
+      fireDataLocationChangeListener();
+    }
+  }
+
   private class CommandQueueWatcher extends HankWatcher {
     protected CommandQueueWatcher() throws KeeperException, InterruptedException {
       super();
@@ -0,0 +1,136 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Exposes the metrics of a registry as read-only attributes of an MBean. Attributes are listed
+ * each time the MBean is inspected, so that metrics registered later are exposed as well.
+ */
+public class JmxMetricsExporter implements DynamicMBean {
+
+  private static final Logger LOG = Logger.getLogger(JmxMetricsExporter.class);
+
+  private final MetricsRegistry metricsRegistry;
+  private final ObjectName objectName;
+  private boolean isRegistered = false;
+
+  public JmxMetricsExporter(MetricsRegistry metricsRegistry, String objectName) throws JMException {
+    this.metricsRegistry = metricsRegistry;
+    this.objectName = new ObjectName(objectName);
+  }
+
+  // Register with the platform MBean server. Failures are logged since metrics are not essential.
+  public synchronized void start() {
+    if (isRegistered) {
+      return;
+    }
+    try {
+      MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+      if (mBeanServer.isRegistered(objectName)) {
+        mBeanServer.unregisterMBean(objectName);
+      }
+      mBeanServer.registerMBean(this, objectName);
+      isRegistered = true;
+    } catch (JMException e) {
+      LOG.error("Failed to register metrics MBean " + objectName, e);
+    }
+  }
+
+  public synchronized void stop() {
+    if (!isRegistered) {
+      return;
+    }
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch (JMException e) {
+      LOG.error("Failed to unregister metrics MBean " + objectName, e);
+    }
+    isRegistered = false;
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Long value = metricsRegistry.getValues().get(attribute);
+    if (value == null) {
+      throw new AttributeNotFoundException("No such metric: " + attribute);
+    }
+    return value;
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    SortedMap<String, Long> values = metricsRegistry.getValues();
+    AttributeList result = new AttributeList();
+    for (String attribute : attributes) {
+      Long value = values.get(attribute);
+      if (value != null) {
+        result.add(new Attribute(attribute, value));
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+    throw new ReflectionException(new NoSuchMethodException(actionName), "Metrics have no operations");
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+    for (Map.Entry<String, Long> entry : metricsRegistry.getValues().entrySet()) {
+      attributes.add(new MBeanAttributeInfo(entry.getKey(), Long.class.getName(), entry.getKey(), true, false, false));
+    }
+    return new MBeanInfo(getClass().getName(),
+        "Hank metrics",
+        attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+        null,
+        new MBeanOperationInfo[0],
+        null);
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.log4j.Logger;
+
+/**
+ * Serves the metrics of a registry in plain text, one "<name> <value>" line per metric,
+ * to be scraped at http://host:port/metrics
+ */
+public class MetricsHttpServer {
+
+  private static final Logger LOG = Logger.getLogger(MetricsHttpServer.class);
+
+  public static final String PATH = "/metrics";
+
+  private final MetricsRegistry metricsRegistry;
+  private final int port;
+  private HttpServer server;
+
+  public MetricsHttpServer(MetricsRegistry metricsRegistry, int port) {
+    this.metricsRegistry = metricsRegistry;
+    this.port = port;
+  }
+
+  public synchronized void start() throws IOException {
+    if (server != null) {
+      return;
+    }
+    server = HttpServer.create(new InetSocketAddress(port), 0);
+    server.createContext(PATH, new MetricsHandler());
+    // Requests are served by the server's own thread
+    server.setExecutor(null);
+    server.start();
+    LOG.info("Serving metrics at port " + getPort() + ", path " + PATH);
+  }
+
+  public synchronized void stop() {
+    if (server != null) {
+      server.stop(0);
+      server = null;
+    }
+  }
+
+  // The actual port, when started with port 0
+  public synchronized int getPort() {
+    if (server == null) {
+      return port;
+    }
+    return server.getAddress().getPort();
+  }
+
+  private class MetricsHandler implements HttpHandler {
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      try {
+        StringBuilder text = new StringBuilder();
+        metricsRegistry.writeText(text);
+        byte[] body = text.toString().getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream outputStream = exchange.getResponseBody();
+        try {
+          outputStream.write(body);
+        } finally {
+          outputStream.close();
+        }
+      } finally {
+        exchange.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.liveramp.hank.util.StripedLongCollection;
+
+/**
+ * Named metrics of a process. Components register groups of counters, which they increment without
+ * contention, and gauges. The registry itself is only involved when registering and exporting,
+ * never when counting.
+ * <p/>
+ * Metric names are dot separated, for example "domain.users.partition.3.requests".
+ */
+public class MetricsRegistry {
+
+  private final ConcurrentMap<String, Counters> counters = new ConcurrentHashMap<String, Counters>();
+  private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+  // Return the counters registered under the given prefix, creating them if needed. Components that are
+  // replaced, for example when a partition is updated, hence keep counting where their predecessor stopped.
+  public StripedLongCollection getCounters(String prefix, String... names) {
+    Counters result = counters.get(prefix);
+    if (result == null) {
+      Counters newCounters = new Counters(names);
+      result = counters.putIfAbsent(prefix, newCounters);
+      if (result == null) {
+        result = newCounters;
+      }
+    }
+    if (!Arrays.equals(result.names, names)) {
+      throw new IllegalArgumentException("Counters " + prefix + " are already registered as " + Arrays.toString(result.names)
+          + ", not " + Arrays.toString(names));
+    }
+    return result.values;
+  }
+
+  // Replaces the gauge previously registered under the same name
+  public void register(String name, Gauge gauge) {
+    gauges.put(name, gauge);
+  }
+
+  // Remove all counters and gauges whose name starts with the given prefix
+  public void unregisterAll(String prefix) {
+    for (String name : new ArrayList<String>(counters.keySet())) {
+      if (name.startsWith(prefix)) {
+        counters.remove(name);
+      }
+    }
+    for (String name : new ArrayList<String>(gauges.keySet())) {
+      if (name.startsWith(prefix)) {
+        gauges.remove(name);
+      }
+    }
+  }
+
+  // Current value of all metrics, by name
+  public SortedMap<String, Long> getValues() {
+    SortedMap<String, Long> result = new TreeMap<String, Long>();
+    for (Map.Entry<String, Counters> entry : counters.entrySet()) {
+      long[] values = entry.getValue().values.getAsArray();
+      for (int i = 0; i < values.length; ++i) {
+        result.put(entry.getKey() + "." + entry.getValue().names[i], values[i]);
+      }
+    }
+    for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().getValue());
+    }
+    return result;
+  }
+
+  // Plain text format, one "<name> <value>" line per metric, sorted by name
+  public void writeText(Appendable output) throws IOException {
+    for (Map.Entry<String, Long> entry : getValues().entrySet()) {
+      output.append(entry.getKey()).append(' ').append(Long.toString(entry.getValue())).append('\n');
+    }
+  }
+
+  // Join the given parts with dots, replacing characters that could make names ambiguous
+  public static String getName(String... parts) {
+    StringBuilder result = new StringBuilder();
+    for (String part : parts) {
+      if (result.length() > 0) {
+        result.append('.');
+      }
+      result.append(part.replaceAll("[^A-Za-z0-9_\\-]", "_"));
+    }
+    return result.toString();
+  }
+
+  private static class Counters {
+
+    private final String[] names;
+    private final StripedLongCollection values;
+
+    private Counters(String[] names) {
+      this.names = names.clone();
+      this.values = new StripedLongCollection(names.length);
+    }
+  }
+}
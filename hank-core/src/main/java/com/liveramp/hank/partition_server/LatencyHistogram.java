@@ -0,0 +1,244 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies, recorded in microseconds, with HDR-style log-linear buckets:
+ * values are exact up to 63us and within 1/32 (about 3%) of their bucket boundaries beyond that.
+ * Buckets are kept few (736) since every recording thread has its own set of counters.
+ * Because every histogram uses the same buckets, merging histograms (across partitions, domains
+ * and hosts) is lossless, unlike sampling based population statistics.
+ * <p/>
+ * This class is not thread safe. Use a LatencyHistogramRecorder to record from multiple threads.
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 6;
+  private static final int SUB_BUCKET_HALF_COUNT = 1 << (SUB_BUCKET_BITS - 1);
+  // About 2 minutes, larger values are recorded as this maximum
+  static final long MAX_VALUE = (1L << 27) - 1;
+  static final int NUM_BUCKETS = getBucketIndex(MAX_VALUE) + 1;
+
+  private final long[] counts = new long[NUM_BUCKETS];
+  private long totalCount;
+  private long totalValue;
+
+  public LatencyHistogram() {
+    clear();
+  }
+
+  static int getBucketIndex(long value) {
+    if (value < 0) {
+      value = 0;
+    } else if (value > MAX_VALUE) {
+      value = MAX_VALUE;
+    }
+    // Values below 2^SUB_BUCKET_BITS have their own bucket. Beyond that, each power of 2
+    // is divided into SUB_BUCKET_HALF_COUNT buckets.
+    int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+    return (int)(SUB_BUCKET_HALF_COUNT * shift + (value >>> shift));
+  }
+
+  static long getLowestEquivalentValue(int bucketIndex) {
+    if (bucketIndex < 2 * SUB_BUCKET_HALF_COUNT) {
+      return bucketIndex;
+    }
+    int shift = bucketIndex / SUB_BUCKET_HALF_COUNT - 1;
+    long subBucket = bucketIndex - SUB_BUCKET_HALF_COUNT * shift;
+    return subBucket << shift;
+  }
+
+  static long getHighestEquivalentValue(int bucketIndex) {
+    if (bucketIndex < 2 * SUB_BUCKET_HALF_COUNT) {
+      return bucketIndex;
+    }
+    int shift = bucketIndex / SUB_BUCKET_HALF_COUNT - 1;
+    long subBucket = bucketIndex - SUB_BUCKET_HALF_COUNT * shift;
+    return ((subBucket + 1) << shift) - 1;
+  }
+
+  public void clear() {
+    Arrays.fill(counts, 0);
+    totalCount = 0;
+    totalValue = 0;
+  }
+
+  public void recordValue(long valueMicros) {
+    recordValues(valueMicros, 1);
+  }
+
+  public void recordValues(long valueMicros, long count) {
+    counts[getBucketIndex(valueMicros)] += count;
+    totalCount += count;
+    totalValue += Math.min(Math.max(valueMicros, 0), MAX_VALUE) * count;
+  }
+
+  // Used by LatencyHistogramRecorder to add an interval of a thread's recorded values
+  void addBucketCount(int bucketIndex, long count) {
+    counts[bucketIndex] += count;
+    totalCount += count;
+  }
+
+  void addTotalValue(long value) {
+    totalValue += value;
+  }
+
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    totalValue += other.totalValue;
+  }
+
+  public static LatencyHistogram combine(Iterable<LatencyHistogram> histograms) {
+    LatencyHistogram result = new LatencyHistogram();
+    for (LatencyHistogram histogram : histograms) {
+      result.add(histogram);
+    }
+    return result;
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  // Mean in milliseconds
+  public double getMean() {
+    if (totalCount == 0) {
+      return 0;
+    }
+    return (double)totalValue / (double)totalCount / 1000d;
+  }
+
+  // Smallest recorded value in milliseconds (within bucket precision), 0 if empty
+  public double getMinimum() {
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      if (counts[i] != 0) {
+        return getLowestEquivalentValue(i) / 1000d;
+      }
+    }
+    return 0;
+  }
+
+  // Largest recorded value in milliseconds (within bucket precision), 0 if empty
+  public double getMaximum() {
+    for (int i = NUM_BUCKETS - 1; i >= 0; --i) {
+      if (counts[i] != 0) {
+        return getHighestEquivalentValue(i) / 1000d;
+      }
+    }
+    return 0;
+  }
+
+  // Value in milliseconds below which the given percentage of recorded values fall (within bucket precision)
+  public double getValueAtPercentile(double percentile) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    long rank = (long)Math.ceil((Math.min(Math.max(percentile, 0), 100) / 100d) * totalCount);
+    if (rank < 1) {
+      rank = 1;
+    }
+    long cumulativeCount = 0;
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      cumulativeCount += counts[i];
+      if (cumulativeCount >= rank) {
+        return getHighestEquivalentValue(i) / 1000d;
+      }
+    }
+    return getMaximum();
+  }
+
+  public String format() {
+    StringBuilder result = new StringBuilder();
+    result.append(DoublePopulationStatisticsAggregator.formatDouble(getMean()));
+    result.append(" / ");
+    result.append(DoublePopulationStatisticsAggregator.formatDouble(getValueAtPercentile(50)));
+    result.append(" / ");
+    result.append(DoublePopulationStatisticsAggregator.formatDouble(getValueAtPercentile(99)));
+    result.append(" / ");
+    result.append(DoublePopulationStatisticsAggregator.formatDouble(getValueAtPercentile(99.9)));
+    result.append(" ms");
+    return result.toString();
+  }
+
+  // Compact representation without spaces: the total value followed by non empty buckets,
+  // as bucket index deltas and counts. For example: "52031,3:10,67:2"
+  public static String toString(LatencyHistogram histogram) {
+    StringBuilder result = new StringBuilder();
+    result.append(histogram.totalValue);
+    int previousIndex = 0;
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      if (histogram.counts[i] != 0) {
+        result.append(',');
+        result.append(i - previousIndex);
+        result.append(':');
+        result.append(histogram.counts[i]);
+        previousIndex = i;
+      }
+    }
+    return result.toString();
+  }
+
+  public static LatencyHistogram parse(String str) {
+    LatencyHistogram result = new LatencyHistogram();
+    String[] tokens = str.split(",");
+    result.totalValue = Long.parseLong(tokens[0]);
+    int index = 0;
+    for (int i = 1; i < tokens.length; ++i) {
+      int separator = tokens[i].indexOf(':');
+      if (separator < 0) {
+        throw new IllegalArgumentException("Invalid histogram bucket: " + tokens[i]);
+      }
+      index += Integer.parseInt(tokens[i].substring(0, separator));
+      if (index < 0 || index >= NUM_BUCKETS) {
+        throw new IllegalArgumentException("Invalid histogram bucket index: " + index);
+      }
+      long count = Long.parseLong(tokens[i].substring(separator + 1));
+      result.counts[index] += count;
+      result.totalCount += count;
+    }
+    return result;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof LatencyHistogram)) {
+      return false;
+    }
+    LatencyHistogram that = (LatencyHistogram)o;
+    return totalCount == that.totalCount
+        && totalValue == that.totalValue
+        && Arrays.equals(counts, that.counts);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(counts);
+  }
+
+  @Override
+  public String toString() {
+    return format();
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies from any number of threads without locking. Each thread records into
+ * its own cumulative counters, which only it writes. getIntervalHistogram() sums all threads'
+ * counters and returns what was recorded since its previous call, so that no recorded value
+ * is ever lost or counted twice. Recorders of threads that have terminated are dropped once
+ * their last values have been read, and their counts are kept in the sum.
+ * <p/>
+ * The only per thread state is one array of LatencyHistogram.NUM_BUCKETS counters (about 6KB).
+ */
+public class LatencyHistogramRecorder {
+
+  // Accessed only by the (synchronized) reader: cumulative counts of the threads that have terminated,
+  // and of all threads as of the previous interval
+  private final long[] terminatedCounts = new long[LatencyHistogram.NUM_BUCKETS];
+  private long terminatedTotalValue = 0;
+  private long[] previousCounts = new long[LatencyHistogram.NUM_BUCKETS];
+  private long previousTotalValue = 0;
+
+  private final Queue<ThreadRecorder> threadRecorders = new ConcurrentLinkedQueue<ThreadRecorder>();
+  private final ThreadLocal<ThreadRecorder> threadRecorder = new ThreadLocal<ThreadRecorder>() {
+    @Override
+    protected ThreadRecorder initialValue() {
+      ThreadRecorder result = new ThreadRecorder(Thread.currentThread());
+      threadRecorders.add(result);
+      return result;
+    }
+  };
+
+  // Record the duration elapsed since the given System.nanoTime()
+  public void recordSince(long startTimeNanos) {
+    // Since nanoTime can return negative values
+    recordNanos(Math.abs(System.nanoTime() - startTimeNanos));
+  }
+
+  public void recordNanos(long durationNanos) {
+    threadRecorder.get().record(durationNanos / 1000);
+  }
+
+  // Return a histogram of the values recorded since the previous call
+  public synchronized LatencyHistogram getIntervalHistogram() {
+    long[] counts = terminatedCounts.clone();
+    long totalValue = terminatedTotalValue;
+    Iterator<ThreadRecorder> iterator = threadRecorders.iterator();
+    while (iterator.hasNext()) {
+      ThreadRecorder recorder = iterator.next();
+      // Check before reading, so that values recorded by a terminated thread are all read
+      boolean terminated = recorder.isTerminated();
+      for (int i = 0; i < counts.length; ++i) {
+        long count = recorder.counts.get(i);
+        counts[i] += count;
+        if (terminated) {
+          terminatedCounts[i] += count;
+        }
+      }
+      long value = recorder.totalValue.get();
+      totalValue += value;
+      if (terminated) {
+        terminatedTotalValue += value;
+        iterator.remove();
+      }
+    }
+    // The total value can be slightly ahead or behind the counts when recording concurrently,
+    // which only affects the mean, and is made up for in the next interval
+    LatencyHistogram result = new LatencyHistogram();
+    for (int i = 0; i < counts.length; ++i) {
+      if (counts[i] != previousCounts[i]) {
+        result.addBucketCount(i, counts[i] - previousCounts[i]);
+      }
+    }
+    result.addTotalValue(totalValue - previousTotalValue);
+    previousCounts = counts;
+    previousTotalValue = totalValue;
+    return result;
+  }
+
+  int getNumThreadRecorders() {
+    return threadRecorders.size();
+  }
+
+  private static class ThreadRecorder {
+
+    // Weak, so that the recorder does not keep its thread from being collected
+    private final WeakReference<Thread> thread;
+
+    // Written only by the owning thread, hence lazySet() is enough to publish
+    private final AtomicLongArray counts = new AtomicLongArray(LatencyHistogram.NUM_BUCKETS);
+    private final AtomicLong totalValue = new AtomicLong();
+
+    private ThreadRecorder(Thread thread) {
+      this.thread = new WeakReference<Thread>(thread);
+    }
+
+    // Termination of a thread happens-before isAlive() returns false, hence all its values are visible
+    private boolean isTerminated() {
+      Thread owner = thread.get();
+      return owner == null || !owner.isAlive();
+    }
+
+    private void record(long valueMicros) {
+      int bucketIndex = LatencyHistogram.getBucketIndex(valueMicros);
+      counts.lazySet(bucketIndex, counts.get(bucketIndex) + 1);
+      totalValue.lazySet(totalValue.get() + Math.min(valueMicros, LatencyHistogram.MAX_VALUE));
+    }
+  }
+}
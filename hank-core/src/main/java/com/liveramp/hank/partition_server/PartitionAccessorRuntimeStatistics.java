@@ -26,6 +26,10 @@ public class PartitionAccessorRuntimeStatistics {
   protected final double responseDataThroughput;
   protected final long numL1CacheHits;
   protected final long numL2CacheHits;
+  protected final long numValueCacheHits;
+  protected final long numValueCacheMisses;
+  protected final long numBlockCacheHits;
+  protected final long numBlockCacheMisses;
   protected final CacheStatistics cacheStatistics;
 
   public PartitionAccessorRuntimeStatistics(long numRequests,
@@ -35,12 +39,43 @@ public class PartitionAccessorRuntimeStatistics {
                                             long numL1CacheHits,
                                             long numL2CacheHits,
                                             CacheStatistics cacheStatistics) {
+    this(numRequests, numHits, throughput, responseDataThroughput, numL1CacheHits, numL2CacheHits, 0, 0, cacheStatistics);
+  }
+
+  public PartitionAccessorRuntimeStatistics(long numRequests,
+                                            long numHits,
+                                            double throughput,
+                                            double responseDataThroughput,
+                                            long numL1CacheHits,
+                                            long numL2CacheHits,
+                                            long numValueCacheHits,
+                                            long numValueCacheMisses,
+                                            CacheStatistics cacheStatistics) {
+    this(numRequests, numHits, throughput, responseDataThroughput, numL1CacheHits, numL2CacheHits,
+        numValueCacheHits, numValueCacheMisses, 0, 0, cacheStatistics);
+  }
+
+  public PartitionAccessorRuntimeStatistics(long numRequests,
+                                            long numHits,
+                                            double throughput,
+                                            double responseDataThroughput,
+                                            long numL1CacheHits,
+                                            long numL2CacheHits,
+                                            long numValueCacheHits,
+                                            long numValueCacheMisses,
+                                            long numBlockCacheHits,
+                                            long numBlockCacheMisses,
+                                            CacheStatistics cacheStatistics) {
     this.numRequests = numRequests;
     this.numHits = numHits;
     this.throughput = throughput;
     this.responseDataThroughput = responseDataThroughput;
     this.numL1CacheHits = numL1CacheHits;
     this.numL2CacheHits = numL2CacheHits;
+    this.numValueCacheHits = numValueCacheHits;
+    this.numValueCacheMisses = numValueCacheMisses;
+    this.numBlockCacheHits = numBlockCacheHits;
+    this.numBlockCacheMisses = numBlockCacheMisses;
     this.cacheStatistics = cacheStatistics;
   }
 }
@@ -16,9 +16,7 @@
 
 package com.liveramp.hank.partition_server;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -34,7 +32,12 @@ public class RuntimeStatisticsAggregator {
   private long numHitsTotal;
   private long numL1CacheHitsTotal;
   private long numL2CacheHitsTotal;
-  private DoublePopulationStatisticsAggregator getRequestsPopulationStatistics;
+  private long numValueCacheHitsTotal;
+  private long numValueCacheMissesTotal;
+  private long numBlockCacheHitsTotal;
+  private long numBlockCacheMissesTotal;
+  private LatencyHistogram getRequestsLatencyHistogram;
+  private LatencyHistogram getBulkRequestsLatencyHistogram;
   private CacheStatistics cacheStatisticsTotal;
 
   public RuntimeStatisticsAggregator() {
@@ -44,7 +47,12 @@ public class RuntimeStatisticsAggregator {
     numHitsTotal = 0;
     numL1CacheHitsTotal = 0;
     numL2CacheHitsTotal = 0;
-    getRequestsPopulationStatistics = new DoublePopulationStatisticsAggregator();
+    numValueCacheHitsTotal = 0;
+    numValueCacheMissesTotal = 0;
+    numBlockCacheHitsTotal = 0;
+    numBlockCacheMissesTotal = 0;
+    getRequestsLatencyHistogram = new LatencyHistogram();
+    getBulkRequestsLatencyHistogram = new LatencyHistogram();
     cacheStatisticsTotal = new CacheStatistics(0, 0, 0, 0);
   }
 
@@ -54,7 +62,40 @@ public class RuntimeStatisticsAggregator {
                                      long numHitsTotal,
                                      long numL1CacheHitsTotal,
                                      long numL2CacheHitsTotal,
-                                     DoublePopulationStatisticsAggregator getRequestsPopulationStatistics,
+                                     LatencyHistogram getRequestsLatencyHistogram,
+                                     CacheStatistics cacheStatisticsTotal) {
+    this(throughputTotal, responseDataThroughputTotal, numRequestsTotal, numHitsTotal, numL1CacheHitsTotal,
+        numL2CacheHitsTotal, 0, 0, getRequestsLatencyHistogram, new LatencyHistogram(), cacheStatisticsTotal);
+  }
+
+  public RuntimeStatisticsAggregator(double throughputTotal,
+                                     double responseDataThroughputTotal,
+                                     long numRequestsTotal,
+                                     long numHitsTotal,
+                                     long numL1CacheHitsTotal,
+                                     long numL2CacheHitsTotal,
+                                     long numValueCacheHitsTotal,
+                                     long numValueCacheMissesTotal,
+                                     LatencyHistogram getRequestsLatencyHistogram,
+                                     LatencyHistogram getBulkRequestsLatencyHistogram,
+                                     CacheStatistics cacheStatisticsTotal) {
+    this(throughputTotal, responseDataThroughputTotal, numRequestsTotal, numHitsTotal, numL1CacheHitsTotal,
+        numL2CacheHitsTotal, numValueCacheHitsTotal, numValueCacheMissesTotal, 0, 0, getRequestsLatencyHistogram,
+        getBulkRequestsLatencyHistogram, cacheStatisticsTotal);
+  }
+
+  public RuntimeStatisticsAggregator(double throughputTotal,
+                                     double responseDataThroughputTotal,
+                                     long numRequestsTotal,
+                                     long numHitsTotal,
+                                     long numL1CacheHitsTotal,
+                                     long numL2CacheHitsTotal,
+                                     long numValueCacheHitsTotal,
+                                     long numValueCacheMissesTotal,
+                                     long numBlockCacheHitsTotal,
+                                     long numBlockCacheMissesTotal,
+                                     LatencyHistogram getRequestsLatencyHistogram,
+                                     LatencyHistogram getBulkRequestsLatencyHistogram,
                                      CacheStatistics cacheStatisticsTotal) {
     this.throughputTotal = throughputTotal;
     this.responseDataThroughputTotal = responseDataThroughputTotal;
@@ -62,7 +103,12 @@ public class RuntimeStatisticsAggregator {
     this.numHitsTotal = numHitsTotal;
     this.numL1CacheHitsTotal = numL1CacheHitsTotal;
     this.numL2CacheHitsTotal = numL2CacheHitsTotal;
-    this.getRequestsPopulationStatistics = getRequestsPopulationStatistics;
+    this.numValueCacheHitsTotal = numValueCacheHitsTotal;
+    this.numValueCacheMissesTotal = numValueCacheMissesTotal;
+    this.numBlockCacheHitsTotal = numBlockCacheHitsTotal;
+    this.numBlockCacheMissesTotal = numBlockCacheMissesTotal;
+    this.getRequestsLatencyHistogram = getRequestsLatencyHistogram;
+    this.getBulkRequestsLatencyHistogram = getBulkRequestsLatencyHistogram;
     this.cacheStatisticsTotal = cacheStatisticsTotal;
   }
 
@@ -73,13 +119,15 @@ public class RuntimeStatisticsAggregator {
     numHitsTotal += runtimeStatistics.numHits;
     numL1CacheHitsTotal += runtimeStatistics.numL1CacheHits;
     numL2CacheHitsTotal += runtimeStatistics.numL2CacheHits;
+    numValueCacheHitsTotal += runtimeStatistics.numValueCacheHits;
+    numValueCacheMissesTotal += runtimeStatistics.numValueCacheMisses;
+    numBlockCacheHitsTotal += runtimeStatistics.numBlockCacheHits;
+    numBlockCacheMissesTotal += runtimeStatistics.numBlockCacheMisses;
     cacheStatisticsTotal.add(runtimeStatistics.cacheStatistics);
   }
 
   public static RuntimeStatisticsAggregator combine(Collection<RuntimeStatisticsAggregator> runtimeStatisticsAggregators) {
     RuntimeStatisticsAggregator result = new RuntimeStatisticsAggregator();
-    List<DoublePopulationStatisticsAggregator> doublePopulationStatisticsAggregators
-        = new ArrayList<DoublePopulationStatisticsAggregator>(runtimeStatisticsAggregators.size());
     for (RuntimeStatisticsAggregator runtimeStatisticsAggregator : runtimeStatisticsAggregators) {
       result.throughputTotal += runtimeStatisticsAggregator.throughputTotal;
       result.responseDataThroughputTotal += runtimeStatisticsAggregator.responseDataThroughputTotal;
@@ -87,15 +135,24 @@ public class RuntimeStatisticsAggregator {
       result.numHitsTotal += runtimeStatisticsAggregator.numHitsTotal;
       result.numL1CacheHitsTotal += runtimeStatisticsAggregator.numL1CacheHitsTotal;
       result.numL2CacheHitsTotal += runtimeStatisticsAggregator.numL2CacheHitsTotal;
-      doublePopulationStatisticsAggregators.add(runtimeStatisticsAggregator.getRequestsPopulationStatistics);
+      result.numValueCacheHitsTotal += runtimeStatisticsAggregator.numValueCacheHitsTotal;
+      result.numValueCacheMissesTotal += runtimeStatisticsAggregator.numValueCacheMissesTotal;
+      result.numBlockCacheHitsTotal += runtimeStatisticsAggregator.numBlockCacheHitsTotal;
+      result.numBlockCacheMissesTotal += runtimeStatisticsAggregator.numBlockCacheMissesTotal;
+      // Histograms are merged without loss
+      result.getRequestsLatencyHistogram.add(runtimeStatisticsAggregator.getRequestsLatencyHistogram);
+      result.getBulkRequestsLatencyHistogram.add(runtimeStatisticsAggregator.getBulkRequestsLatencyHistogram);
       result.cacheStatisticsTotal.add(runtimeStatisticsAggregator.cacheStatisticsTotal);
     }
-    result.getRequestsPopulationStatistics = DoublePopulationStatisticsAggregator.combine(doublePopulationStatisticsAggregators);
     return result;
   }
 
-  public void setGetRequestsPopulationStatistics(DoublePopulationStatisticsAggregator populationStatistics) {
-    this.getRequestsPopulationStatistics = populationStatistics;
+  public void setGetRequestsLatencyHistogram(LatencyHistogram latencyHistogram) {
+    this.getRequestsLatencyHistogram = latencyHistogram;
+  }
+
+  public void setGetBulkRequestsLatencyHistogram(LatencyHistogram latencyHistogram) {
+    this.getBulkRequestsLatencyHistogram = latencyHistogram;
   }
 
   public double getThroughput() {
@@ -130,8 +187,30 @@ public class RuntimeStatisticsAggregator {
     }
   }
 
-  public DoublePopulationStatisticsAggregator getGetRequestsPopulationStatistics() {
-    return getRequestsPopulationStatistics;
+  public double getValueCacheHitRate() {
+    long numValueCacheRequestsTotal = numValueCacheHitsTotal + numValueCacheMissesTotal;
+    if (numValueCacheRequestsTotal == 0) {
+      return 0;
+    } else {
+      return (double)numValueCacheHitsTotal / (double)numValueCacheRequestsTotal;
+    }
+  }
+
+  public double getBlockCacheHitRate() {
+    long numBlockCacheRequestsTotal = numBlockCacheHitsTotal + numBlockCacheMissesTotal;
+    if (numBlockCacheRequestsTotal == 0) {
+      return 0;
+    } else {
+      return (double)numBlockCacheHitsTotal / (double)numBlockCacheRequestsTotal;
+    }
+  }
+
+  public LatencyHistogram getGetRequestsLatencyHistogram() {
+    return getRequestsLatencyHistogram;
+  }
+
+  public LatencyHistogram getGetBulkRequestsLatencyHistogram() {
+    return getBulkRequestsLatencyHistogram;
   }
 
   public CacheStatistics getCacheStatistics() {
@@ -149,8 +228,12 @@ public class RuntimeStatisticsAggregator {
         + " " + runtimeStatisticsAggregator.cacheStatisticsTotal.getMaxNumItems()
         + " " + runtimeStatisticsAggregator.cacheStatisticsTotal.getNumManagedBytes()
         + " " + runtimeStatisticsAggregator.cacheStatisticsTotal.getMaxNumManagedBytes()
-        + " " + DoublePopulationStatisticsAggregator.toString(
-        runtimeStatisticsAggregator.getRequestsPopulationStatistics);
+        + " " + runtimeStatisticsAggregator.numValueCacheHitsTotal
+        + " " + runtimeStatisticsAggregator.numValueCacheMissesTotal
+        + " " + LatencyHistogram.toString(runtimeStatisticsAggregator.getRequestsLatencyHistogram)
+        + " " + LatencyHistogram.toString(runtimeStatisticsAggregator.getBulkRequestsLatencyHistogram)
+        + " " + runtimeStatisticsAggregator.numBlockCacheHitsTotal
+        + " " + runtimeStatisticsAggregator.numBlockCacheMissesTotal;
   }
 
   public static RuntimeStatisticsAggregator parse(String str) {
@@ -171,17 +254,31 @@ public class RuntimeStatisticsAggregator {
           Long.parseLong(tokens[8]),
           Long.parseLong(tokens[9]));
 
-      int numRandomSample = tokens.length - 14;
-      double[] randomSample = new double[numRandomSample];
-      for (int i = 0; i < numRandomSample; ++i) {
-        randomSample[i] = Double.parseDouble(tokens[14 + i]);
+      // Statistics published before value cache counters were added (for example by hosts that have not been
+      // upgraded yet) have sampled population statistics from token 10 on, which start with a double.
+      long numValueCacheHitsTotal = 0;
+      long numValueCacheMissesTotal = 0;
+      boolean hasValueCacheCounters = tokens.length >= 12 && isLong(tokens[10]);
+      if (hasValueCacheCounters) {
+        numValueCacheHitsTotal = Long.parseLong(tokens[10]);
+        numValueCacheMissesTotal = Long.parseLong(tokens[11]);
+      }
+
+      // Statistics published in the previous format (with sampled population statistics) have no histograms.
+      // Their first population statistic is a double, while a histogram starts with an integer.
+      LatencyHistogram getRequestsLatencyHistogram = new LatencyHistogram();
+      LatencyHistogram getBulkRequestsLatencyHistogram = new LatencyHistogram();
+      long numBlockCacheHitsTotal = 0;
+      long numBlockCacheMissesTotal = 0;
+      if (hasValueCacheCounters && tokens.length >= 14 && tokens[12].matches("[0-9]+(,.*)?")) {
+        getRequestsLatencyHistogram = LatencyHistogram.parse(tokens[12]);
+        getBulkRequestsLatencyHistogram = LatencyHistogram.parse(tokens[13]);
+        // Block cache statistics were added later
+        if (tokens.length == 16) {
+          numBlockCacheHitsTotal = Long.parseLong(tokens[14]);
+          numBlockCacheMissesTotal = Long.parseLong(tokens[15]);
+        }
       }
-      DoublePopulationStatisticsAggregator getRequestsPopulationStatistics = new DoublePopulationStatisticsAggregator(
-          Double.parseDouble(tokens[10]),
-          Double.parseDouble(tokens[11]),
-          Long.parseLong(tokens[12]),
-          Double.parseDouble(tokens[13]),
-          randomSample);
 
       return new RuntimeStatisticsAggregator(
           throughputTotal,
@@ -190,11 +287,21 @@ public class RuntimeStatisticsAggregator {
           numHitsTotal,
           numL1CacheHitsTotal,
           numL2CacheHitsTotal,
-          getRequestsPopulationStatistics,
+          numValueCacheHitsTotal,
+          numValueCacheMissesTotal,
+          numBlockCacheHitsTotal,
+          numBlockCacheMissesTotal,
+          getRequestsLatencyHistogram,
+          getBulkRequestsLatencyHistogram,
           cacheStatisticsTotal);
     } catch (Exception e) {
       LOG.error("Failed to parse runtime statistics aggregator with string: " + str, e);
       return new RuntimeStatisticsAggregator();
     }
   }
+
+  // Doubles are always formatted with a decimal point or an exponent
+  private static boolean isLong(String token) {
+    return token.matches("-?[0-9]+");
+  }
 }
@@ -0,0 +1,30 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reader that stores keys in blocks and can tell, without any I/O, in which block a key
+ * would be found. Looking up keys ordered by block offset lets consecutive lookups of keys
+ * in the same block reuse it instead of reading and decompressing it again.
+ */
+public interface BlockLocalityReader extends Reader {
+
+  // Offset of the block in which the given key would be stored, or -1 if there is no such block
+  public long getBlockOffset(ByteBuffer key);
+}
@@ -0,0 +1,81 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage;
+
+import java.nio.ByteBuffer;
+
+import com.liveramp.commons.util.ByteBufferMemoryUsageEstimator;
+import com.liveramp.commons.util.MemoryUsageEstimator;
+import com.liveramp.hank.util.StripedMemoryBoundCache;
+
+/**
+ * Memory bound LRU cache of the decompressed blocks of a single file, keyed by block offset.
+ * Cached blocks are shared by all threads and must never be modified: use absolute accesses
+ * or a duplicate() of them.
+ */
+public class DecompressedBlockCache {
+
+  private final StripedMemoryBoundCache<Long, ByteBuffer> cache;
+
+  // A non positive capacity disables the cache
+  public DecompressedBlockCache(long numBytesCapacity, int concurrencyLevel) {
+    cache = new StripedMemoryBoundCache<Long, ByteBuffer>(
+        numBytesCapacity > 0,
+        numBytesCapacity,
+        -1,
+        concurrencyLevel,
+        new BlockOffsetMemoryUsageEstimator(),
+        new ByteBufferMemoryUsageEstimator());
+  }
+
+  public boolean isEnabled() {
+    return cache.isEnabled();
+  }
+
+  // Return the decompressed block at the given offset, or null if it is not cached
+  public ByteBuffer get(long blockOffset) {
+    if (!cache.isEnabled()) {
+      return null;
+    }
+    return cache.get(blockOffset);
+  }
+
+  // The remaining bytes of the given block are copied
+  public void put(long blockOffset, ByteBuffer block) {
+    if (cache.isEnabled()) {
+      byte[] copy = new byte[block.remaining()];
+      System.arraycopy(block.array(), block.arrayOffset() + block.position(), copy, 0, copy.length);
+      cache.put(blockOffset, ByteBuffer.wrap(copy));
+    }
+  }
+
+  public CacheStatistics getCacheStatistics() {
+    return new CacheStatistics(
+        cache.size(),
+        cache.getMaxNumItems(),
+        cache.getNumManagedBytes(),
+        cache.getMaxNumManagedBytes());
+  }
+
+  private static class BlockOffsetMemoryUsageEstimator implements MemoryUsageEstimator<Long> {
+
+    @Override
+    public long estimateMemorySize(Long blockOffset) {
+      return 8;
+    }
+  }
+}
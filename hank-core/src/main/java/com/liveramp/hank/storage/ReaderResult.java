@@ -26,6 +26,9 @@ public class ReaderResult {
   private ByteBuffer buffer;
   private boolean l1CacheHit = false;
   private boolean l2CacheHit = false;
+  // A single lookup can go through several blocks (e.g. a key file block and a record file block)
+  private int numBlockCacheHits = 0;
+  private int numBlockCacheMisses = 0;
 
   public ReaderResult() {
   }
@@ -38,6 +41,8 @@ public class ReaderResult {
     isFound = false;
     l1CacheHit = false;
     l2CacheHit = false;
+    numBlockCacheHits = 0;
+    numBlockCacheMisses = 0;
     if (buffer != null) {
       buffer.clear();
     }
@@ -81,10 +86,31 @@ public class ReaderResult {
     this.l2CacheHit = l2CacheHit;
   }
 
+  public int getNumBlockCacheHits() {
+    return numBlockCacheHits;
+  }
+
+  public void incrementNumBlockCacheHits() {
+    ++numBlockCacheHits;
+  }
+
+  public int getNumBlockCacheMisses() {
+    return numBlockCacheMisses;
+  }
+
+  public void incrementNumBlockCacheMisses() {
+    ++numBlockCacheMisses;
+  }
+
   public void deepCopyIntoResultBuffer(ByteBuffer value) {
     requiresBufferSize(value.remaining());
     buffer.clear();
-    buffer.put(value.slice());
+    if (value.hasArray()) {
+      // Avoid allocating a slice
+      buffer.put(value.array(), value.arrayOffset() + value.position(), value.remaining());
+    } else {
+      buffer.put(value.slice());
+    }
     buffer.flip();
   }
 
@@ -16,18 +16,44 @@
 
 package com.liveramp.hank.util;
 
-import com.liveramp.hank.partition_server.DoublePopulationStatisticsAggregator;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.log4j.Logger;
 
+/**
+ * Periodically logs statistics about timed events. Latency distributions that are published
+ * should be recorded with a LatencyHistogramRecorder instead.
+ * Each thread aggregates its own timers and merges them in batches, so that concurrent threads
+ * rarely contend. A batch is merged once it is full or spans more than a second, and the batches
+ * of all threads are merged when a window is logged, so that timers of threads that have become
+ * idle are not held back. A logged window may hence slightly exceed the configured number of timers.
+ */
 public class HankTimerEventAggregator {
 
   private static Logger LOG = Logger.getLogger(HankTimerEventAggregator.class);
+  // Timers are first aggregated by each thread, and merged in batches of up to this size
+  private static final int MAX_THREAD_BATCH_SIZE = 64;
+  private static final long MAX_THREAD_BATCH_DURATION_NANOS = TimeUnit.SECONDS.toNanos(1);
 
   private final String name;
-  private double[] durations;
   private int count;
   private final int statsComputationWindow;
   private final boolean isActive;
+  private final int threadBatchSize;
+  private final Queue<ThreadBatch> threadBatches = new ConcurrentLinkedQueue<ThreadBatch>();
+  private final ThreadLocal<ThreadBatch> threadBatch = new ThreadLocal<ThreadBatch>() {
+    @Override
+    protected ThreadBatch initialValue() {
+      ThreadBatch result = new ThreadBatch(Thread.currentThread());
+      threadBatches.add(result);
+      return result;
+    }
+  };
+  private long totalCount = 0;
 
   private long statsComputationWindowStart;
   private long statsComputationWindowEnd;
@@ -36,8 +62,6 @@ public class HankTimerEventAggregator {
   private double maxDuration;
   private double totalDuration;
   private long totalUnderlyingCount;
-  private DoublePopulationStatisticsAggregator populationStatistics;
-  private DoublePopulationStatisticsAggregator previousPopulationStatistics;
 
   /**
    * @param name
@@ -48,9 +72,7 @@ public class HankTimerEventAggregator {
     this.name = name;
     this.statsComputationWindow = statsComputationWindow;
     this.isActive = statsComputationWindow != 0;
-    this.populationStatistics = null;
-    this.previousPopulationStatistics = new DoublePopulationStatisticsAggregator();
-    this.durations = new double[statsComputationWindow];
+    this.threadBatchSize = Math.max(1, Math.min(statsComputationWindow, MAX_THREAD_BATCH_SIZE));
     clear();
   }
 
@@ -62,10 +84,29 @@ public class HankTimerEventAggregator {
     return new HankTimer();
   }
 
+  // Return the current time in nanoseconds if active, 0 otherwise.
+  // Unlike getTimer(), this does not allocate.
+  public long getStartTimeNanos() {
+    if (!isActive) {
+      return 0;
+    }
+    return System.nanoTime();
+  }
+
   public void add(HankTimer timer) {
     add(timer, 1);
   }
 
+  // Aggregate the duration elapsed since the given start time (as returned by getStartTimeNanos() or System.nanoTime())
+  // only if the aggregator is active
+  public void addSince(long startTimeNanos) {
+    if (!isActive) {
+      return;
+    }
+    // Since nanoTime can return negative values
+    _add(startTimeNanos, Math.abs(System.nanoTime() - startTimeNanos), 1);
+  }
+
   // Aggregate the given timer only if the aggregator is active
   // Will not add synchronization overhead if not active.
   // underlyingCount is used when the timed event represent a number of underlying events
@@ -76,37 +117,41 @@ public class HankTimerEventAggregator {
     _add(timer.getStartTime(), timer.getDuration(), underlyingCount);
   }
 
-  public synchronized DoublePopulationStatisticsAggregator getAndResetPopulationStatistics() {
-    // If there are new statistics, return them and reset the current statistics
-    if (populationStatistics != null) {
-      previousPopulationStatistics = populationStatistics;
-      populationStatistics = null;
-    }
-    return previousPopulationStatistics;
+  // Number of timers merged so far, including those of windows already logged
+  public synchronized long getTotalCount() {
+    return totalCount;
   }
 
-  private synchronized void _add(long startTimeNanos, long durationNanos, int underlyingCount) {
-    ++count;
-    // Determine computation window start and end
-    if (startTimeNanos < statsComputationWindowStart) {
-      statsComputationWindowStart = startTimeNanos;
-    }
-    if ((startTimeNanos + durationNanos) > statsComputationWindowEnd) {
-      statsComputationWindowEnd = startTimeNanos + durationNanos;
-    }
-    // Compute statistics
-    double duration = durationNanos / 1000000d;
-    totalDuration += duration;
-    if (duration < minDuration) {
-      minDuration = duration;
+  private void _add(long startTimeNanos, long durationNanos, int underlyingCount) {
+    ThreadBatch batch = threadBatch.get();
+    boolean isComplete;
+    // Only contended when a window is logged. The batch is released before merging,
+    // since the aggregator is always locked before a batch.
+    synchronized (batch) {
+      batch.add(startTimeNanos, durationNanos, underlyingCount);
+      isComplete = batch.count >= threadBatchSize
+          || batch.windowEnd - batch.windowStart >= MAX_THREAD_BATCH_DURATION_NANOS;
     }
-    if (duration > maxDuration) {
-      maxDuration = duration;
+    if (isComplete) {
+      merge(batch);
     }
-    durations[count - 1] = duration;
-    totalUnderlyingCount += underlyingCount;
+  }
+
+  private synchronized void merge(ThreadBatch batch) {
+    mergeAndClear(batch);
     // Dump stats if needed
-    if (count == statsComputationWindow) {
+    if (count >= statsComputationWindow) {
+      // Merge the timers left in the batches of all threads
+      Iterator<ThreadBatch> iterator = threadBatches.iterator();
+      while (iterator.hasNext()) {
+        ThreadBatch otherBatch = iterator.next();
+        // Check before merging, so that all timers of a terminated thread are merged
+        boolean terminated = otherBatch.isTerminated();
+        mergeAndClear(otherBatch);
+        if (terminated) {
+          iterator.remove();
+        }
+      }
       // Determine computation window duration
       statsComputationWindowDuration = Math.abs(statsComputationWindowEnd - statsComputationWindowStart);
       logStats();
@@ -114,8 +159,34 @@ public class HankTimerEventAggregator {
     }
   }
 
+  private void mergeAndClear(ThreadBatch batch) {
+    synchronized (batch) {
+      if (batch.count == 0) {
+        return;
+      }
+      count += batch.count;
+      totalCount += batch.count;
+      // Determine computation window start and end
+      if (batch.windowStart < statsComputationWindowStart) {
+        statsComputationWindowStart = batch.windowStart;
+      }
+      if (batch.windowEnd > statsComputationWindowEnd) {
+        statsComputationWindowEnd = batch.windowEnd;
+      }
+      // Compute statistics
+      totalDuration += batch.totalDuration;
+      if (batch.minDuration < minDuration) {
+        minDuration = batch.minDuration;
+      }
+      if (batch.maxDuration > maxDuration) {
+        maxDuration = batch.maxDuration;
+      }
+      totalUnderlyingCount += batch.totalUnderlyingCount;
+      batch.clear();
+    }
+  }
+
   private void clear() {
-    // Durations doesn't need to be cleared
     count = 0;
     totalDuration = 0;
     statsComputationWindowStart = Long.MAX_VALUE;
@@ -158,10 +229,59 @@ public class HankTimerEventAggregator {
       logStr.append(totalUnderlyingCount / (statsComputationWindowDuration / 1000000000d));
     }
     LOG.info(logStr.toString());
-    // Aggregate population statistics
-    if (populationStatistics == null) {
-      populationStatistics = new DoublePopulationStatisticsAggregator();
+  }
+
+  // Timers aggregated by a single thread, not yet merged. Guarded by itself.
+  private static class ThreadBatch {
+
+    // Weak, so that the batch does not keep its thread from being collected
+    private final WeakReference<Thread> thread;
+    private int count;
+    private long windowStart;
+    private long windowEnd;
+    private double minDuration;
+    private double maxDuration;
+    private double totalDuration;
+    private long totalUnderlyingCount;
+
+    private ThreadBatch(Thread thread) {
+      this.thread = new WeakReference<Thread>(thread);
+      clear();
+    }
+
+    // Termination of a thread happens-before isAlive() returns false, hence all its timers are visible
+    private boolean isTerminated() {
+      Thread owner = thread.get();
+      return owner == null || !owner.isAlive();
+    }
+
+    private void add(long startTimeNanos, long durationNanos, int underlyingCount) {
+      ++count;
+      if (startTimeNanos < windowStart) {
+        windowStart = startTimeNanos;
+      }
+      if ((startTimeNanos + durationNanos) > windowEnd) {
+        windowEnd = startTimeNanos + durationNanos;
+      }
+      double duration = durationNanos / 1000000d;
+      totalDuration += duration;
+      if (duration < minDuration) {
+        minDuration = duration;
+      }
+      if (duration > maxDuration) {
+        maxDuration = duration;
+      }
+      totalUnderlyingCount += underlyingCount;
+    }
+
+    private void clear() {
+      count = 0;
+      windowStart = Long.MAX_VALUE;
+      windowEnd = Long.MIN_VALUE;
+      minDuration = Double.MAX_VALUE;
+      maxDuration = Double.MIN_VALUE;
+      totalDuration = 0;
+      totalUnderlyingCount = 0;
     }
-    populationStatistics.aggregate(minDuration, maxDuration, count, totalDuration, durations);
   }
 }
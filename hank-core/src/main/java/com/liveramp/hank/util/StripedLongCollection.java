@@ -0,0 +1,121 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collection of counters that can be incremented concurrently without contention, as an alternative
+ * to AtomicLongCollection on hot paths. Each thread adds to the cells of one of several stripes, and reads
+ * sum all stripes. Reads are not atomic across counters, but no increment is ever lost.
+ */
+public class StripedLongCollection {
+
+  // Longs per cache line. Stripes are padded so that threads of different stripes do not share cache lines.
+  private static final int CACHE_LINE_NUM_LONGS = 8;
+  private static final int MAX_NUM_STRIPES = 64;
+  private static final int DEFAULT_NUM_STRIPES = getDefaultNumStripes();
+
+  private final int size;
+  private final int stride;
+  private final int stripeMask;
+  private final AtomicLongArray cells;
+
+  public StripedLongCollection(int size) {
+    this(size, DEFAULT_NUM_STRIPES);
+  }
+
+  // The number of stripes is rounded up to a power of two
+  public StripedLongCollection(int size, int numStripes) {
+    int roundedNumStripes = 1;
+    while (roundedNumStripes < numStripes && roundedNumStripes < MAX_NUM_STRIPES) {
+      roundedNumStripes <<= 1;
+    }
+    this.size = size;
+    this.stride = Math.max(1, (size + CACHE_LINE_NUM_LONGS - 1) / CACHE_LINE_NUM_LONGS) * CACHE_LINE_NUM_LONGS;
+    this.stripeMask = roundedNumStripes - 1;
+    // One extra cache line so that the first stripe does not share one with the array header
+    this.cells = new AtomicLongArray(CACHE_LINE_NUM_LONGS + roundedNumStripes * stride);
+  }
+
+  private static int getDefaultNumStripes() {
+    return Runtime.getRuntime().availableProcessors() * 2;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private int getStripeOffset() {
+    long threadId = Thread.currentThread().getId();
+    // Spread thread ids, which are usually sequential
+    int hash = (int)(threadId * 0x9E3779B97F4A7C15L >>> 32);
+    return CACHE_LINE_NUM_LONGS + (hash & stripeMask) * stride;
+  }
+
+  public void add(int index, long delta) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for " + size + " counters");
+    }
+    cells.getAndAdd(getStripeOffset() + index, delta);
+  }
+
+  public void increment(long... increments) {
+    if (size != increments.length) {
+      throw new RuntimeException("Expecting " + size + " increments but was supplied " + increments.length);
+    }
+    int offset = getStripeOffset();
+    for (int i = 0; i < increments.length; ++i) {
+      if (increments[i] != 0) {
+        cells.getAndAdd(offset + i, increments[i]);
+      }
+    }
+  }
+
+  public long get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " is out of bounds for " + size + " counters");
+    }
+    long result = 0;
+    for (int offset = CACHE_LINE_NUM_LONGS; offset < cells.length(); offset += stride) {
+      result += cells.get(offset + index);
+    }
+    return result;
+  }
+
+  public long[] getAsArray() {
+    long[] result = new long[size];
+    for (int offset = CACHE_LINE_NUM_LONGS; offset < cells.length(); offset += stride) {
+      for (int i = 0; i < size; ++i) {
+        result[i] += cells.get(offset + i);
+      }
+    }
+    return result;
+  }
+
+  // Increments performed concurrently are either included in the result or kept for the next call
+  public long[] getAsArrayAndReset() {
+    long[] result = new long[size];
+    for (int offset = CACHE_LINE_NUM_LONGS; offset < cells.length(); offset += stride) {
+      for (int i = 0; i < size; ++i) {
+        result[i] += cells.getAndSet(offset + i, 0);
+      }
+    }
+    return result;
+  }
+}
@@ -0,0 +1,207 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.liveramp.commons.util.MemoryUsageEstimator;
+
+/**
+ * A memory bound LRU cache split in independently locked stripes. Keys are
+ * assigned to a stripe by hash, so that concurrent accesses to different stripes
+ * do not contend. All stripes draw from a single global budget of items and bytes:
+ * any entry that fits in the whole capacity can be cached, whatever the number of
+ * stripes. When the budget is exceeded, the least recently used entries of the
+ * stripe being written to are evicted first, then those of the other stripes
+ * (approximate LRU overall).
+ * <p/>
+ * With a concurrency level of 1, this is equivalent to SynchronizedMemoryBoundCache.
+ */
+public class StripedMemoryBoundCache<K, V> {
+
+  private final Stripe<K, V>[] stripes;
+  private final int stripeMask;
+  private final long numBytesCapacity;
+  private final int numItemsCapacity;
+  private final MemoryUsageEstimator<K> keyEstimator;
+  private final MemoryUsageEstimator<V> valueEstimator;
+  private final AtomicLong numManagedBytes = new AtomicLong();
+  private final AtomicInteger numItems = new AtomicInteger();
+
+  private static class Stripe<K, V> extends LinkedHashMap<K, V> {
+
+    private final int index;
+
+    private Stripe(int index) {
+      // Access order
+      super(16, 0.75f, true);
+      this.index = index;
+    }
+  }
+
+  // A disabled cache will not add any synchronization overhead.
+  // The concurrency level is rounded up to a power of two.
+  // Non positive capacities are unbounded.
+  @SuppressWarnings("unchecked")
+  public StripedMemoryBoundCache(boolean isEnabled,
+                                 long numBytesCapacity,
+                                 int numItemsCapacity,
+                                 int concurrencyLevel,
+                                 MemoryUsageEstimator<K> keyEstimator,
+                                 MemoryUsageEstimator<V> valueEstimator) {
+    this.numBytesCapacity = numBytesCapacity;
+    this.numItemsCapacity = numItemsCapacity;
+    this.keyEstimator = keyEstimator;
+    this.valueEstimator = valueEstimator;
+    if (isEnabled) {
+      int numStripes = 1;
+      while (numStripes < concurrencyLevel) {
+        numStripes <<= 1;
+      }
+      stripes = new Stripe[numStripes];
+      for (int i = 0; i < numStripes; ++i) {
+        stripes[i] = new Stripe<K, V>(i);
+      }
+      stripeMask = numStripes - 1;
+    } else {
+      stripes = null;
+      stripeMask = 0;
+    }
+  }
+
+  private Stripe<K, V> getStripe(K key) {
+    int hash = key.hashCode();
+    // Spread high bits since the mask only retains low bits
+    hash ^= (hash >>> 16);
+    hash ^= (hash >>> 8);
+    return stripes[hash & stripeMask];
+  }
+
+  private long estimateMemorySize(K key, V value) {
+    return keyEstimator.estimateMemorySize(key) + valueEstimator.estimateMemorySize(value);
+  }
+
+  private boolean isOverCapacity() {
+    return (numItemsCapacity > 0 && numItems.get() > numItemsCapacity)
+        || (numBytesCapacity > 0 && numManagedBytes.get() > numBytesCapacity);
+  }
+
+  // Evict least recently used entries of the given stripe until the cache fits in its capacity,
+  // keeping at least the given number of entries. Must be called with the stripe's lock held.
+  private void evict(Stripe<K, V> stripe, int minSize) {
+    Iterator<Map.Entry<K, V>> iterator = stripe.entrySet().iterator();
+    while (isOverCapacity() && stripe.size() > minSize) {
+      Map.Entry<K, V> entry = iterator.next();
+      numItems.decrementAndGet();
+      numManagedBytes.addAndGet(-estimateMemorySize(entry.getKey(), entry.getValue()));
+      iterator.remove();
+    }
+  }
+
+  public boolean isEnabled() {
+    return stripes != null;
+  }
+
+  public int getNumStripes() {
+    if (!isEnabled()) {
+      return 0;
+    }
+    return stripes.length;
+  }
+
+  public V get(K key) {
+    if (!isEnabled()) {
+      return null;
+    } else {
+      Stripe<K, V> stripe = getStripe(key);
+      synchronized (stripe) {
+        return stripe.get(key);
+      }
+    }
+  }
+
+  public void put(K key, V value) {
+    if (isEnabled()) {
+      if (value == null) {
+        throw new IllegalArgumentException("Value to put in cache should not be null.");
+      }
+      long size = estimateMemorySize(key, value);
+      if (numBytesCapacity > 0 && size > numBytesCapacity) {
+        // Would never fit
+        return;
+      }
+      Stripe<K, V> stripe = getStripe(key);
+      synchronized (stripe) {
+        V previousValue = stripe.put(key, value);
+        if (previousValue == null) {
+          numItems.incrementAndGet();
+        } else {
+          size -= estimateMemorySize(key, previousValue);
+        }
+        numManagedBytes.addAndGet(size);
+        // Evict from this stripe first, never the entry that was just put (it is the most recently used)
+        evict(stripe, 1);
+      }
+      // Other stripes make room if this one ran out of entries to evict.
+      // Stripes are locked one at a time.
+      for (int i = 1; i < stripes.length && isOverCapacity(); ++i) {
+        Stripe<K, V> otherStripe = stripes[(stripe.index + i) & stripeMask];
+        synchronized (otherStripe) {
+          evict(otherStripe, 0);
+        }
+      }
+    }
+  }
+
+  public int size() {
+    if (!isEnabled()) {
+      return 0;
+    } else {
+      return numItems.get();
+    }
+  }
+
+  // -1 when the number of items is unbounded
+  public int getMaxNumItems() {
+    if (!isEnabled()) {
+      return 0;
+    } else {
+      return numItemsCapacity > 0 ? numItemsCapacity : -1;
+    }
+  }
+
+  public long getNumManagedBytes() {
+    if (!isEnabled()) {
+      return 0;
+    } else {
+      return numManagedBytes.get();
+    }
+  }
+
+  // -1 when the number of managed bytes is unbounded
+  public long getMaxNumManagedBytes() {
+    if (!isEnabled()) {
+      return 0;
+    } else {
+      return numBytesCapacity > 0 ? numBytesCapacity : -1;
+    }
+  }
+}
@@ -16,9 +16,11 @@
 package com.liveramp.hank.coordinator.zk;
 
 import com.liveramp.hank.coordinator.Coordinator;
+import com.liveramp.hank.coordinator.DataLocationChangeListener;
 import com.liveramp.hank.coordinator.Domain;
 import com.liveramp.hank.coordinator.HostCommand;
 import com.liveramp.hank.coordinator.HostDomain;
+import com.liveramp.hank.coordinator.HostDomainPartition;
 import com.liveramp.hank.coordinator.HostState;
 import com.liveramp.hank.coordinator.Hosts;
 import com.liveramp.hank.coordinator.PartitionServerAddress;
@@ -33,6 +35,7 @@ import org.junit.Test;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static junit.framework.Assert.assertNull;
 import static org.junit.Assert.assertEquals;
@@ -239,6 +242,39 @@ public class TestZkHost extends ZkTestCase {
     assertEquals(0, host.getHostDomain(d0).getDomain().getId());
   }
 
+  @Test
+  public void testDataLocationChangeWhileServing() throws Exception {
+    final HostDomainPartition[] partition = new HostDomainPartition[1];
+    final AtomicBoolean notifiedOfUpdate = new AtomicBoolean(false);
+    ZkHost host = ZkHost.create(getZk(), coordinator, getRoot(), ADDRESS, new DataLocationChangeListener() {
+      @Override
+      public void onDataLocationChange() {
+        try {
+          if (partition[0] != null && Integer.valueOf(2).equals(partition[0].getCurrentDomainVersion())) {
+            notifiedOfUpdate.set(true);
+          }
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    }, Collections.<String>emptyList());
+    partition[0] = host.addDomain(d0).addPartition(0);
+    partition[0].setCurrentDomainVersion(1);
+    host.setState(HostState.SERVING);
+    waitUntilHost(HostState.SERVING, host);
+
+    // Updating the current version of a partition while serving is a data location change
+    partition[0].setCurrentDomainVersion(2);
+    WaitUntil.orDie(new Condition() {
+      @Override
+      public boolean test() {
+        return notifiedOfUpdate.get();
+      }
+    });
+    assertEquals(HostState.SERVING, host.getState());
+    host.close();
+  }
+
   @Test
   public void testUptime() throws Exception {
     ZkHost host = ZkHost.create(getZk(), coordinator, getRoot(), ADDRESS, null, Collections.<String>emptyList());
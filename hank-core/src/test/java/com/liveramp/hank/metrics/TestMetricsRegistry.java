@@ -0,0 +1,71 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.metrics;
+
+import java.util.SortedMap;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+import com.liveramp.hank.util.StripedLongCollection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestMetricsRegistry extends BaseTestCase {
+
+  @Test
+  public void testCountersAndGauges() throws Exception {
+    MetricsRegistry registry = new MetricsRegistry();
+    StripedLongCollection counters = registry.getCounters("domain.users", "requests", "hits");
+    // Registering again returns the same counters
+    assertSame(counters, registry.getCounters("domain.users", "requests", "hits"));
+    try {
+      registry.getCounters("domain.users", "requests");
+      fail("Should fail when names do not match");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+    counters.increment(3, 1);
+    registry.register("queue_size", new Gauge() {
+      @Override
+      public long getValue() {
+        return 7;
+      }
+    });
+
+    SortedMap<String, Long> values = registry.getValues();
+    assertEquals(3, values.size());
+    assertEquals(Long.valueOf(3), values.get("domain.users.requests"));
+    assertEquals(Long.valueOf(1), values.get("domain.users.hits"));
+    assertEquals(Long.valueOf(7), values.get("queue_size"));
+
+    StringBuilder text = new StringBuilder();
+    registry.writeText(text);
+    assertEquals("domain.users.hits 1\ndomain.users.requests 3\nqueue_size 7\n", text.toString());
+
+    registry.unregisterAll("domain.");
+    assertEquals(1, registry.getValues().size());
+  }
+
+  @Test
+  public void testGetName() {
+    assertEquals("domain.my_domain.partition.3", MetricsRegistry.getName("domain", "my domain", "partition", "3"));
+    assertTrue(MetricsRegistry.getName("a.b").indexOf('.') < 0);
+  }
+}
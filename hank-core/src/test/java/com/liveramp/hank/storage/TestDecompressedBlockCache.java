@@ -0,0 +1,87 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.storage;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestDecompressedBlockCache extends BaseTestCase {
+
+  private static final int BLOCK_SIZE = 1024;
+
+  private static ByteBuffer block(int i) {
+    byte[] block = new byte[BLOCK_SIZE];
+    for (int j = 0; j < BLOCK_SIZE; ++j) {
+      block[j] = (byte)(i + j);
+    }
+    return ByteBuffer.wrap(block);
+  }
+
+  @Test
+  public void testDisabled() {
+    DecompressedBlockCache cache = new DecompressedBlockCache(0, 1);
+    assertFalse(cache.isEnabled());
+    cache.put(0, block(0));
+    assertNull(cache.get(0));
+    assertEquals(0, cache.getCacheStatistics().getNumItems());
+  }
+
+  @Test
+  public void testPutCopiesRemainingBytes() {
+    DecompressedBlockCache cache = new DecompressedBlockCache(1 << 20, 4);
+    assertTrue(cache.isEnabled());
+    ByteBuffer block = block(1);
+    block.position(10);
+    block.limit(100);
+    cache.put(42, block);
+    // Modifying the original block must not affect the cached one
+    block.array()[50] = (byte)-1;
+    ByteBuffer cachedBlock = cache.get(42);
+    assertEquals(90, cachedBlock.remaining());
+    for (int i = 0; i < 90; ++i) {
+      assertEquals((byte)(1 + 10 + i), cachedBlock.get(i));
+    }
+    assertNull(cache.get(0));
+    assertEquals(1, cache.getCacheStatistics().getNumItems());
+    // Blocks are only bounded by bytes
+    assertEquals(-1, cache.getCacheStatistics().getMaxNumItems());
+  }
+
+  @Test
+  public void testEvictionByBytes() {
+    // Room for about 8 blocks
+    DecompressedBlockCache cache = new DecompressedBlockCache(8 * (BLOCK_SIZE + 64), 1);
+    for (int i = 0; i < 100; ++i) {
+      cache.put(i * BLOCK_SIZE, block(i));
+      CacheStatistics statistics = cache.getCacheStatistics();
+      assertTrue(statistics.getNumManagedBytes() <= statistics.getMaxNumManagedBytes());
+    }
+    long numItems = cache.getCacheStatistics().getNumItems();
+    assertTrue(numItems > 0);
+    assertTrue(numItems <= 8);
+    // Least recently used blocks are evicted first
+    assertNull(cache.get(0));
+    assertEquals(block(99), cache.get(99 * BLOCK_SIZE));
+  }
+}
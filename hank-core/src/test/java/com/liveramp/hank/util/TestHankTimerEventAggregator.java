@@ -0,0 +1,73 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestHankTimerEventAggregator extends BaseTestCase {
+
+  @Test
+  public void testTimersOfIdleThreadsAreMerged() throws Exception {
+    final HankTimerEventAggregator aggregator = new HankTimerEventAggregator("test", 100);
+    // A thread adds a few timers and becomes idle
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 10; ++i) {
+          aggregator.addSince(System.nanoTime());
+        }
+      }
+    });
+    thread.start();
+    thread.join();
+    assertEquals(0, aggregator.getTotalCount());
+
+    // Full batches of this thread are merged
+    for (int i = 0; i < 64; ++i) {
+      aggregator.addSince(System.nanoTime());
+    }
+    assertEquals(64, aggregator.getTotalCount());
+
+    // Timers of the idle thread are merged when the window is logged
+    for (int i = 0; i < 64; ++i) {
+      aggregator.addSince(System.nanoTime());
+    }
+    assertEquals(138, aggregator.getTotalCount());
+  }
+
+  @Test
+  public void testLongBatchesAreMerged() {
+    HankTimerEventAggregator aggregator = new HankTimerEventAggregator("test", 100);
+    aggregator.addSince(System.nanoTime());
+    assertEquals(0, aggregator.getTotalCount());
+    // The batch spans more than a second
+    aggregator.addSince(System.nanoTime() - TimeUnit.SECONDS.toNanos(2));
+    assertEquals(2, aggregator.getTotalCount());
+  }
+
+  @Test
+  public void testInactive() {
+    HankTimerEventAggregator aggregator = new HankTimerEventAggregator("test", 0);
+    aggregator.addSince(aggregator.getStartTimeNanos());
+    assertEquals(0, aggregator.getTotalCount());
+  }
+}
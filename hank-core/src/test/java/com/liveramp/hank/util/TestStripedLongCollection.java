@@ -0,0 +1,62 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.util;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TestStripedLongCollection extends BaseTestCase {
+
+  @Test
+  public void testCounting() {
+    StripedLongCollection collection = new StripedLongCollection(3, 4);
+    assertEquals(3, collection.size());
+    assertArrayEquals(new long[]{0, 0, 0}, collection.getAsArray());
+    collection.increment(1, 0, 2);
+    collection.add(1, 5);
+    collection.add(2, -1);
+    assertEquals(1, collection.get(0));
+    assertEquals(5, collection.get(1));
+    assertEquals(1, collection.get(2));
+    assertArrayEquals(new long[]{1, 5, 1}, collection.getAsArrayAndReset());
+    assertArrayEquals(new long[]{0, 0, 0}, collection.getAsArray());
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws Exception {
+    final StripedLongCollection collection = new StripedLongCollection(2);
+    Thread[] threads = new Thread[8];
+    for (int t = 0; t < threads.length; ++t) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 100000; ++i) {
+            collection.increment(1, 2);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertArrayEquals(new long[]{8 * 100000, 2 * 8 * 100000}, collection.getAsArray());
+  }
+}
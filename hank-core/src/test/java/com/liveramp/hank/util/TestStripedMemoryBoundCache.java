@@ -0,0 +1,127 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.util;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.liveramp.commons.util.ByteBufferMemoryUsageEstimator;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestStripedMemoryBoundCache extends BaseTestCase {
+
+  private static ByteBuffer key(int i) {
+    return ByteBuffer.wrap(new byte[]{(byte)i, (byte)(i >> 8)});
+  }
+
+  @Test
+  public void testDisabled() {
+    StripedMemoryBoundCache<ByteBuffer, ByteBuffer> cache = new StripedMemoryBoundCache<ByteBuffer, ByteBuffer>(
+        false, 0, 0, 8, new ByteBufferMemoryUsageEstimator(), new ByteBufferMemoryUsageEstimator());
+    assertFalse(cache.isEnabled());
+    cache.put(key(1), key(1));
+    assertNull(cache.get(key(1)));
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getMaxNumItems());
+  }
+
+  @Test
+  public void testGetPut() {
+    StripedMemoryBoundCache<ByteBuffer, ByteBuffer> cache = new StripedMemoryBoundCache<ByteBuffer, ByteBuffer>(
+        true, -1, 1000, 5, new ByteBufferMemoryUsageEstimator(), new ByteBufferMemoryUsageEstimator());
+    assertTrue(cache.isEnabled());
+    // Concurrency level is rounded up to a power of two
+    assertEquals(8, cache.getNumStripes());
+    for (int i = 0; i < 100; ++i) {
+      cache.put(key(i), key(i + 1));
+    }
+    assertEquals(100, cache.size());
+    for (int i = 0; i < 100; ++i) {
+      assertEquals(key(i + 1), cache.get(key(i)));
+    }
+    assertNull(cache.get(key(100)));
+  }
+
+  @Test
+  public void testCapacityIsSharedAcrossStripes() {
+    StripedMemoryBoundCache<ByteBuffer, ByteBuffer> cache = new StripedMemoryBoundCache<ByteBuffer, ByteBuffer>(
+        true, -1, 16, 4, new ByteBufferMemoryUsageEstimator(), new ByteBufferMemoryUsageEstimator());
+    assertEquals(16, cache.getMaxNumItems());
+    for (int i = 0; i < 1000; ++i) {
+      cache.put(key(i), key(i));
+    }
+    assertTrue(cache.size() <= 16);
+  }
+
+  @Test
+  public void testSmallItemCapacityIsNotInflated() {
+    StripedMemoryBoundCache<ByteBuffer, ByteBuffer> cache = new StripedMemoryBoundCache<ByteBuffer, ByteBuffer>(
+        true, -1, 2, 8, new ByteBufferMemoryUsageEstimator(), new ByteBufferMemoryUsageEstimator());
+    assertEquals(2, cache.getMaxNumItems());
+    for (int i = 0; i < 1000; ++i) {
+      cache.put(key(i), key(i));
+      assertTrue(cache.size() <= 2);
+    }
+    // The most recently put entry is always cached
+    assertEquals(key(999), cache.get(key(999)));
+  }
+
+  @Test
+  public void testValueLargerThanStripeShare() {
+    ByteBufferMemoryUsageEstimator estimator = new ByteBufferMemoryUsageEstimator();
+    ByteBuffer largeValue = ByteBuffer.wrap(new byte[500]);
+    long numBytesCapacity = 2 * (estimator.estimateMemorySize(key(0)) + estimator.estimateMemorySize(largeValue));
+    StripedMemoryBoundCache<ByteBuffer, ByteBuffer> cache = new StripedMemoryBoundCache<ByteBuffer, ByteBuffer>(
+        true, numBytesCapacity, -1, 8, estimator, estimator);
+    assertEquals(numBytesCapacity, cache.getMaxNumManagedBytes());
+    for (int i = 0; i < 100; ++i) {
+      cache.put(key(i), largeValue);
+      assertEquals(largeValue, cache.get(key(i)));
+      assertTrue(cache.getNumManagedBytes() <= numBytesCapacity);
+    }
+    assertEquals(2, cache.size());
+    // Values that do not fit in the whole cache are not cached
+    cache.put(key(1000), ByteBuffer.wrap(new byte[(int) numBytesCapacity]));
+    assertNull(cache.get(key(1000)));
+    assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testReplaceValue() {
+    ByteBufferMemoryUsageEstimator estimator = new ByteBufferMemoryUsageEstimator();
+    StripedMemoryBoundCache<ByteBuffer, ByteBuffer> cache = new StripedMemoryBoundCache<ByteBuffer, ByteBuffer>(
+        true, -1, 10, 4, estimator, estimator);
+    cache.put(key(1), ByteBuffer.wrap(new byte[100]));
+    cache.put(key(1), key(2));
+    assertEquals(1, cache.size());
+    assertEquals(key(2), cache.get(key(1)));
+    assertEquals(estimator.estimateMemorySize(key(1)) + estimator.estimateMemorySize(key(2)), cache.getNumManagedBytes());
+  }
+
+  @Test
+  public void testUnboundedCapacities() {
+    StripedMemoryBoundCache<ByteBuffer, ByteBuffer> cache = new StripedMemoryBoundCache<ByteBuffer, ByteBuffer>(
+        true, -1, -1, 4, new ByteBufferMemoryUsageEstimator(), new ByteBufferMemoryUsageEstimator());
+    assertEquals(-1, cache.getMaxNumItems());
+    assertEquals(-1, cache.getMaxNumManagedBytes());
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.compression.zstd;
+
+import java.util.List;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdCompressCtx;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+
+/**
+ * Compresses whole blocks at once with an optional dictionary, reusing the same context.
+ * Not thread safe.
+ */
+public class ZstdBlockCompressor {
+
+  private static final int COMPRESSION_LEVEL = 3;
+
+  private final ZstdCompressCtx context;
+
+  // An empty dictionary compresses without dictionary
+  public ZstdBlockCompressor(byte[] dictionary) {
+    context = new ZstdCompressCtx();
+    context.setLevel(COMPRESSION_LEVEL);
+    if (dictionary.length > 0) {
+      context.loadDict(new ZstdDictCompress(dictionary, COMPRESSION_LEVEL));
+    }
+  }
+
+  public int getMaxCompressedLength(int length) {
+    return (int)Zstd.compressBound(length);
+  }
+
+  public int compress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset) {
+    return context.compressByteArray(dst, dstOffset, dst.length - dstOffset, src, srcOffset, srcLength);
+  }
+
+  // Train a dictionary of at most dictionaryNumBytes from the given samples. Return an empty dictionary
+  // when there are not enough samples to train one.
+  public static byte[] trainDictionary(List<byte[]> samples, int dictionaryNumBytes) {
+    long samplesNumBytes = 0;
+    for (byte[] sample : samples) {
+      samplesNumBytes += sample.length;
+    }
+    if (samples.isEmpty() || samplesNumBytes > Integer.MAX_VALUE) {
+      return new byte[0];
+    }
+    ZstdDictTrainer trainer = new ZstdDictTrainer((int)samplesNumBytes, dictionaryNumBytes);
+    for (byte[] sample : samples) {
+      trainer.addSample(sample);
+    }
+    try {
+      return trainer.trainSamples();
+    } catch (RuntimeException e) {
+      // Training fails when samples are too few or too small
+      return new byte[0];
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.compression.zstd;
+
+import com.github.luben.zstd.ZstdDecompressCtx;
+import com.github.luben.zstd.ZstdDictDecompress;
+
+/**
+ * Decompresses whole blocks compressed by a ZstdBlockCompressor with the same dictionary.
+ * The dictionary is loaded once, and shared by all threads. Decompression contexts are kept per thread.
+ * Thread safe.
+ */
+public class ZstdBlockDecompressor {
+
+  private static final ThreadLocal<ZstdDecompressCtx> contexts = new ThreadLocal<ZstdDecompressCtx>() {
+    @Override
+    protected ZstdDecompressCtx initialValue() {
+      return new ZstdDecompressCtx();
+    }
+  };
+
+  private static final ThreadLocal<ZstdDecompressCtx> dictionaryContexts = new ThreadLocal<ZstdDecompressCtx>() {
+    @Override
+    protected ZstdDecompressCtx initialValue() {
+      return new ZstdDecompressCtx();
+    }
+  };
+
+  private final ZstdDictDecompress dictionary;
+
+  // An empty dictionary decompresses without dictionary
+  public ZstdBlockDecompressor(byte[] dictionary) {
+    this.dictionary = dictionary.length > 0 ? new ZstdDictDecompress(dictionary) : null;
+  }
+
+  // Return the decompressed length
+  public int decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength) {
+    ZstdDecompressCtx context;
+    if (dictionary == null) {
+      context = contexts.get();
+    } else {
+      context = dictionaryContexts.get();
+      context.loadDict(dictionary);
+    }
+    return context.decompressByteArray(dst, dstOffset, dstLength, src, srcOffset, srcLength);
+  }
+}
@@ -20,19 +20,33 @@ public interface PartitionServerConfigurator extends CoordinatorConfigurator, Re
 
   public int getServicePort();
 
+  public int getMetricsPort();
+
   public String getRingGroupName();
 
   public int getNumConcurrentUpdates();
 
   public int getMaxConcurrentUpdatesPerDataDirectory();
 
+  public int getNumConcurrentFetches();
+
+  public boolean getUpdateWhileServing();
+
   public int getNumConcurrentQueries();
 
   public int getNumConcurrentGetBulkTasks();
 
   public int getGetBulkTaskSize();
 
+  public boolean getGetBulkGroupByPartition();
+
   public int getGetTimerAggregatorWindow();
 
+  public long getValueCacheNumBytesCapacity();
+
+  public int getWarmupNumHotKeys();
+
+  public boolean getCoalesceGets();
+
   public ReaderConfigurator getReaderConfigurator(int numTotalPartitions);
 }
@@ -30,18 +30,27 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
   public static final String PARTITION_SERVER_SECTION_KEY = "partition_server";
   public static final String LOCAL_DATA_DIRS_KEY = "local_data_dirs";
   public static final String SERVICE_PORT_KEY = "service_port";
+  public static final String METRICS_PORT_KEY = "metrics_port";
   public static final String RING_GROUP_NAME_KEY = "ring_group_name";
   public static final String PARTITION_SERVER_DAEMON_SECTION_KEY = "partition_server_daemon";
   public static final String NUM_CONCURRENT_QUERIES_KEY = "num_concurrent_queries";
   public static final String UPDATE_DAEMON_SECTION_KEY = "update_daemon";
   public static final String NUM_CONCURRENT_UPDATES_KEY = "num_concurrent_updates";
   public static final String MAX_CONCURRENT_UPDATES_PER_DATA_DIRECTORY_KEY = "max_concurrent_updates_per_data_directory";
+  public static final String UPDATE_WHILE_SERVING_KEY = "update_while_serving";
+  public static final String NUM_CONCURRENT_FETCHES_KEY = "num_concurrent_fetches";
   public static final String NUM_CONCURRENT_GET_BULK_TASKS = "num_concurrent_get_bulk_tasks";
   public static final String GET_BULK_TASK_SIZE = "get_bulk_task_size";
+  public static final String GET_BULK_GROUP_BY_PARTITION = "get_bulk_group_by_partition";
   public static final String GET_TIMER_AGGREGATOR_WINDOW_KEY = "get_timer_aggregator_window";
   public static final String BUFFER_REUSE_MAX_SIZE = "buffer_reuse_max_size";
   public static final String CACHE_NUM_BYTES_CAPACITY = "cache_num_bytes_capacity";
   public static final String CACHE_NUM_ITEMS_CAPACITY = "cache_num_items_capacity";
+  public static final String CACHE_CONCURRENCY_LEVEL = "cache_concurrency_level";
+  public static final String VALUE_CACHE_NUM_BYTES_CAPACITY = "value_cache_num_bytes_capacity";
+  public static final String BLOCK_CACHE_NUM_BYTES_CAPACITY = "block_cache_num_bytes_capacity";
+  public static final String WARMUP_NUM_HOT_KEYS = "warmup_num_hot_keys";
+  public static final String COALESCE_GETS = "coalesce_gets";
 
   public YamlPartitionServerConfigurator(String path) throws IOException,
       InvalidConfigurationException {
@@ -88,6 +97,16 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
     return getInteger(PARTITION_SERVER_SECTION_KEY, SERVICE_PORT_KEY);
   }
 
+  // Optional, defaults to 0 (metrics are not served over HTTP)
+  @Override
+  public int getMetricsPort() {
+    Integer result = getOptionalInteger(PARTITION_SERVER_SECTION_KEY, METRICS_PORT_KEY);
+    if (result == null) {
+      return 0;
+    }
+    return result;
+  }
+
   @Override
   public String getRingGroupName() {
     return getString(PARTITION_SERVER_SECTION_KEY, RING_GROUP_NAME_KEY);
@@ -112,6 +131,38 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
     return getInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, GET_BULK_TASK_SIZE);
   }
 
+  // Optional, defaults to false (GET BULK tasks are windows of keys in request order)
+  @Override
+  public boolean getGetBulkGroupByPartition() {
+    Boolean result = getOptionalBoolean(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, GET_BULK_GROUP_BY_PARTITION);
+    if (result == null) {
+      return false;
+    }
+    return result;
+  }
+
+  // Optional, defaults to 0 (hot keys are not recorded and replayed on warmup)
+  @Override
+  public int getWarmupNumHotKeys() {
+    Integer result = getOptionalInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, WARMUP_NUM_HOT_KEYS);
+    if (result == null) {
+      return 0;
+    }
+    return result;
+  }
+
+  // Optional, defaults to false (concurrent GET requests of the same key are read separately).
+  // When enabled, every read that is not coalesced also registers itself as in flight (a compare-and-set
+  // and a small allocation), which only pays off when hot keys are requested concurrently.
+  @Override
+  public boolean getCoalesceGets() {
+    Boolean result = getOptionalBoolean(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, COALESCE_GETS);
+    if (result == null) {
+      return false;
+    }
+    return result;
+  }
+
   @Override
   public int getGetTimerAggregatorWindow() {
     return getInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY,
@@ -131,6 +182,8 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
         getCacheNumBytesCapacity(),
         getCacheNumItemsCapacity(),
         getBufferReuseMaxSize(),
+        getCacheConcurrencyLevel(),
+        getBlockCacheNumBytesCapacity(),
         numTotalPartitions);
   }
 
@@ -144,6 +197,36 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
     return getLong(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, CACHE_NUM_ITEMS_CAPACITY);
   }
 
+  // Optional, defaults to 1 (a single lock per cache)
+  @Override
+  public int getCacheConcurrencyLevel() {
+    Integer result = getOptionalInteger(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, CACHE_CONCURRENCY_LEVEL);
+    if (result == null) {
+      return 1;
+    }
+    return result;
+  }
+
+  // Optional, defaults to 0 (value cache disabled)
+  @Override
+  public long getValueCacheNumBytesCapacity() {
+    Long result = getOptionalLong(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, VALUE_CACHE_NUM_BYTES_CAPACITY);
+    if (result == null) {
+      return 0;
+    }
+    return result;
+  }
+
+  // Optional, defaults to 0 (decompressed block caches disabled)
+  @Override
+  public long getBlockCacheNumBytesCapacity() {
+    Long result = getOptionalLong(PARTITION_SERVER_SECTION_KEY, PARTITION_SERVER_DAEMON_SECTION_KEY, BLOCK_CACHE_NUM_BYTES_CAPACITY);
+    if (result == null) {
+      return 0;
+    }
+    return result;
+  }
+
   @Override
   public int getNumConcurrentUpdates() {
     return getInteger(PARTITION_SERVER_SECTION_KEY, UPDATE_DAEMON_SECTION_KEY, NUM_CONCURRENT_UPDATES_KEY);
@@ -153,4 +236,23 @@ public class YamlPartitionServerConfigurator extends YamlCoordinatorConfigurator
   public int getMaxConcurrentUpdatesPerDataDirectory() {
     return getInteger(PARTITION_SERVER_SECTION_KEY, UPDATE_DAEMON_SECTION_KEY, MAX_CONCURRENT_UPDATES_PER_DATA_DIRECTORY_KEY);
   }
+
+  // Defaults to the number of concurrent updates, as many as when each update fetched its versions one at a time
+  @Override
+  public int getNumConcurrentFetches() {
+    Integer result = getOptionalInteger(PARTITION_SERVER_SECTION_KEY, UPDATE_DAEMON_SECTION_KEY, NUM_CONCURRENT_FETCHES_KEY);
+    if (result == null) {
+      return getNumConcurrentUpdates();
+    }
+    return result;
+  }
+
+  @Override
+  public boolean getUpdateWhileServing() {
+    Boolean result = getOptionalBoolean(PARTITION_SERVER_SECTION_KEY, UPDATE_DAEMON_SECTION_KEY, UPDATE_WHILE_SERVING_KEY);
+    if (result == null) {
+      return false;
+    }
+    return result;
+  }
 }
@@ -67,6 +67,8 @@ public class HadoopDomainBuilder extends AbstractHadoopDomainBuilder {
     conf.setMapperClass(mapperClass);
     conf.setMapOutputKeyClass(KeyAndPartitionWritableComparable.class);
     conf.setMapOutputValueClass(ValueWritable.class);
+    // Sort map outputs on their serialized bytes
+    conf.setOutputKeyComparatorClass(KeyAndPartitionWritableComparable.Comparator.class);
     // Reducer class and key/value classes
     conf.setReducerClass(DomainBuilderReducer.class);
     conf.setOutputKeyClass(KeyAndPartitionWritable.class);
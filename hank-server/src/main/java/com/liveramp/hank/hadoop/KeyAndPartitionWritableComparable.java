@@ -4,26 +4,54 @@ import com.liveramp.commons.util.BytesUtils;
 import com.liveramp.hank.partitioner.Partitioner;
 import com.liveramp.hank.storage.StorageEngine;
 import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
+/**
+ * Serialized as:
+ * <ul>
+ * <li>partition (vint)</li>
+ * <li>key size (vint), key</li>
+ * <li>comparable key size + 1 (vint), comparable key. 0 when the comparable key is the key itself,
+ * in which case the key is not written twice.</li>
+ * </ul>
+ * The partition comes first and all sizes are written before their bytes, so that instances can be compared
+ * on the serialized bytes: {@link Comparator} compares partitions, then skips over the key to reach the
+ * comparable key (or compares the key itself when the comparable key is the key).
+ */
 public class KeyAndPartitionWritableComparable implements WritableComparable<KeyAndPartitionWritableComparable> {
 
+  static {
+    WritableComparator.define(KeyAndPartitionWritableComparable.class, new Comparator());
+  }
+
+  private static final int COMPARABLE_KEY_IS_KEY = 0;
+
   private KeyAndPartitionWritable keyAndPartitionWritable;
   private ByteBuffer comparableKey;
+  // Reused when reading
+  private BytesWritable key;
+  private IntWritable partition;
+  private byte[] comparableKeyBytes;
 
   public KeyAndPartitionWritableComparable() {
-    keyAndPartitionWritable = new KeyAndPartitionWritable();
+    key = new BytesWritable();
+    partition = new IntWritable();
+    keyAndPartitionWritable = new KeyAndPartitionWritable(key, partition);
     comparableKey = null;
   }
 
   public KeyAndPartitionWritableComparable(StorageEngine storageEngine, Partitioner partitioner, int numPartitions, BytesWritable key) {
     this.keyAndPartitionWritable = new KeyAndPartitionWritable(partitioner, numPartitions, key);
-    this.comparableKey = BytesUtils.byteBufferDeepCopy(storageEngine.getComparableKey(ByteBuffer.wrap(key.getBytes(), 0, key.getLength())));
+    ByteBuffer comparableKey = storageEngine.getComparableKey(ByteBuffer.wrap(key.getBytes(), 0, key.getLength()));
+    this.comparableKey = comparableKey == null ? null : BytesUtils.byteBufferDeepCopy(comparableKey);
   }
 
   public KeyAndPartitionWritable getKeyAndPartitionWritable() {
@@ -34,21 +62,48 @@ public class KeyAndPartitionWritableComparable implements WritableComparable<Key
     return keyAndPartitionWritable.getPartition();
   }
 
+  // A null comparable key means the key itself
+  public ByteBuffer getComparableKey() {
+    if (comparableKey == null) {
+      return keyAndPartitionWritable.getKey();
+    } else {
+      return comparableKey;
+    }
+  }
+
   public void readFields(DataInput dataInput) throws IOException {
-    keyAndPartitionWritable.readFields(dataInput);
-    // Read size of comparable key
-    int comparableKeySize = dataInput.readInt();
-    // Allocate and read comparable key
-    comparableKey = ByteBuffer.allocate(comparableKeySize);
-    dataInput.readFully(comparableKey.array(), 0, comparableKeySize);
+    if (key == null) {
+      key = new BytesWritable();
+      partition = new IntWritable();
+      keyAndPartitionWritable = new KeyAndPartitionWritable(key, partition);
+    }
+    partition.set(WritableUtils.readVInt(dataInput));
+    int keySize = WritableUtils.readVInt(dataInput);
+    key.setSize(keySize);
+    dataInput.readFully(key.getBytes(), 0, keySize);
+    int comparableKeySize = WritableUtils.readVInt(dataInput) - 1;
+    if (comparableKeySize < 0) {
+      comparableKey = null;
+    } else {
+      if (comparableKeyBytes == null || comparableKeyBytes.length < comparableKeySize) {
+        comparableKeyBytes = new byte[comparableKeySize];
+      }
+      dataInput.readFully(comparableKeyBytes, 0, comparableKeySize);
+      comparableKey = ByteBuffer.wrap(comparableKeyBytes, 0, comparableKeySize);
+    }
   }
 
   public void write(DataOutput dataOutput) throws IOException {
-    keyAndPartitionWritable.write(dataOutput);
-    // Write size of comparable key
-    dataOutput.writeInt(comparableKey.remaining());
-    // Write comparable key
-    dataOutput.write(comparableKey.array(), comparableKey.position(), comparableKey.remaining());
+    ByteBuffer key = keyAndPartitionWritable.getKey();
+    WritableUtils.writeVInt(dataOutput, keyAndPartitionWritable.getPartition());
+    WritableUtils.writeVInt(dataOutput, key.remaining());
+    dataOutput.write(key.array(), key.arrayOffset() + key.position(), key.remaining());
+    if (comparableKey == null || comparableKey.equals(key)) {
+      WritableUtils.writeVInt(dataOutput, COMPARABLE_KEY_IS_KEY);
+    } else {
+      WritableUtils.writeVInt(dataOutput, comparableKey.remaining() + 1);
+      dataOutput.write(comparableKey.array(), comparableKey.arrayOffset() + comparableKey.position(), comparableKey.remaining());
+    }
   }
 
   public int compareTo(KeyAndPartitionWritableComparable other) {
@@ -57,12 +112,59 @@ public class KeyAndPartitionWritableComparable implements WritableComparable<Key
     } else if (keyAndPartitionWritable.getPartition() > other.keyAndPartitionWritable.getPartition()) {
       return 1;
     } else {
-      return BytesUtils.compareBytesUnsigned(comparableKey, other.comparableKey);
+      return BytesUtils.compareBytesUnsigned(getComparableKey(), other.getComparableKey());
     }
   }
 
   @Override
   public String toString() {
-    return "<key/partition: " + keyAndPartitionWritable.toString() + ", comparable key: " + comparableKey.toString() + ">";
+    return "<key/partition: " + keyAndPartitionWritable.toString() + ", comparable key: " + getComparableKey().toString() + ">";
+  }
+
+  /**
+   * Orders serialized instances like compareTo does, without deserializing them, so that sorting
+   * map outputs does not allocate.
+   */
+  public static class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(KeyAndPartitionWritableComparable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      try {
+        // Partition
+        int partition1 = readVInt(b1, s1);
+        int partition2 = readVInt(b2, s2);
+        if (partition1 != partition2) {
+          return partition1 < partition2 ? -1 : 1;
+        }
+        s1 += WritableUtils.decodeVIntSize(b1[s1]);
+        s2 += WritableUtils.decodeVIntSize(b2[s2]);
+        // Comparable key
+        long comparableKey1 = getComparableKeyOffsetAndSize(b1, s1);
+        long comparableKey2 = getComparableKeyOffsetAndSize(b2, s2);
+        return compareBytes(
+            b1, (int)(comparableKey1 >>> 32), (int)comparableKey1,
+            b2, (int)(comparableKey2 >>> 32), (int)comparableKey2);
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e);
+      }
+    }
+
+    // Given the offset of the key size, return the comparable key's offset in the upper 32 bits and its size in the lower 32 bits
+    private static long getComparableKeyOffsetAndSize(byte[] bytes, int offset) throws IOException {
+      int keySize = readVInt(bytes, offset);
+      int keyOffset = offset + WritableUtils.decodeVIntSize(bytes[offset]);
+      int comparableKeySizeOffset = keyOffset + keySize;
+      int comparableKeySize = readVInt(bytes, comparableKeySizeOffset) - 1;
+      if (comparableKeySize < 0) {
+        return ((long)keyOffset << 32) | keySize;
+      } else {
+        int comparableKeyOffset = comparableKeySizeOffset + WritableUtils.decodeVIntSize(bytes[comparableKeySizeOffset]);
+        return ((long)comparableKeyOffset << 32) | comparableKeySize;
+      }
+    }
   }
 }
@@ -20,55 +20,167 @@ import com.liveramp.commons.util.BytesUtils;
 import com.liveramp.hank.coordinator.HostDomain;
 import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.metrics.MetricsRegistry;
 import com.liveramp.hank.partitioner.Partitioner;
 import com.liveramp.hank.storage.ReaderResult;
-import com.liveramp.hank.util.HankTimer;
 import com.liveramp.hank.util.HankTimerEventAggregator;
+import com.liveramp.hank.util.StripedLongCollection;
 import org.apache.log4j.Logger;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Class that manages accessing data on behalf of a particular Domain.
+ * <p/>
+ * Partition accessors can be swapped while serving. Requests acquire a reference on the accessor they use,
+ * so that a swapped out accessor's Reader is only closed once in-flight requests are done with it.
  */
 public class DomainAccessor {
 
   private static final HankResponse WRONG_HOST = HankResponse.xception(HankException.wrong_host(true));
 
   private static final Logger LOG = Logger.getLogger(DomainAccessor.class);
+
+  private static final String[] COUNTER_NAMES = new String[]{"get_requests", "wrong_host_responses"};
+  private static final int NUM_GET_REQUESTS = 0;
+  private static final int NUM_WRONG_HOST_RESPONSES = 1;
+
   private final HostDomain hostDomain;
-  private final PartitionAccessor[] partitionAccessors;
+  private final AtomicReferenceArray<PartitionAccessor> partitionAccessors;
   private final Partitioner partitioner;
+  private final HotKeySampler hotKeySampler;
   private final HankTimerEventAggregator getRequestsTimerAggregator;
+  private final LatencyHistogramRecorder getRequestsLatencyRecorder = new LatencyHistogramRecorder();
+  private final LatencyHistogramRecorder getBulkRequestsLatencyRecorder = new LatencyHistogramRecorder();
+  private final StripedLongCollection counters;
 
   DomainAccessor(HostDomain hostDomain,
                  PartitionAccessor[] partitionAccessors,
                  Partitioner partitioner,
                  int getTimerAggregatorWindow) throws IOException {
+    this(hostDomain, partitionAccessors, partitioner, getTimerAggregatorWindow, new HotKeySampler(0, 1));
+  }
+
+  DomainAccessor(HostDomain hostDomain,
+                 PartitionAccessor[] partitionAccessors,
+                 Partitioner partitioner,
+                 int getTimerAggregatorWindow,
+                 HotKeySampler hotKeySampler) throws IOException {
+    this(hostDomain, partitionAccessors, partitioner, getTimerAggregatorWindow, hotKeySampler, new MetricsRegistry());
+  }
+
+  // Counters are registered as "domain.<domain name>.<counter>"
+  DomainAccessor(HostDomain hostDomain,
+                 PartitionAccessor[] partitionAccessors,
+                 Partitioner partitioner,
+                 int getTimerAggregatorWindow,
+                 HotKeySampler hotKeySampler,
+                 MetricsRegistry metricsRegistry) throws IOException {
     this.hostDomain = hostDomain;
-    this.partitionAccessors = partitionAccessors;
+    this.partitionAccessors = new AtomicReferenceArray<PartitionAccessor>(partitionAccessors);
     this.partitioner = partitioner;
+    this.hotKeySampler = hotKeySampler;
     this.getRequestsTimerAggregator = new HankTimerEventAggregator("GET " + hostDomain.getDomain().getName(),
         getTimerAggregatorWindow);
+    this.counters = metricsRegistry.getCounters(
+        MetricsRegistry.getName("domain", hostDomain.getDomain().getName()), COUNTER_NAMES);
   }
 
   public HankResponse get(ByteBuffer key, ReaderResult result) throws IOException {
-    HankTimer timer = getRequestsTimerAggregator.getTimer();
+    return get(key, result, null);
+  }
+
+  // When not null, the given response is reused to return a found value instead of allocating a new one
+  public HankResponse get(ByteBuffer key, ReaderResult result, HankResponse reusableResponse) throws IOException {
+    long startTimeNanos = System.nanoTime();
+    counters.add(NUM_GET_REQUESTS, 1);
+    hotKeySampler.sample(key);
     try {
-      int partition = partitioner.partition(key, partitionAccessors.length);
-      PartitionAccessor partitionAccessor = partitionAccessors[partition];
+      int partition = partitioner.partition(key, partitionAccessors.length());
+      PartitionAccessor partitionAccessor = acquirePartitionAccessor(partition);
       if (partitionAccessor == null) {
         LOG.error("Failed to perform get because of an Exception: wrong host for domain: " + hostDomain.getDomain().getName()
             + ", partition: " + partition + ", key: " + BytesUtils.bytesToHexString(key) + ", response: " + WRONG_HOST);
+        counters.add(NUM_WRONG_HOST_RESPONSES, 1);
         return WRONG_HOST;
       }
-      return partitionAccessor.get(key, result);
+      try {
+        return partitionAccessor.get(key, result, reusableResponse);
+      } finally {
+        partitionAccessor.release();
+      }
+    } finally {
+      getRequestsLatencyRecorder.recordSince(startTimeNanos);
+      getRequestsTimerAggregator.addSince(startTimeNanos);
+    }
+  }
+
+  public int getNumPartitions() {
+    return partitionAccessors.length();
+  }
+
+  public int getPartition(ByteBuffer key) {
+    return partitioner.partition(key, partitionAccessors.length());
+  }
+
+  // Offset of the block in which the given key would be found in the given partition, 0 if unknown
+  public long getBlockOffset(int partition, ByteBuffer key) {
+    PartitionAccessor partitionAccessor = acquirePartitionAccessor(partition);
+    if (partitionAccessor == null) {
+      return 0;
+    }
+    try {
+      return partitionAccessor.getBlockOffset(key);
     } finally {
-      getRequestsTimerAggregator.add(timer);
+      partitionAccessor.release();
+    }
+  }
+
+  public HotKeySampler getHotKeySampler() {
+    return hotKeySampler;
+  }
+
+  // Sampled hot keys that belong to the given partition
+  public List<ByteBuffer> getHotKeys(int partition) {
+    List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+    for (ByteBuffer key : hotKeySampler.getKeys()) {
+      if (partitioner.partition(key, partitionAccessors.length()) == partition) {
+        result.add(key);
+      }
+    }
+    return result;
+  }
+
+  // Atomically replace the accessor of the given partition (null to stop serving it). The Reader of the
+  // previous accessor is closed once in-flight requests are done with it.
+  public void swapPartitionAccessor(int partition, PartitionAccessor partitionAccessor) {
+    PartitionAccessor previousPartitionAccessor = partitionAccessors.getAndSet(partition, partitionAccessor);
+    if (previousPartitionAccessor != null) {
+      previousPartitionAccessor.retire();
+    }
+  }
+
+  // Return the accessor of the given partition with a reference acquired on it, or null if the partition
+  // is not served. Callers must release it.
+  private PartitionAccessor acquirePartitionAccessor(int partition) {
+    while (true) {
+      PartitionAccessor partitionAccessor = partitionAccessors.get(partition);
+      // When acquiring fails, the accessor was swapped out and closed in between. Use its replacement.
+      if (partitionAccessor == null || partitionAccessor.acquire()) {
+        return partitionAccessor;
+      }
     }
   }
 
+  // Record the duration of a GET BULK request for this domain, started at the given System.nanoTime()
+  public void recordGetBulkRequest(long startTimeNanos) {
+    getBulkRequestsLatencyRecorder.recordSince(startTimeNanos);
+  }
+
   public String getName() {
     return hostDomain.getDomain().getName();
   }
@@ -79,7 +191,8 @@ public class DomainAccessor {
 
   public void shutDown() {
     // Shutdown partition accessors
-    for (PartitionAccessor partitionAccessor : partitionAccessors) {
+    for (int partition = 0; partition < partitionAccessors.length(); ++partition) {
+      PartitionAccessor partitionAccessor = partitionAccessors.get(partition);
       if (partitionAccessor != null) {
         partitionAccessor.shutDown();
       }
@@ -88,13 +201,18 @@ public class DomainAccessor {
 
   public RuntimeStatisticsAggregator getRuntimeStatistics() {
     RuntimeStatisticsAggregator runtimeStatisticsAggregator = new RuntimeStatisticsAggregator();
-    for (PartitionAccessor partitionAccessor : partitionAccessors) {
+    for (int partition = 0; partition < partitionAccessors.length(); ++partition) {
+      PartitionAccessor partitionAccessor = acquirePartitionAccessor(partition);
       if (partitionAccessor != null) {
-        runtimeStatisticsAggregator.add(partitionAccessor.getRuntimeStatistics());
+        try {
+          runtimeStatisticsAggregator.add(partitionAccessor.getRuntimeStatistics());
+        } finally {
+          partitionAccessor.release();
+        }
       }
     }
-    runtimeStatisticsAggregator.setGetRequestsPopulationStatistics(
-        getRequestsTimerAggregator.getAndResetPopulationStatistics());
+    runtimeStatisticsAggregator.setGetRequestsLatencyHistogram(getRequestsLatencyRecorder.getIntervalHistogram());
+    runtimeStatisticsAggregator.setGetBulkRequestsLatencyHistogram(getBulkRequestsLatencyRecorder.getIntervalHistogram());
     return runtimeStatisticsAggregator;
   }
 }
@@ -0,0 +1,179 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent keys out of a sample of the GET requests of a domain. Since keys are sampled
+ * in proportion to how often they are requested, replaying them warms up the data and caches that matter most.
+ * Only sampled requests copy their key, other requests just increment a counter of their thread.
+ */
+public class HotKeySampler {
+
+  // Keys larger than this are not sampled
+  private static final int MAX_KEY_NUM_BYTES = 1 << 16;
+  private static final String HOT_KEYS_DIRECTORY_NAME = "hot_keys";
+  private static final String HOT_KEYS_FILE_EXTENSION = ".keys";
+
+  private final AtomicReferenceArray<byte[]> keys;
+  private final AtomicInteger nextKeyIndex = new AtomicInteger(0);
+  private final int samplingInterval;
+  // Counted per thread, so that requests do not all write to the same memory location
+  private final ThreadLocal<int[]> numRequestsSinceLastSample = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[1];
+    }
+  };
+
+  // Keep up to numKeys keys, sampling one request out of samplingInterval. 0 keys disables sampling.
+  public HotKeySampler(int numKeys, int samplingInterval) {
+    this.keys = new AtomicReferenceArray<byte[]>(Math.max(0, numKeys));
+    this.samplingInterval = Math.max(1, samplingInterval);
+  }
+
+  public boolean isEnabled() {
+    return keys.length() > 0;
+  }
+
+  // Each thread samples one of its requests out of samplingInterval
+  public void sample(ByteBuffer key) {
+    if (!isEnabled()) {
+      return;
+    }
+    int[] numRequests = numRequestsSinceLastSample.get();
+    if (++numRequests[0] < samplingInterval) {
+      return;
+    }
+    numRequests[0] = 0;
+    add(key);
+  }
+
+  // Add the given key unconditionally, for example to restore previously persisted keys
+  public void add(ByteBuffer key) {
+    if (!isEnabled() || key.remaining() > MAX_KEY_NUM_BYTES) {
+      return;
+    }
+    byte[] keyCopy = new byte[key.remaining()];
+    key.duplicate().get(keyCopy);
+    keys.set((nextKeyIndex.getAndIncrement() & Integer.MAX_VALUE) % keys.length(), keyCopy);
+  }
+
+  public List<ByteBuffer> getKeys() {
+    List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+    for (int i = 0; i < keys.length(); ++i) {
+      byte[] key = keys.get(i);
+      if (key != null) {
+        result.add(ByteBuffer.wrap(key));
+      }
+    }
+    return result;
+  }
+
+  // Hot keys are persisted in the first data directory. Return null if there is none.
+  public static File getHotKeysDirectory(Set<String> dataDirectories) {
+    if (dataDirectories == null || dataDirectories.isEmpty()) {
+      return null;
+    }
+    return new File(new TreeSet<String>(dataDirectories).first(), HOT_KEYS_DIRECTORY_NAME);
+  }
+
+  public static File getHotKeysFile(File hotKeysDirectory, int domainId) {
+    return new File(hotKeysDirectory, domainId + HOT_KEYS_FILE_EXTENSION);
+  }
+
+  // Return the id of the domain whose hot keys are in the given file, or null if it is not a hot keys file
+  public static Integer getHotKeysFileDomainId(File file) {
+    String name = file.getName();
+    if (!name.endsWith(HOT_KEYS_FILE_EXTENSION)) {
+      return null;
+    }
+    try {
+      return Integer.parseInt(name.substring(0, name.length() - HOT_KEYS_FILE_EXTENSION.length()));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  // Write keys to a temporary file that is then renamed, so that readers never see a partial file
+  public static void write(File file, List<ByteBuffer> keys) throws IOException {
+    File parent = file.getParentFile();
+    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+      throw new IOException("Failed to create hot keys directory: " + parent.getAbsolutePath());
+    }
+    File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+    DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+    try {
+      for (ByteBuffer key : keys) {
+        outputStream.writeInt(key.remaining());
+        outputStream.write(key.array(), key.arrayOffset() + key.position(), key.remaining());
+      }
+    } finally {
+      outputStream.close();
+    }
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Failed to overwrite hot keys file: " + file.getAbsolutePath());
+    }
+    if (!tmpFile.renameTo(file)) {
+      throw new IOException("Failed to rename " + tmpFile.getAbsolutePath() + " to " + file.getAbsolutePath());
+    }
+  }
+
+  // Return an empty list if the file does not exist
+  public static List<ByteBuffer> read(File file) throws IOException {
+    List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+    if (!file.exists()) {
+      return result;
+    }
+    DataInputStream inputStream = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    try {
+      while (true) {
+        int keyNumBytes;
+        try {
+          keyNumBytes = inputStream.readInt();
+        } catch (EOFException e) {
+          break;
+        }
+        if (keyNumBytes < 0 || keyNumBytes > MAX_KEY_NUM_BYTES) {
+          throw new IOException("Invalid hot key size " + keyNumBytes + " in " + file.getAbsolutePath());
+        }
+        byte[] key = new byte[keyNumBytes];
+        inputStream.readFully(key);
+        result.add(ByteBuffer.wrap(key));
+      }
+    } finally {
+      inputStream.close();
+    }
+    return result;
+  }
+}
@@ -0,0 +1,490 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.partition_server;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.liveramp.hank.storage.CacheStatistics;
+import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.util.StripedLongCollection;
+
+/**
+ * Value cache shared by all PartitionAccessors of a PartitionServer, with a single
+ * global memory budget allocated outside of the Java heap.
+ * <p/>
+ * The budget is split in segments selected by key hash, each independently locked.
+ * A segment is a direct buffer used as a circular log: entries (header, key and
+ * value) are appended, and when the log wraps around, the oldest entries are
+ * overwritten and evicted (FIFO eviction). There is no fragmentation and no per
+ * entry object on the heap: the index is an open addressing table of primitives
+ * which maps a 64 bit fingerprint of (domain id, key) to the entry offset. Keys
+ * are compared in full on lookup. Lookups do not allocate.
+ * <p/>
+ * Not found responses are cached as well. The number of items and bytes used by
+ * each domain is accounted for, and all entries of a partition can be invalidated.
+ * <p/>
+ * Entries are tagged with the generation of the Reader they were read from, and are
+ * only returned to lookups of that same generation, so that values of a previous
+ * version of a partition are never served once it has been swapped.
+ */
+public class OffHeapValueCache {
+
+  public static final int DEFAULT_NUM_SEGMENTS = 16;
+
+  // Entry header: fingerprint (8), key length (4), value length (4), domain id (4), live flag (1), partition number (4),
+  // generation (4)
+  private static final int FINGERPRINT_OFFSET = 0;
+  private static final int KEY_LENGTH_OFFSET = 8;
+  private static final int VALUE_LENGTH_OFFSET = 12;
+  private static final int DOMAIN_ID_OFFSET = 16;
+  private static final int LIVE_FLAG_OFFSET = 20;
+  private static final int PARTITION_NUMBER_OFFSET = 21;
+  private static final int GENERATION_OFFSET = 25;
+  private static final int HEADER_SIZE = 29;
+
+  private static final int NOT_FOUND_VALUE_LENGTH = -1;
+  // Entries larger than this fraction of a segment are not cached
+  private static final int MAX_ENTRY_SIZE_SEGMENT_FRACTION = 8;
+
+  private final Segment[] segments;
+  private final int segmentMask;
+  private final long maxNumManagedBytes;
+  // Updated by every put, hence striped
+  private static final int NUM_ITEMS = 0;
+  private static final int NUM_BYTES = 1;
+  private final ConcurrentHashMap<Integer, StripedLongCollection> domainToCounters
+      = new ConcurrentHashMap<Integer, StripedLongCollection>();
+
+  // A capacity of 0 or less disables the cache.
+  // The number of segments is rounded up to a power of two.
+  public OffHeapValueCache(long numBytesCapacity, int numSegments) {
+    if (numBytesCapacity <= 0) {
+      segments = null;
+      segmentMask = 0;
+      maxNumManagedBytes = 0;
+      return;
+    }
+    int actualNumSegments = 1;
+    while (actualNumSegments < numSegments || numBytesCapacity / actualNumSegments > Integer.MAX_VALUE) {
+      actualNumSegments <<= 1;
+    }
+    int segmentCapacity = (int)(numBytesCapacity / actualNumSegments);
+    segments = new Segment[actualNumSegments];
+    for (int i = 0; i < actualNumSegments; ++i) {
+      segments[i] = new Segment(segmentCapacity);
+    }
+    segmentMask = actualNumSegments - 1;
+    maxNumManagedBytes = (long)segmentCapacity * actualNumSegments;
+  }
+
+  public boolean isEnabled() {
+    return segments != null;
+  }
+
+  // Return true and fill the result if the key is in the cache (found or not found) for the given generation
+  public boolean get(int domainId, int generation, ByteBuffer key, ReaderResult result) {
+    if (!isEnabled()) {
+      return false;
+    }
+    long fingerprint = getFingerprint(domainId, key);
+    return getSegment(fingerprint).get(fingerprint, domainId, generation, key, result);
+  }
+
+  // Cache the given result (found or not found) for the key, which belongs to the given partition,
+  // as read from a Reader of the given generation
+  public void put(int domainId, int partitionNumber, int generation, ByteBuffer key, ReaderResult result) {
+    if (!isEnabled()) {
+      return;
+    }
+    long fingerprint = getFingerprint(domainId, key);
+    getSegment(fingerprint).put(fingerprint, domainId, partitionNumber, generation, key,
+        result.isFound() ? result.getBuffer() : null);
+  }
+
+  // Evict all entries of the given partition. Scans the whole cache, should not be called while serving a request.
+  public void invalidate(int domainId, int partitionNumber) {
+    if (!isEnabled()) {
+      return;
+    }
+    for (Segment segment : segments) {
+      segment.invalidate(domainId, partitionNumber);
+    }
+  }
+
+  // Evict all entries
+  public void clear() {
+    if (!isEnabled()) {
+      return;
+    }
+    for (Segment segment : segments) {
+      segment.clear();
+    }
+  }
+
+  public long getNumItems() {
+    long result = 0;
+    for (StripedLongCollection counters : domainToCounters.values()) {
+      result += counters.get(NUM_ITEMS);
+    }
+    return result;
+  }
+
+  public long getNumManagedBytes() {
+    long result = 0;
+    for (StripedLongCollection counters : domainToCounters.values()) {
+      result += counters.get(NUM_BYTES);
+    }
+    return result;
+  }
+
+  public long getMaxNumManagedBytes() {
+    return maxNumManagedBytes;
+  }
+
+  public long getDomainNumItems(int domainId) {
+    StripedLongCollection counters = domainToCounters.get(domainId);
+    return counters == null ? 0 : counters.get(NUM_ITEMS);
+  }
+
+  public long getDomainNumManagedBytes(int domainId) {
+    StripedLongCollection counters = domainToCounters.get(domainId);
+    return counters == null ? 0 : counters.get(NUM_BYTES);
+  }
+
+  public CacheStatistics getCacheStatistics() {
+    return new CacheStatistics(getNumItems(), -1, getNumManagedBytes(), getMaxNumManagedBytes());
+  }
+
+  private Segment getSegment(long fingerprint) {
+    return segments[(int)(fingerprint >>> 32) & segmentMask];
+  }
+
+  private void account(int domainId, long numItems, long numBytes) {
+    StripedLongCollection counters = domainToCounters.get(domainId);
+    if (counters == null) {
+      StripedLongCollection newCounters = new StripedLongCollection(2);
+      counters = domainToCounters.putIfAbsent(domainId, newCounters);
+      if (counters == null) {
+        counters = newCounters;
+      }
+    }
+    counters.add(NUM_ITEMS, numItems);
+    counters.add(NUM_BYTES, numBytes);
+  }
+
+  // 64 bit FNV-1a of the domain id and key, with a final avalanche
+  static long getFingerprint(int domainId, ByteBuffer key) {
+    long hash = 0xcbf29ce484222325L ^ domainId;
+    for (int i = key.position(); i < key.limit(); ++i) {
+      hash ^= key.get(i) & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+
+  private final class Segment {
+
+    private final ByteBuffer data;
+    private final int capacity;
+    private final int maxEntrySize;
+    private FingerprintIndex fingerprintToOffset = new FingerprintIndex(FingerprintIndex.INITIAL_CAPACITY);
+    // Next write position
+    private int writeOffset = 0;
+    // End of the entries written during the previous lap
+    private int previousLapEnd = 0;
+    // Everything in [writeOffset, reclaimedOffset) is free
+    private int reclaimedOffset;
+
+    private Segment(int capacity) {
+      this.data = ByteBuffer.allocateDirect(capacity);
+      this.capacity = capacity;
+      this.maxEntrySize = capacity / MAX_ENTRY_SIZE_SEGMENT_FRACTION;
+      this.reclaimedOffset = capacity;
+    }
+
+    private synchronized boolean get(long fingerprint, int domainId, int generation, ByteBuffer key, ReaderResult result) {
+      int offset = fingerprintToOffset.get(fingerprint);
+      if (offset == FingerprintIndex.NO_OFFSET || !matches(offset, domainId, key)) {
+        return false;
+      }
+      if (data.getInt(offset + GENERATION_OFFSET) != generation) {
+        // Stale, or read by a Reader that is about to be swapped in
+        return false;
+      }
+      int valueLength = data.getInt(offset + VALUE_LENGTH_OFFSET);
+      if (valueLength == NOT_FOUND_VALUE_LENGTH) {
+        result.notFound();
+      } else {
+        int valueOffset = offset + HEADER_SIZE + key.remaining();
+        result.requiresBufferSize(valueLength);
+        ByteBuffer buffer = result.getBuffer();
+        buffer.clear();
+        // Absolute reads, to avoid allocating a view of the segment
+        byte[] array = buffer.array();
+        for (int i = 0; i < valueLength; ++i) {
+          array[buffer.arrayOffset() + i] = data.get(valueOffset + i);
+        }
+        buffer.limit(valueLength);
+        result.found();
+      }
+      return true;
+    }
+
+    // A null value means not found
+    private synchronized void put(long fingerprint, int domainId, int partitionNumber, int generation,
+                                  ByteBuffer key, ByteBuffer value) {
+      int keyLength = key.remaining();
+      int valueLength = value == null ? NOT_FOUND_VALUE_LENGTH : value.remaining();
+      int entrySize = HEADER_SIZE + keyLength + Math.max(0, valueLength);
+      if (entrySize > maxEntrySize) {
+        return;
+      }
+      // Evict previous entry with that fingerprint, if any
+      int previousOffset = fingerprintToOffset.remove(fingerprint);
+      if (previousOffset != FingerprintIndex.NO_OFFSET) {
+        evict(previousOffset);
+      }
+      reserve(entrySize);
+      // Write entry
+      data.putLong(writeOffset + FINGERPRINT_OFFSET, fingerprint);
+      data.putInt(writeOffset + KEY_LENGTH_OFFSET, keyLength);
+      data.putInt(writeOffset + VALUE_LENGTH_OFFSET, valueLength);
+      data.putInt(writeOffset + DOMAIN_ID_OFFSET, domainId);
+      data.put(writeOffset + LIVE_FLAG_OFFSET, (byte)1);
+      data.putInt(writeOffset + PARTITION_NUMBER_OFFSET, partitionNumber);
+      data.putInt(writeOffset + GENERATION_OFFSET, generation);
+      int entryOffset = writeOffset + HEADER_SIZE;
+      for (int i = key.position(); i < key.limit(); ++i) {
+        data.put(entryOffset++, key.get(i));
+      }
+      if (value != null) {
+        for (int i = value.position(); i < value.limit(); ++i) {
+          data.put(entryOffset++, value.get(i));
+        }
+      }
+      fingerprintToOffset.put(fingerprint, writeOffset);
+      account(domainId, 1, entrySize);
+      writeOffset += entrySize;
+    }
+
+    // Rebuild the index without the entries of the given partition
+    private synchronized void invalidate(int domainId, int partitionNumber) {
+      FingerprintIndex previous = fingerprintToOffset;
+      fingerprintToOffset = new FingerprintIndex(FingerprintIndex.INITIAL_CAPACITY);
+      for (int slot = 0; slot < previous.getNumSlots(); ++slot) {
+        int offset = previous.getOffsetAt(slot);
+        if (offset != FingerprintIndex.NO_OFFSET) {
+          if (data.getInt(offset + DOMAIN_ID_OFFSET) == domainId
+              && data.getInt(offset + PARTITION_NUMBER_OFFSET) == partitionNumber) {
+            evict(offset);
+          } else {
+            fingerprintToOffset.put(previous.getFingerprintAt(slot), offset);
+          }
+        }
+      }
+    }
+
+    private synchronized void clear() {
+      for (int slot = 0; slot < fingerprintToOffset.getNumSlots(); ++slot) {
+        int offset = fingerprintToOffset.getOffsetAt(slot);
+        if (offset != FingerprintIndex.NO_OFFSET) {
+          evict(offset);
+        }
+      }
+      fingerprintToOffset = new FingerprintIndex(FingerprintIndex.INITIAL_CAPACITY);
+      writeOffset = 0;
+      previousLapEnd = 0;
+      reclaimedOffset = capacity;
+    }
+
+    private boolean matches(int offset, int domainId, ByteBuffer key) {
+      if (data.getInt(offset + DOMAIN_ID_OFFSET) != domainId
+          || data.getInt(offset + KEY_LENGTH_OFFSET) != key.remaining()) {
+        return false;
+      }
+      int keyOffset = offset + HEADER_SIZE;
+      for (int i = 0; i < key.remaining(); ++i) {
+        if (data.get(keyOffset + i) != key.get(key.position() + i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private int getEntrySize(int offset) {
+      return HEADER_SIZE
+          + data.getInt(offset + KEY_LENGTH_OFFSET)
+          + Math.max(0, data.getInt(offset + VALUE_LENGTH_OFFSET));
+    }
+
+    // Mark entry as dead and update accounting. Does not modify the index.
+    private void evict(int offset) {
+      if (data.get(offset + LIVE_FLAG_OFFSET) != 0) {
+        data.put(offset + LIVE_FLAG_OFFSET, (byte)0);
+        account(data.getInt(offset + DOMAIN_ID_OFFSET), -1, -getEntrySize(offset));
+      }
+    }
+
+    // Make room for an entry of the given size at the write position
+    private void reserve(int entrySize) {
+      if (writeOffset + entrySize > capacity) {
+        // Wrap around, reclaiming what is left of the previous lap
+        reclaim(previousLapEnd);
+        previousLapEnd = writeOffset;
+        writeOffset = 0;
+        reclaimedOffset = 0;
+      }
+      reclaim(writeOffset + entrySize);
+    }
+
+    // Reclaim entries written during the previous lap until the given offset
+    private void reclaim(int offset) {
+      while (reclaimedOffset < offset) {
+        if (reclaimedOffset >= previousLapEnd) {
+          // Nothing left from the previous lap
+          reclaimedOffset = capacity;
+          return;
+        }
+        if (data.get(reclaimedOffset + LIVE_FLAG_OFFSET) != 0) {
+          fingerprintToOffset.remove(data.getLong(reclaimedOffset + FINGERPRINT_OFFSET));
+          evict(reclaimedOffset);
+        }
+        reclaimedOffset += getEntrySize(reclaimedOffset);
+      }
+    }
+  }
+
+  // Open addressing (linear probing) hash table from fingerprint to entry offset.
+  // Primitive arrays only, so that lookups and updates do not box.
+  private static final class FingerprintIndex {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NO_OFFSET = -1;
+
+    private long[] fingerprints;
+    private int[] offsets;
+    private int mask;
+    private int size = 0;
+
+    private FingerprintIndex(int capacity) {
+      int numSlots = 1;
+      while (numSlots < capacity) {
+        numSlots <<= 1;
+      }
+      fingerprints = new long[numSlots];
+      offsets = new int[numSlots];
+      Arrays.fill(offsets, NO_OFFSET);
+      mask = numSlots - 1;
+    }
+
+    private int getNumSlots() {
+      return offsets.length;
+    }
+
+    private long getFingerprintAt(int slot) {
+      return fingerprints[slot];
+    }
+
+    private int getOffsetAt(int slot) {
+      return offsets[slot];
+    }
+
+    private int getHomeSlot(long fingerprint) {
+      // High bits are used to select the segment
+      return (int)fingerprint & mask;
+    }
+
+    private int get(long fingerprint) {
+      for (int slot = getHomeSlot(fingerprint); offsets[slot] != NO_OFFSET; slot = (slot + 1) & mask) {
+        if (fingerprints[slot] == fingerprint) {
+          return offsets[slot];
+        }
+      }
+      return NO_OFFSET;
+    }
+
+    private void put(long fingerprint, int offset) {
+      // Keep load factor under 1/2
+      if ((size + 1) * 2 > offsets.length) {
+        grow();
+      }
+      int slot = getHomeSlot(fingerprint);
+      while (offsets[slot] != NO_OFFSET) {
+        if (fingerprints[slot] == fingerprint) {
+          offsets[slot] = offset;
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      fingerprints[slot] = fingerprint;
+      offsets[slot] = offset;
+      ++size;
+    }
+
+    // Return the removed offset, or NO_OFFSET
+    private int remove(long fingerprint) {
+      int slot = getHomeSlot(fingerprint);
+      while (offsets[slot] != NO_OFFSET && fingerprints[slot] != fingerprint) {
+        slot = (slot + 1) & mask;
+      }
+      int removed = offsets[slot];
+      if (removed == NO_OFFSET) {
+        return NO_OFFSET;
+      }
+      // Shift back following entries of the probe sequence into the hole
+      int hole = slot;
+      int next = slot;
+      while (true) {
+        next = (next + 1) & mask;
+        if (offsets[next] == NO_OFFSET) {
+          break;
+        }
+        int home = getHomeSlot(fingerprints[next]);
+        // The entry can only move if its home slot is not cyclically in (hole, next]
+        boolean homeInRange = hole <= next ? (home > hole && home <= next) : (home > hole || home <= next);
+        if (!homeInRange) {
+          fingerprints[hole] = fingerprints[next];
+          offsets[hole] = offsets[next];
+          hole = next;
+        }
+      }
+      offsets[hole] = NO_OFFSET;
+      --size;
+      return removed;
+    }
+
+    private void grow() {
+      long[] previousFingerprints = fingerprints;
+      int[] previousOffsets = offsets;
+      fingerprints = new long[previousOffsets.length * 2];
+      offsets = new int[previousOffsets.length * 2];
+      Arrays.fill(offsets, NO_OFFSET);
+      mask = offsets.length - 1;
+      size = 0;
+      for (int slot = 0; slot < previousOffsets.length; ++slot) {
+        if (previousOffsets[slot] != NO_OFFSET) {
+          put(previousFingerprints[slot], previousOffsets[slot]);
+        }
+      }
+    }
+  }
+}
@@ -18,44 +18,114 @@ package com.liveramp.hank.partition_server;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
 import com.liveramp.hank.coordinator.HostDomainPartition;
 import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.metrics.MetricsRegistry;
+import com.liveramp.hank.storage.BlockLocalityReader;
 import com.liveramp.hank.storage.Reader;
 import com.liveramp.hank.storage.ReaderResult;
-import com.liveramp.hank.util.AtomicLongCollection;
 import com.liveramp.hank.util.HankTimer;
+import com.liveramp.hank.util.StripedLongCollection;
 
 /**
  * Wrapper class that stores: 1. HostDomainPartition 2. Reader: The Reader
- * associated with the HostDomainPartition 3. AtomicLongCollection: counters
- * for number of requests and hits in a given time window
+ * associated with the HostDomainPartition 3. Counters for number of requests
+ * and hits, which are incremented without contention and reported by time window
+ * <p/>
+ * The Reader is reference counted so that an accessor can be swapped out while requests are still
+ * using it: the DomainAccessor holds one reference and each request acquires one, and the Reader is closed
+ * when the last reference is released.
  */
 public class PartitionAccessor {
 
   private static final HankResponse NOT_FOUND = HankResponse.not_found(true);
   private static final Logger LOG = Logger.getLogger(PartitionAccessor.class);
 
+  private static final OffHeapValueCache NO_VALUE_CACHE = new OffHeapValueCache(0, 0);
+  private static final AtomicInteger valueCacheGenerationCounter = new AtomicInteger();
+
   private final HostDomainPartition partition;
   private final Reader reader;
+  private final OffHeapValueCache valueCache;
+  private final int domainId;
+  // Values cached by other accessors of the same partition are not used
+  private final int valueCacheGeneration = valueCacheGenerationCounter.incrementAndGet();
+  // Null when concurrent reads of the same key are not coalesced
+  private final ReadCoalescer readCoalescer;
   private final HankTimer windowTimer = new HankTimer();
-  //0: num requests
-  //1: num hits
-  //2: responses data num bytes
-  //3: num L1 cache hits
-  //4: num L2 cache hits
-  private final AtomicLongCollection countersWindow;
+  private final AtomicInteger numReferences = new AtomicInteger(1);
+  private final AtomicBoolean isShutDown = new AtomicBoolean(false);
+
+  static final String[] COUNTER_NAMES = new String[]{
+      "requests",
+      "hits",
+      "responses_num_bytes",
+      "l1_cache_hits",
+      "l2_cache_hits",
+      "value_cache_hits",
+      "value_cache_misses",
+      "block_cache_hits",
+      "block_cache_misses"};
+  private static final int NUM_REQUESTS = 0;
+  private static final int NUM_HITS = 1;
+  private static final int RESPONSES_NUM_BYTES = 2;
+  private static final int NUM_L1_CACHE_HITS = 3;
+  private static final int NUM_L2_CACHE_HITS = 4;
+  private static final int NUM_VALUE_CACHE_HITS = 5;
+  private static final int NUM_VALUE_CACHE_MISSES = 6;
+  private static final int NUM_BLOCK_CACHE_HITS = 7;
+  private static final int NUM_BLOCK_CACHE_MISSES = 8;
+  // Cumulative counters, shared with the accessors that replace this one for the same partition
+  private final StripedLongCollection counters;
+  private long[] countersAtWindowStart;
 
   public PartitionAccessor(HostDomainPartition partition, Reader reader) {
+    this(partition, reader, NO_VALUE_CACHE, 0);
+  }
+
+  // The value cache is shared by all PartitionAccessors and keyed by domain id
+  public PartitionAccessor(HostDomainPartition partition, Reader reader, OffHeapValueCache valueCache, int domainId) {
+    this(partition, reader, valueCache, domainId, false);
+  }
+
+  public PartitionAccessor(HostDomainPartition partition,
+                           Reader reader,
+                           OffHeapValueCache valueCache,
+                           int domainId,
+                           boolean coalesceReads) {
+    this(partition, reader, valueCache, domainId, coalesceReads, new StripedLongCollection(COUNTER_NAMES.length));
+  }
+
+  // Counters are usually obtained from a MetricsRegistry with getCounters()
+  public PartitionAccessor(HostDomainPartition partition,
+                           Reader reader,
+                           OffHeapValueCache valueCache,
+                           int domainId,
+                           boolean coalesceReads,
+                           StripedLongCollection counters) {
     if (reader == null) {
       throw new IllegalArgumentException("Reader may not be null!");
     }
     this.partition = partition;
     this.reader = reader;
+    this.valueCache = valueCache;
+    this.domainId = domainId;
+    this.readCoalescer = coalesceReads ? new ReadCoalescer() : null;
+    this.counters = counters;
+    this.countersAtWindowStart = counters.getAsArray();
     windowTimer.restart();
-    countersWindow = new AtomicLongCollection(5, new long[]{0, 0, 0, 0, 0});
+  }
+
+  // Counters of the given partition, registered as "domain.<domain name>.partition.<partition number>.<counter>"
+  public static StripedLongCollection getCounters(MetricsRegistry metricsRegistry, String domainName, int partitionNumber) {
+    return metricsRegistry.getCounters(
+        MetricsRegistry.getName("domain", domainName, "partition", Integer.toString(partitionNumber)),
+        COUNTER_NAMES);
   }
 
   public HostDomainPartition getHostDomainPartition() {
@@ -63,54 +133,169 @@ public class PartitionAccessor {
   }
 
   public HankResponse get(ByteBuffer key, ReaderResult result) throws IOException {
+    return get(key, result, null);
+  }
+
+  // When not null, the given response is reused to return a found value instead of allocating a new one
+  public HankResponse get(ByteBuffer key, ReaderResult result, HankResponse reusableResponse) throws IOException {
     // Increment requests counter
     LOG.trace("Partition GET");
-    reader.get(key, result);
+    int valueCacheHit = 0;
+    int valueCacheMiss = 0;
+    if (valueCache.isEnabled()) {
+      if (valueCache.get(domainId, valueCacheGeneration, key, result)) {
+        valueCacheHit = 1;
+      } else {
+        valueCacheMiss = 1;
+        // Only the thread that performed the read caches its result
+        if (read(key, result)) {
+          valueCache.put(domainId, partition.getPartitionNumber(), valueCacheGeneration, key, result);
+        }
+      }
+    } else {
+      read(key, result);
+    }
     int l1CacheHit = result.getL1CacheHit() ? 1 : 0;
     int l2CacheHit = result.getL2CacheHit() ? 1 : 0;
+    int blockCacheHits = result.getNumBlockCacheHits();
+    int blockCacheMisses = result.getNumBlockCacheMisses();
     if (result.isFound()) {
-      countersWindow.increment(1, 1, result.getBuffer().remaining(), l1CacheHit, l2CacheHit);
-      return HankResponse.value(result.getBuffer());
+      count(1, result.getBuffer().remaining(), l1CacheHit, l2CacheHit, valueCacheHit, valueCacheMiss,
+          blockCacheHits, blockCacheMisses);
+      if (reusableResponse != null) {
+        reusableResponse.set_value(result.getBuffer());
+        return reusableResponse;
+      } else {
+        return HankResponse.value(result.getBuffer());
+      }
     } else {
-      countersWindow.increment(1, 0, 0, l1CacheHit, l2CacheHit);
+      count(0, 0, l1CacheHit, l2CacheHit, valueCacheHit, valueCacheMiss, blockCacheHits, blockCacheMisses);
       return NOT_FOUND;
     }
   }
 
+  // Return false if the result was copied from a concurrent read of the same key
+  private boolean read(ByteBuffer key, ReaderResult result) throws IOException {
+    if (readCoalescer != null) {
+      return readCoalescer.get(reader, key, result);
+    } else {
+      reader.get(key, result);
+      return true;
+    }
+  }
+
+  // Offset of the Reader block in which the given key would be found, 0 if the Reader does not use blocks
+  public long getBlockOffset(ByteBuffer key) {
+    if (reader instanceof BlockLocalityReader) {
+      return ((BlockLocalityReader)reader).getBlockOffset(key);
+    } else {
+      return 0;
+    }
+  }
+
+  private void count(int hit,
+                     int responseNumBytes,
+                     int l1CacheHit,
+                     int l2CacheHit,
+                     int valueCacheHit,
+                     int valueCacheMiss,
+                     int blockCacheHits,
+                     int blockCacheMisses) {
+    counters.add(NUM_REQUESTS, 1);
+    add(NUM_HITS, hit);
+    add(RESPONSES_NUM_BYTES, responseNumBytes);
+    add(NUM_L1_CACHE_HITS, l1CacheHit);
+    add(NUM_L2_CACHE_HITS, l2CacheHit);
+    add(NUM_VALUE_CACHE_HITS, valueCacheHit);
+    add(NUM_VALUE_CACHE_MISSES, valueCacheMiss);
+    add(NUM_BLOCK_CACHE_HITS, blockCacheHits);
+    add(NUM_BLOCK_CACHE_MISSES, blockCacheMisses);
+  }
+
+  private void add(int counter, int delta) {
+    // Most counts of a request are 0
+    if (delta != 0) {
+      counters.add(counter, delta);
+    }
+  }
+
+  // Acquire a reference on the Reader. Return false if it is closed, or about to be, in which case
+  // this accessor must not be used.
+  boolean acquire() {
+    while (true) {
+      int n = numReferences.get();
+      if (n <= 0) {
+        return false;
+      }
+      if (numReferences.compareAndSet(n, n + 1)) {
+        return true;
+      }
+    }
+  }
+
+  void release() {
+    if (numReferences.decrementAndGet() == 0) {
+      closeReader();
+    }
+  }
+
   public PartitionAccessorRuntimeStatistics getRuntimeStatistics() {
-    // Copy duration and counts
-    long windowDurationNanos = windowTimer.getDuration();
-    windowTimer.restart();
-    // Get atomic counters
-    long[] counters = countersWindow.getAsArrayAndSet(0, 0, 0, 0, 0);
-    long numRequestsInWindow = counters[0];
-    long numHitsInWindow = counters[1];
-    long responsesNumBytesInWindow = counters[2];
-    long numL1CacheHitsInWindow = counters[3];
-    long numL2CacheHitsInWindow = counters[4];
+    long windowDurationNanos;
+    long[] windowCounts;
+    // Compute counts since the previous window, and start a new one
+    synchronized (this) {
+      windowDurationNanos = windowTimer.getDuration();
+      windowTimer.restart();
+      long[] countersAtWindowEnd = counters.getAsArray();
+      windowCounts = new long[countersAtWindowEnd.length];
+      for (int i = 0; i < windowCounts.length; ++i) {
+        windowCounts[i] = countersAtWindowEnd[i] - countersAtWindowStart[i];
+      }
+      countersAtWindowStart = countersAtWindowEnd;
+    }
+    long numRequests = windowCounts[NUM_REQUESTS];
+    long responsesNumBytes = windowCounts[RESPONSES_NUM_BYTES];
     double throughput = 0;
     double responseDataThroughput = 0;
     if (windowDurationNanos != 0) {
-      throughput = numRequestsInWindow / (windowDurationNanos / 1000000000d);
-      responseDataThroughput = responsesNumBytesInWindow / (windowDurationNanos / 1000000000d);
+      throughput = numRequests / (windowDurationNanos / 1000000000d);
+      responseDataThroughput = responsesNumBytes / (windowDurationNanos / 1000000000d);
     }
 
-    return new PartitionAccessorRuntimeStatistics(numRequestsInWindow,
-        numHitsInWindow,
+    return new PartitionAccessorRuntimeStatistics(numRequests,
+        windowCounts[NUM_HITS],
         throughput,
         responseDataThroughput,
-        numL1CacheHitsInWindow,
-        numL2CacheHitsInWindow,
+        windowCounts[NUM_L1_CACHE_HITS],
+        windowCounts[NUM_L2_CACHE_HITS],
+        windowCounts[NUM_VALUE_CACHE_HITS],
+        windowCounts[NUM_VALUE_CACHE_MISSES],
+        windowCounts[NUM_BLOCK_CACHE_HITS],
+        windowCounts[NUM_BLOCK_CACHE_MISSES],
         reader.getCacheStatistics());
   }
 
+  // Release the owner's reference. The Reader is closed once in-flight requests are done with it.
   public void shutDown() {
-    if (reader != null) {
-      try {
-        reader.close();
-      } catch (IOException e) {
-        LOG.error("Exception while closing Reader", e);
-      }
+    if (isShutDown.compareAndSet(false, true)) {
+      release();
+    }
+  }
+
+  // Shut down an accessor that was replaced by another one for the same partition, and evict the partition's
+  // cached values to free their memory. Called by the updating thread, since eviction scans the whole cache.
+  // Values still cached by in-flight requests of this accessor are never served by its replacement, since
+  // they are tagged with this accessor's generation. Other partitions of the domain keep their cached values.
+  public void retire() {
+    shutDown();
+    valueCache.invalidate(domainId, partition.getPartitionNumber());
+  }
+
+  private void closeReader() {
+    try {
+      reader.close();
+    } catch (IOException e) {
+      LOG.error("Exception while closing Reader", e);
     }
   }
 }
@@ -28,6 +28,8 @@ import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.JMException;
+
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 import org.apache.thrift.TException;
@@ -46,11 +48,16 @@ import com.liveramp.hank.coordinator.Coordinator;
 import com.liveramp.hank.coordinator.Host;
 import com.liveramp.hank.coordinator.HostCommand;
 import com.liveramp.hank.coordinator.HostCommandQueueChangeListener;
+import com.liveramp.hank.coordinator.HostDomain;
+import com.liveramp.hank.coordinator.HostDomainPartition;
 import com.liveramp.hank.coordinator.HostState;
 import com.liveramp.hank.coordinator.Hosts;
 import com.liveramp.hank.coordinator.PartitionServerAddress;
 import com.liveramp.hank.coordinator.Ring;
 import com.liveramp.hank.coordinator.RingGroup;
+import com.liveramp.hank.metrics.JmxMetricsExporter;
+import com.liveramp.hank.metrics.MetricsHttpServer;
+import com.liveramp.hank.metrics.MetricsRegistry;
 import com.liveramp.hank.util.CommandLineChecker;
 import com.liveramp.hank.util.HankTimer;
 import com.liveramp.hank.util.UpdateStatisticsRunnable;
@@ -79,6 +86,7 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
   private Thread updateThread;
 
   private TThreadedSelectorServer dataServer;
+  private volatile IfaceWithShutdown dataServerHandler;
   private Thread dataServerThread;
   private boolean waitForDataServer;
 
@@ -88,6 +96,12 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
   private UpdateFilesystemStatisticsRunnable updateFilesystemStatisticsRunnable;
   private Thread updateFilesystemStatisticsThread;
 
+  private final MetricsRegistry metricsRegistry = new MetricsRegistry();
+  // Shared by successive data server handlers
+  private final OffHeapValueCache valueCache;
+  private JmxMetricsExporter jmxMetricsExporter;
+  private MetricsHttpServer metricsHttpServer;
+
   public PartitionServer(PartitionServerConfigurator configurator, String hostName) throws IOException {
     this.configurator = configurator;
     this.coordinator = configurator.createCoordinator();
@@ -111,6 +125,8 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
       throw new RuntimeException("Could not start a partition server for host " + host
           + " since it is already online.");
     }
+    valueCache = new OffHeapValueCache(configurator.getValueCacheNumBytesCapacity(),
+        OffHeapValueCache.DEFAULT_NUM_SEGMENTS);
     host.setCommandQueueChangeListener(this);
     host.setCurrentCommandChangeListener(this);
 
@@ -124,6 +140,8 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
   public void run() throws IOException, InterruptedException {
     // Add shutdown hook
     addShutdownHook();
+    // Export metrics
+    startExportingMetrics();
     // Initialize and process commands
     setStateSynchronized(HostState.IDLE); // In case of exception, server will stop and state will be coherent.
     // Wait for state to propagate
@@ -131,6 +149,8 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
       LOG.info("Waiting for Host state " + HostState.IDLE + " to propagate.");
       Thread.sleep(100);
     }
+    // Let the ring group conductor know whether it can update this host while it is serving
+    Hosts.setUpdateWhileServing(host, configurator.getUpdateWhileServing());
     processCommandOnStartup();
     while (!stopping) {
       try {
@@ -154,6 +174,8 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     stopServingData();
     // Stop updating if necessary
     stopUpdating();
+    // Stop exporting metrics
+    stopExportingMetrics();
     // Signal OFFLINE
     setStateSynchronized(HostState.OFFLINE); // In case of exception, server will stop and state will be coherent.
     // Remove shutdown hook. We don't need it anymore as we just set the host state to OFFLINE
@@ -170,12 +192,47 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     stopping = true;
   }
 
+  // Metrics are exported over JMX, and in plain text over HTTP when a metrics port is configured
+  private void startExportingMetrics() {
+    try {
+      jmxMetricsExporter = new JmxMetricsExporter(metricsRegistry,
+          "com.liveramp.hank:type=PartitionServer,port=" + hostAddress.getPortNumber());
+      jmxMetricsExporter.start();
+    } catch (JMException e) {
+      LOG.error("Failed to export metrics over JMX", e);
+    }
+    if (configurator.getMetricsPort() > 0) {
+      metricsHttpServer = new MetricsHttpServer(metricsRegistry, configurator.getMetricsPort());
+      try {
+        metricsHttpServer.start();
+      } catch (IOException e) {
+        LOG.error("Failed to serve metrics at port " + configurator.getMetricsPort(), e);
+        metricsHttpServer = null;
+      }
+    }
+  }
+
+  private void stopExportingMetrics() {
+    if (jmxMetricsExporter != null) {
+      jmxMetricsExporter.stop();
+      jmxMetricsExporter = null;
+    }
+    if (metricsHttpServer != null) {
+      metricsHttpServer.stop();
+      metricsHttpServer = null;
+    }
+  }
+
   protected IfaceWithShutdown getHandler() throws IOException {
-    return new PartitionServerHandler(hostAddress, configurator, coordinator);
+    return new PartitionServerHandler(hostAddress, configurator, coordinator, metricsRegistry, valueCache);
   }
 
   protected IUpdateManager getUpdateManager() throws IOException {
-    return new UpdateManager(configurator, host, ringGroup);
+    return getUpdateManager(null);
+  }
+
+  protected IUpdateManager getUpdateManager(PartitionUpdateListener partitionUpdateListener) throws IOException {
+    return new UpdateManager(configurator, host, ringGroup, partitionUpdateListener, metricsRegistry);
   }
 
   @Override
@@ -288,9 +345,19 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     switch (state) {
       case IDLE:
         host.setState(HostState.UPDATING); // In case of exception, server will stop and state will be coherent.
-        executeUpdate();
+        executeUpdate(false);
         // Next command is set by the updater thread
         break;
+      case SERVING:
+        if (configurator.getUpdateWhileServing()) {
+          // Keep serving, updated partitions are swapped in as soon as they are ready
+          executeUpdate(true);
+          // Next command is set by the updater thread
+          break;
+        }
+        LOG.info(ignoreIncompatibleCommandMessage(HostCommand.EXECUTE_UPDATE, state));
+        host.nextCommand(); // In case of exception, server will stop and state will be coherent.
+        break;
       default:
         LOG.info(ignoreIncompatibleCommandMessage(HostCommand.EXECUTE_UPDATE, state));
         host.nextCommand(); // In case of exception, server will stop and state will be coherent.
@@ -301,6 +368,8 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     switch (state) {
       case IDLE:
         serveData();
+        // The new data server serves all up-to-date partitions
+        Hosts.setDataServerRestartRequired(host, false); // In case of exception, server will stop and state will be coherent.
         host.setState(HostState.SERVING);  // In case of exception, server will stop and state will be coherent.
         host.nextCommand(); // In case of exception, server will stop and state will be coherent.
         break;
@@ -310,7 +379,8 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     }
   }
 
-  private void executeUpdate() {
+  // When updating while serving, the host stays SERVING and updated partitions are swapped in the data server
+  private void executeUpdate(final boolean whileServing) {
     if (updateThread != null) {
       LOG.error("Update got called while one is already running!");
       return;
@@ -318,18 +388,38 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     Runnable updateRunnable = new Runnable() {
       @Override
       public void run() {
+        DataServerPartitionUpdateListener partitionUpdateListener = new DataServerPartitionUpdateListener();
         try {
-          IUpdateManager updateManager = getUpdateManager();
+          IUpdateManager updateManager;
+          if (whileServing) {
+            updateManager = getUpdateManager(partitionUpdateListener);
+          } else {
+            updateManager = getUpdateManager();
+          }
           updateManager.update();
           LOG.info("Update succeeded.");
         } catch (Throwable e) {
           LOG.fatal("Update failed. Updater encountered a fatal error:", e);
         }
-        // Go back to IDLE even in case of failure
-        try {
-          setStateSynchronized(HostState.IDLE); // In case of exception, server will stop and state will be coherent.
-        } catch (IOException e) {
-          LOG.fatal("Failed to record state change.", e);
+        if (whileServing) {
+          // Partitions that could not be swapped in (e.g. of a domain the data server did not serve yet)
+          // are served once the data server restarts. The ring group conductor schedules the restart
+          // when enough replicas are serving.
+          if (partitionUpdateListener.requiresDataServerRestart()) {
+            LOG.info("Some updated partitions could not be swapped in. Requesting a data server restart.");
+            try {
+              Hosts.setDataServerRestartRequired(host, true);
+            } catch (IOException e) {
+              LOG.fatal("Failed to request a data server restart.", e);
+            }
+          }
+        } else {
+          // Go back to IDLE even in case of failure
+          try {
+            setStateSynchronized(HostState.IDLE); // In case of exception, server will stop and state will be coherent.
+          } catch (IOException e) {
+            LOG.fatal("Failed to record state change.", e);
+          }
         }
         // Move on to next command
         try {
@@ -358,6 +448,7 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     try {
       // Set up the service handler
       handler = getHandler();
+      dataServerHandler = handler;
       // Launch the thrift server
       TNonblockingServerSocket serverSocket = new TNonblockingServerSocket(configurator.getServicePort());
       TThreadedSelectorServer.Args options = new TThreadedSelectorServer.Args(serverSocket);
@@ -377,11 +468,14 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
       // Close the socket
       serverSocket.close();
     } finally {
+      dataServerHandler = null;
       // Always shut down the handler
       if (handler != null) {
         LOG.debug("Shutting down Partition Server handler.");
         handler.shutDown();
       }
+      // Data may be updated before the next handler starts serving
+      valueCache.clear();
     }
   }
 
@@ -487,9 +581,29 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
 
   private void warmUp() throws IOException {
     LOG.info("Warming up data server...");
+    // Load hot keys recorded by the previous data server, they are replayed along with the warmup queries
+    List<Integer> hotKeyDomainIds = new ArrayList<Integer>();
+    List<ByteBuffer> hotKeys = new ArrayList<ByteBuffer>();
+    File hotKeysDirectory = HotKeySampler.getHotKeysDirectory(configurator.getDataDirectories());
+    if (configurator.getWarmupNumHotKeys() > 0 && hotKeysDirectory != null && hotKeysDirectory.isDirectory()) {
+      File[] hotKeysFiles = hotKeysDirectory.listFiles();
+      if (hotKeysFiles != null) {
+        for (File hotKeysFile : hotKeysFiles) {
+          Integer domainId = HotKeySampler.getHotKeysFileDomainId(hotKeysFile);
+          if (domainId != null) {
+            for (ByteBuffer key : HotKeySampler.read(hotKeysFile)) {
+              hotKeyDomainIds.add(domainId);
+              hotKeys.add(key);
+            }
+          }
+        }
+      }
+      LOG.info("Replaying " + hotKeys.size() + " hot keys to warm up data server");
+    }
     List<Thread> threads = new ArrayList<Thread>();
-    for (int i = 0; i < configurator.getNumConcurrentQueries(); ++i) {
-      threads.add(new Thread(new WarmupRunnable(), "Warmup Thread #" + i));
+    int numThreads = configurator.getNumConcurrentQueries();
+    for (int i = 0; i < numThreads; ++i) {
+      threads.add(new Thread(new WarmupRunnable(hotKeyDomainIds, hotKeys, i, numThreads), "Warmup Thread #" + i));
     }
     HankTimer timer = new HankTimer();
     for (Thread thread : threads) {
@@ -608,8 +722,50 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
     new PartitionServer(configurator, getHostName()).run();
   }
 
+  // Swap updated partitions in the current data server handler, and record whether some could not be
+  private class DataServerPartitionUpdateListener implements PartitionUpdateListener {
+
+    private volatile boolean requiresDataServerRestart = false;
+
+    @Override
+    public boolean onPartitionUpdate(HostDomain hostDomain, HostDomainPartition partition, int versionNumber) throws IOException {
+      IfaceWithShutdown handler = dataServerHandler;
+      if (handler instanceof PartitionUpdateListener
+          && ((PartitionUpdateListener)handler).onPartitionUpdate(hostDomain, partition, versionNumber)) {
+        return true;
+      }
+      requiresDataServerRestart = true;
+      return false;
+    }
+
+    @Override
+    public void onPartitionDelete(HostDomain hostDomain, int partitionNumber) throws IOException {
+      IfaceWithShutdown handler = dataServerHandler;
+      if (handler instanceof PartitionUpdateListener) {
+        ((PartitionUpdateListener)handler).onPartitionDelete(hostDomain, partitionNumber);
+      }
+    }
+
+    public boolean requiresDataServerRestart() {
+      return requiresDataServerRestart;
+    }
+  }
+
   private class WarmupRunnable implements Runnable {
 
+    private final List<Integer> hotKeyDomainIds;
+    private final List<ByteBuffer> hotKeys;
+    private final int threadIndex;
+    private final int numThreads;
+
+    // Each thread replays the hot keys whose index modulo numThreads is its own index
+    public WarmupRunnable(List<Integer> hotKeyDomainIds, List<ByteBuffer> hotKeys, int threadIndex, int numThreads) {
+      this.hotKeyDomainIds = hotKeyDomainIds;
+      this.hotKeys = hotKeys;
+      this.threadIndex = threadIndex;
+      this.numThreads = numThreads;
+    }
+
     @Override
     public void run() {
       TSocket socket = null;
@@ -624,6 +780,9 @@ public class PartitionServer implements HostCommandQueueChangeListener, WatchedN
         for (int i = 0; i < NUM_WARMUP_QUERIES_PER_THREAD; i++) {
           client.get(0, ByteBuffer.wrap(new byte[0]));
         }
+        for (int i = threadIndex; i < hotKeys.size(); i += numThreads) {
+          client.get(hotKeyDomainIds.get(i), hotKeys.get(i));
+        }
       } catch (TException e) {
         LOG.error("Failed to warm up data server", e);
         throw new RuntimeException("Failed to warm up data server", e);
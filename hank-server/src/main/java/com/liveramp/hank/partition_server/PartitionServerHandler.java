@@ -15,9 +15,11 @@
  */
 package com.liveramp.hank.partition_server;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +46,8 @@ import com.liveramp.hank.coordinator.Ring;
 import com.liveramp.hank.generated.HankBulkResponse;
 import com.liveramp.hank.generated.HankException;
 import com.liveramp.hank.generated.HankResponse;
+import com.liveramp.hank.metrics.Gauge;
+import com.liveramp.hank.metrics.MetricsRegistry;
 import com.liveramp.hank.storage.Reader;
 import com.liveramp.hank.storage.ReaderResult;
 import com.liveramp.hank.storage.StorageEngine;
@@ -53,20 +57,29 @@ import org.apache.log4j.Logger;
 /**
  * Implements the actual data serving logic of the PartitionServer
  */
-public class PartitionServerHandler implements IfaceWithShutdown {
+public class PartitionServerHandler implements IfaceWithShutdown, PartitionUpdateListener {
 
   private final static Logger LOG = Logger.getLogger(PartitionServerHandler.class);
 
   private final Host host;
+  private final PartitionServerConfigurator configurator;
+  private final int numTotalPartitions;
   private static final HankResponse NO_SUCH_DOMAIN = HankResponse.xception(HankException.no_such_domain(true));
   private static final HankBulkResponse NO_SUCH_DOMAIN_BULK = HankBulkResponse.xception(HankException.no_such_domain(true));
   private final int getBulkTaskSize;
+  private final boolean getBulkGroupByPartition;
   private final int bufferReuseMaxSize;
   private static final long GET_BULK_TASK_EXECUTOR_KEEP_ALIVE_VALUE = 1;
   private static final TimeUnit GET_BULK_TASK_EXECUTOR_KEEP_ALIVE_UNIT = TimeUnit.DAYS;
 
   private static final ReaderResultThreadLocal readerResultThreadLocal = new ReaderResultThreadLocal();
+  // Responses to single GET requests are serialized by the worker thread before it serves another request,
+  // hence they can be reused
+  private static final HankResponseThreadLocal reusableResponseThreadLocal = new HankResponseThreadLocal();
   private final DomainAccessor[] domainAccessors;
+  private final OffHeapValueCache valueCache;
+  private final boolean coalesceGets;
+  private final MetricsRegistry metricsRegistry;
   private final ThreadPoolExecutor getBulkTaskExecutor;
   private static final long GET_BULK_TASK_EXECUTOR_AWAIT_TERMINATION_VALUE = 1;
   private static final TimeUnit GET_BULK_TASK_EXECUTOR_AWAIT_TERMINATION_UNIT = TimeUnit.SECONDS;
@@ -76,10 +89,36 @@ public class PartitionServerHandler implements IfaceWithShutdown {
   private final Thread updateRuntimeStatisticsThread;
   private static final int UPDATE_RUNTIME_STATISTICS_THREAD_SLEEP_TIME_MS_DEFAULT = 30000;
 
+  // Hot keys are sampled from one GET request out of HOT_KEYS_SAMPLING_INTERVAL and persisted periodically
+  private static final int HOT_KEYS_SAMPLING_INTERVAL = 100;
+  private static final long PERSIST_HOT_KEYS_PERIOD_MS = 5 * 60 * 1000;
+  private final int warmupNumHotKeys;
+  // Null when hot keys are not recorded
+  private final File hotKeysDirectory;
+
   // The coordinator is supplied and not created from the configurator to allow caching
   public PartitionServerHandler(PartitionServerAddress address,
                                 PartitionServerConfigurator configurator,
                                 Coordinator coordinator) throws IOException {
+    this(address, configurator, coordinator, new MetricsRegistry());
+  }
+
+  public PartitionServerHandler(PartitionServerAddress address,
+                                PartitionServerConfigurator configurator,
+                                Coordinator coordinator,
+                                MetricsRegistry metricsRegistry) throws IOException {
+    this(address, configurator, coordinator, metricsRegistry,
+        new OffHeapValueCache(configurator.getValueCacheNumBytesCapacity(), OffHeapValueCache.DEFAULT_NUM_SEGMENTS));
+  }
+
+  // The value cache is supplied so that it outlives the handler and its memory is only committed once
+  public PartitionServerHandler(PartitionServerAddress address,
+                                PartitionServerConfigurator configurator,
+                                Coordinator coordinator,
+                                MetricsRegistry metricsRegistry,
+                                OffHeapValueCache valueCache) throws IOException {
+    this.configurator = configurator;
+    this.metricsRegistry = metricsRegistry;
 
     // Create the GET executor
     getBulkTaskExecutor = new ThreadPoolExecutor(
@@ -91,7 +130,13 @@ public class PartitionServerHandler implements IfaceWithShutdown {
         new GetBulkThreadFactory());
 
     getBulkTaskSize = configurator.getGetBulkTaskSize();
+    getBulkGroupByPartition = configurator.getGetBulkGroupByPartition();
     bufferReuseMaxSize = configurator.getBufferReuseMaxSize();
+    this.valueCache = valueCache;
+    coalesceGets = configurator.getCoalesceGets();
+    registerGauges();
+    warmupNumHotKeys = configurator.getWarmupNumHotKeys();
+    hotKeysDirectory = warmupNumHotKeys > 0 ? HotKeySampler.getHotKeysDirectory(configurator.getDataDirectories()) : null;
 
     // Prestart core threads
     getBulkTaskExecutor.prestartAllCoreThreads();
@@ -115,7 +160,7 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     }
 
     // Compute the total number of partitions that are going to be loaded
-    int numTotalPartitions = 0;
+    int numLoadablePartitions = 0;
     for (DomainAndVersion dgdv : domainGroup.getDomainVersions()) {
       HostDomain hostDomain = host.getHostDomain(dgdv.getDomain());
       if (hostDomain != null) {
@@ -123,12 +168,13 @@ public class PartitionServerHandler implements IfaceWithShutdown {
         if (partitions != null) {
           for (HostDomainPartition partition : partitions) {
             if (partition.getCurrentDomainVersion() != null) {
-              numTotalPartitions += 1;
+              numLoadablePartitions += 1;
             }
           }
         }
       }
     }
+    numTotalPartitions = numLoadablePartitions;
     LOG.info("Detected " + numTotalPartitions + " loadable partitions for " + host);
 
     // Determine the max domain id so we can bound the arrays
@@ -199,7 +245,8 @@ public class PartitionServerHandler implements IfaceWithShutdown {
         }
         LOG.info(String.format("Loaded Reader for domain %s, partition #%d",
             domain.getName(), partition.getPartitionNumber()));
-        partitionAccessors[partition.getPartitionNumber()] = new PartitionAccessor(partition, reader);
+        partitionAccessors[partition.getPartitionNumber()] = new PartitionAccessor(partition, reader, valueCache, domainId, coalesceGets,
+            PartitionAccessor.getCounters(metricsRegistry, domain.getName(), partition.getPartitionNumber()));
         // Loading succeeded, if the partition was deletable, it should not be
         if (partition.isDeletable()) {
           partition.setDeletable(false);
@@ -207,7 +254,7 @@ public class PartitionServerHandler implements IfaceWithShutdown {
       }
       // configure and store the DomainAccessors
       domainAccessors[domainId] = new DomainAccessor(hostDomain, partitionAccessors, domain.getPartitioner(),
-          configurator.getGetTimerAggregatorWindow());
+          configurator.getGetTimerAggregatorWindow(), createHotKeySampler(domainId), metricsRegistry);
     }
     // If there was a failure, abort and skip current command.
     if (!exceptions.isEmpty()) {
@@ -220,6 +267,107 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     updateRuntimeStatisticsThread.start();
   }
 
+  @Override
+  public boolean onPartitionUpdate(HostDomain hostDomain, HostDomainPartition partition, int versionNumber) throws IOException {
+    Domain domain = hostDomain.getDomain();
+    DomainAccessor domainAccessor = getDomainAccessor(domain.getId());
+    if (domainAccessor == null) {
+      LOG.info(String.format("Domain %s is not served by this handler, partition #%d cannot be swapped in.",
+          domain.getName(), partition.getPartitionNumber()));
+      return false;
+    }
+    Reader reader = domain.getStorageEngine().getReader(configurator.getReaderConfigurator(numTotalPartitions),
+        partition.getPartitionNumber());
+    // Check that Reader's version number and updated version number match
+    if (reader.getVersionNumber() != null && !reader.getVersionNumber().equals(versionNumber)) {
+      reader.close();
+      throw new IOException(String.format("Could not swap Reader for partition #%d of domain %s because version numbers reported by the Reader (%d) and by the update (%d) differ.",
+          partition.getPartitionNumber(), domain.getName(), reader.getVersionNumber(), versionNumber));
+    }
+    // Read the hot keys of this partition from the new Reader so that its first requests do not hit a cold disk
+    warmUp(reader, domainAccessor.getHotKeys(partition.getPartitionNumber()));
+    domainAccessor.swapPartitionAccessor(partition.getPartitionNumber(),
+        new PartitionAccessor(partition, reader, valueCache, domain.getId(), coalesceGets,
+            PartitionAccessor.getCounters(metricsRegistry, domain.getName(), partition.getPartitionNumber())));
+    LOG.info(String.format("Swapped in Reader for domain %s, partition #%d at version %d",
+        domain.getName(), partition.getPartitionNumber(), versionNumber));
+    return true;
+  }
+
+  private void warmUp(Reader reader, List<ByteBuffer> keys) throws IOException {
+    ReaderResult result = new ReaderResult();
+    for (ByteBuffer key : keys) {
+      result.clear();
+      reader.get(key, result);
+    }
+  }
+
+  private void registerGauges() {
+    metricsRegistry.register("value_cache.num_items", new Gauge() {
+      @Override
+      public long getValue() {
+        return valueCache.getNumItems();
+      }
+    });
+    metricsRegistry.register("value_cache.num_managed_bytes", new Gauge() {
+      @Override
+      public long getValue() {
+        return valueCache.getNumManagedBytes();
+      }
+    });
+    metricsRegistry.register("get_bulk_tasks.queue_size", new Gauge() {
+      @Override
+      public long getValue() {
+        return getBulkTaskExecutor.getQueue().size();
+      }
+    });
+  }
+
+  // Sampled hot keys are restored from the previous run so that persisting them never discards
+  // keys that were sampled over a longer period
+  private HotKeySampler createHotKeySampler(int domainId) {
+    HotKeySampler hotKeySampler = new HotKeySampler(warmupNumHotKeys, HOT_KEYS_SAMPLING_INTERVAL);
+    if (hotKeysDirectory != null) {
+      try {
+        for (ByteBuffer key : HotKeySampler.read(HotKeySampler.getHotKeysFile(hotKeysDirectory, domainId))) {
+          hotKeySampler.add(key);
+        }
+      } catch (IOException e) {
+        LOG.error("Failed to read hot keys of domain #" + domainId, e);
+      }
+    }
+    return hotKeySampler;
+  }
+
+  private void persistHotKeys() {
+    if (hotKeysDirectory == null) {
+      return;
+    }
+    for (DomainAccessor domainAccessor : domainAccessors) {
+      if (domainAccessor != null) {
+        List<ByteBuffer> keys = domainAccessor.getHotKeySampler().getKeys();
+        if (!keys.isEmpty()) {
+          int domainId = domainAccessor.getHostDomain().getDomain().getId();
+          try {
+            HotKeySampler.write(HotKeySampler.getHotKeysFile(hotKeysDirectory, domainId), keys);
+          } catch (IOException e) {
+            LOG.error("Failed to persist hot keys of domain " + domainAccessor.getName(), e);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void onPartitionDelete(HostDomain hostDomain, int partitionNumber) {
+    DomainAccessor domainAccessor = getDomainAccessor(hostDomain.getDomain().getId());
+    if (domainAccessor != null) {
+      domainAccessor.swapPartitionAccessor(partitionNumber, null);
+      LOG.info(String.format("Stopped serving domain %s, partition #%d",
+          hostDomain.getDomain().getName(), partitionNumber));
+    }
+  }
+
   @Override
   public HankResponse get(int domainId, ByteBuffer key) {
     ReaderResult result = readerResultThreadLocal.get();
@@ -229,15 +377,19 @@ public class PartitionServerHandler implements IfaceWithShutdown {
       result = readerResultThreadLocal.get();
     }
     result.clear();
-    return _get(this, domainId, key, result);
+    return _get(this, domainId, key, result, reusableResponseThreadLocal.get());
   }
 
   @Override
   public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) {
+    long startTimeNanos = System.nanoTime();
+    DomainAccessor domainAccessor = getDomainAccessor(domainId);
+    if (domainAccessor == null) {
+      return NO_SUCH_DOMAIN_BULK;
+    }
     try {
-      DomainAccessor domainAccessor = getDomainAccessor(domainId);
-      if (domainAccessor == null) {
-        return NO_SUCH_DOMAIN_BULK;
+      if (getBulkGroupByPartition) {
+        return getBulkGroupedByPartition(domainId, domainAccessor, keys);
       }
       // Build and execute all get bulk tasks
       HankBulkResponse bulkResponse = HankBulkResponse.responses(new ArrayList<HankResponse>(keys.size()));
@@ -267,16 +419,92 @@ public class PartitionServerHandler implements IfaceWithShutdown {
       LOG.fatal(errMsg, t);
       return HankBulkResponse.xception(
           HankException.internal_error(errMsg + " " + (t.getMessage() != null ? t.getMessage() : "")));
+    } finally {
+      domainAccessor.recordGetBulkRequest(startTimeNanos);
     }
   }
 
-  private HankResponse _get(PartitionServerHandler partitionServerHandler, int domainId, ByteBuffer key, ReaderResult result) {
+  // Execute one task per partition, which looks up its keys ordered by block offset so that keys in the same
+  // block are read consecutively. Responses are returned in request order.
+  private HankBulkResponse getBulkGroupedByPartition(int domainId,
+                                                     DomainAccessor domainAccessor,
+                                                     List<ByteBuffer> keys) throws ExecutionException, InterruptedException {
+    HankResponse[] responses = new HankResponse[keys.size()];
+    // Group keys by partition
+    PartitionGetBulkRunnable[] runnables = new PartitionGetBulkRunnable[domainAccessor.getNumPartitions()];
+    for (int keyIndex = 0; keyIndex < keys.size(); ++keyIndex) {
+      int partition = domainAccessor.getPartition(keys.get(keyIndex));
+      if (runnables[partition] == null) {
+        runnables[partition] = new PartitionGetBulkRunnable(domainId, domainAccessor, partition, keys, responses);
+      }
+      runnables[partition].addKey(keyIndex);
+    }
+    // Execute all tasks
+    List<FutureTask<Object>> tasks = new ArrayList<FutureTask<Object>>();
+    for (PartitionGetBulkRunnable runnable : runnables) {
+      if (runnable != null) {
+        FutureTask<Object> task = new FutureTask<Object>(runnable, null);
+        getBulkTaskExecutor.execute(task);
+        tasks.add(task);
+      }
+    }
+    // Wait for all tasks. Each task stored its responses at the index of the corresponding keys.
+    for (FutureTask<Object> task : tasks) {
+      task.get();
+    }
+    HankBulkResponse bulkResponse = HankBulkResponse.responses(new ArrayList<HankResponse>(keys.size()));
+    for (HankResponse response : responses) {
+      bulkResponse.get_responses().add(response);
+    }
+    return bulkResponse;
+  }
+
+  // Perform a GET that is part of a GET BULK request and store its response at the given index.
+  // Return the ReaderResult to use for the next GET.
+  private ReaderResult getBulkKey(int domainId,
+                                  ByteBuffer key,
+                                  ReaderResult result,
+                                  HankResponse[] responses,
+                                  int responseIndex) {
+    // Reset flags and counters of the previous GET
+    result.clear();
+    HankResponse response = _get(PartitionServerHandler.this, domainId, key, result, null);
+    // If a value was found, we have the choice to keep the buffer that was used to read the value, or do a deep
+    // copy into the response. This decision is based on a size difference threshold.
+    // This allows us to do bulk requests that are large even when the read buffer ends up being much larger
+    // than the stored value (since in that case we will just do a deep copy of the value
+    // in an appropriately-sized buffer).
+    if (response.is_set_value()) {
+      ByteBuffer valueBuffer = response.buffer_for_value();
+      // If buffer used space is less than a threshold times its capacity, do a deep copy.
+      if (((double)valueBuffer.limit())
+          < (USED_SIZE_THRESHOLD_FOR_VALUE_BUFFER_DEEP_COPY * valueBuffer.capacity())) {
+        // Deep copy the value. Hence we can reuse the result buffer.
+        response.set_value(BytesUtils.byteBufferDeepCopy(valueBuffer));
+        result.clear();
+      } else {
+        // Keep the ReaderResult's buffer in the response. Hence we need to create a new result buffer.
+        // Initialize it with the same capacity we had.
+        result = new ReaderResult(valueBuffer.capacity());
+      }
+    }
+    // Store response
+    responses[responseIndex] = response;
+    return result;
+  }
+
+  // When not null, reusableResponse is used to return a found value
+  private HankResponse _get(PartitionServerHandler partitionServerHandler,
+                            int domainId,
+                            ByteBuffer key,
+                            ReaderResult result,
+                            HankResponse reusableResponse) {
     DomainAccessor domainAccessor = partitionServerHandler.getDomainAccessor(domainId);
     if (domainAccessor == null) {
       return NO_SUCH_DOMAIN;
     }
     try {
-      return domainAccessor.get(key, result);
+      return domainAccessor.get(key, result, reusableResponse);
     } catch (IOException e) {
       String errMsg = String.format(
           "Exception during GET. Domain: %s (domain #%d) Key: %s",
@@ -300,6 +528,14 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     }
   }
 
+  private static class HankResponseThreadLocal extends ThreadLocal<HankResponse> {
+
+    @Override
+    protected HankResponse initialValue() {
+      return new HankResponse();
+    }
+  }
+
   private static class GetThread extends Thread {
 
     public GetThread(Runnable runnable, String name) {
@@ -339,29 +575,7 @@ public class PartitionServerHandler implements IfaceWithShutdown {
       // Perform GET requests for keys starting at firstKeyIndex up to GET_BULK_TASK_SIZE keys or until the last key
       for (int keyOffset = 0; keyOffset < getBulkTaskSize
           && (firstKeyIndex + keyOffset) < keys.size(); keyOffset++) {
-        HankResponse response =
-            _get(PartitionServerHandler.this, domainId, keys.get(firstKeyIndex + keyOffset), result);
-        // If a value was found, we have the choice to keep the buffer that was used to read the value, or do a deep
-        // copy into the response. This decision is based on a size difference threshold.
-        // This allows us to do bulk requests that are large even when the read buffer ends up being much larger
-        // than the stored value (since in that case we will just do a deep copy of the value
-        // in an appropriately-sized buffer).
-        if (response.is_set_value()) {
-          ByteBuffer valueBuffer = response.buffer_for_value();
-          // If buffer used space is less than a threshold times its capacity, do a deep copy.
-          if (((double)valueBuffer.limit())
-              < (USED_SIZE_THRESHOLD_FOR_VALUE_BUFFER_DEEP_COPY * valueBuffer.capacity())) {
-            // Deep copy the value. Hence we can reuse the result buffer.
-            response.set_value(BytesUtils.byteBufferDeepCopy(valueBuffer));
-            result.clear();
-          } else {
-            // Keep the ReaderResult's buffer in the response. Hence we need to create a new result buffer.
-            // Initialize it with the same capacity we had.
-            result = new ReaderResult(valueBuffer.capacity());
-          }
-        }
-        // Store response
-        responses[keyOffset] = response;
+        result = getBulkKey(domainId, keys.get(firstKeyIndex + keyOffset), result, responses, keyOffset);
       }
       // Update the thread local result buffer to point to the latest one used (which is valid for reuse)
       readerResultThreadLocal.set(result);
@@ -372,6 +586,70 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     }
   }
 
+  private class PartitionGetBulkRunnable implements Runnable {
+
+    private final int domainId;
+    private final DomainAccessor domainAccessor;
+    private final int partition;
+    private final List<ByteBuffer> keys;
+    private final HankResponse[] responses;
+    private final List<BlockOrderedKey> partitionKeys = new ArrayList<BlockOrderedKey>();
+
+    // Perform GET requests for keys of the given partition, storing responses at the index of each key
+    public PartitionGetBulkRunnable(int domainId,
+                                    DomainAccessor domainAccessor,
+                                    int partition,
+                                    List<ByteBuffer> keys,
+                                    HankResponse[] responses) {
+      this.domainId = domainId;
+      this.domainAccessor = domainAccessor;
+      this.partition = partition;
+      this.keys = keys;
+      this.responses = responses;
+    }
+
+    public void addKey(int keyIndex) {
+      partitionKeys.add(new BlockOrderedKey(keyIndex));
+    }
+
+    @Override
+    public void run() {
+      // Order keys by block offset. The sort is stable, keys in the same block stay in request order.
+      for (BlockOrderedKey partitionKey : partitionKeys) {
+        partitionKey.blockOffset = domainAccessor.getBlockOffset(partition, keys.get(partitionKey.keyIndex));
+      }
+      Collections.sort(partitionKeys);
+      ReaderResult result = readerResultThreadLocal.get();
+      result.clear();
+      for (BlockOrderedKey partitionKey : partitionKeys) {
+        result = getBulkKey(domainId, keys.get(partitionKey.keyIndex), result, responses, partitionKey.keyIndex);
+      }
+      // Update the thread local result buffer to point to the latest one used (which is valid for reuse)
+      readerResultThreadLocal.set(result);
+    }
+  }
+
+  private static class BlockOrderedKey implements Comparable<BlockOrderedKey> {
+
+    private final int keyIndex;
+    private long blockOffset;
+
+    public BlockOrderedKey(int keyIndex) {
+      this.keyIndex = keyIndex;
+    }
+
+    @Override
+    public int compareTo(BlockOrderedKey other) {
+      if (blockOffset < other.blockOffset) {
+        return -1;
+      } else if (blockOffset > other.blockOffset) {
+        return 1;
+      } else {
+        return 0;
+      }
+    }
+  }
+
   private class GetBulkTask extends FutureTask<Object> {
 
     private final GetBulkRunnable runnable;
@@ -401,6 +679,8 @@ public class PartitionServerHandler implements IfaceWithShutdown {
    */
   private class UpdateRuntimeStatisticsRunnable extends UpdateStatisticsRunnable implements Runnable {
 
+    private long lastPersistHotKeysTimeMs = System.currentTimeMillis();
+
     public UpdateRuntimeStatisticsRunnable() {
       super(UPDATE_RUNTIME_STATISTICS_THREAD_SLEEP_TIME_MS_DEFAULT);
     }
@@ -418,6 +698,11 @@ public class PartitionServerHandler implements IfaceWithShutdown {
       }
       // Set statistics
       Hosts.setRuntimeStatistics(host, runtimeStatisticsAggregators);
+      // Persist hot keys
+      if (System.currentTimeMillis() - lastPersistHotKeysTimeMs >= PERSIST_HOT_KEYS_PERIOD_MS) {
+        persistHotKeys();
+        lastPersistHotKeysTimeMs = System.currentTimeMillis();
+      }
     }
 
     @Override
@@ -441,6 +726,7 @@ public class PartitionServerHandler implements IfaceWithShutdown {
     } catch (InterruptedException e) {
       LOG.info("Interrupted while waiting for update runtime statistics thread to terminate during shutdown.");
     }
+    persistHotKeys();
     // Shut down domain accessors
     for (DomainAccessor domainAccessor : domainAccessors) {
       if (domainAccessor != null) {
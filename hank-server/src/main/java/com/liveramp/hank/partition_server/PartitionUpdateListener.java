@@ -0,0 +1,35 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.partition_server;
+
+import java.io.IOException;
+
+import com.liveramp.hank.coordinator.HostDomain;
+import com.liveramp.hank.coordinator.HostDomainPartition;
+
+/**
+ * Notified by the UpdateManager of each partition it updates or deletes while the host is serving,
+ * so that the new partition version can be served without restarting the data server.
+ */
+interface PartitionUpdateListener {
+
+  // Called once the partition's files are at the given version, before the update is recorded.
+  // Return false if the partition cannot be swapped in, in which case the data server needs to be restarted to serve it.
+  public boolean onPartitionUpdate(HostDomain hostDomain, HostDomainPartition partition, int versionNumber) throws IOException;
+
+  // Called before the partition's files are deleted
+  public void onPartitionDelete(HostDomain hostDomain, int partitionNumber) throws IOException;
+}
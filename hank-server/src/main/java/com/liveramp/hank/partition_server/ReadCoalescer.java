@@ -0,0 +1,175 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.partition_server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.liveramp.hank.storage.Reader;
+import com.liveramp.hank.storage.ReaderResult;
+
+/**
+ * Coalesces concurrent reads of the same key in a partition: the first thread reads the key from the Reader,
+ * and threads requesting it while that read is in flight wait for it and copy its result, instead of reading
+ * and decompressing the same data again. The value is only copied when there are waiting threads.
+ * <p/>
+ * Reads in flight are registered in a small fixed table of slots selected by key hash, not in a map:
+ * a read that does not join another one costs a lookup, a compare-and-set and one small allocation,
+ * and the key is not copied. A read whose slot is taken by a different key is not coalesced.
+ */
+class ReadCoalescer {
+
+  // Bounds the memory used by each partition. Collisions only make reads miss coalescing opportunities.
+  private static final int NUM_SLOTS = 64;
+
+  private final AtomicReferenceArray<InFlightRead> slots = new AtomicReferenceArray<InFlightRead>(NUM_SLOTS);
+
+  // Return true if the key was read from the given Reader by this thread,
+  // false if the result was copied from a concurrent read.
+  public boolean get(Reader reader, ByteBuffer key, ReaderResult result) throws IOException {
+    int slot = getSlot(key);
+    while (true) {
+      InFlightRead inFlightRead = slots.get(slot);
+      if (inFlightRead == null) {
+        // Register as the leader of reads of this key. The key is only referenced while the read is in flight.
+        InFlightRead newInFlightRead = new InFlightRead(key);
+        if (slots.compareAndSet(slot, null, newInFlightRead)) {
+          read(reader, key, result, slot, newInFlightRead);
+          return true;
+        }
+        // Another read took the slot in the meantime
+        continue;
+      }
+      switch (inFlightRead.join(key)) {
+        case JOINED:
+          inFlightRead.await(result);
+          return false;
+        case OTHER_KEY:
+          // Slot is taken by the read of another key, do not coalesce
+          reader.get(key, result);
+          return true;
+        case DONE:
+          // The read completed in the meantime, it is no longer in flight
+          break;
+      }
+    }
+  }
+
+  static int getSlot(ByteBuffer key) {
+    int hash = key.hashCode();
+    // Spread high bits since the mask only retains low bits
+    hash ^= (hash >>> 16);
+    hash ^= (hash >>> 8);
+    return hash & (NUM_SLOTS - 1);
+  }
+
+  private void read(Reader reader,
+                    ByteBuffer key,
+                    ReaderResult result,
+                    int slot,
+                    InFlightRead inFlightRead) throws IOException {
+    boolean succeeded = false;
+    try {
+      reader.get(key, result);
+      succeeded = true;
+    } finally {
+      // Remove before completing so that completed reads are never joined
+      slots.compareAndSet(slot, inFlightRead, null);
+      inFlightRead.complete(succeeded ? result : null);
+    }
+  }
+
+  int getNumInFlightReads() {
+    int result = 0;
+    for (int i = 0; i < NUM_SLOTS; ++i) {
+      if (slots.get(i) != null) {
+        ++result;
+      }
+    }
+    return result;
+  }
+
+  private static enum JoinResult {
+    JOINED,
+    OTHER_KEY,
+    DONE
+  }
+
+  private static class InFlightRead {
+
+    // Owned by the leader, must only be accessed while the read is in flight
+    private final ByteBuffer key;
+    private boolean isDone = false;
+    private int numWaiters = 0;
+    private boolean isFailed = false;
+    private boolean isFound = false;
+    private byte[] value = null;
+
+    private InFlightRead(ByteBuffer key) {
+      this.key = key;
+    }
+
+    public synchronized JoinResult join(ByteBuffer otherKey) {
+      if (isDone) {
+        return JoinResult.DONE;
+      }
+      if (!key.equals(otherKey)) {
+        return JoinResult.OTHER_KEY;
+      }
+      ++numWaiters;
+      return JoinResult.JOINED;
+    }
+
+    // A null result means that the read failed
+    public synchronized void complete(ReaderResult result) {
+      if (result == null) {
+        isFailed = true;
+      } else if (result.isFound()) {
+        isFound = true;
+        if (numWaiters > 0) {
+          ByteBuffer buffer = result.getBuffer();
+          value = new byte[buffer.remaining()];
+          buffer.duplicate().get(value);
+        }
+      }
+      isDone = true;
+      notifyAll();
+    }
+
+    public synchronized void await(ReaderResult result) throws IOException {
+      while (!isDone) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted while waiting for a concurrent read of the same key", e);
+        }
+      }
+      if (isFailed) {
+        throw new IOException("Concurrent read of the same key failed");
+      }
+      if (isFound) {
+        result.deepCopyIntoResultBuffer(ByteBuffer.wrap(value));
+        result.found();
+      } else {
+        result.notFound();
+      }
+    }
+  }
+}
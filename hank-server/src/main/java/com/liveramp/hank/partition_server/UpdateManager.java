@@ -28,6 +28,7 @@ import java.util.Queue;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
@@ -48,11 +49,15 @@ import com.liveramp.hank.coordinator.HostDomain;
 import com.liveramp.hank.coordinator.HostDomainPartition;
 import com.liveramp.hank.coordinator.Hosts;
 import com.liveramp.hank.coordinator.RingGroup;
+import com.liveramp.hank.metrics.MetricsRegistry;
 import com.liveramp.hank.storage.Deleter;
+import com.liveramp.hank.storage.PartitionUpdater;
 import com.liveramp.hank.storage.StorageEngine;
+import com.liveramp.hank.storage.incremental.IncrementalPartitionUpdater;
 import com.liveramp.hank.util.DurationAggregator;
 import com.liveramp.hank.util.FormatUtils;
 import com.liveramp.hank.util.HankTimer;
+import com.liveramp.hank.util.StripedLongCollection;
 
 /**
  * Manages the domain update process.
@@ -64,6 +69,21 @@ public class UpdateManager implements IUpdateManager {
 
   private static final Logger LOG = Logger.getLogger(UpdateManager.class);
 
+  private static final String METRICS_PREFIX = "update_manager";
+  private static final String[] COUNTER_NAMES = new String[]{
+      "successful_updates",
+      "failed_updates",
+      "partition_updates",
+      "failed_partition_updates",
+      "skipped_partition_updates",
+      "partition_deletions"};
+  private static final int NUM_SUCCESSFUL_UPDATES = 0;
+  private static final int NUM_FAILED_UPDATES = 1;
+  private static final int NUM_PARTITION_UPDATES = 2;
+  private static final int NUM_FAILED_PARTITION_UPDATES = 3;
+  private static final int NUM_SKIPPED_PARTITION_UPDATES = 4;
+  private static final int NUM_PARTITION_DELETIONS = 5;
+
   private final class PartitionUpdateTaskStatisticsAggregator {
 
     static private final int NUM_PARTITIONS_USED_FOR_PROJECTION_RATIO = 10;
@@ -175,12 +195,15 @@ public class UpdateManager implements IUpdateManager {
     private final String dataDirectory;
     private final PartitionUpdateTaskStatisticsAggregator partitionUpdateTaskStatisticsAggregator;
     private final List<Throwable> encounteredThrowables;
+    private final ExecutorService fetchExecutor;
 
     public PartitionUpdateTask(HostDomain hostDomain,
                                HostDomainPartition partition,
                                PartitionUpdateTaskStatisticsAggregator partitionUpdateTaskStatisticsAggregator,
-                               List<Throwable> encounteredThrowables) {
+                               List<Throwable> encounteredThrowables,
+                               ExecutorService fetchExecutor) {
       this.hostDomain = hostDomain;
+      this.fetchExecutor = fetchExecutor;
       this.encounteredThrowables = encounteredThrowables;
       this.domain = hostDomain.getDomain();
       this.partition = partition;
@@ -211,6 +234,7 @@ public class UpdateManager implements IUpdateManager {
         // target domain group version)
         if (partition.isDeletable() || targetDomainAndVersion == null) {
           deletePartition(hostDomain, partition);
+          counters.add(NUM_PARTITION_DELETIONS, 1);
         } else {
           // Determine Domain Version
           DomainVersion targetDomainVersion =
@@ -222,6 +246,7 @@ public class UpdateManager implements IUpdateManager {
             LOG.info(String.format(
                 "Skipping partition update of domain %s partition %d to version %d (it is already up-to-date).",
                 domain.getName(), partition.getPartitionNumber(), targetDomainVersion.getVersionNumber()));
+            counters.add(NUM_SKIPPED_PARTITION_UPDATES, 1);
             return;
           }
 
@@ -234,10 +259,23 @@ public class UpdateManager implements IUpdateManager {
           LOG.info(String.format(
               "Starting partition update of domain %s partition %d to version %d in %s.",
               domain.getName(), partition.getPartitionNumber(), targetDomainVersion.getVersionNumber(), getDataDirectory()));
-          storageEngine.getUpdater(configurator, partition.getPartitionNumber()).updateTo(targetDomainVersion, statistics);
+          PartitionUpdater updater = storageEngine.getUpdater(configurator, partition.getPartitionNumber());
+          if (updater instanceof IncrementalPartitionUpdater) {
+            ((IncrementalPartitionUpdater)updater).setFetchExecutor(fetchExecutor);
+          }
+          updater.updateTo(targetDomainVersion, statistics);
+
+          // When updating while serving, swap in the new version before recording it
+          if (partitionUpdateListener != null
+              && !partitionUpdateListener.onPartitionUpdate(hostDomain, partition, targetDomainVersion.getVersionNumber())) {
+            LOG.info(String.format(
+                "Partition %d of domain %s could not be swapped in, it will be served once the data server restarts.",
+                partition.getPartitionNumber(), domain.getName()));
+          }
 
           // Record update success
           partition.setCurrentDomainVersion(targetDomainVersion.getVersionNumber());
+          counters.add(NUM_PARTITION_UPDATES, 1);
           LOG.info(String.format(
               "Completed partition update of domain %s partition %d to version %d.",
               domain.getName(), partition.getPartitionNumber(), targetDomainVersion.getVersionNumber()));
@@ -245,6 +283,7 @@ public class UpdateManager implements IUpdateManager {
       } catch (Throwable t) {
         LOG.fatal(String.format("Failed to complete partition update of domain %s partition %d.",
             domain.getName(), partition.getPartitionNumber()), t);
+        counters.add(NUM_FAILED_PARTITION_UPDATES, 1);
         encounteredThrowables.add(t);
       } finally {
         statistics.setEndTimeMs(System.currentTimeMillis());
@@ -279,6 +318,16 @@ public class UpdateManager implements IUpdateManager {
     }
   }
 
+  private static class FetcherThreadFactory implements ThreadFactory {
+
+    private AtomicInteger threadID = new AtomicInteger(0);
+
+    @Override
+    public Thread newThread(Runnable r) {
+      return new Thread(r, "Fetcher Thread Pool Thread #" + threadID.getAndIncrement());
+    }
+  }
+
   private static class UpdateThreadPoolExecutor extends ThreadPoolExecutor {
 
     private final Semaphore semaphore;
@@ -316,16 +365,39 @@ public class UpdateManager implements IUpdateManager {
   private final PartitionServerConfigurator configurator;
   private final Host host;
   private final RingGroup ringGroup;
+  private final PartitionUpdateListener partitionUpdateListener;
+  private final StripedLongCollection counters;
 
   public UpdateManager(PartitionServerConfigurator configurator, Host host, RingGroup ringGroup) throws IOException {
+    this(configurator, host, ringGroup, null);
+  }
+
+  public UpdateManager(PartitionServerConfigurator configurator,
+                       Host host,
+                       RingGroup ringGroup,
+                       PartitionUpdateListener partitionUpdateListener) throws IOException {
+    this(configurator, host, ringGroup, partitionUpdateListener, new MetricsRegistry());
+  }
+
+  // When not null, the listener is notified of each updated and deleted partition.
+  // Counters are registered as "update_manager.<counter>".
+  public UpdateManager(PartitionServerConfigurator configurator,
+                       Host host,
+                       RingGroup ringGroup,
+                       PartitionUpdateListener partitionUpdateListener,
+                       MetricsRegistry metricsRegistry) throws IOException {
     this.configurator = configurator;
     this.host = host;
     this.ringGroup = ringGroup;
+    this.partitionUpdateListener = partitionUpdateListener;
+    this.counters = metricsRegistry.getCounters(METRICS_PREFIX, COUNTER_NAMES);
   }
 
   @Override
   public void update() throws IOException {
     HankTimer timer = new HankTimer();
+    // Versions needed by partition updates are fetched by a pool shared by all of them
+    ExecutorService fetchExecutor = Executors.newFixedThreadPool(configurator.getNumConcurrentFetches(), new FetcherThreadFactory());
     try {
       // Delete unknown files
       deleteUnknownFiles();
@@ -334,7 +406,7 @@ public class UpdateManager implements IUpdateManager {
       List<Throwable> encounteredThrowables = new ArrayList<Throwable>();
       PartitionUpdateTaskStatisticsAggregator partitionUpdateTaskStatisticsAggregator = new PartitionUpdateTaskStatisticsAggregator();
       Map<String, Queue<PartitionUpdateTask>> dataDirectoryToUpdateTasks = new HashMap<String, Queue<PartitionUpdateTask>>();
-      List<PartitionUpdateTask> allUpdateTasks = buildPartitionUpdateTasks(partitionUpdateTaskStatisticsAggregator, encounteredThrowables);
+      List<PartitionUpdateTask> allUpdateTasks = buildPartitionUpdateTasks(partitionUpdateTaskStatisticsAggregator, encounteredThrowables, fetchExecutor);
       // Build and organize update tasks per data directory
       for (PartitionUpdateTask updateTask : allUpdateTasks) {
         String dataDirectory = updateTask.getDataDirectory();
@@ -441,14 +513,20 @@ public class UpdateManager implements IUpdateManager {
 
     } catch (IOException e) {
       LOG.info("Update failed and took " + FormatUtils.formatSecondsDuration(timer.getDurationMs() / 1000));
+      counters.add(NUM_FAILED_UPDATES, 1);
       throw e;
+    } finally {
+      // Partition updates have all stopped, and waited for their fetches to stop
+      fetchExecutor.shutdownNow();
     }
     LOG.info("Update succeeded and took " + FormatUtils.formatSecondsDuration(timer.getDurationMs() / 1000));
+    counters.add(NUM_SUCCESSFUL_UPDATES, 1);
   }
 
   private ArrayList<PartitionUpdateTask> buildPartitionUpdateTasks(
       PartitionUpdateTaskStatisticsAggregator partitionUpdateTaskStatisticsAggregator,
-      List<Throwable> encounteredThrowables) throws IOException {
+      List<Throwable> encounteredThrowables,
+      ExecutorService fetchExecutor) throws IOException {
     ArrayList<PartitionUpdateTask> partitionUpdateTasks = new ArrayList<PartitionUpdateTask>();
 
     for (HostDomain hostDomain : host.getAssignedDomains()) {
@@ -458,7 +536,8 @@ public class UpdateManager implements IUpdateManager {
                 hostDomain,
                 partition,
                 partitionUpdateTaskStatisticsAggregator,
-                encounteredThrowables));
+                encounteredThrowables,
+                fetchExecutor));
       }
     }
 
@@ -483,6 +562,9 @@ public class UpdateManager implements IUpdateManager {
   private void deletePartition(HostDomain hostDomain,
                                HostDomainPartition partition) throws IOException {
     LOG.info("Deleting Domain " + hostDomain.getDomain().getName() + " partition " + partition.getPartitionNumber());
+    if (partitionUpdateListener != null) {
+      partitionUpdateListener.onPartitionDelete(hostDomain, partition.getPartitionNumber());
+    }
     Deleter deleter = hostDomain.getDomain().getStorageEngine().getDeleter(configurator, partition.getPartitionNumber());
     deleter.delete();
     hostDomain.removePartition(partition.getPartitionNumber());
@@ -510,13 +592,17 @@ public class UpdateManager implements IUpdateManager {
         }
       }
     }
+    // Recorded hot keys are not partition files but should be kept
+    File hotKeysDirectory = HotKeySampler.getHotKeysDirectory(configurator.getDataDirectories());
+    String hotKeysDirectoryPath = hotKeysDirectory == null ? null : hotKeysDirectory.getCanonicalPath() + File.separator;
     // Delete unknown files
     for (String dataDirectoryPath : configurator.getDataDirectories()) {
       LOG.info("Deleting unknown files in " + dataDirectoryPath);
       File dataDirectory = new File(dataDirectoryPath);
       if (dataDirectory.exists()) {
         for (File file : FileUtils.listFiles(dataDirectory, TrueFileFilter.INSTANCE, TrueFileFilter.INSTANCE)) {
-          if (!expectedFiles.contains(file.getCanonicalPath())) {
+          if (!expectedFiles.contains(file.getCanonicalPath())
+              && (hotKeysDirectoryPath == null || !file.getCanonicalPath().startsWith(hotKeysDirectoryPath))) {
             LOG.info("Deleting unknown file: " + file.getCanonicalPath());
             FileUtils.deleteQuietly(file);
           }
@@ -121,9 +121,10 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupUpdateTra
     boolean isAssigned = partitionAssigner.isAssigned(host);
     boolean isUpToDate = Hosts.isUpToDate(host, domainGroup);
     boolean isFullyServing = isFullyServing(host, true);
+    boolean isDataServerRestartRequired = Hosts.isDataServerRestartRequired(host);
 
     // Host is serving, assigned and up-to-date. Do nothing.
-    if (Hosts.isServing(host) && isAssigned && isUpToDate) {
+    if (Hosts.isServing(host) && isAssigned && isUpToDate && !isDataServerRestartRequired) {
       LOG.info("Host " + host.getAddress() + " is serving, assigned, and up-to-date. Do nothing.");
       return;
     }
@@ -161,6 +162,16 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupUpdateTra
       return;
     }
 
+    if (isFullyServing && isAssigned && !isUpToDate && numReplicasFullyServing > minNumReplicasFullyServing
+        && Hosts.isUpdateWhileServing(host)) {
+      // Host is serving, assigned, not up-to-date, there are more than enough replicas serving and it can update
+      // while serving. Update. It does not count as fully serving until the update is done.
+      LOG.info("Host " + host.getAddress() + " is serving, assigned, not up-to-date, there are more than enough replicas serving, and it can update while serving. Update.");
+      Hosts.enqueueCommandIfNotPresent(host, HostCommand.EXECUTE_UPDATE);
+      removeFromReplicasFullyServing(domainToPartitionToHostsFullyServing, host);
+      return;
+    }
+
     if (isFullyServing && isAssigned && !isUpToDate && numReplicasFullyServing > minNumReplicasFullyServing) {
       // Host is serving, assigned, not up-to-date and there are more than enough replicas serving. Go idle.
       LOG.info("Host " + host.getAddress() + " is serving, assigned, not up-to-date, and there are more than enough replicas serving. Go idle.");
@@ -169,6 +180,16 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupUpdateTra
       return;
     }
 
+    if (isFullyServing && isAssigned && isUpToDate && isDataServerRestartRequired
+        && numReplicasFullyServing > minNumReplicasFullyServing) {
+      // Host is serving, assigned, up-to-date, but its data server must restart to serve all partitions, and
+      // there are more than enough replicas serving. Go idle (it will then be served again).
+      LOG.info("Host " + host.getAddress() + " is serving, assigned, up-to-date, its data server must restart, and there are more than enough replicas serving. Go idle.");
+      Hosts.enqueueCommandIfNotPresent(host, HostCommand.GO_TO_IDLE);
+      removeFromReplicasFullyServing(domainToPartitionToHostsFullyServing, host);
+      return;
+    }
+
     // Host is idle, and not assigned. Assign.
     if (Hosts.isIdle(host) && !isAssigned) {
       LOG.info("Host " + host.getAddress() + " is idle, and not assigned. Assign.");
@@ -188,6 +209,7 @@ public class RingGroupUpdateTransitionFunctionImpl implements RingGroupUpdateTra
         + ", isAssigned: " + isAssigned
         + ", isUpToDate: " + isUpToDate
         + ", isFullyServing: " + isFullyServing
+        + ", isDataServerRestartRequired: " + isDataServerRestartRequired
         + ", state: " + host.getState()
         + ", numReplicasFullyServing: " + numReplicasFullyServing
         + ", minNumReplicasFullyServing: " + minNumReplicasFullyServing
@@ -72,6 +72,9 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
     public static final String HASHER_KEY = "hasher";
     public static final String COMPRESSION_CODEC = "compression_codec";
     public static final String NUM_REMOTE_LEAF_VERSIONS_TO_KEEP = "num_remote_leaf_versions_to_keep";
+    public static final String MEMORY_MAPPED_KEY = "memory_mapped";
+    public static final String BINARY_SEARCH_BLOCKS_KEY = "binary_search_blocks";
+    public static final String KEY_HASH_FILTER_BITS_PER_KEY_KEY = "key_hash_filter_bits_per_key";
 
     private static final Set<String> REQUIRED_KEYS =
         new HashSet<String>(Arrays.asList(REMOTE_DOMAIN_ROOT_KEY,
@@ -116,6 +119,24 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
       // Num remote bases to keep
       Integer numRemoteLeafVersionsToKeep = (Integer)options.get(NUM_REMOTE_LEAF_VERSIONS_TO_KEEP);
 
+      // Memory mapped reads
+      Boolean memoryMapped = (Boolean)options.get(MEMORY_MAPPED_KEY);
+      if (memoryMapped == null) {
+        memoryMapped = false;
+      }
+
+      // Binary search within blocks
+      Boolean binarySearchBlocks = (Boolean)options.get(BINARY_SEARCH_BLOCKS_KEY);
+      if (binarySearchBlocks == null) {
+        binarySearchBlocks = false;
+      }
+
+      // Key hash filters
+      Integer keyHashFilterBitsPerKey = (Integer)options.get(KEY_HASH_FILTER_BITS_PER_KEY_KEY);
+      if (keyHashFilterBitsPerKey == null) {
+        keyHashFilterBitsPerKey = 0;
+      }
+
       return new Cueball((Integer)options.get(KEY_HASH_SIZE_KEY),
           hasher,
           (Integer)options.get(VALUE_SIZE_KEY),
@@ -124,7 +145,10 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
           fileOpsFactory,
           compressionCodecClass,
           domain,
-          numRemoteLeafVersionsToKeep);
+          numRemoteLeafVersionsToKeep,
+          memoryMapped,
+          binarySearchBlocks,
+          keyHashFilterBitsPerKey);
     }
 
     @Override
@@ -148,6 +172,9 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
   private final PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory;
   private final ByteBuffer keyHashBuffer;
   private final int numRemoteLeafVersionsToKeep;
+  private final boolean memoryMapped;
+  private final boolean binarySearchBlocks;
+  private final int keyHashFilterBitsPerKey;
 
   private final Class<? extends CueballCompressionCodec> compressionCodecClass;
 
@@ -160,6 +187,78 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
                  Class<? extends CueballCompressionCodec> compressionCodecClass,
                  Domain domain,
                  int numRemoteLeafVersionsToKeep) {
+    this(keyHashSize,
+        hasher,
+        valueSize,
+        hashIndexBits,
+        remoteDomainRoot,
+        partitionRemoteFileOpsFactory,
+        compressionCodecClass,
+        domain,
+        numRemoteLeafVersionsToKeep,
+        false);
+  }
+
+  public Cueball(int keyHashSize,
+                 Hasher hasher,
+                 int valueSize,
+                 int hashIndexBits,
+                 String remoteDomainRoot,
+                 PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+                 Class<? extends CueballCompressionCodec> compressionCodecClass,
+                 Domain domain,
+                 int numRemoteLeafVersionsToKeep,
+                 boolean memoryMapped) {
+    this(keyHashSize,
+        hasher,
+        valueSize,
+        hashIndexBits,
+        remoteDomainRoot,
+        partitionRemoteFileOpsFactory,
+        compressionCodecClass,
+        domain,
+        numRemoteLeafVersionsToKeep,
+        memoryMapped,
+        false);
+  }
+
+  public Cueball(int keyHashSize,
+                 Hasher hasher,
+                 int valueSize,
+                 int hashIndexBits,
+                 String remoteDomainRoot,
+                 PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+                 Class<? extends CueballCompressionCodec> compressionCodecClass,
+                 Domain domain,
+                 int numRemoteLeafVersionsToKeep,
+                 boolean memoryMapped,
+                 boolean binarySearchBlocks) {
+    this(keyHashSize,
+        hasher,
+        valueSize,
+        hashIndexBits,
+        remoteDomainRoot,
+        partitionRemoteFileOpsFactory,
+        compressionCodecClass,
+        domain,
+        numRemoteLeafVersionsToKeep,
+        memoryMapped,
+        binarySearchBlocks,
+        0);
+  }
+
+  public Cueball(int keyHashSize,
+                 Hasher hasher,
+                 int valueSize,
+                 int hashIndexBits,
+                 String remoteDomainRoot,
+                 PartitionRemoteFileOpsFactory partitionRemoteFileOpsFactory,
+                 Class<? extends CueballCompressionCodec> compressionCodecClass,
+                 Domain domain,
+                 int numRemoteLeafVersionsToKeep,
+                 boolean memoryMapped,
+                 boolean binarySearchBlocks,
+                 int keyHashFilterBitsPerKey) {
     this.keyHashSize = keyHashSize;
     this.hasher = hasher;
     this.valueSize = valueSize;
@@ -170,6 +269,9 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
     this.compressionCodecClass = compressionCodecClass;
     this.domain = domain;
     this.numRemoteLeafVersionsToKeep = numRemoteLeafVersionsToKeep;
+    this.memoryMapped = memoryMapped;
+    this.binarySearchBlocks = binarySearchBlocks;
+    this.keyHashFilterBitsPerKey = keyHashFilterBitsPerKey;
     // Sanity check
     if (hashIndexBits > 32) {
       throw new RuntimeException("hashIndexBits is much too large (" + hashIndexBits + ")");
@@ -186,7 +288,11 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
         hashIndexBits,
         getCompressionCodec(),
         configurator.getCacheNumBytesCapacity(),
-        (int)configurator.getCacheNumItemsCapacity());
+        (int)configurator.getCacheNumItemsCapacity(),
+        memoryMapped,
+        configurator.getCacheConcurrencyLevel(),
+        configurator.getBlockCacheNumBytesCapacity(),
+        binarySearchBlocks);
   }
 
   private CueballCompressionCodec getCompressionCodec() throws IOException {
@@ -204,7 +310,7 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
     IncrementalDomainVersionProperties domainVersionProperties = getDomainVersionProperties(domainVersion);
     return new CueballWriter(partitionRemoteFileOps.getOutputStream(getName(domainVersion.getVersionNumber(),
         domainVersionProperties.isBase())),
-        keyHashSize, hasher, valueSize, getCompressionCodec(), hashIndexBits
+        keyHashSize, hasher, valueSize, getCompressionCodec(), hashIndexBits, keyHashFilterBitsPerKey
     );
   }
 
@@ -257,7 +363,8 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
         new IdentityHasher(),
         valueSize,
         getCompressionCodec(),
-        hashIndexBits
+        hashIndexBits,
+        keyHashFilterBitsPerKey
     );
   }
 
@@ -380,6 +487,9 @@ public class Cueball extends IncrementalStorageEngine implements StorageEngine {
         + ", remoteDomainRoot=" + remoteDomainRoot
         + ", valueSize=" + valueSize
         + ", numRemoteLeafVersionsToKeep=" + numRemoteLeafVersionsToKeep
+        + ", memoryMapped=" + memoryMapped
+        + ", binarySearchBlocks=" + binarySearchBlocks
+        + ", keyHashFilterBitsPerKey=" + keyHashFilterBitsPerKey
         + "]";
   }
 }
@@ -17,6 +17,7 @@ package com.liveramp.hank.storage.cueball;
 
 import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
 
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -46,9 +47,11 @@ public final class CueballMerger implements ICueballMerger {
     // Output stream for the new base to be written. intentionally unbuffered, the writer below will do that on its own.
     OutputStream newCueballBaseOutputStream = new FileOutputStream(newBasePath);
 
-    // Note that we intentionally omit the hasher here, since it will *not* be used
+    // Note that we intentionally omit the hasher here, since it will *not* be used.
+    // The new base keeps the key hash filters of the base, if it has any.
     CueballWriter newCueballBaseWriter =
-        new CueballWriter(newCueballBaseOutputStream, keyHashSize, null, valueSize, compressionCodec, hashIndexBits);
+        new CueballWriter(newCueballBaseOutputStream, keyHashSize, null, valueSize, compressionCodec, hashIndexBits,
+            getKeyHashFilterBitsPerKey(base, hashIndexBits));
 
     while (true) {
       KeyHashAndValueAndStreamIndex keyValuePair = cueballStreamBufferMergeSort.nextKeyHashAndValueAndStreamIndex();
@@ -64,4 +67,13 @@ public final class CueballMerger implements ICueballMerger {
     cueballStreamBufferMergeSort.close();
     newCueballBaseWriter.close();
   }
+
+  private static int getKeyHashFilterBitsPerKey(CueballFilePath base, int hashIndexBits) throws IOException {
+    FileInputStream inputStream = new FileInputStream(base.getPath());
+    try {
+      return new Footer(inputStream.getChannel(), hashIndexBits).getKeyHashFilterBitsPerKey();
+    } finally {
+      inputStream.close();
+    }
+  }
 }
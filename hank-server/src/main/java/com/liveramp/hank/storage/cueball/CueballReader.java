@@ -20,24 +20,39 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.liveramp.commons.util.ByteBufferMemoryUsageEstimator;
 import com.liveramp.commons.util.BytesUtils;
 import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
 import com.liveramp.hank.hasher.Hasher;
+import com.liveramp.hank.storage.BlockLocalityReader;
 import com.liveramp.hank.storage.CacheStatistics;
-import com.liveramp.hank.storage.Reader;
+import com.liveramp.hank.storage.DecompressedBlockCache;
 import com.liveramp.hank.storage.ReaderResult;
-import com.liveramp.hank.util.SynchronizedMemoryBoundCache;
+import com.liveramp.hank.util.StripedMemoryBoundCache;
 
-public class CueballReader implements Reader {
+public class CueballReader implements BlockLocalityReader {
 
   private static final KeyHashBufferThreadLocal keyHashBufferThreadLocal = new KeyHashBufferThreadLocal();
+  // Each thread remembers the last block it decompressed, so that consecutive lookups in the same block
+  // (for example keys of a GET BULK sorted by block offset) only read and decompress it once
+  private static final ThreadLocal<DecompressedBlock> lastDecompressedBlockThreadLocal = new ThreadLocal<DecompressedBlock>() {
+    @Override
+    protected DecompressedBlock initialValue() {
+      return new DecompressedBlock();
+    }
+  };
+  // Identifies readers in decompressed blocks without referencing them
+  private static final AtomicLong readerIdCounter = new AtomicLong();
   private static final ByteBuffer NOT_FOUND_MARKER = ByteBuffer.wrap(new byte[]{});
 
   private final Hasher hasher;
   private final int valueSize;
   private final long[] hashIndex;
+  // Exact length of the block of each hash prefix, so that codecs are never given the bytes that follow
+  private final int[] blockLengths;
   private final FileChannel channel;
   private final int keyHashSize;
   private final int fullRecordSize;
@@ -46,7 +61,16 @@ public class CueballReader implements Reader {
   private int maxCompressedBufferSize;
   private final HashPrefixCalculator prefixer;
   private final int versionNumber;
-  private SynchronizedMemoryBoundCache<ByteBuffer, ByteBuffer> cache;
+  private StripedMemoryBoundCache<ByteBuffer, ByteBuffer> cache;
+  private final DecompressedBlockCache blockCache;
+  // Only set when reading through a memory mapping of the data region
+  private MappedDataRegion mappedDataRegion;
+  private final boolean isUncompressed;
+  // Records of a block are sorted by key hash, so they can be binary searched instead of scanned
+  private final boolean binarySearchBlocks;
+  // Null when the file does not have key hash filters
+  private final KeyHashFilter keyHashFilter;
+  private final long readerId = readerIdCounter.incrementAndGet();
 
   public CueballReader(String partitionRoot,
                        int keyHashSize,
@@ -56,6 +80,25 @@ public class CueballReader implements Reader {
                        CueballCompressionCodec compressionCodec,
                        long cacheNumBytesCapacity,
                        int cacheNumItemsCapacity) throws IOException {
+    this(partitionRoot, keyHashSize, hasher, valueSize, hashIndexBits, compressionCodec,
+        cacheNumBytesCapacity, cacheNumItemsCapacity, false, 1, 0, false);
+  }
+
+  // Reads through a memory mapping of the data region if memoryMapped is set. Caches are split in
+  // cacheConcurrencyLevel stripes. A non positive blockCacheNumBytesCapacity disables the cache of
+  // decompressed blocks. Records of a block are binary searched if binarySearchBlocks is set.
+  public CueballReader(String partitionRoot,
+                       int keyHashSize,
+                       Hasher hasher,
+                       int valueSize,
+                       int hashIndexBits,
+                       CueballCompressionCodec compressionCodec,
+                       long cacheNumBytesCapacity,
+                       int cacheNumItemsCapacity,
+                       boolean memoryMapped,
+                       int cacheConcurrencyLevel,
+                       long blockCacheNumBytesCapacity,
+                       boolean binarySearchBlocks) throws IOException {
     SortedSet<CueballFilePath> bases = Cueball.getBases(partitionRoot);
     if (bases == null || bases.size() == 0) {
       throw new IOException("Could not detect any Cueball base in " + partitionRoot);
@@ -65,28 +108,38 @@ public class CueballReader implements Reader {
     this.hasher = hasher;
     this.valueSize = valueSize;
     this.compressionCodec = compressionCodec;
+    this.isUncompressed = compressionCodec instanceof NoCueballCompressionCodec;
     this.fullRecordSize = valueSize + keyHashSize;
     this.prefixer = new HashPrefixCalculator(hashIndexBits);
     this.versionNumber = latestBase.getVersion();
+    this.binarySearchBlocks = binarySearchBlocks;
 
     channel = new FileInputStream(latestBase.getPath()).getChannel();
     Footer footer = new Footer(channel, hashIndexBits);
     hashIndex = footer.getHashIndex();
     maxUncompressedBufferSize = footer.getMaxUncompressedBufferSize();
     maxCompressedBufferSize = footer.getMaxCompressedBufferSize();
-    cache = new SynchronizedMemoryBoundCache<ByteBuffer, ByteBuffer>(
+    blockLengths = getBlockLengths(hashIndex, footer.getDataLength());
+    keyHashFilter = KeyHashFilter.read(channel, footer);
+    if (memoryMapped && footer.getDataLength() > 0) {
+      mappedDataRegion = new MappedDataRegion(channel, footer.getDataLength(), maxCompressedBufferSize);
+    }
+    cache = new StripedMemoryBoundCache<ByteBuffer, ByteBuffer>(
         cacheNumBytesCapacity > 0 || cacheNumItemsCapacity > 0,
         cacheNumBytesCapacity,
         cacheNumItemsCapacity,
+        cacheConcurrencyLevel,
         new ByteBufferMemoryUsageEstimator(),
         new ByteBufferMemoryUsageEstimator());
+    // Uncompressed blocks are not worth caching
+    blockCache = new DecompressedBlockCache(isUncompressed ? 0 : blockCacheNumBytesCapacity, cacheConcurrencyLevel);
   }
 
   @Override
   public void get(ByteBuffer key, ReaderResult result) throws IOException {
-    // Note: keyHash buffer might be larger than keyHashSize
-    byte[] keyHash = computeKeyHash(key);
-    ByteBuffer keyHashByteBuffer = ByteBuffer.wrap(keyHash);
+    // Note: keyHash array might be larger than keyHashSize, but keyHashByteBuffer is limited to keyHashSize
+    ByteBuffer keyHashByteBuffer = computeKeyHash(key);
+    byte[] keyHash = keyHashByteBuffer.array();
 
     int hashPrefix = prefixer.getHashPrefix(keyHash, 0);
     long baseOffset = hashIndex[hashPrefix];
@@ -96,117 +149,324 @@ public class CueballReader implements Reader {
 
     // baseOffset of -1 means that our hashPrefix doesn't map to any blocks
     if (baseOffset >= 0) {
+      // Keys that are definitely not in their block need neither I/O nor a cache entry
+      if (keyHashFilter != null && !keyHashFilter.mightContain(hashPrefix, keyHash, keyHashSize)) {
+        return;
+      }
       // Attempt to load value from the cache
       if (loadValueFromCache(keyHashByteBuffer, result)) {
         return;
       }
-      // We will read the compressed buffer and decompress it in the same buffer.
-      result.requiresBufferSize(maxCompressedBufferSize + maxUncompressedBufferSize);
-      // set up to read a chunk from the datafile
+      if (mappedDataRegion != null) {
+        getFromMappedDataRegion(keyHashByteBuffer, baseOffset, blockLengths[hashPrefix], result);
+      } else {
+        getFromChannel(keyHashByteBuffer, baseOffset, blockLengths[hashPrefix], result);
+      }
+    }
+  }
+
+  private void getFromChannel(ByteBuffer keyHashByteBuffer,
+                              long baseOffset,
+                              int blockLength,
+                              ReaderResult result) throws IOException {
+    if (getFromDecompressedBlock(keyHashByteBuffer, baseOffset, result)) {
+      return;
+    }
+    // Read the compressed block in the result buffer and decompress it in the thread's block
+    result.requiresBufferSize(blockLength);
+    ByteBuffer buffer = result.getBuffer();
+    buffer.rewind();
+    buffer.limit(blockLength);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, baseOffset + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file while reading block of " + blockLength
+            + " bytes at offset " + baseOffset);
+      }
+    }
+    DecompressedBlock block = lastDecompressedBlockThreadLocal.get();
+    block.decompress(readerId, baseOffset, compressionCodec, buffer.array(), blockLength,
+        getMaxDecompressedBlockSize());
+    blockCache.put(baseOffset, block.getBuffer());
+    getFromBlock(block.getBuffer(), 0, block.length, keyHashByteBuffer, result);
+  }
+
+  private void getFromMappedDataRegion(ByteBuffer keyHashByteBuffer,
+                                       long baseOffset,
+                                       int blockLength,
+                                       ReaderResult result) {
+    ByteBuffer segment = mappedDataRegion.getSegment(baseOffset);
+    int blockStart = mappedDataRegion.getOffsetInSegment(baseOffset);
+    if (isUncompressed) {
+      // Uncompressed blocks are searched directly in the mapping, only the value is copied out
+      getFromBlock(segment, blockStart, blockLength, keyHashByteBuffer, result);
+    } else {
+      if (getFromDecompressedBlock(keyHashByteBuffer, baseOffset, result)) {
+        return;
+      }
+      // Copy the compressed block out of the mapping (no system call) and decompress it as usual
+      result.requiresBufferSize(blockLength);
       ByteBuffer buffer = result.getBuffer();
-      buffer.rewind();
-      buffer.limit(maxCompressedBufferSize);
-      int bytesRead = channel.read(buffer, baseOffset);
-
-      // decompress from the beginning of the buffer into the unoccupied end of
-      // the buffer
-      final int uncompressedStart = bytesRead;
-      int decompressedLength = compressionCodec.decompress(buffer.array(),
-          0,
-          bytesRead, buffer.array(),
-          uncompressedStart);
-
-      // scan the chunk we read to find a matching key, if there is one,
-      // returning the recordfile offset
-      int bufferOffset = getValueOffset(buffer.array(),
-          uncompressedStart,
-          uncompressedStart + decompressedLength,
-          keyHash);
-
-      // -1 means that we didn't find the key
-      if (bufferOffset > -1) {
-        result.found();
-        buffer.limit(bufferOffset + valueSize);
-        buffer.position(bufferOffset);
-        addValueToCache(keyHashByteBuffer, buffer);
+      buffer.clear();
+      ByteBuffer mappedBlock = segment.duplicate();
+      mappedBlock.limit(blockStart + blockLength);
+      mappedBlock.position(blockStart);
+      buffer.put(mappedBlock);
+      DecompressedBlock block = lastDecompressedBlockThreadLocal.get();
+      block.decompress(readerId, baseOffset, compressionCodec, buffer.array(), blockLength,
+          getMaxDecompressedBlockSize());
+      blockCache.put(baseOffset, block.getBuffer());
+      getFromBlock(block.getBuffer(), 0, block.length, keyHashByteBuffer, result);
+    }
+  }
+
+  // Look up the key in the block at the given offset if it is already decompressed, either as the last block
+  // decompressed by this thread or in the block cache. Return false if the block needs to be read.
+  private boolean getFromDecompressedBlock(ByteBuffer keyHashByteBuffer,
+                                           long baseOffset,
+                                           ReaderResult result) {
+    DecompressedBlock block = lastDecompressedBlockThreadLocal.get();
+    if (block.is(readerId, baseOffset)) {
+      if (blockCache.isEnabled()) {
+        result.incrementNumBlockCacheHits();
+      }
+      getFromBlock(block.getBuffer(), 0, block.length, keyHashByteBuffer, result);
+      return true;
+    }
+    ByteBuffer cachedBlock = blockCache.get(baseOffset);
+    if (cachedBlock != null) {
+      result.incrementNumBlockCacheHits();
+      getFromBlock(cachedBlock, 0, cachedBlock.remaining(), keyHashByteBuffer, result);
+      return true;
+    }
+    if (blockCache.isEnabled()) {
+      result.incrementNumBlockCacheMisses();
+    }
+    return false;
+  }
+
+  // The block is only accessed with absolute reads, since it might be shared across threads
+  private void getFromBlock(ByteBuffer block,
+                            int blockOffset,
+                            int blockLength,
+                            ByteBuffer keyHashByteBuffer,
+                            ReaderResult result) {
+    // search the block to find a matching key, if there is one,
+    // returning the offset of its value
+    int valueOffset = getValueOffset(block, blockOffset, blockOffset + blockLength, keyHashByteBuffer);
+
+    // -1 means that we didn't find the key
+    if (valueOffset > -1) {
+      // Copy the value out, since the block will be reused
+      result.requiresBufferSize(valueSize);
+      ByteBuffer buffer = result.getBuffer();
+      buffer.clear();
+      if (block.hasArray()) {
+        System.arraycopy(block.array(), block.arrayOffset() + valueOffset, buffer.array(), buffer.arrayOffset(), valueSize);
       } else {
-        // key not found
-        addNotFoundToCache(keyHashByteBuffer);
+        // Bulk copy through a duplicate, the block itself is shared and must not be moved
+        ByteBuffer value = block.duplicate();
+        value.limit(valueOffset + valueSize);
+        value.position(valueOffset);
+        value.get(buffer.array(), buffer.arrayOffset(), valueSize);
+      }
+      buffer.limit(valueSize);
+      result.found();
+      addValueToCache(keyHashByteBuffer, buffer);
+    } else {
+      // key not found
+      addNotFoundToCache(keyHashByteBuffer);
+    }
+  }
+
+  // Large enough for any block, compressed or not
+  private int getMaxDecompressedBlockSize() {
+    return Math.max(maxUncompressedBufferSize, maxCompressedBufferSize);
+  }
+
+  // Blocks are written in hash prefix order, so a block ends where the next non empty one starts,
+  // or at the end of the data region for the last one
+  private static int[] getBlockLengths(long[] hashIndex, long dataLength) throws IOException {
+    int[] result = new int[hashIndex.length];
+    long blockEnd = dataLength;
+    for (int i = hashIndex.length - 1; i >= 0; --i) {
+      if (hashIndex[i] >= 0) {
+        if (hashIndex[i] > blockEnd) {
+          throw new IOException(String.format("Block %d starts at offset %d, past the end of the data at offset %d",
+              i, hashIndex[i], blockEnd));
+        }
+        result[i] = (int)(blockEnd - hashIndex[i]);
+        blockEnd = hashIndex[i];
       }
     }
+    return result;
+  }
+
+  @Override
+  public long getBlockOffset(ByteBuffer key) {
+    byte[] keyHash = computeKeyHash(key).array();
+    return hashIndex[prefixer.getHashPrefix(keyHash, 0)];
   }
 
   public Integer getVersionNumber() {
     return versionNumber;
   }
 
+  // Includes the decompressed block cache
   @Override
   public CacheStatistics getCacheStatistics() {
-    return new CacheStatistics(
+    CacheStatistics result = new CacheStatistics(
         cache.size(),
         cache.getMaxNumItems(),
         cache.getNumManagedBytes(),
         cache.getMaxNumManagedBytes());
+    result.add(blockCache.getCacheStatistics());
+    return result;
   }
 
   @Override
   public void close() throws IOException {
     channel.close();
     cache = null;
+    // Mapped segments are unmapped when garbage collected
+    mappedDataRegion = null;
   }
 
-  private int getValueOffset(byte[] keyfileBufferChunk, int off, int limit, byte[] key) {
-    for (; off < limit; off += fullRecordSize) {
-      int comparison = BytesUtils.compareBytesUnsigned(keyfileBufferChunk, off,
-          key, 0, keyHashSize);
-      // found match
-      if (comparison == 0) {
-        return off + keyHashSize;
+  // Return the offset of the value of the given key hash in the block between off and limit, or -1 if it is not there.
+  // Only whole records are considered.
+  private int getValueOffset(ByteBuffer block, int off, int limit, ByteBuffer keyHash) {
+    int numRecords = (limit - off) / fullRecordSize;
+    if (binarySearchBlocks) {
+      int low = 0;
+      int high = numRecords - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int recordOffset = off + middle * fullRecordSize;
+        int comparison = compareKeyHash(block, recordOffset, keyHash);
+        if (comparison < 0) {
+          low = middle + 1;
+        } else if (comparison > 0) {
+          high = middle - 1;
+        } else {
+          return recordOffset + keyHashSize;
+        }
       }
-
-      // passed the spot where our key could have been found, so not going to
-      // find it
-      if (comparison == 1) {
-        break;
+    } else {
+      for (int i = 0; i < numRecords; ++i, off += fullRecordSize) {
+        int comparison = compareKeyHash(block, off, keyHash);
+        // found match
+        if (comparison == 0) {
+          return off + keyHashSize;
+        }
+        // passed the spot where our key could have been found, so not going to find it
+        if (comparison > 0) {
+          break;
+        }
       }
     }
     // looked everywhere, didn't find it!
     return -1;
   }
 
-  private static class KeyHashBufferThreadLocal extends ThreadLocal<byte[]> {
+  // Unsigned comparison of the key hash at the given offset of the block with the given key hash,
+  // 8 bytes at a time (buffers are big-endian, so comparing longs compares bytes in order)
+  private int compareKeyHash(ByteBuffer block, int off, ByteBuffer keyHash) {
+    int i = 0;
+    for (; i + 8 <= keyHashSize; i += 8) {
+      long a = block.getLong(off + i);
+      long b = keyHash.getLong(i);
+      if (a != b) {
+        return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE) ? -1 : 1;
+      }
+    }
+    for (; i < keyHashSize; ++i) {
+      int a = block.get(off + i) & 0xff;
+      int b = keyHash.get(i) & 0xff;
+      if (a != b) {
+        return a < b ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  private static class DecompressedBlock {
+
+    private long readerId = -1;
+    private long offset = -1;
+    private byte[] data = new byte[0];
+    // Wraps data, so that lookups do not allocate
+    private ByteBuffer buffer = ByteBuffer.wrap(data);
+    private int length;
+
+    private boolean is(long readerId, long offset) {
+      return this.readerId == readerId && this.offset == offset;
+    }
+
+    private void decompress(long readerId,
+                            long offset,
+                            CueballCompressionCodec compressionCodec,
+                            byte[] compressed,
+                            int compressedLength,
+                            int maxUncompressedLength) {
+      // Invalidate first, in case decompression fails
+      this.readerId = -1;
+      if (data.length < maxUncompressedLength) {
+        data = new byte[maxUncompressedLength];
+        buffer = ByteBuffer.wrap(data);
+      }
+      length = compressionCodec.decompress(compressed, 0, compressedLength, data, 0);
+      this.readerId = readerId;
+      this.offset = offset;
+    }
+
+    // Absolute reads only
+    private ByteBuffer getBuffer() {
+      buffer.limit(length);
+      return buffer;
+    }
+  }
+
+  // Wraps a byte array, so that both can be reused without allocating
+  private static class KeyHashBufferThreadLocal extends ThreadLocal<ByteBuffer> {
 
     private static int KEY_HASH_BUFFER_INITIAL_SIZE = 8;
 
     @Override
-    protected byte[] initialValue() {
-      return new byte[KEY_HASH_BUFFER_INITIAL_SIZE];
+    protected ByteBuffer initialValue() {
+      return ByteBuffer.wrap(new byte[KEY_HASH_BUFFER_INITIAL_SIZE]);
     }
 
-    protected byte[] getAndRequireBufferSize(int size) {
-      byte[] buffer = this.get();
-      if (buffer.length < size) {
-        buffer = new byte[size];
+    // Return a buffer with position 0 and limit size
+    protected ByteBuffer getAndRequireBufferSize(int size) {
+      ByteBuffer buffer = this.get();
+      if (buffer.capacity() < size) {
+        buffer = ByteBuffer.wrap(new byte[size]);
         this.set(buffer);
       }
+      buffer.clear();
+      buffer.limit(size);
       return buffer;
     }
   }
 
-  // Note: result buffer might be larger than keyHashSize
-  private byte[] computeKeyHash(ByteBuffer key) {
+  // Note: result backing array might be larger than keyHashSize
+  private ByteBuffer computeKeyHash(ByteBuffer key) {
     // Reuse a thread local buffer, but first make sure it is at least of the required size
-    byte[] keyHash = keyHashBufferThreadLocal.getAndRequireBufferSize(keyHashSize);
-    hasher.hash(key, keyHashSize, keyHash);
+    ByteBuffer keyHash = keyHashBufferThreadLocal.getAndRequireBufferSize(keyHashSize);
+    hasher.hash(key, keyHashSize, keyHash.array());
     return keyHash;
   }
 
+  // Deep copies are only made when the cache is enabled
   private void addValueToCache(ByteBuffer keyHash, ByteBuffer value) {
-    cache.put(BytesUtils.byteBufferDeepCopy(keyHash), BytesUtils.byteBufferDeepCopy(value));
+    if (cache.isEnabled()) {
+      cache.put(BytesUtils.byteBufferDeepCopy(keyHash), BytesUtils.byteBufferDeepCopy(value));
+    }
   }
 
   private void addNotFoundToCache(ByteBuffer keyHash) {
-    cache.put(BytesUtils.byteBufferDeepCopy(keyHash), NOT_FOUND_MARKER);
+    if (cache.isEnabled()) {
+      cache.put(BytesUtils.byteBufferDeepCopy(keyHash), NOT_FOUND_MARKER);
+    }
   }
 
   // Return true if managed to read the corresponding value from the cache and into result
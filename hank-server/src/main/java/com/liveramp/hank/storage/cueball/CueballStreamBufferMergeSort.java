@@ -28,6 +28,11 @@ public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSo
   private final int keyHashSize;
   private final int valueSize;
   private final ValueTransformer transformer;
+  // Binary min heap of the indices of the streams that have records remaining, lazily initialized
+  private int[] heap = null;
+  private int heapSize = 0;
+  // Index of the stream whose record was returned last, it is advanced on the next call
+  private int lastStreamIndex = -1;
 
   public static class Factory implements ICueballStreamBufferMergeSortFactory {
     private final int keyHashSize;
@@ -94,37 +99,33 @@ public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSo
   @Override
   public KeyHashAndValueAndStreamIndex nextKeyHashAndValueAndStreamIndex() throws IOException {
 
-    // Find the stream buffer with the next smallest key hash
-    CueballStreamBuffer cueballStreamBufferToUse = null;
-    int cueballStreamBufferToUseIndex = -1;
-
-    for (int i = 0; i < cueballStreamBuffers.length; i++) {
-      if (cueballStreamBuffers[i].anyRemaining()) {
-        if (cueballStreamBufferToUse == null) {
-          cueballStreamBufferToUse = cueballStreamBuffers[i];
-          cueballStreamBufferToUseIndex = i;
-        } else {
-          int comparison = cueballStreamBufferToUse.compareTo(cueballStreamBuffers[i]);
-          if (comparison == 0) {
-            // If two equal key hashes are found, use the most recent value (i.e. the one from the lastest delta)
-            // and skip (consume) the older ones
-            cueballStreamBufferToUse.consume();
-            cueballStreamBufferToUse = cueballStreamBuffers[i];
-            cueballStreamBufferToUseIndex = i;
-          } else if (comparison == 1) {
-            // Found a stream buffer with a smaller key hash
-            cueballStreamBufferToUse = cueballStreamBuffers[i];
-            cueballStreamBufferToUseIndex = i;
-          }
-        }
+    if (heap == null) {
+      initializeHeap();
+    } else if (lastStreamIndex >= 0) {
+      // The record returned last time has been used, advance its stream now
+      if (cueballStreamBuffers[lastStreamIndex].anyRemaining()) {
+        push(lastStreamIndex);
       }
+      lastStreamIndex = -1;
     }
 
-    if (cueballStreamBufferToUse == null) {
+    if (heapSize == 0) {
       // Nothing more to read
       return null;
     }
 
+    // Streams with equal key hashes are ordered from most to least recent, so the top of the heap
+    // holds the most recent value (i.e. the one from the lastest delta). Skip (consume) the older ones.
+    final int cueballStreamBufferToUseIndex = pop();
+    final CueballStreamBuffer cueballStreamBufferToUse = cueballStreamBuffers[cueballStreamBufferToUseIndex];
+    while (heapSize > 0 && cueballStreamBufferToUse.compareTo(cueballStreamBuffers[heap[0]]) == 0) {
+      int olderStreamIndex = pop();
+      cueballStreamBuffers[olderStreamIndex].consume();
+      if (cueballStreamBuffers[olderStreamIndex].anyRemaining()) {
+        push(olderStreamIndex);
+      }
+    }
+
     // Transform if necessary
     if (transformer != null) {
       transformer.transform(cueballStreamBufferToUse.getBuffer(),
@@ -139,10 +140,66 @@ public class CueballStreamBufferMergeSort implements IKeyFileStreamBufferMergeSo
         cueballStreamBufferToUse.getCurrentOffset() + keyHashSize, valueSize);
 
     cueballStreamBufferToUse.consume();
+    // Do not advance the stream yet, since that could overwrite the returned key hash and value
+    lastStreamIndex = cueballStreamBufferToUseIndex;
 
     return new KeyHashAndValueAndStreamIndex(keyHash, valueBytes, cueballStreamBufferToUseIndex);
   }
 
+  private void initializeHeap() throws IOException {
+    heap = new int[cueballStreamBuffers.length];
+    heapSize = 0;
+    for (int i = 0; i < cueballStreamBuffers.length; ++i) {
+      if (cueballStreamBuffers[i].anyRemaining()) {
+        push(i);
+      }
+    }
+  }
+
+  // Order streams by current key hash, and then from most to least recent
+  private boolean isBefore(int streamIndexA, int streamIndexB) {
+    int comparison = cueballStreamBuffers[streamIndexA].compareTo(cueballStreamBuffers[streamIndexB]);
+    if (comparison != 0) {
+      return comparison < 0;
+    }
+    return streamIndexA > streamIndexB;
+  }
+
+  private void push(int streamIndex) {
+    int position = heapSize++;
+    while (position > 0) {
+      int parent = (position - 1) >> 1;
+      if (!isBefore(streamIndex, heap[parent])) {
+        break;
+      }
+      heap[position] = heap[parent];
+      position = parent;
+    }
+    heap[position] = streamIndex;
+  }
+
+  private int pop() {
+    int result = heap[0];
+    int streamIndex = heap[--heapSize];
+    int position = 0;
+    while (true) {
+      int child = (position << 1) + 1;
+      if (child >= heapSize) {
+        break;
+      }
+      if (child + 1 < heapSize && isBefore(heap[child + 1], heap[child])) {
+        ++child;
+      }
+      if (!isBefore(heap[child], streamIndex)) {
+        break;
+      }
+      heap[position] = heap[child];
+      position = child;
+    }
+    heap[position] = streamIndex;
+    return result;
+  }
+
   @Override
   public void close() throws IOException {
     // Close all buffers
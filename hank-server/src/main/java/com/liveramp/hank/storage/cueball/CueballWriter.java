@@ -49,6 +49,8 @@ public class CueballWriter implements Writer {
   private final long[] hashIndex;
 
   private final HashPrefixCalculator prefixer;
+  // Null when key hash filters are disabled
+  private final KeyHashFilter.Builder keyHashFilterBuilder;
   private int lastHashPrefix = -1;
   private int uncompressedOffset = 0;
   private int numEntriesInBlock = 0;
@@ -64,6 +66,17 @@ public class CueballWriter implements Writer {
                        int valueSize,
                        CueballCompressionCodec compressionCodec,
                        int hashIndexBits) {
+    this(outputStream, keyHashSize, hasher, valueSize, compressionCodec, hashIndexBits, 0);
+  }
+
+  // A positive number of bits per key enables key hash filters, which make lookups of missing keys cheaper
+  public CueballWriter(OutputStream outputStream,
+                       int keyHashSize,
+                       Hasher hasher,
+                       int valueSize,
+                       CueballCompressionCodec compressionCodec,
+                       int hashIndexBits,
+                       int keyHashFilterBitsPerKey) {
     // Buffer output
     this.stream = new BufferedOutputStream(outputStream, IOStreamUtils.DEFAULT_BUFFER_SIZE);
     this.keyHashSize = keyHashSize;
@@ -82,6 +95,12 @@ public class CueballWriter implements Writer {
 
     hashIndex = new long[1 << hashIndexBits];
     Arrays.fill(hashIndex, -1);
+
+    if (keyHashFilterBitsPerKey > 0) {
+      keyHashFilterBuilder = new KeyHashFilter.Builder(keyHashFilterBitsPerKey, hashIndexBits);
+    } else {
+      keyHashFilterBuilder = null;
+    }
   }
 
   @Override
@@ -194,6 +213,10 @@ public class CueballWriter implements Writer {
     if (compressedSize > maxCompressedBlockSize) {
       maxCompressedBlockSize = compressedSize;
     }
+
+    if (keyHashFilterBuilder != null && numEntriesInBlock > 0) {
+      keyHashFilterBuilder.addBlock(lastHashPrefix, uncompressedBuffer, numEntriesInBlock, keyHashSize + valueSize, keyHashSize);
+    }
     // Reset offset and counter
     uncompressedOffset = 0;
     numEntriesInBlock = 0;
@@ -206,6 +229,11 @@ public class CueballWriter implements Writer {
       clearUncompressed();
     }
 
+    // write the key hash filters, right before the footer
+    if (keyHashFilterBuilder != null) {
+      numBytesWritten += keyHashFilterBuilder.write(stream);
+    }
+
     // serialize the footer
     byte[] footer = new byte[8 * hashIndex.length + 4 + 4];
 
@@ -12,6 +12,9 @@ final class Footer {
   private final int maxCompressedBufferSize;
   private final long fileSize;
   private final int footerLength;
+  // Key hash filters are optional and located between the data region and the footer
+  private final long keyHashFilterLength;
+  private final int keyHashFilterBitsPerKey;
 
   public Footer(FileChannel channel, int hashIndexBits) throws IOException {
     fileSize = channel.size();
@@ -45,6 +48,22 @@ final class Footer {
     if (maxCompressedBufferSize < 0) {
       throw new IOException(String.format("Read an invalid max uncompressed buffer size of %d!", maxCompressedBufferSize));
     }
+
+    long keyHashFilterTrailerOffset = getFileSize() - getFooterLength() - KeyHashFilter.TRAILER_LENGTH;
+    byte[] keyHashFilterTrailer = new byte[KeyHashFilter.TRAILER_LENGTH];
+    if (keyHashFilterTrailerOffset >= 0
+        && channel.read(ByteBuffer.wrap(keyHashFilterTrailer), keyHashFilterTrailerOffset) == keyHashFilterTrailer.length
+        && EncodingHelper.decodeLittleEndianFixedWidthLong(keyHashFilterTrailer, 12, 8) == KeyHashFilter.MAGIC) {
+      keyHashFilterBitsPerKey = (int) EncodingHelper.decodeLittleEndianFixedWidthLong(keyHashFilterTrailer, 0, 4);
+      keyHashFilterLength = EncodingHelper.decodeLittleEndianFixedWidthLong(keyHashFilterTrailer, 4, 8);
+      if (keyHashFilterBitsPerKey <= 0 || keyHashFilterLength < KeyHashFilter.TRAILER_LENGTH
+          || keyHashFilterLength > getFileSize() - getFooterLength()) {
+        throw new IOException(String.format("Read an invalid key hash filter of length %d with %d bits per key!", keyHashFilterLength, keyHashFilterBitsPerKey));
+      }
+    } else {
+      keyHashFilterBitsPerKey = 0;
+      keyHashFilterLength = 0;
+    }
   }
 
   public long[] getHashIndex() {
@@ -68,6 +87,15 @@ final class Footer {
   }
   
   public long getDataLength() {
-    return getFileSize() - getFooterLength();
+    return getFileSize() - getFooterLength() - getKeyHashFilterLength();
+  }
+
+  // 0 when the file does not have key hash filters
+  public long getKeyHashFilterLength() {
+    return keyHashFilterLength;
+  }
+
+  public int getKeyHashFilterBitsPerKey() {
+    return keyHashFilterBitsPerKey;
   }
 }
@@ -0,0 +1,198 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package com.liveramp.hank.storage.cueball;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import com.liveramp.hank.util.EncodingHelper;
+
+/**
+ * Bloom filters of the key hashes of a Cueball file, one per block (that is, per hash prefix), so that
+ * lookups of keys that are not in the file can be answered without reading their block.
+ * <p/>
+ * Filters are optionally written between the data region and the footer, as:
+ * [number of filter words of each hash prefix (4 bytes each)][filter words (8 bytes each)]
+ * [bits per key (4 bytes)][length of the whole section (8 bytes)][magic (8 bytes)], all little endian.
+ * The magic is what lets a Footer tell the filters apart from the data region.
+ */
+final class KeyHashFilter {
+
+  static final long MAGIC = 0x52544c4946484b43L;
+  static final int TRAILER_LENGTH = 4 + 8 + 8;
+  private static final int MAX_NUM_PROBES = 16;
+
+  private final int[] blockWordOffsets;
+  private final long[] words;
+  private final int numProbes;
+
+  private KeyHashFilter(int[] blockWordOffsets, long[] words, int bitsPerKey) {
+    this.blockWordOffsets = blockWordOffsets;
+    this.words = words;
+    this.numProbes = getNumProbes(bitsPerKey);
+  }
+
+  // Load the filters of the file described by the given footer, or return null if it does not have any
+  public static KeyHashFilter read(FileChannel channel, Footer footer) throws IOException {
+    if (footer.getKeyHashFilterLength() == 0) {
+      return null;
+    }
+    int hashIndexSize = footer.getHashIndex().length;
+    long length = footer.getKeyHashFilterLength() - TRAILER_LENGTH;
+    if (length < 4L * hashIndexSize || length > Integer.MAX_VALUE) {
+      throw new IOException("Invalid key hash filter length: " + length);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int)length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, footer.getDataLength() + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file while reading key hash filter");
+      }
+    }
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    int[] blockWordOffsets = new int[hashIndexSize + 1];
+    for (int i = 0; i < hashIndexSize; ++i) {
+      int numBlockWords = buffer.getInt(i * 4);
+      if (numBlockWords < 0) {
+        throw new IOException(String.format("Read an invalid number of key hash filter words (%d) at block position %d!", numBlockWords, i));
+      }
+      blockWordOffsets[i + 1] = blockWordOffsets[i] + numBlockWords;
+    }
+    long[] words = new long[blockWordOffsets[hashIndexSize]];
+    if (4L * hashIndexSize + 8L * words.length != length) {
+      throw new IOException("Key hash filter length " + length + " does not match its " + words.length + " words");
+    }
+    for (int i = 0; i < words.length; ++i) {
+      words[i] = buffer.getLong(4 * hashIndexSize + 8 * i);
+    }
+    return new KeyHashFilter(blockWordOffsets, words, footer.getKeyHashFilterBitsPerKey());
+  }
+
+  // Return false if the given key hash is definitely not in the block of the given hash prefix
+  public boolean mightContain(int hashPrefix, byte[] keyHash, int keyHashSize) {
+    int start = blockWordOffsets[hashPrefix];
+    int numWords = blockWordOffsets[hashPrefix + 1] - start;
+    if (numWords == 0) {
+      return true;
+    }
+    long hash = hash(keyHash, 0, keyHashSize);
+    return mightContain(words, start, numWords, hash, numProbes);
+  }
+
+  private static boolean mightContain(long[] words, int start, int numWords, long hash, int numProbes) {
+    long numBits = numWords * 64L;
+    int h1 = (int)hash;
+    int h2 = (int)(hash >>> 32);
+    for (int i = 0; i < numProbes; ++i) {
+      // Maps the probe to [0, numBits) without a division
+      long bit = (((h1 + i * h2) & 0xffffffffL) * numBits) >>> 32;
+      if ((words[start + (int)(bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void add(long[] words, int start, int numWords, long hash, int numProbes) {
+    long numBits = numWords * 64L;
+    int h1 = (int)hash;
+    int h2 = (int)(hash >>> 32);
+    for (int i = 0; i < numProbes; ++i) {
+      long bit = (((h1 + i * h2) & 0xffffffffL) * numBits) >>> 32;
+      words[start + (int)(bit >>> 6)] |= 1L << bit;
+    }
+  }
+
+  // Key hashes are already uniformly distributed, but all bytes are mixed in since the first bits
+  // (the hash prefix) are the same for all keys of a block
+  private static long hash(byte[] keyHash, int off, int keyHashSize) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < keyHashSize; ++i) {
+      h = (h ^ (keyHash[off + i] & 0xff)) * 0x100000001b3L;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  private static int getNumProbes(int bitsPerKey) {
+    return Math.max(1, Math.min(MAX_NUM_PROBES, (int)Math.round(bitsPerKey * Math.log(2))));
+  }
+
+  /**
+   * Builds the filters of a file block by block, as it is written.
+   */
+  static final class Builder {
+
+    private final int bitsPerKey;
+    private final int numProbes;
+    private final int[] numBlockWords;
+    private long[] words = new long[1024];
+    private int numWords = 0;
+
+    public Builder(int bitsPerKey, int hashIndexBits) {
+      if (bitsPerKey <= 0) {
+        throw new IllegalArgumentException("Invalid number of key hash filter bits per key: " + bitsPerKey);
+      }
+      this.bitsPerKey = bitsPerKey;
+      this.numProbes = getNumProbes(bitsPerKey);
+      this.numBlockWords = new int[1 << hashIndexBits];
+    }
+
+    // Add the key hashes of the given (uncompressed) block
+    public void addBlock(int hashPrefix, byte[] block, int numRecords, int fullRecordSize, int keyHashSize) {
+      int blockNumWords = (int)((numRecords * (long)bitsPerKey + 63) / 64);
+      if (numWords + blockNumWords > words.length) {
+        long[] newWords = new long[Math.max(words.length * 2, numWords + blockNumWords)];
+        System.arraycopy(words, 0, newWords, 0, numWords);
+        words = newWords;
+      }
+      for (int i = 0; i < numRecords; ++i) {
+        add(words, numWords, blockNumWords, hash(block, i * fullRecordSize, keyHashSize), numProbes);
+      }
+      numBlockWords[hashPrefix] = blockNumWords;
+      numWords += blockNumWords;
+    }
+
+    // Return the number of bytes written
+    public long write(OutputStream stream) throws IOException {
+      byte[] buffer = new byte[8];
+      for (int blockNumWords : numBlockWords) {
+        EncodingHelper.encodeLittleEndianFixedWidthLong(blockNumWords, buffer, 0, 4);
+        stream.write(buffer, 0, 4);
+      }
+      for (int i = 0; i < numWords; ++i) {
+        EncodingHelper.encodeLittleEndianFixedWidthLong(words[i], buffer, 0, 8);
+        stream.write(buffer, 0, 8);
+      }
+      long length = 4L * numBlockWords.length + 8L * numWords + TRAILER_LENGTH;
+      EncodingHelper.encodeLittleEndianFixedWidthLong(bitsPerKey, buffer, 0, 4);
+      stream.write(buffer, 0, 4);
+      EncodingHelper.encodeLittleEndianFixedWidthLong(length, buffer, 0, 8);
+      stream.write(buffer, 0, 8);
+      EncodingHelper.encodeLittleEndianFixedWidthLong(MAGIC, buffer, 0, 8);
+      stream.write(buffer, 0, 8);
+      return length;
+    }
+  }
+}
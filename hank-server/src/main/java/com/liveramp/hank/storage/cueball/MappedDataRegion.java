@@ -0,0 +1,85 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage.cueball;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of the data region of a Cueball file (everything before the footer).
+ * <p/>
+ * A single mapping is limited to 2GB, so the region is split in fixed size segments. Consecutive
+ * segments overlap by the maximum block size, so that any block starting in a given segment is
+ * entirely contained in it and can be scanned without crossing a segment boundary.
+ */
+final class MappedDataRegion {
+
+  static final long DEFAULT_SEGMENT_SIZE = 1L << 30;
+
+  private final ByteBuffer[] segments;
+  private final long segmentSize;
+  private final long dataLength;
+
+  public MappedDataRegion(FileChannel channel, long dataLength, int maxBlockSize) throws IOException {
+    this(channel, dataLength, maxBlockSize, DEFAULT_SEGMENT_SIZE);
+  }
+
+  MappedDataRegion(FileChannel channel, long dataLength, int maxBlockSize, long segmentSize) throws IOException {
+    if (segmentSize <= 0 || segmentSize + maxBlockSize > Integer.MAX_VALUE) {
+      throw new IOException("Invalid segment size " + segmentSize + " for a max block size of " + maxBlockSize);
+    }
+    this.segmentSize = segmentSize;
+    this.dataLength = dataLength;
+    int numSegments = (int)((dataLength + segmentSize - 1) / segmentSize);
+    segments = new ByteBuffer[numSegments];
+    for (int i = 0; i < numSegments; ++i) {
+      long segmentStart = i * segmentSize;
+      long segmentLength = Math.min(segmentSize + maxBlockSize, dataLength - segmentStart);
+      segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentLength);
+    }
+  }
+
+  // Note: only absolute get methods should be used on the returned buffer since it is shared across threads
+  public ByteBuffer getSegment(long offset) {
+    return segments[getSegmentIndex(offset)];
+  }
+
+  public int getOffsetInSegment(long offset) {
+    return (int)(offset - getSegmentIndex(offset) * segmentSize);
+  }
+
+  // Number of bytes that can be read from the segment containing the given offset
+  public int getNumBytesAvailable(long offset) {
+    return segments[getSegmentIndex(offset)].capacity() - getOffsetInSegment(offset);
+  }
+
+  public long getDataLength() {
+    return dataLength;
+  }
+
+  public int getNumSegments() {
+    return segments.length;
+  }
+
+  private int getSegmentIndex(long offset) {
+    if (offset < 0 || offset >= dataLength) {
+      throw new IndexOutOfBoundsException("Offset " + offset + " is outside of mapped data region of length " + dataLength);
+    }
+    return (int)(offset / segmentSize);
+  }
+}
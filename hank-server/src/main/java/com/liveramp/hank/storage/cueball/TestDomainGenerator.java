@@ -6,7 +6,9 @@ import com.liveramp.hank.coordinator.mock.MockDomainVersion;
 import com.liveramp.hank.hasher.Hasher;
 import com.liveramp.hank.partitioner.Partitioner;
 import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -41,11 +43,33 @@ public class TestDomainGenerator {
     Partitioner p = (Partitioner)Class.forName(partitionerClass).newInstance();
     Hasher h = (Hasher)Class.forName(hasherClassName).newInstance();
 
-    Map<Integer, List<byte[]>> partitionedKeys = new HashMap<Integer, List<byte[]>>();
+    final Cueball cueball = new Cueball(hashLength, h, valueLength, indexBits, "", null, codecClass, null, 0);
+
+    generate(cueball, outputPath, totalNumRecords, keyLength, hashLength, valueLength, h, numPartitions, p);
+  }
+
+  /**
+   * Write a base (version 0) of random records for each partition under remoteDomainRoot.
+   *
+   * @return the keys that were written, by partition number, in the order they were written (key hash order)
+   */
+  public static Map<Integer, List<byte[]>> generate(Cueball cueball,
+                                                    String remoteDomainRoot,
+                                                    int totalNumRecords,
+                                                    int keyLength,
+                                                    int hashLength,
+                                                    int valueLength,
+                                                    Hasher h,
+                                                    int numPartitions,
+                                                    Partitioner p) throws IOException {
+    Map<Integer, List<byte[]>> partitionedHashes = new HashMap<Integer, List<byte[]>>();
     for (int i = 0; i < numPartitions; i++) {
-      partitionedKeys.put(i, new ArrayList<byte[]>());
+      partitionedHashes.put(i, new ArrayList<byte[]>());
     }
 
+    // Note: identity map, each hash is a distinct array
+    Map<byte[], byte[]> hashesToKeys = new HashMap<byte[], byte[]>();
+
     Random r = new Random(7);
     for (int i = 0; i < totalNumRecords; i++) {
       byte[] key = new byte[keyLength];
@@ -53,26 +77,31 @@ public class TestDomainGenerator {
       final int partitionNumber = p.partition(ByteBuffer.wrap(key), numPartitions);
       byte[] hash = new byte[hashLength];
       h.hash(ByteBuffer.wrap(key), hashLength, hash);
-      partitionedKeys.get(partitionNumber).add(hash);
+      partitionedHashes.get(partitionNumber).add(hash);
+      hashesToKeys.put(hash, key);
     }
 
-    final Cueball cueball = new Cueball(hashLength, h, valueLength, indexBits, "", null, codecClass, null, 0);
-
+    Map<Integer, List<byte[]>> partitionedKeys = new HashMap<Integer, List<byte[]>>();
     byte[] valueBytes = new byte[valueLength];
-    for (Map.Entry<Integer, List<byte[]>> part : partitionedKeys.entrySet()) {
+    for (Map.Entry<Integer, List<byte[]>> part : partitionedHashes.entrySet()) {
       Collections.sort(part.getValue(), new Comparator<byte[]>() {
         @Override
         public int compare(byte[] arg0, byte[] arg1) {
           return BytesUtils.compareBytesUnsigned(ByteBuffer.wrap(arg0), ByteBuffer.wrap(arg1));
         }
       });
-      final CueballWriter writer = (CueballWriter)cueball.getWriter(new MockDomainVersion(0, 0L),
-          new LocalPartitionRemoteFileOps(outputPath, part.getKey()), part.getKey());
+      List<byte[]> keys = new ArrayList<byte[]>(part.getValue().size());
+      final CueballWriter writer = (CueballWriter)cueball.getWriter(
+          new MockDomainVersion(0, 0L, new IncrementalDomainVersionProperties.Base()),
+          new LocalPartitionRemoteFileOps(remoteDomainRoot, part.getKey()), part.getKey());
       for (int i = 0; i < part.getValue().size(); i++) {
         r.nextBytes(valueBytes);
         writer.writeHash(ByteBuffer.wrap(part.getValue().get(i)), ByteBuffer.wrap(valueBytes));
+        keys.add(hashesToKeys.get(part.getValue().get(i)));
       }
       writer.close();
+      partitionedKeys.put(part.getKey(), keys);
     }
+    return partitionedKeys;
   }
 }
@@ -28,7 +28,6 @@ import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import com.liveramp.hank.compression.CompressionCodec;
 import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
 import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
 import com.liveramp.hank.config.BaseReaderConfigurator;
@@ -124,10 +123,10 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
       }
 
       // Block compression
-      CompressionCodec blockCompressionCodec = null;
+      CurlyBlockCompressionCodec blockCompressionCodec = null;
       String blockCompressionCodecStr = (String)options.get(BLOCK_COMPRESSION_CODEC);
       if (blockCompressionCodecStr != null) {
-        blockCompressionCodec = CompressionCodec.valueOf(blockCompressionCodecStr.toUpperCase());
+        blockCompressionCodec = CurlyBlockCompressionCodec.valueOf(blockCompressionCodecStr.toUpperCase());
       }
       Integer compressedBlockSizeThreshold = (Integer)options.get(COMPRESSED_BLOCK_SIZE_THRESHOLD);
       if (compressedBlockSizeThreshold == null) {
@@ -178,7 +177,7 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
   private final Class<? extends CueballCompressionCodec> keyFileCompressionCodecClass;
   private final int numRemoteLeafVersionsToKeep;
   private final int valueFoldingCacheCapacity;
-  private final CompressionCodec blockCompressionCodec;
+  private final CurlyBlockCompressionCodec blockCompressionCodec;
   private final int compressedBlockSizeThreshold;
   private final int offsetInBlockNumBytes;
   private final int cueballValueNumBytes;
@@ -194,7 +193,7 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
                Domain domain,
                int numRemoteLeafVersionsToKeep,
                int valueFoldingCacheCapacity,
-               CompressionCodec blockCompressionCodec,
+               CurlyBlockCompressionCodec blockCompressionCodec,
                int compressedBlockSizeThreshold,
                int offsetInBlockNumBytes) {
     this.keyHashSize = keyHashSize;
@@ -240,6 +239,8 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
         configurator.getCacheNumBytesCapacity(),
         configurator.getCacheNumItemsCapacity(),
         configurator.getBufferReuseMaxSize(),
+        configurator.getCacheConcurrencyLevel(),
+        configurator.getBlockCacheNumBytesCapacity(),
         2);
 
     return new CurlyReader(CurlyReader.getLatestBase(getTargetDirectory(configurator, partitionNumber)),
@@ -251,7 +252,9 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
         offsetNumBytes,
         offsetInBlockNumBytes,
         false,
-        subConfigurator.getBufferReuseMaxSize());
+        subConfigurator.getBufferReuseMaxSize(),
+        subConfigurator.getCacheConcurrencyLevel(),
+        subConfigurator.getBlockCacheNumBytesCapacity());
   }
 
   @Override
@@ -332,7 +335,7 @@ public class Curly extends IncrementalStorageEngine implements StorageEngine {
     return new CurlyCompactor(domain,
         getPartitionRemoteFileOps(partitionNumber),
         localDir,
-        new CurlyCompactingMerger(recordFileReadBufferBytes),
+        new CurlyCompactingMerger(recordFileReadBufferBytes, offsetNumBytes, CurlyCompactingMerger.DEFAULT_BATCH_NUM_RECORDS),
         new CueballStreamBufferMergeSort.Factory(keyHashSize, cueballValueNumBytes, hashIndexBits, getCompressionCodec(), null),
         new ICurlyReaderFactory() {
           @Override
@@ -0,0 +1,47 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package com.liveramp.hank.storage.curly;
+
+import com.liveramp.hank.compression.CompressionCodec;
+
+/**
+ * Codecs that Curly can compress blocks of its record files with. Stream codecs compress blocks
+ * through the streams of a CompressionCodec. ZSTD compresses each block at once with a dictionary
+ * trained from the values of the record file, see CurlyWriter.
+ */
+public enum CurlyBlockCompressionCodec {
+  DEFLATE(CompressionCodec.DEFLATE),
+  GZIP(CompressionCodec.GZIP),
+  SNAPPY(CompressionCodec.SNAPPY),
+  SLOW_NO_COMPRESSION(CompressionCodec.SLOW_NO_COMPRESSION),
+  ZSTD(null);
+
+  private final CompressionCodec streamCompressionCodec;
+
+  CurlyBlockCompressionCodec(CompressionCodec streamCompressionCodec) {
+    this.streamCompressionCodec = streamCompressionCodec;
+  }
+
+  // Null for codecs that use a dictionary
+  public CompressionCodec getStreamCompressionCodec() {
+    return streamCompressionCodec;
+  }
+
+  public boolean usesDictionary() {
+    return streamCompressionCodec == null;
+  }
+}
@@ -20,17 +20,49 @@ import com.liveramp.hank.storage.ReaderResult;
 import com.liveramp.hank.storage.Writer;
 import com.liveramp.hank.storage.cueball.IKeyFileStreamBufferMergeSort;
 import com.liveramp.hank.storage.cueball.KeyHashAndValueAndStreamIndex;
+import com.liveramp.hank.util.EncodingHelper;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
+/**
+ * Records are written in key hash order, but reading them in that order would jump back and forth between
+ * the base and the deltas, and within each file wherever values were folded. Instead, the merged key hash
+ * stream is consumed in batches: the records of a batch are read file by file in offset order (so that reads
+ * are sequential, and compressed blocks are decompressed once), buffered, and then written in key hash order.
+ * Memory usage is bounded by the number of records in a batch, and by the number of value bytes buffered:
+ * when reading a batch's values would buffer more bytes, the batch is read and written in smaller steps.
+ */
 public class CurlyCompactingMerger implements ICurlyCompactingMerger {
 
+  public static final int DEFAULT_BATCH_NUM_RECORDS = 1 << 15;
+  public static final int DEFAULT_BATCH_NUM_BYTES = 64 << 20;
+
   private final int recordFileReadBufferBytes;
+  // Number of leading bytes of a location that hold the record (or block) offset, -1 for the whole location
+  private final int offsetNumBytes;
+  private final int batchNumRecords;
+  private final int batchNumBytes;
 
   public CurlyCompactingMerger(int recordFileReadBufferBytes) {
+    this(recordFileReadBufferBytes, -1, DEFAULT_BATCH_NUM_RECORDS);
+  }
+
+  public CurlyCompactingMerger(int recordFileReadBufferBytes, int offsetNumBytes, int batchNumRecords) {
+    this(recordFileReadBufferBytes, offsetNumBytes, batchNumRecords, DEFAULT_BATCH_NUM_BYTES);
+  }
+
+  // A single value larger than batchNumBytes is still buffered on its own
+  public CurlyCompactingMerger(int recordFileReadBufferBytes, int offsetNumBytes, int batchNumRecords, int batchNumBytes) {
     this.recordFileReadBufferBytes = recordFileReadBufferBytes;
+    this.offsetNumBytes = offsetNumBytes;
+    this.batchNumRecords = Math.max(1, batchNumRecords);
+    this.batchNumBytes = Math.max(1, batchNumBytes);
   }
 
   @Override
@@ -55,6 +87,7 @@ public class CurlyCompactingMerger implements ICurlyCompactingMerger {
     }
 
     ReaderResult readerResult = new ReaderResult(recordFileReadBufferBytes);
+    Batch batch = new Batch();
 
     while (true) {
       KeyHashAndValueAndStreamIndex keyHashValuePair =
@@ -63,23 +96,14 @@ public class CurlyCompactingMerger implements ICurlyCompactingMerger {
         break;
       }
 
-      // The actual hash of the next key to write
-      ByteBuffer keyHash = keyHashValuePair.keyHash;
-
-      // Determine next value to write from corresponding Curly delta
-      ICurlyReader recordFileReader = recordFileReaders[keyHashValuePair.streamIndex];
-      // Read Curly record
-      recordFileReader.readRecord(keyHashValuePair.value, readerResult);
-      ByteBuffer value = readerResult.getBuffer();
-
-      // Append key hash and value to the compacted file
-      // Note: we are directly writing the key hash instead of the key. The underlying
-      // key file writer should be aware of that and not attempt to hash the key again.
-      recordFileWriter.write(keyHash, value);
+      // Note: key hash and location are only valid until the next record is requested, they are copied
+      batch.add(keyHashValuePair.keyHash, keyHashValuePair.value, keyHashValuePair.streamIndex);
 
-      // Clear the result buffer
-      readerResult.clear();
+      if (batch.size() >= batchNumRecords) {
+        batch.flush(recordFileReaders, readerResult, recordFileWriter);
+      }
     }
+    batch.flush(recordFileReaders, readerResult, recordFileWriter);
 
     // Close Curly writer
     recordFileWriter.close();
@@ -92,4 +116,146 @@ public class CurlyCompactingMerger implements ICurlyCompactingMerger {
       recordFileReader.close();
     }
   }
+
+  private static class Record {
+
+    private final byte[] keyHash;
+    private final byte[] location;
+    private final int streamIndex;
+    private final long offset;
+    private final long offsetInBlock;
+    // Position of the value in the batch's values buffer
+    private int valueOffset;
+    private int valueSize;
+
+    private Record(byte[] keyHash, byte[] location, int streamIndex, long offset, long offsetInBlock) {
+      this.keyHash = keyHash;
+      this.location = location;
+      this.streamIndex = streamIndex;
+      this.offset = offset;
+      this.offsetInBlock = offsetInBlock;
+    }
+
+    private boolean hasSameLocation(Record other) {
+      return streamIndex == other.streamIndex && Arrays.equals(location, other.location);
+    }
+  }
+
+  private static final Comparator<Record> RECORD_FILE_ORDER = new Comparator<Record>() {
+    @Override
+    public int compare(Record a, Record b) {
+      if (a.streamIndex != b.streamIndex) {
+        return a.streamIndex < b.streamIndex ? -1 : 1;
+      }
+      if (a.offset != b.offset) {
+        return a.offset < b.offset ? -1 : 1;
+      }
+      if (a.offsetInBlock != b.offsetInBlock) {
+        return a.offsetInBlock < b.offsetInBlock ? -1 : 1;
+      }
+      return 0;
+    }
+  };
+
+  // Records in key hash order, and their values once read
+  private class Batch {
+
+    private final List<Record> records = new ArrayList<Record>();
+    private final List<Record> recordsInFileOrder = new ArrayList<Record>();
+    private byte[] values = new byte[0];
+    private int valuesSize = 0;
+    // Number of records whose values are read at once, reduced when values are too large to all be buffered
+    private int numRecordsPerRead = batchNumRecords;
+
+    private int size() {
+      return records.size();
+    }
+
+    private void add(ByteBuffer keyHash, ByteBuffer location, int streamIndex) {
+      byte[] keyHashCopy = new byte[keyHash.remaining()];
+      keyHash.duplicate().get(keyHashCopy);
+      byte[] locationCopy = new byte[location.remaining()];
+      location.duplicate().get(locationCopy);
+      // Locations hold little endian offsets: the record's, or the block's followed by the record's offset in the block
+      int numOffsetBytes = offsetNumBytes < 0 ? locationCopy.length : Math.min(offsetNumBytes, locationCopy.length);
+      long offset = EncodingHelper.decodeLittleEndianFixedWidthLong(locationCopy, 0, numOffsetBytes);
+      long offsetInBlock = EncodingHelper.decodeLittleEndianFixedWidthLong(locationCopy, numOffsetBytes, locationCopy.length - numOffsetBytes);
+      records.add(new Record(keyHashCopy, locationCopy, streamIndex, offset, offsetInBlock));
+    }
+
+    // Read and write all records, as many at a time as their buffered values allow
+    private void flush(ICurlyReader[] recordFileReaders, ReaderResult readerResult, Writer recordFileWriter) throws IOException {
+      int from = 0;
+      while (from < records.size()) {
+        int to = Math.min(records.size(), from + numRecordsPerRead);
+        while (!readValues(from, to, recordFileReaders, readerResult)) {
+          // Too many bytes, read fewer records
+          numRecordsPerRead = Math.max(1, (to - from) / 2);
+          to = from + numRecordsPerRead;
+        }
+        write(from, to, recordFileWriter);
+        // Read more records again when values get smaller
+        if (valuesSize < batchNumBytes / 2 && to - from == numRecordsPerRead) {
+          numRecordsPerRead = Math.min(batchNumRecords, numRecordsPerRead * 2);
+        }
+        from = to;
+      }
+      clear();
+    }
+
+    // Return false, without reading all values, if they would exceed the number of bytes of a batch
+    private boolean readValues(int from, int to, ICurlyReader[] recordFileReaders, ReaderResult readerResult) throws IOException {
+      recordsInFileOrder.clear();
+      recordsInFileOrder.addAll(records.subList(from, to));
+      Collections.sort(recordsInFileOrder, RECORD_FILE_ORDER);
+      valuesSize = 0;
+      Record previousRecord = null;
+      for (Record record : recordsInFileOrder) {
+        if (previousRecord != null && record.hasSameLocation(previousRecord)) {
+          // Folded value, it has just been read
+          record.valueOffset = previousRecord.valueOffset;
+          record.valueSize = previousRecord.valueSize;
+        } else {
+          recordFileReaders[record.streamIndex].readRecord(ByteBuffer.wrap(record.location), readerResult);
+          ByteBuffer value = readerResult.getBuffer();
+          if (valuesSize + value.remaining() > batchNumBytes && to - from > 1) {
+            readerResult.clear();
+            return false;
+          }
+          record.valueOffset = valuesSize;
+          record.valueSize = value.remaining();
+          appendValue(value);
+          // Clear the result buffer
+          readerResult.clear();
+        }
+        previousRecord = record;
+      }
+      return true;
+    }
+
+    private void appendValue(ByteBuffer value) {
+      int size = value.remaining();
+      if (valuesSize + size > values.length) {
+        values = Arrays.copyOf(values, Math.max(valuesSize + size, Math.min(values.length * 2, batchNumBytes)));
+      }
+      value.duplicate().get(values, valuesSize, size);
+      valuesSize += size;
+    }
+
+    private void write(int from, int to, Writer recordFileWriter) throws IOException {
+      for (Record record : records.subList(from, to)) {
+        // Append key hash and value to the compacted file
+        // Note: we are directly writing the key hash instead of the key. The underlying
+        // key file writer should be aware of that and not attempt to hash the key again.
+        recordFileWriter.write(ByteBuffer.wrap(record.keyHash), ByteBuffer.wrap(values, record.valueOffset, record.valueSize));
+      }
+    }
+
+    // The values buffer is kept for the next batch
+    private void clear() {
+      records.clear();
+      recordsInFileOrder.clear();
+      valuesSize = 0;
+    }
+  }
 }
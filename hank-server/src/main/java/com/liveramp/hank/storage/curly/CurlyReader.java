@@ -23,39 +23,55 @@ import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.liveramp.commons.util.ByteBufferMemoryUsageEstimator;
 import com.liveramp.commons.util.BytesUtils;
 import com.liveramp.hank.compression.CompressionCodec;
 import com.liveramp.hank.compression.Decompressor;
+import com.liveramp.hank.compression.zstd.ZstdBlockDecompressor;
+import com.liveramp.hank.storage.BlockLocalityReader;
 import com.liveramp.hank.storage.CacheStatistics;
+import com.liveramp.hank.storage.DecompressedBlockCache;
 import com.liveramp.hank.storage.Reader;
 import com.liveramp.hank.storage.ReaderResult;
 import com.liveramp.hank.util.EncodingHelper;
-import com.liveramp.hank.util.SynchronizedMemoryBoundCache;
+import com.liveramp.hank.util.StripedMemoryBoundCache;
 import com.liveramp.hank.util.UnsafeByteArrayOutputStream;
 
-public class CurlyReader implements Reader, ICurlyReader {
+public class CurlyReader implements BlockLocalityReader, ICurlyReader {
 
   private final Reader keyFileReader;
   private final int readBufferSize;
   private final FileChannel recordFile;
   private final int versionNumber;
   private final int bufferReuseMaxSize;
-  private SynchronizedMemoryBoundCache<ByteBuffer, ByteBuffer> cache;
-  private final CompressionCodec blockCompressionCodec;
+  private StripedMemoryBoundCache<ByteBuffer, ByteBuffer> cache;
+  private final CurlyBlockCompressionCodec blockCompressionCodec;
   private final int offsetNumBytes;
   private final int offsetInBlockNumBytes;
 
-  // Last decompressed block cache
+  // Last decompressed block cache, kept per thread
   private final boolean cacheLastDecompressedBlock;
-  private ByteBuffer lastDecompressedBlock;
-  private long lastDecompressedBlockOffset = -1;
+  private final DecompressedBlockCache blockCache;
+  // Identifies readers in threads' last decompressed blocks without referencing them
+  private static final AtomicLong readerIdCounter = new AtomicLong();
+  private final long readerId = readerIdCounter.incrementAndGet();
+  // Decompressors of the dictionaries used by blocks, keyed by dictionary offset. Record files appended
+  // to each other during updates each start with their own dictionary.
+  private final ConcurrentMap<Long, ZstdBlockDecompressor> dictionaryBlockDecompressors =
+      new ConcurrentHashMap<Long, ZstdBlockDecompressor>();
 
   private static class Local {
 
     private final Map<CompressionCodec, Decompressor> blockDecompressors;
     private UnsafeByteArrayOutputStream decompressionOutputStream;
+    private byte[] dictionaryDecompressionBuffer = new byte[0];
+    private long lastDecompressedBlockReaderId = -1;
+    private long lastDecompressedBlockOffset = -1;
+    private ByteBuffer lastDecompressedBlock = ByteBuffer.allocate(1);
 
     public Local() {
       this.blockDecompressors = new HashMap<CompressionCodec, Decompressor>();
@@ -82,6 +98,35 @@ public class CurlyReader implements Reader, ICurlyReader {
     public void dropDecompressionOutputStream() {
       decompressionOutputStream = new UnsafeByteArrayOutputStream();
     }
+
+    public byte[] getDictionaryDecompressionBuffer(int size) {
+      if (dictionaryDecompressionBuffer.length < size) {
+        dictionaryDecompressionBuffer = new byte[size];
+      }
+      return dictionaryDecompressionBuffer;
+    }
+
+    public byte[] getDictionaryDecompressionBuffer() {
+      return dictionaryDecompressionBuffer;
+    }
+
+    public void dropDictionaryDecompressionBuffer() {
+      dictionaryDecompressionBuffer = new byte[0];
+    }
+
+    public boolean isLastDecompressedBlock(long readerId, long blockOffset) {
+      return lastDecompressedBlockReaderId == readerId && lastDecompressedBlockOffset == blockOffset;
+    }
+
+    public ByteBuffer getLastDecompressedBlock() {
+      return lastDecompressedBlock;
+    }
+
+    public void setLastDecompressedBlock(long readerId, long blockOffset, ByteBuffer block) {
+      lastDecompressedBlockReaderId = readerId;
+      lastDecompressedBlockOffset = blockOffset;
+      lastDecompressedBlock = BytesUtils.byteBufferDeepCopy(block, lastDecompressedBlock);
+    }
   }
 
   private static final ThreadLocal<Local> threadLocal = new ThreadLocal<Local>() {
@@ -112,11 +157,43 @@ public class CurlyReader implements Reader, ICurlyReader {
                      Reader keyFileReader,
                      long cacheNumBytesCapacity,
                      int cacheNumItemsCapacity,
-                     CompressionCodec blockCompressionCodec,
+                     CurlyBlockCompressionCodec blockCompressionCodec,
                      int offsetNumBytes,
                      int offsetInBlockNumBytes,
                      boolean cacheLastDecompressedBlock,
                      int bufferReuseMaxSize) throws IOException {
+    this(curlyFile, recordFileReadBufferBytes, keyFileReader, cacheNumBytesCapacity, cacheNumItemsCapacity,
+        blockCompressionCodec, offsetNumBytes, offsetInBlockNumBytes, cacheLastDecompressedBlock, bufferReuseMaxSize, 1);
+  }
+
+  public CurlyReader(CurlyFilePath curlyFile,
+                     int recordFileReadBufferBytes,
+                     Reader keyFileReader,
+                     long cacheNumBytesCapacity,
+                     int cacheNumItemsCapacity,
+                     CurlyBlockCompressionCodec blockCompressionCodec,
+                     int offsetNumBytes,
+                     int offsetInBlockNumBytes,
+                     boolean cacheLastDecompressedBlock,
+                     int bufferReuseMaxSize,
+                     int cacheConcurrencyLevel) throws IOException {
+    this(curlyFile, recordFileReadBufferBytes, keyFileReader, cacheNumBytesCapacity, cacheNumItemsCapacity,
+        blockCompressionCodec, offsetNumBytes, offsetInBlockNumBytes, cacheLastDecompressedBlock, bufferReuseMaxSize,
+        cacheConcurrencyLevel, 0);
+  }
+
+  public CurlyReader(CurlyFilePath curlyFile,
+                     int recordFileReadBufferBytes,
+                     Reader keyFileReader,
+                     long cacheNumBytesCapacity,
+                     int cacheNumItemsCapacity,
+                     CurlyBlockCompressionCodec blockCompressionCodec,
+                     int offsetNumBytes,
+                     int offsetInBlockNumBytes,
+                     boolean cacheLastDecompressedBlock,
+                     int bufferReuseMaxSize,
+                     int cacheConcurrencyLevel,
+                     long blockCacheNumBytesCapacity) throws IOException {
     this.recordFile = new FileInputStream(curlyFile.getPath()).getChannel();
     this.keyFileReader = keyFileReader;
     this.readBufferSize = recordFileReadBufferBytes;
@@ -125,12 +202,16 @@ public class CurlyReader implements Reader, ICurlyReader {
     this.offsetNumBytes = offsetNumBytes;
     this.offsetInBlockNumBytes = offsetInBlockNumBytes;
     this.cacheLastDecompressedBlock = cacheLastDecompressedBlock;
-    this.cache = new SynchronizedMemoryBoundCache<ByteBuffer, ByteBuffer>(
+    this.cache = new StripedMemoryBoundCache<ByteBuffer, ByteBuffer>(
         cacheNumBytesCapacity > 0 || cacheNumItemsCapacity > 0,
         cacheNumBytesCapacity,
         cacheNumItemsCapacity,
+        cacheConcurrencyLevel,
         new ByteBufferMemoryUsageEstimator(),
         new ByteBufferMemoryUsageEstimator());
+    // Only blocks of block compressed record files are cached
+    this.blockCache = new DecompressedBlockCache(blockCompressionCodec == null ? 0 : blockCacheNumBytesCapacity,
+        cacheConcurrencyLevel);
     // Check that key file is at the same version
     if (keyFileReader != null &&
         keyFileReader.getVersionNumber() != null &&
@@ -138,9 +219,6 @@ public class CurlyReader implements Reader, ICurlyReader {
       throw new IOException("Curly Reader version (" + versionNumber
           + ") does not match the provided key file Reader version (" + keyFileReader.getVersionNumber() + ")");
     }
-    if (cacheLastDecompressedBlock) {
-      lastDecompressedBlock = ByteBuffer.allocate(1);
-    }
     this.bufferReuseMaxSize = bufferReuseMaxSize;
   }
 
@@ -166,18 +244,30 @@ public class CurlyReader implements Reader, ICurlyReader {
           location.arrayOffset() + location.position() + offsetNumBytes, offsetInBlockNumBytes);
 
       ByteBuffer decompressedBlockByteBuffer;
-      if (cacheLastDecompressedBlock && lastDecompressedBlockOffset == recordFileBlockOffset) {
-        // This block has been decompressed just before, reuse it
-        decompressedBlockByteBuffer = lastDecompressedBlock;
+      Local local = threadLocal.get();
+      ByteBuffer cachedBlock;
+      if (cacheLastDecompressedBlock && local.isLastDecompressedBlock(readerId, recordFileBlockOffset)) {
+        // This block has been decompressed just before by this thread, reuse it
+        decompressedBlockByteBuffer = local.getLastDecompressedBlock();
+        if (blockCache.isEnabled()) {
+          result.incrementNumBlockCacheHits();
+        }
+      } else if ((cachedBlock = blockCache.get(recordFileBlockOffset)) != null) {
+        // Cached blocks are shared, do not move their position
+        decompressedBlockByteBuffer = cachedBlock.duplicate();
+        result.incrementNumBlockCacheHits();
       } else {
+        if (blockCache.isEnabled()) {
+          result.incrementNumBlockCacheMisses();
+        }
         // Read in the compressed block into the result
         readRecordAtOffset(recordFileBlockOffset, result);
         // Decompress block
-        decompressedBlockByteBuffer = decompressBlock(result.getBuffer());
+        decompressedBlockByteBuffer = decompressBlock(recordFileBlockOffset, result.getBuffer());
+        blockCache.put(recordFileBlockOffset, decompressedBlockByteBuffer);
         // Cache the decompressed block if requested
         if (cacheLastDecompressedBlock) {
-          lastDecompressedBlockOffset = recordFileBlockOffset;
-          lastDecompressedBlock = BytesUtils.byteBufferDeepCopy(decompressedBlockByteBuffer, lastDecompressedBlock);
+          local.setLastDecompressedBlock(readerId, recordFileBlockOffset, decompressedBlockByteBuffer);
         }
       }
 
@@ -202,10 +292,13 @@ public class CurlyReader implements Reader, ICurlyReader {
     addValueToCache(locationDeepCopy, result.getBuffer());
   }
 
-  private ByteBuffer decompressBlock(ByteBuffer block) throws IOException {
+  private ByteBuffer decompressBlock(long blockOffset, ByteBuffer block) throws IOException {
+    if (blockCompressionCodec.usesDictionary()) {
+      return decompressDictionaryBlock(blockOffset, block);
+    }
     Local local = threadLocal.get();
     local.clear();
-    local.getBlockDecompressor(blockCompressionCodec).decompressBlock(
+    local.getBlockDecompressor(blockCompressionCodec.getStreamCompressionCodec()).decompressBlock(
         block.array(),
         block.arrayOffset() + block.position(),
         block.remaining(),
@@ -213,12 +306,52 @@ public class CurlyReader implements Reader, ICurlyReader {
     return local.getDecompressionOutputStream().getByteBuffer();
   }
 
+  // See CurlyWriter for the format of blocks compressed with a dictionary
+  private ByteBuffer decompressDictionaryBlock(long blockOffset, ByteBuffer block) throws IOException {
+    long dictionaryOffset = blockOffset - EncodingHelper.decodeLittleEndianFixedWidthLong(block.array(),
+        block.arrayOffset() + block.position(), offsetNumBytes);
+    block.position(block.position() + offsetNumBytes);
+    int decompressedSize = EncodingHelper.decodeLittleEndianVarInt(block);
+    byte[] decompressed = threadLocal.get().getDictionaryDecompressionBuffer(decompressedSize);
+    int decompressedLength = getDictionaryBlockDecompressor(dictionaryOffset).decompress(
+        block.array(),
+        block.arrayOffset() + block.position(),
+        block.remaining(),
+        decompressed, 0, decompressedSize);
+    if (decompressedLength != decompressedSize) {
+      throw new IOException("Decompressed " + decompressedLength + " bytes instead of " + decompressedSize
+          + " from block at offset " + blockOffset);
+    }
+    return ByteBuffer.wrap(decompressed, 0, decompressedSize);
+  }
+
+  // Dictionaries are read once and then shared by all threads
+  private ZstdBlockDecompressor getDictionaryBlockDecompressor(long dictionaryOffset) throws IOException {
+    ZstdBlockDecompressor result = dictionaryBlockDecompressors.get(dictionaryOffset);
+    if (result == null) {
+      ReaderResult dictionaryResult = new ReaderResult();
+      dictionaryResult.requiresBufferSize(readBufferSize);
+      readRecordAtOffset(dictionaryOffset, dictionaryResult);
+      byte[] dictionary = new byte[dictionaryResult.getBuffer().remaining()];
+      dictionaryResult.getBuffer().get(dictionary);
+      result = new ZstdBlockDecompressor(dictionary);
+      ZstdBlockDecompressor previous = dictionaryBlockDecompressors.putIfAbsent(dictionaryOffset, result);
+      if (previous != null) {
+        result = previous;
+      }
+    }
+    return result;
+  }
+
   private void dropDecompressionBuffer() {
     Local local = threadLocal.get();
     if (local.getDecompressionOutputStream().getByteBuffer() != null &&
         local.getDecompressionOutputStream().getByteBuffer().capacity() > bufferReuseMaxSize) {
       local.dropDecompressionOutputStream();
     }
+    if (local.getDictionaryDecompressionBuffer().length > bufferReuseMaxSize) {
+      local.dropDictionaryDecompressionBuffer();
+    }
   }
 
   // Note: the buffer in result must be at least readBufferSize long
@@ -292,6 +425,16 @@ public class CurlyReader implements Reader, ICurlyReader {
     }
   }
 
+  // Keys are located by block of the key file, records written in the same order follow
+  @Override
+  public long getBlockOffset(ByteBuffer key) {
+    if (keyFileReader instanceof BlockLocalityReader) {
+      return ((BlockLocalityReader)keyFileReader).getBlockOffset(key);
+    } else {
+      return 0;
+    }
+  }
+
   @Override
   public Integer getVersionNumber() {
     return versionNumber;
@@ -300,16 +443,20 @@ public class CurlyReader implements Reader, ICurlyReader {
   @Override
   public CacheStatistics getCacheStatistics() {
     CacheStatistics keyReaderCacheStatistics = keyFileReader.getCacheStatistics();
-    return new CacheStatistics(
+    CacheStatistics result = new CacheStatistics(
         keyReaderCacheStatistics.getNumItems() + cache.size(),
         keyReaderCacheStatistics.getMaxNumItems() + cache.getMaxNumItems(),
         keyReaderCacheStatistics.getNumManagedBytes() + cache.getNumManagedBytes(),
         keyReaderCacheStatistics.getMaxNumManagedBytes() + cache.getMaxNumManagedBytes());
+    result.add(blockCache.getCacheStatistics());
+    return result;
   }
 
   // Note: location should already be a deep copy that won't get modified
   private void addValueToCache(ByteBuffer location, ByteBuffer value) {
-    cache.put(location, BytesUtils.byteBufferDeepCopy(value));
+    if (cache.isEnabled()) {
+      cache.put(location, BytesUtils.byteBufferDeepCopy(value));
+    }
   }
 
   // Return true if managed to read the corresponding value from the cache and into result
@@ -16,22 +16,26 @@
 package com.liveramp.hank.storage.curly;
 
 import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.liveramp.commons.collections.LruHashMap;
 import com.liveramp.commons.util.BytesUtils;
-import com.liveramp.hank.compression.CompressionCodec;
+import com.liveramp.hank.compression.zstd.ZstdBlockCompressor;
 import com.liveramp.hank.hasher.Murmur64Hasher;
 import com.liveramp.hank.storage.Writer;
 import com.liveramp.hank.util.EncodingHelper;
 import com.liveramp.hank.util.IOStreamUtils;
+import com.liveramp.hank.util.UnsafeByteArrayOutputStream;
 
 public class CurlyWriter implements Writer {
 
   private static final int VALUE_FOLDING_HASH_NUM_BYTES = 16;
+  static final int DICTIONARY_NUM_BYTES = 32 << 10;
+  static final int DICTIONARY_TRAINING_NUM_BYTES = 100 * DICTIONARY_NUM_BYTES;
 
   private static final Murmur64Hasher murmur64Hasher = new Murmur64Hasher();
 
@@ -47,13 +51,22 @@ public class CurlyWriter implements Writer {
   private final byte[] valueLengthBuffer = new byte[5];
 
   // Compression
-  private final CompressionCodec blockCompressionCodec;
-  private ByteArrayOutputStream compressedBlockOutputStream;
+  private final CurlyBlockCompressionCodec blockCompressionCodec;
+  private UnsafeByteArrayOutputStream compressedBlockOutputStream;
   private OutputStream compressionOutputStream;
   private final int compressedBlockSizeThreshold;
   private final int offsetInBlockNumBytes;
   private int offsetInDecompressedBlock = 0;
 
+  // Dictionary compression. The first records are buffered until there are enough values to train
+  // a dictionary, which is written as the first record of the file. Blocks are then compressed at once
+  // and start with their distance to the dictionary, which remains valid when files are appended to each other.
+  private List<byte[][]> dictionaryTrainingRecords;
+  private long dictionaryTrainingNumBytes = 0;
+  private ZstdBlockCompressor dictionaryBlockCompressor;
+  private long dictionaryOffset;
+  private byte[] dictionaryCompressedBlock = new byte[0];
+
   // Cache
   private final LruHashMap<ByteBuffer, ByteBuffer> hashedValueToEncodedRecordOffsetCache;
 
@@ -68,7 +81,7 @@ public class CurlyWriter implements Writer {
                      Writer keyfileWriter,
                      int offsetNumBytes,
                      int valueFoldingCacheCapacity,
-                     CompressionCodec blockCompressionCodec,
+                     CurlyBlockCompressionCodec blockCompressionCodec,
                      int compressedBlockSizeThreshold,
                      int offsetInBlockNumBytes) throws IOException {
     // Buffer output
@@ -96,13 +109,19 @@ public class CurlyWriter implements Writer {
     } else {
       // Initialize block compression
       valueOffsetBuffer = ByteBuffer.wrap(new byte[offsetNumBytes + offsetInBlockNumBytes]);
-      compressedBlockOutputStream = new ByteArrayOutputStream();
+      compressedBlockOutputStream = new UnsafeByteArrayOutputStream();
       compressionOutputStream = null;
+      if (blockCompressionCodec.usesDictionary()) {
+        dictionaryTrainingRecords = new ArrayList<byte[][]>();
+      }
     }
   }
 
   @Override
   public void close() throws IOException {
+    if (dictionaryTrainingRecords != null) {
+      writeDictionary();
+    }
     if (blockCompressionCodec != null) {
       flushCompressedBlock();
     }
@@ -122,6 +141,15 @@ public class CurlyWriter implements Writer {
           + ". Increase number of partitions to go back below this level.");
     }
 
+    if (dictionaryTrainingRecords != null) {
+      dictionaryTrainingRecords.add(new byte[][]{toByteArray(key), toByteArray(value)});
+      dictionaryTrainingNumBytes += value.remaining();
+      if (dictionaryTrainingNumBytes >= DICTIONARY_TRAINING_NUM_BYTES) {
+        writeDictionary();
+      }
+      return;
+    }
+
     ByteBuffer cachedValueRecordEncodedOffset = null;
     ByteBuffer hashedValue = null;
 
@@ -161,7 +189,8 @@ public class CurlyWriter implements Writer {
         // Block compression mode
         //
 
-        // Flush the compressed block if needed
+        // Flush the compressed block if needed. Blocks compressed with a dictionary are only compressed
+        // when flushed, so their uncompressed size is compared to the threshold.
         if (compressedBlockOutputStream.size() >= compressedBlockSizeThreshold) {
           flushCompressedBlock();
         }
@@ -198,7 +227,54 @@ public class CurlyWriter implements Writer {
     compressedBlockOutputStream.reset();
     offsetInDecompressedBlock = 0;
     // Initialize new compression stream
-    compressionOutputStream = blockCompressionCodec.getFactory().getCompressor().getOutputStream(compressedBlockOutputStream);
+    if (blockCompressionCodec.usesDictionary()) {
+      compressionOutputStream = compressedBlockOutputStream;
+    } else {
+      compressionOutputStream = blockCompressionCodec.getStreamCompressionCodec().getFactory().getCompressor().getOutputStream(compressedBlockOutputStream);
+    }
+  }
+
+  private void writeDictionary() throws IOException {
+    List<byte[][]> records = dictionaryTrainingRecords;
+    dictionaryTrainingRecords = null;
+    // Train the dictionary on the buffered values
+    List<byte[]> samples = new ArrayList<byte[]>(records.size());
+    for (byte[][] record : records) {
+      samples.add(record[1]);
+    }
+    byte[] dictionary = ZstdBlockCompressor.trainDictionary(samples, DICTIONARY_NUM_BYTES);
+    dictionaryBlockCompressor = new ZstdBlockCompressor(dictionary);
+    // Write it as a record
+    dictionaryOffset = currentRecordOffset;
+    int dictionaryLengthNumBytes = EncodingHelper.encodeLittleEndianVarInt(dictionary.length, valueLengthBuffer);
+    recordFileStream.write(valueLengthBuffer, 0, dictionaryLengthNumBytes);
+    recordFileStream.write(dictionary);
+    currentRecordOffset += dictionaryLengthNumBytes + dictionary.length;
+    // Write the buffered records
+    for (byte[][] record : records) {
+      write(ByteBuffer.wrap(record[0]), ByteBuffer.wrap(record[1]));
+    }
+  }
+
+  // A block compressed with a dictionary is made of its distance to the dictionary, its decompressed size
+  // and the compressed block
+  private void writeDictionaryCompressedBlock() throws IOException {
+    int decompressedSize = compressedBlockOutputStream.count();
+    int decompressedSizeNumBytes = EncodingHelper.encodeLittleEndianVarInt(decompressedSize, valueLengthBuffer);
+    int headerNumBytes = offsetNumBytes + decompressedSizeNumBytes;
+    int maxBlockNumBytes = headerNumBytes + dictionaryBlockCompressor.getMaxCompressedLength(decompressedSize);
+    if (dictionaryCompressedBlock.length < maxBlockNumBytes) {
+      dictionaryCompressedBlock = new byte[maxBlockNumBytes];
+    }
+    EncodingHelper.encodeLittleEndianFixedWidthLong(currentRecordOffset - dictionaryOffset, dictionaryCompressedBlock, 0, offsetNumBytes);
+    System.arraycopy(valueLengthBuffer, 0, dictionaryCompressedBlock, offsetNumBytes, decompressedSizeNumBytes);
+    int blockNumBytes = headerNumBytes + dictionaryBlockCompressor.compress(
+        compressedBlockOutputStream.array(), 0, decompressedSize, dictionaryCompressedBlock, headerNumBytes);
+    // Encode block size and write it to record stream, followed by the block
+    int blockNumBytesNumBytes = EncodingHelper.encodeLittleEndianVarInt(blockNumBytes, valueLengthBuffer);
+    recordFileStream.write(valueLengthBuffer, 0, blockNumBytesNumBytes);
+    recordFileStream.write(dictionaryCompressedBlock, 0, blockNumBytes);
+    currentRecordOffset += blockNumBytesNumBytes + blockNumBytes;
   }
 
   private void flushCompressedBlock() throws IOException {
@@ -206,16 +282,26 @@ public class CurlyWriter implements Writer {
       // First, close compression output stream so that they write all data
       compressionOutputStream.close();
       compressionOutputStream = null;
-      // Encode compressed block size and write it to record stream
-      int valueLengthNumBytes = EncodingHelper.encodeLittleEndianVarInt(compressedBlockOutputStream.size(), valueLengthBuffer);
-      recordFileStream.write(valueLengthBuffer, 0, valueLengthNumBytes);
-      currentRecordOffset += valueLengthNumBytes;
-      // Write compressed block to record stream
-      compressedBlockOutputStream.writeTo(recordFileStream);
-      currentRecordOffset += compressedBlockOutputStream.size();
+      if (blockCompressionCodec.usesDictionary()) {
+        writeDictionaryCompressedBlock();
+      } else {
+        // Encode compressed block size and write it to record stream
+        int valueLengthNumBytes = EncodingHelper.encodeLittleEndianVarInt(compressedBlockOutputStream.size(), valueLengthBuffer);
+        recordFileStream.write(valueLengthBuffer, 0, valueLengthNumBytes);
+        currentRecordOffset += valueLengthNumBytes;
+        // Write compressed block to record stream
+        compressedBlockOutputStream.writeTo(recordFileStream);
+        currentRecordOffset += compressedBlockOutputStream.size();
+      }
     }
   }
 
+  private static byte[] toByteArray(ByteBuffer buffer) {
+    byte[] result = new byte[buffer.remaining()];
+    buffer.duplicate().get(result);
+    return result;
+  }
+
   private ByteBuffer computeHash(ByteBuffer value) {
     // 128-bit murmur64 hash
     byte[] hashBytes = new byte[VALUE_FOLDING_HASH_NUM_BYTES];
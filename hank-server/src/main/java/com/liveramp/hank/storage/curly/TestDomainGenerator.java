@@ -22,7 +22,9 @@ import com.liveramp.hank.coordinator.mock.MockDomainVersion;
 import com.liveramp.hank.hasher.Hasher;
 import com.liveramp.hank.partitioner.Partitioner;
 import com.liveramp.hank.storage.LocalPartitionRemoteFileOps;
+import com.liveramp.hank.storage.incremental.IncrementalDomainVersionProperties;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -57,11 +59,35 @@ public class TestDomainGenerator {
     Partitioner p = (Partitioner)Class.forName(partitionerClass).newInstance();
     Hasher h = (Hasher)Class.forName(hasherClassName).newInstance();
 
-    Map<Integer, List<byte[]>> partitionedKeys = new HashMap<Integer, List<byte[]>>();
+    final Curly curly = new Curly(hashLength, h, 10L * 1024 * 1024 * 1024,
+        indexBits, 32 * 1024, "", null, codecClass, null, 0, -1, null, -1, -1);
+
+    long start = System.currentTimeMillis();
+    generate(curly, outputPath, totalNumRecords, keyLength, hashLength, valueLength, h, numPartitions, p);
+    long end = System.currentTimeMillis();
+    System.out.println("Elapsed ms: " + (end - start));
+  }
+
+  /**
+   * Write a base (version 0) of random records for each partition under remoteDomainRoot.
+   *
+   * @return the keys that were written, by partition number, in the order they were written (key hash order)
+   */
+  public static Map<Integer, List<byte[]>> generate(Curly curly,
+                                                    String remoteDomainRoot,
+                                                    int totalNumRecords,
+                                                    int keyLength,
+                                                    int hashLength,
+                                                    int valueLength,
+                                                    Hasher h,
+                                                    int numPartitions,
+                                                    Partitioner p) throws IOException {
+    Map<Integer, List<byte[]>> partitionedHashes = new HashMap<Integer, List<byte[]>>();
     for (int i = 0; i < numPartitions; i++) {
-      partitionedKeys.put(i, new ArrayList<byte[]>());
+      partitionedHashes.put(i, new ArrayList<byte[]>());
     }
 
+    // Note: identity maps, each hash is a distinct array
     Map<byte[], byte[]> hashesToKeys = new HashMap<byte[], byte[]>();
     Map<byte[], byte[]> hashesToValues = new HashMap<byte[], byte[]>();
 
@@ -73,17 +99,14 @@ public class TestDomainGenerator {
       final int partitionNumber = p.partition(ByteBuffer.wrap(key), numPartitions);
       byte[] hash = new byte[hashLength];
       h.hash(ByteBuffer.wrap(key), hashLength, hash);
-      partitionedKeys.get(partitionNumber).add(hash);
+      partitionedHashes.get(partitionNumber).add(hash);
       hashesToKeys.put(hash, key);
       byte[] valueBytes = new byte[valueLength];
       r.nextBytes(valueBytes);
       hashesToValues.put(hash, valueBytes);
     }
 
-    final Curly curly = new Curly(hashLength, h, 10L * 1024 * 1024 * 1024,
-        indexBits, 32 * 1024, "", null, codecClass, null, 0, -1, null, -1, -1);
-
-    for (Map.Entry<Integer, List<byte[]>> part : partitionedKeys.entrySet()) {
+    for (Map.Entry<Integer, List<byte[]>> part : partitionedHashes.entrySet()) {
       Collections.sort(part.getValue(), new Comparator<byte[]>() {
         @Override
         public int compare(byte[] arg0, byte[] arg1) {
@@ -92,18 +115,21 @@ public class TestDomainGenerator {
       });
     }
 
-    long start = System.currentTimeMillis();
-    for (Map.Entry<Integer, List<byte[]>> part : partitionedKeys.entrySet()) {
-      final CurlyWriter writer = (CurlyWriter)curly.getWriter(new MockDomainVersion(0, 0L),
-          new LocalPartitionRemoteFileOps(outputPath, part.getKey()), part.getKey());
+    Map<Integer, List<byte[]>> partitionedKeys = new HashMap<Integer, List<byte[]>>();
+    for (Map.Entry<Integer, List<byte[]>> part : partitionedHashes.entrySet()) {
+      List<byte[]> keys = new ArrayList<byte[]>(part.getValue().size());
+      final CurlyWriter writer = (CurlyWriter)curly.getWriter(
+          new MockDomainVersion(0, 0L, new IncrementalDomainVersionProperties.Base()),
+          new LocalPartitionRemoteFileOps(remoteDomainRoot, part.getKey()), part.getKey());
       for (int i = 0; i < part.getValue().size(); i++) {
         final byte[] keyHash = part.getValue().get(i);
         writer.write(ByteBuffer.wrap(hashesToKeys.get(keyHash)), ByteBuffer.wrap(hashesToValues.get(keyHash)));
+        keys.add(hashesToKeys.get(keyHash));
       }
       writer.close();
+      partitionedKeys.put(part.getKey(), keys);
     }
-    long end = System.currentTimeMillis();
-    System.out.println("Elapsed ms: " + (end - start));
+    return partitionedKeys;
   }
 
 }
@@ -29,8 +29,17 @@ import org.apache.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public abstract class IncrementalPartitionUpdater implements PartitionUpdater, CloseCoordinatorOpportunistically {
 
@@ -45,6 +54,7 @@ public abstract class IncrementalPartitionUpdater implements PartitionUpdater, C
   protected final String localPartitionRootCache;
   private final IncrementalUpdatePlanner updatePlanner;
   private Coordinator coordinatorToCloseOpportunistically;
+  private ExecutorService fetchExecutor;
 
   public IncrementalPartitionUpdater(Domain domain,
                                      String localPartitionRoot,
@@ -135,6 +145,7 @@ public abstract class IncrementalPartitionUpdater implements PartitionUpdater, C
       // Create new fetch root
       File fetchRoot = createFetchRoot();
       // Fetch versions
+      List<DomainVersion> versionsToFetch = new ArrayList<DomainVersion>();
       for (DomainVersion version : updatePlan.getAllVersions()) {
         // Do not fetch current version
         if (currentVersion != null && currentVersion.equals(version)) {
@@ -144,8 +155,9 @@ public abstract class IncrementalPartitionUpdater implements PartitionUpdater, C
         if (cachedBases.contains(version) || cachedDeltas.contains(version)) {
           continue;
         }
-        fetchVersion(version, fetchRoot.getAbsolutePath());
+        versionsToFetch.add(version);
       }
+      fetchVersions(versionsToFetch, fetchRoot.getAbsolutePath());
       // Commit fetched versions to cache
       commitFiles(fetchRoot, localPartitionRootCache);
     } finally {
@@ -154,6 +166,113 @@ public abstract class IncrementalPartitionUpdater implements PartitionUpdater, C
     }
   }
 
+  // Versions are fetched by the given executor, shared by all partition updates so that it bounds the number
+  // of concurrent fetches. When null, versions are fetched one at a time by the updating thread.
+  public void setFetchExecutor(ExecutorService fetchExecutor) {
+    this.fetchExecutor = fetchExecutor;
+  }
+
+  // The first failure is rethrown once all fetches have stopped, so that the fetch root can be safely deleted
+  private void fetchVersions(List<DomainVersion> versions, final String fetchRoot) throws IOException {
+    if (fetchExecutor == null) {
+      for (DomainVersion version : versions) {
+        fetchVersion(version, fetchRoot);
+      }
+      return;
+    }
+    final FetchesState state = new FetchesState(versions.size());
+    int numSubmittedFetches = 0;
+    try {
+      List<Future<Object>> fetches = new ArrayList<Future<Object>>(versions.size());
+      for (final DomainVersion version : versions) {
+        fetches.add(fetchExecutor.submit(new Callable<Object>() {
+          @Override
+          public Object call() throws IOException {
+            try {
+              // Fetches that did not start before a failure are skipped
+              if (state.fetchStarted()) {
+                try {
+                  fetchVersion(version, fetchRoot);
+                } finally {
+                  state.fetchEnded();
+                }
+              }
+            } finally {
+              state.stopped.countDown();
+            }
+            return null;
+          }
+        }));
+        ++numSubmittedFetches;
+      }
+      for (Future<Object> fetch : fetches) {
+        try {
+          fetch.get();
+        } catch (InterruptedException e) {
+          throw new IOException("Interrupted while fetching versions to " + fetchRoot, e);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException)cause;
+          } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException)cause;
+          } else if (cause instanceof Error) {
+            throw (Error)cause;
+          } else {
+            throw new IOException("Failed to fetch versions to " + fetchRoot, cause);
+          }
+        }
+      }
+    } finally {
+      // Interrupt remaining fetches and wait for them to stop
+      state.stop();
+      for (int i = numSubmittedFetches; i < versions.size(); ++i) {
+        state.stopped.countDown();
+      }
+      try {
+        while (!state.stopped.await(1, TimeUnit.SECONDS)) {
+          LOG.info("Waiting for fetches to " + fetchRoot + " to stop");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // Threads of the shared executor running the fetches of one update
+  private static class FetchesState {
+
+    private final CountDownLatch stopped;
+    private final Set<Thread> fetchingThreads = new HashSet<Thread>();
+    private boolean isStopped = false;
+
+    private FetchesState(int numFetches) {
+      this.stopped = new CountDownLatch(numFetches);
+    }
+
+    // Return false if fetches were stopped
+    private synchronized boolean fetchStarted() {
+      if (isStopped) {
+        return false;
+      }
+      fetchingThreads.add(Thread.currentThread());
+      return true;
+    }
+
+    private synchronized void fetchEnded() {
+      fetchingThreads.remove(Thread.currentThread());
+      // Do not leave an interruption meant for this fetch to the next task of the thread
+      Thread.interrupted();
+    }
+
+    private synchronized void stop() {
+      isStopped = true;
+      for (Thread thread : fetchingThreads) {
+        thread.interrupt();
+      }
+    }
+  }
+
   private void runUpdate(DomainVersion currentVersion,
                          DomainVersion updatingToVersion,
                          IncrementalUpdatePlan updatePlan,
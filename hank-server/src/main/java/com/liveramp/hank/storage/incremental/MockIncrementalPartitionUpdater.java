@@ -82,7 +82,7 @@ public class MockIncrementalPartitionUpdater extends IncrementalPartitionUpdater
   }
 
   @Override
-  protected void fetchVersion(DomainVersion version, String fetchRoot) {
+  protected void fetchVersion(DomainVersion version, String fetchRoot) throws IOException {
   }
 
   @Override
@@ -11,7 +11,7 @@ import java.util.Random;
 import static org.junit.Assert.assertEquals;
 
 public class TestGzipCueballCompressionCodec extends BaseTestCase {
-  private static final List<byte[]> TESTCASES = Arrays.asList(
+  static final List<byte[]> TESTCASES = Arrays.asList(
       new byte[]{},
       new byte[]{0, 1, 2, 3, 4, 5, 6},
       lotsOfBytes(16 * 1024),
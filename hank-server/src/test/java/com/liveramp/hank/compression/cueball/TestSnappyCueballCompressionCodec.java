@@ -0,0 +1,28 @@
+package com.liveramp.hank.compression.cueball;
+
+import com.liveramp.hank.test.BaseTestCase;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestSnappyCueballCompressionCodec extends BaseTestCase {
+
+  @Test
+  public void testIt() throws Exception {
+    SnappyCueballCompressionCodec codec = new SnappyCueballCompressionCodec();
+
+    for (byte[] testcase : TestGzipCueballCompressionCodec.TESTCASES) {
+      // Compress to and decompress from the middle of larger arrays
+      byte[] compressedBytes = new byte[3 + codec.getMaxCompressBufferSize(testcase.length)];
+      int compressedLength = codec.compress(testcase, 0, testcase.length, compressedBytes, 3);
+
+      byte[] decompressedBytes = new byte[5 + testcase.length];
+      int decompressedLength = codec.decompress(compressedBytes, 3, compressedLength, decompressedBytes, 5);
+      assertEquals(testcase.length, decompressedLength);
+
+      assertEquals(ByteBuffer.wrap(testcase), ByteBuffer.wrap(decompressedBytes, 5, decompressedLength));
+    }
+  }
+}
@@ -41,13 +41,20 @@ public class TestYamlPartitionServerConfigurator extends BaseTestCase {
     pw.println("    num_concurrent_queries: 5");
     pw.println("    num_concurrent_get_bulk_tasks: 1");
     pw.println("    get_bulk_task_size: 2");
+    pw.println("    get_bulk_group_by_partition: true");
     pw.println("    get_timer_aggregator_window: 1000");
     pw.println("    buffer_reuse_max_size: 1024");
     pw.println("    cache_num_bytes_capacity: 1000000");
     pw.println("    cache_num_items_capacity: 2000");
+    pw.println("    cache_concurrency_level: 8");
+    pw.println("    value_cache_num_bytes_capacity: 3000000");
+    pw.println("    block_cache_num_bytes_capacity: 4000000");
+    pw.println("    warmup_num_hot_keys: 10000");
     pw.println("  update_daemon:");
     pw.println("    num_concurrent_updates: 5");
     pw.println("    max_concurrent_updates_per_data_directory: 2");
+    pw.println("    num_concurrent_fetches: 3");
+    pw.println("    update_while_serving: true");
     pw.println("coordinator:");
     pw.println("  factory: " + MockCoordinator.Factory.class.getName());
     pw.println("  options:");
@@ -60,9 +67,17 @@ public class TestYamlPartitionServerConfigurator extends BaseTestCase {
     assertEquals("rg1", conf.getRingGroupName());
     assertEquals(5, conf.getNumConcurrentUpdates());
     assertEquals(2, conf.getMaxConcurrentUpdatesPerDataDirectory());
+    assertEquals(3, conf.getNumConcurrentFetches());
+    assertEquals(true, conf.getUpdateWhileServing());
     assertEquals(5, conf.getNumConcurrentQueries());
     assertEquals(1024, conf.getBufferReuseMaxSize());
     assertEquals(1000000, conf.getCacheNumBytesCapacity());
     assertEquals(2000, conf.getCacheNumItemsCapacity());
+    assertEquals(8, conf.getCacheConcurrencyLevel());
+    assertEquals(3000000, conf.getValueCacheNumBytesCapacity());
+    assertEquals(true, conf.getGetBulkGroupByPartition());
+    assertEquals(4000000, conf.getBlockCacheNumBytesCapacity());
+    assertEquals(2000000, conf.getReaderConfigurator(2).getBlockCacheNumBytesCapacity());
+    assertEquals(10000, conf.getWarmupNumHotKeys());
   }
 }
@@ -0,0 +1,139 @@
+/**
+ *  Copyright 2013 LiveRamp
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.liveramp.hank.hadoop;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+import com.liveramp.hank.partitioner.Partitioner;
+import com.liveramp.hank.storage.mock.MockStorageEngine;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestKeyAndPartitionWritableComparable extends BaseTestCase {
+
+  // Partition is the first byte of the key
+  private static final Partitioner PARTITIONER = new Partitioner() {
+    @Override
+    public int partition(ByteBuffer key, int numPartitions) {
+      return (key.get(key.position()) & 0xff) % numPartitions;
+    }
+  };
+
+  // Comparable key is the key reversed, or the key itself if it starts with 0
+  private static final MockStorageEngine STORAGE_ENGINE = new MockStorageEngine() {
+    @Override
+    public ByteBuffer getComparableKey(ByteBuffer key) {
+      if (key.get(key.position()) == 0) {
+        return key;
+      }
+      byte[] result = new byte[key.remaining()];
+      for (int i = 0; i < result.length; ++i) {
+        result[i] = key.get(key.limit() - 1 - i);
+      }
+      return ByteBuffer.wrap(result);
+    }
+  };
+
+  @Test
+  public void testSerialization() throws IOException {
+    KeyAndPartitionWritableComparable reused = new KeyAndPartitionWritableComparable();
+    for (KeyAndPartitionWritableComparable original : getKeys()) {
+      read(serialize(original), reused);
+      assertEquals(original.getPartition(), reused.getPartition());
+      assertEquals(original.getKeyAndPartitionWritable().getKey(), reused.getKeyAndPartitionWritable().getKey());
+      assertEquals(original.getComparableKey(), reused.getComparableKey());
+    }
+    // Key is not written twice when it is the comparable key
+    assertEquals(1 + 1 + 3 + 1, serialize(get(0, 1, 2)).length);
+    assertEquals(1 + 1 + 3 + 1 + 3, serialize(get(1, 1, 2)).length);
+  }
+
+  @Test
+  public void testRawComparison() throws IOException {
+    WritableComparator comparator = WritableComparator.get(KeyAndPartitionWritableComparable.class);
+    assertTrue(comparator instanceof KeyAndPartitionWritableComparable.Comparator);
+    List<KeyAndPartitionWritableComparable> keys = getKeys();
+    for (KeyAndPartitionWritableComparable a : keys) {
+      byte[] aBytes = serialize(a);
+      for (KeyAndPartitionWritableComparable b : keys) {
+        byte[] bBytes = serialize(b);
+        // Serialized instances are compared at an offset within larger buffers
+        byte[] aBuffer = new byte[aBytes.length + 3];
+        byte[] bBuffer = new byte[bBytes.length + 5];
+        System.arraycopy(aBytes, 0, aBuffer, 3, aBytes.length);
+        System.arraycopy(bBytes, 0, bBuffer, 5, bBytes.length);
+        assertEquals(a + " vs " + b,
+            Integer.signum(a.compareTo(b)),
+            Integer.signum(comparator.compare(aBuffer, 3, aBytes.length, bBuffer, 5, bBytes.length)));
+      }
+    }
+  }
+
+  private static List<KeyAndPartitionWritableComparable> getKeys() {
+    List<KeyAndPartitionWritableComparable> result = new ArrayList<KeyAndPartitionWritableComparable>();
+    result.add(get(0));
+    result.add(get(0, 1));
+    result.add(get(0, (byte)0xff, 1));
+    result.add(get(1));
+    result.add(get(1, 2, 3));
+    result.add(get(1, 3, 2));
+    result.add(get(1, (byte)0x80));
+    result.add(get(5, 0, 0));
+    result.add(get(2, 0, 0, 0, 0));
+    // Multi-byte vint partition and sizes
+    result.add(get(new byte[1000]));
+    byte[] large = new byte[300];
+    large[0] = (byte)150;
+    large[299] = 7;
+    result.add(get(large));
+    return result;
+  }
+
+  private static KeyAndPartitionWritableComparable get(int... key) {
+    byte[] bytes = new byte[key.length];
+    for (int i = 0; i < key.length; ++i) {
+      bytes[i] = (byte)key[i];
+    }
+    return get(bytes);
+  }
+
+  private static KeyAndPartitionWritableComparable get(byte[] key) {
+    return new KeyAndPartitionWritableComparable(STORAGE_ENGINE, PARTITIONER, 200, new BytesWritable(key));
+  }
+
+  private static byte[] serialize(KeyAndPartitionWritableComparable key) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    key.write(new DataOutputStream(outputStream));
+    return outputStream.toByteArray();
+  }
+
+  private static void read(byte[] bytes, KeyAndPartitionWritableComparable key) throws IOException {
+    key.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+  }
+}
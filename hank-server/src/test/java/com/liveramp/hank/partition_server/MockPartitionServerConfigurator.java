@@ -50,6 +50,11 @@ public class MockPartitionServerConfigurator implements PartitionServerConfigura
     return servicePort;
   }
 
+  @Override
+  public int getMetricsPort() {
+    return 0;
+  }
+
   @Override
   public Coordinator createCoordinator() {
     return coordinator;
@@ -75,6 +80,11 @@ public class MockPartitionServerConfigurator implements PartitionServerConfigura
     return 1;
   }
 
+  @Override
+  public boolean getGetBulkGroupByPartition() {
+    return false;
+  }
+
   @Override
   public int getGetTimerAggregatorWindow() {
     return 10;
@@ -95,6 +105,31 @@ public class MockPartitionServerConfigurator implements PartitionServerConfigura
     return 0;
   }
 
+  @Override
+  public int getCacheConcurrencyLevel() {
+    return 1;
+  }
+
+  @Override
+  public long getValueCacheNumBytesCapacity() {
+    return 0;
+  }
+
+  @Override
+  public int getWarmupNumHotKeys() {
+    return 0;
+  }
+
+  @Override
+  public boolean getCoalesceGets() {
+    return false;
+  }
+
+  @Override
+  public long getBlockCacheNumBytesCapacity() {
+    return 0;
+  }
+
   @Override
   public ReaderConfigurator getReaderConfigurator(int numTotalPartitions) {
     return null;
@@ -109,4 +144,14 @@ public class MockPartitionServerConfigurator implements PartitionServerConfigura
   public int getMaxConcurrentUpdatesPerDataDirectory() {
     return 10;
   }
+
+  @Override
+  public int getNumConcurrentFetches() {
+    return 4;
+  }
+
+  @Override
+  public boolean getUpdateWhileServing() {
+    return false;
+  }
 }
@@ -5,12 +5,18 @@ import com.liveramp.hank.test.coordinator.MockHostDomain;
 import com.liveramp.hank.test.coordinator.MockHostDomainPartition;
 import com.liveramp.hank.coordinator.mock.MockDomain;
 import com.liveramp.hank.test.partitioner.MapPartitioner;
+import com.liveramp.hank.generated.HankException;
+import com.liveramp.hank.generated.HankResponse;
 import com.liveramp.hank.storage.ReaderResult;
 import com.liveramp.hank.storage.mock.MockReader;
 import org.junit.Test;
 
 import java.nio.ByteBuffer;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
 public class TestDomainAccessor extends BaseTestCase {
   @Test
   public void testSetUpAndServe() throws Exception {
@@ -29,4 +35,70 @@ public class TestDomainAccessor extends BaseTestCase {
     drs.get(key, new ReaderResult());
     drs.get(nullKey, new ReaderResult());
   }
+
+  @Test
+  public void testSwapPartitionAccessor() throws Exception {
+    ByteBuffer key = ByteBuffer.wrap("key".getBytes());
+    ClosableMockReader reader1 = new ClosableMockReader("v1".getBytes());
+    ClosableMockReader reader2 = new ClosableMockReader("v2".getBytes());
+    PartitionAccessor partitionAccessor1 = new PartitionAccessor(new MockHostDomainPartition(0, 1), reader1);
+    DomainAccessor domainAccessor = new DomainAccessor(new MockHostDomain(new MockDomain("domain")),
+        new PartitionAccessor[]{partitionAccessor1}, new MapPartitioner(key, 0), 0);
+
+    assertEquals(HankResponse.value("v1".getBytes()), domainAccessor.get(key, new ReaderResult()));
+
+    // Simulate a request in flight on the first accessor while it is swapped out
+    assertTrue(partitionAccessor1.acquire());
+    domainAccessor.swapPartitionAccessor(0, new PartitionAccessor(new MockHostDomainPartition(0, 2), reader2));
+    assertEquals(HankResponse.value("v2".getBytes()), domainAccessor.get(key, new ReaderResult()));
+    assertFalse(reader1.closed);
+    partitionAccessor1.release();
+    assertTrue(reader1.closed);
+    assertFalse(partitionAccessor1.acquire());
+
+    // Stop serving the partition
+    domainAccessor.swapPartitionAccessor(0, null);
+    assertTrue(reader2.closed);
+    assertEquals(HankResponse.xception(HankException.wrong_host(true)), domainAccessor.get(key, new ReaderResult()));
+  }
+
+  @Test
+  public void testSwapPartitionAccessorWithValueCache() throws Exception {
+    ByteBuffer key = ByteBuffer.wrap("key".getBytes());
+    OffHeapValueCache valueCache = new OffHeapValueCache(1 << 16, 1);
+    PartitionAccessor partitionAccessor1 = new PartitionAccessor(new MockHostDomainPartition(0, 1),
+        new ClosableMockReader("v1".getBytes()), valueCache, 0);
+    DomainAccessor domainAccessor = new DomainAccessor(new MockHostDomain(new MockDomain("domain")),
+        new PartitionAccessor[]{partitionAccessor1}, new MapPartitioner(key, 0), 0);
+
+    assertEquals(HankResponse.value("v1".getBytes()), domainAccessor.get(key, new ReaderResult()));
+    assertEquals(1, valueCache.getNumItems());
+
+    // A request in flight on the first accessor while it is swapped out
+    assertTrue(partitionAccessor1.acquire());
+    domainAccessor.swapPartitionAccessor(0, new PartitionAccessor(new MockHostDomainPartition(0, 2),
+        new ClosableMockReader("v2".getBytes()), valueCache, 0));
+    // The partition's values are evicted at swap time
+    assertEquals(0, valueCache.getNumItems());
+    // The in-flight request caches the previous value
+    assertEquals(HankResponse.value("v1".getBytes()), partitionAccessor1.get(key, new ReaderResult()));
+    // Which is not served by the new accessor
+    assertEquals(HankResponse.value("v2".getBytes()), domainAccessor.get(key, new ReaderResult()));
+    assertEquals(HankResponse.value("v2".getBytes()), domainAccessor.get(key, new ReaderResult()));
+    partitionAccessor1.release();
+  }
+
+  private static class ClosableMockReader extends MockReader {
+
+    private boolean closed = false;
+
+    public ClosableMockReader(byte[] returnValue) {
+      super(null, 0, returnValue, null);
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
 }
@@ -0,0 +1,82 @@
+package com.liveramp.hank.partition_server;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestHotKeySampler extends BaseTestCase {
+
+  @Test
+  public void testSampling() {
+    HotKeySampler disabled = new HotKeySampler(0, 1);
+    disabled.sample(ByteBuffer.wrap(new byte[]{1}));
+    assertFalse(disabled.isEnabled());
+    assertTrue(disabled.getKeys().isEmpty());
+
+    // One request out of 2 is sampled, only the last 2 sampled keys are kept
+    HotKeySampler sampler = new HotKeySampler(2, 2);
+    for (byte i = 1; i <= 6; ++i) {
+      sampler.sample(ByteBuffer.wrap(new byte[]{i}));
+    }
+    List<ByteBuffer> keys = sampler.getKeys();
+    assertEquals(2, keys.size());
+    assertTrue(keys.contains(ByteBuffer.wrap(new byte[]{4})));
+    assertTrue(keys.contains(ByteBuffer.wrap(new byte[]{6})));
+  }
+
+  @Test
+  public void testSamplingIsPerThread() throws Exception {
+    final HotKeySampler sampler = new HotKeySampler(100, 10);
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; ++t) {
+      final byte threadIndex = (byte)t;
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (byte i = 1; i <= 50; ++i) {
+            sampler.sample(ByteBuffer.wrap(new byte[]{threadIndex, i}));
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    // Each thread sampled exactly one of its requests out of 10
+    List<ByteBuffer> keys = sampler.getKeys();
+    assertEquals(20, keys.size());
+    for (byte t = 0; t < threads.length; ++t) {
+      assertTrue(keys.contains(ByteBuffer.wrap(new byte[]{t, 10})));
+      assertTrue(keys.contains(ByteBuffer.wrap(new byte[]{t, 50})));
+    }
+  }
+
+  @Test
+  public void testWriteAndRead() throws Exception {
+    File hotKeysDirectory = HotKeySampler.getHotKeysDirectory(Collections.singleton(localTmpDir));
+    File file = HotKeySampler.getHotKeysFile(hotKeysDirectory, 7);
+    assertEquals(Integer.valueOf(7), HotKeySampler.getHotKeysFileDomainId(file));
+    assertTrue(HotKeySampler.read(file).isEmpty());
+
+    List<ByteBuffer> keys = Arrays.asList(
+        ByteBuffer.wrap("a".getBytes()),
+        ByteBuffer.wrap(new byte[0]),
+        ByteBuffer.wrap("hot key".getBytes(), 4, 3));
+    HotKeySampler.write(file, keys);
+    assertEquals(keys, HotKeySampler.read(file));
+    // Overwrite
+    HotKeySampler.write(file, keys.subList(0, 1));
+    assertEquals(keys.subList(0, 1), HotKeySampler.read(file));
+  }
+}
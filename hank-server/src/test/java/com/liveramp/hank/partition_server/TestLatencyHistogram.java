@@ -0,0 +1,171 @@
+package com.liveramp.hank.partition_server;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.liveramp.hank.storage.CacheStatistics;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLatencyHistogram extends BaseTestCase {
+
+  @Test
+  public void testBuckets() {
+    // Exact for small values
+    for (long value = 0; value < 64; ++value) {
+      int index = LatencyHistogram.getBucketIndex(value);
+      assertEquals(value, LatencyHistogram.getLowestEquivalentValue(index));
+      assertEquals(value, LatencyHistogram.getHighestEquivalentValue(index));
+    }
+    // Contiguous and precise beyond
+    long previousHighestValue = 63;
+    for (int index = 64; index < LatencyHistogram.NUM_BUCKETS; ++index) {
+      long lowestValue = LatencyHistogram.getLowestEquivalentValue(index);
+      long highestValue = LatencyHistogram.getHighestEquivalentValue(index);
+      assertEquals(previousHighestValue + 1, lowestValue);
+      assertEquals(index, LatencyHistogram.getBucketIndex(lowestValue));
+      assertEquals(index, LatencyHistogram.getBucketIndex(highestValue));
+      assertTrue((highestValue - lowestValue) <= lowestValue / 32);
+      previousHighestValue = highestValue;
+    }
+    assertEquals(LatencyHistogram.MAX_VALUE, previousHighestValue);
+    // Out of range values are clamped
+    assertEquals(0, LatencyHistogram.getBucketIndex(-1));
+    assertEquals(LatencyHistogram.NUM_BUCKETS - 1, LatencyHistogram.getBucketIndex(Long.MAX_VALUE));
+    assertEquals(736, LatencyHistogram.NUM_BUCKETS);
+  }
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getValueAtPercentile(99), 0);
+    for (int i = 1; i <= 1000; ++i) {
+      histogram.recordValue(100);
+    }
+    histogram.recordValue(50000);
+    assertEquals(1001, histogram.getTotalCount());
+    assertEquals(0.1, histogram.getMinimum(), 0.1 / 32);
+    assertEquals(0.1, histogram.getValueAtPercentile(50), 0.1 / 32);
+    assertEquals(0.1, histogram.getValueAtPercentile(99.9), 0.1 / 32);
+    assertEquals(50.0, histogram.getValueAtPercentile(100), 50.0 / 32);
+    assertEquals(50.0, histogram.getMaximum(), 50.0 / 32);
+    assertEquals((1000 * 100 + 50000) / 1001d / 1000d, histogram.getMean(), 0.0001);
+  }
+
+  @Test
+  public void testMergeIsLossless() {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    LatencyHistogram all = new LatencyHistogram();
+    for (int i = 0; i < 10000; ++i) {
+      long value = (i * 7919L) % 100000;
+      if (i % 3 == 0) {
+        a.recordValue(value);
+      } else {
+        b.recordValue(value);
+      }
+      all.recordValue(value);
+    }
+    assertEquals(all, LatencyHistogram.combine(Arrays.asList(a, b)));
+  }
+
+  @Test
+  public void testSerialization() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(histogram, LatencyHistogram.parse(LatencyHistogram.toString(histogram)));
+    histogram.recordValue(3);
+    histogram.recordValues(1500, 2);
+    histogram.recordValue(LatencyHistogram.MAX_VALUE);
+    assertEquals(-1, LatencyHistogram.toString(histogram).indexOf(' '));
+    assertEquals(histogram, LatencyHistogram.parse(LatencyHistogram.toString(histogram)));
+  }
+
+  @Test
+  public void testRecorderIntervals() throws Exception {
+    final LatencyHistogramRecorder recorder = new LatencyHistogramRecorder();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; ++t) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < 10000; ++i) {
+            recorder.recordNanos(i * 1000L);
+          }
+        }
+      });
+      threads[t].start();
+    }
+    // Intervals read while recording must add up to everything that was recorded
+    LatencyHistogram total = new LatencyHistogram();
+    for (int i = 0; i < 10; ++i) {
+      total.add(recorder.getIntervalHistogram());
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    total.add(recorder.getIntervalHistogram());
+    assertEquals(4 * 10000, total.getTotalCount());
+    assertEquals(0, recorder.getIntervalHistogram().getTotalCount());
+  }
+
+  @Test
+  public void testRecordersOfTerminatedThreadsAreDropped() throws Exception {
+    final LatencyHistogramRecorder recorder = new LatencyHistogramRecorder();
+    recorder.recordNanos(1000);
+    LatencyHistogram total = new LatencyHistogram();
+    for (int t = 0; t < 100; ++t) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          recorder.recordNanos(1000);
+        }
+      });
+      thread.start();
+      thread.join();
+      // Values of terminated threads are read before their recorders are dropped
+      total.add(recorder.getIntervalHistogram());
+      assertEquals(1, recorder.getNumThreadRecorders());
+    }
+    assertEquals(101, total.getTotalCount());
+  }
+
+  @Test
+  public void testRuntimeStatisticsSerialization() {
+    LatencyHistogram getHistogram = new LatencyHistogram();
+    getHistogram.recordValue(250);
+    LatencyHistogram getBulkHistogram = new LatencyHistogram();
+    getBulkHistogram.recordValue(4000);
+    getBulkHistogram.recordValue(12000);
+    RuntimeStatisticsAggregator runtimeStatistics = new RuntimeStatisticsAggregator(1, 2, 3, 2, 1, 1, 4, 5, 3, 1,
+        getHistogram, getBulkHistogram, new CacheStatistics(1, 2, 3, 4));
+    RuntimeStatisticsAggregator parsed = RuntimeStatisticsAggregator.parse(RuntimeStatisticsAggregator.toString(runtimeStatistics));
+    assertEquals(getHistogram, parsed.getGetRequestsLatencyHistogram());
+    assertEquals(getBulkHistogram, parsed.getGetBulkRequestsLatencyHistogram());
+    assertEquals(4.0 / 9.0, parsed.getValueCacheHitRate(), 0.0001);
+    assertEquals(0.75, parsed.getBlockCacheHitRate(), 0.0001);
+  }
+
+  @Test
+  public void testParsePreviousRuntimeStatisticsFormats() {
+    // Format published before value cache counters and histograms: population statistics from token 10 on
+    RuntimeStatisticsAggregator parsed = RuntimeStatisticsAggregator.parse(
+        "1.5 100.0 10 5 2 1 3 4 5 6 0.1 2.5 10 12.0 0.5 1.0 2.5");
+    assertEquals(1.5, parsed.getThroughput(), 0.0001);
+    assertEquals(0.5, parsed.getHitRate(), 0.0001);
+    assertEquals(0.2, parsed.getL1CacheHitRate(), 0.0001);
+    assertEquals(3, parsed.getCacheStatistics().getNumItems());
+    assertEquals(6, parsed.getCacheStatistics().getMaxNumManagedBytes());
+    assertEquals(0, parsed.getValueCacheHitRate(), 0);
+    assertEquals(0, parsed.getGetRequestsLatencyHistogram().getTotalCount());
+    // Same with an empty sample
+    parsed = RuntimeStatisticsAggregator.parse("1.5 100.0 10 5 2 1 3 4 5 6 Infinity -Infinity 0 0.0");
+    assertEquals(0.5, parsed.getHitRate(), 0.0001);
+    // Format with value cache counters but population statistics instead of histograms
+    parsed = RuntimeStatisticsAggregator.parse("1.5 100.0 10 5 2 1 3 4 5 6 3 1 0.1 2.5 10 12.0 0.5");
+    assertEquals(0.75, parsed.getValueCacheHitRate(), 0.0001);
+    assertEquals(0, parsed.getGetRequestsLatencyHistogram().getTotalCount());
+  }
+}
@@ -0,0 +1,168 @@
+package com.liveramp.hank.partition_server;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestOffHeapValueCache extends BaseTestCase {
+
+  private static final int VALUE_SIZE = 100;
+
+  @Test
+  public void testPutAndGet() {
+    OffHeapValueCache cache = new OffHeapValueCache(1 << 16, 4);
+    assertTrue(cache.isEnabled());
+    ReaderResult result = new ReaderResult();
+
+    assertFalse(cache.get(1, 0, key(1), result));
+
+    cache.put(1, 0, 0, key(1), found(value(1)));
+    cache.put(1, 0, 0, key(2), notFound());
+    cache.put(2, 0, 0, key(1), found(value(3)));
+    assertEquals(3, cache.getNumItems());
+    assertEquals(2, cache.getDomainNumItems(1));
+    assertEquals(1, cache.getDomainNumItems(2));
+
+    assertTrue(cache.get(1, 0, key(1), result));
+    assertTrue(result.isFound());
+    assertEquals(value(1), result.getBuffer());
+
+    assertTrue(cache.get(1, 0, key(2), result));
+    assertFalse(result.isFound());
+
+    // Same key in another domain
+    assertTrue(cache.get(2, 0, key(1), result));
+    assertTrue(result.isFound());
+    assertEquals(value(3), result.getBuffer());
+
+    // Overwrite
+    cache.put(1, 0, 0, key(1), found(value(4)));
+    assertEquals(2, cache.getDomainNumItems(1));
+    assertTrue(cache.get(1, 0, key(1), result));
+    assertEquals(value(4), result.getBuffer());
+  }
+
+  @Test
+  public void testDisabled() {
+    OffHeapValueCache cache = new OffHeapValueCache(0, OffHeapValueCache.DEFAULT_NUM_SEGMENTS);
+    assertFalse(cache.isEnabled());
+    cache.put(1, 0, 0, key(1), found(value(1)));
+    assertFalse(cache.get(1, 0, key(1), new ReaderResult()));
+    assertEquals(0, cache.getNumItems());
+    assertEquals(0, cache.getMaxNumManagedBytes());
+  }
+
+  @Test
+  public void testEviction() {
+    // A single segment holding about 32 entries
+    OffHeapValueCache cache = new OffHeapValueCache(4096, 1);
+    ReaderResult result = new ReaderResult();
+    for (int i = 0; i < 100; ++i) {
+      cache.put(1, 0, 0, key(i), found(value(i)));
+      assertTrue(cache.getNumManagedBytes() <= cache.getMaxNumManagedBytes());
+    }
+    assertTrue(cache.getNumItems() > 0);
+    assertTrue(cache.getNumItems() < 100);
+    // Oldest entries are evicted first
+    assertFalse(cache.get(1, 0, key(0), result));
+    assertTrue(cache.get(1, 0, key(99), result));
+    assertEquals(value(99), result.getBuffer());
+    // All remaining entries are correct
+    int numItems = 0;
+    for (int i = 0; i < 100; ++i) {
+      if (cache.get(1, 0, key(i), result)) {
+        assertEquals(value(i), result.getBuffer());
+        ++numItems;
+      }
+    }
+    assertEquals(cache.getNumItems(), numItems);
+
+    // Entries too large for a segment are not cached
+    cache.put(1, 0, 0, key(1000), found(ByteBuffer.wrap(new byte[4096])));
+    assertFalse(cache.get(1, 0, key(1000), result));
+  }
+
+  @Test
+  public void testInvalidate() {
+    OffHeapValueCache cache = new OffHeapValueCache(1 << 16, 4);
+    ReaderResult result = new ReaderResult();
+    // Keys of domain 1 are in two partitions
+    for (int i = 0; i < 10; ++i) {
+      cache.put(1, i % 2, 0, key(i), found(value(i)));
+      cache.put(2, 0, 0, key(i), found(value(i)));
+    }
+    assertEquals(20, cache.getNumItems());
+
+    // Only the given partition of the given domain is evicted
+    cache.invalidate(1, 0);
+    assertEquals(5, cache.getDomainNumItems(1));
+    assertEquals(10, cache.getDomainNumItems(2));
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(i % 2 == 1, cache.get(1, 0, key(i), result));
+      assertTrue(cache.get(2, 0, key(i), result));
+      assertEquals(value(i), result.getBuffer());
+    }
+    cache.invalidate(1, 1);
+    assertEquals(0, cache.getDomainNumItems(1));
+    assertEquals(0, cache.getDomainNumManagedBytes(1));
+
+    cache.clear();
+    assertEquals(0, cache.getNumItems());
+    assertEquals(0, cache.getNumManagedBytes());
+    assertFalse(cache.get(2, 0, key(0), result));
+
+    // Usable after being cleared
+    cache.put(2, 0, 0, key(0), found(value(0)));
+    assertTrue(cache.get(2, 0, key(0), result));
+    assertEquals(value(0), result.getBuffer());
+  }
+
+  @Test
+  public void testGenerations() {
+    OffHeapValueCache cache = new OffHeapValueCache(1 << 16, 4);
+    ReaderResult result = new ReaderResult();
+    cache.put(1, 0, 1, key(1), found(value(1)));
+    assertTrue(cache.get(1, 1, key(1), result));
+    // Values of another generation are not returned
+    assertFalse(cache.get(1, 2, key(1), result));
+    // And are replaced by values of the new generation
+    cache.put(1, 0, 2, key(1), found(value(2)));
+    assertEquals(1, cache.getDomainNumItems(1));
+    assertTrue(cache.get(1, 2, key(1), result));
+    assertEquals(value(2), result.getBuffer());
+    assertFalse(cache.get(1, 1, key(1), result));
+  }
+
+  private static ByteBuffer key(int i) {
+    return ByteBuffer.wrap(new byte[]{(byte)(i >> 24), (byte)(i >> 16), (byte)(i >> 8), (byte)i});
+  }
+
+  private static ByteBuffer value(int i) {
+    byte[] value = new byte[VALUE_SIZE];
+    for (int j = 0; j < VALUE_SIZE; ++j) {
+      value[j] = (byte)(i + j);
+    }
+    return ByteBuffer.wrap(value);
+  }
+
+  private static ReaderResult found(ByteBuffer value) {
+    ReaderResult result = new ReaderResult(value.remaining());
+    result.getBuffer().put(value.duplicate());
+    result.getBuffer().flip();
+    result.found();
+    return result;
+  }
+
+  private static ReaderResult notFound() {
+    ReaderResult result = new ReaderResult();
+    result.notFound();
+    return result;
+  }
+}
@@ -18,7 +18,10 @@ package com.liveramp.hank.partition_server;
 import com.liveramp.hank.config.PartitionServerConfigurator;
 import com.liveramp.hank.coordinator.Host;
 import com.liveramp.hank.coordinator.HostCommand;
+import com.liveramp.hank.coordinator.HostDomain;
+import com.liveramp.hank.coordinator.HostDomainPartition;
 import com.liveramp.hank.coordinator.HostState;
+import com.liveramp.hank.coordinator.Hosts;
 import com.liveramp.hank.coordinator.PartitionServerAddress;
 import com.liveramp.hank.coordinator.Ring;
 import com.liveramp.hank.coordinator.RingGroup;
@@ -27,6 +30,7 @@ import com.liveramp.hank.generated.HankBulkResponse;
 import com.liveramp.hank.generated.HankResponse;
 import com.liveramp.hank.test.BaseTestCase;
 import com.liveramp.hank.test.coordinator.MockHost;
+import com.liveramp.hank.test.coordinator.MockHostDomainPartition;
 import com.liveramp.hank.test.coordinator.MockRing;
 import com.liveramp.hank.test.coordinator.MockRingGroup;
 import com.liveramp.hank.util.Condition;
@@ -38,10 +42,13 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -289,6 +296,143 @@ public class TestPartitionServer extends BaseTestCase {
     assertEquals("Still IDLE after failed update.", HostState.IDLE, fixtures.host.getState());
   }
 
+  @Test
+  public void testUpdateWhileServing() throws Exception {
+    // Handler that can swap in partition 0 but not partition 1
+    final List<Integer> swappedPartitions = new ArrayList<Integer>();
+    final List<Integer> deletedPartitions = new ArrayList<Integer>();
+    final PartitionUpdateListener handler = new PartitionUpdateListener() {
+      @Override
+      public boolean onPartitionUpdate(HostDomain hostDomain, HostDomainPartition partition, int versionNumber) {
+        if (partition.getPartitionNumber() == 0) {
+          swappedPartitions.add(partition.getPartitionNumber());
+          return true;
+        }
+        return false;
+      }
+
+      @Override
+      public void onPartitionDelete(HostDomain hostDomain, int partitionNumber) {
+        deletedPartitions.add(partitionNumber);
+      }
+    };
+    final MockPartitionServerConfigurator configurator = new MockPartitionServerConfigurator(Fixtures.PORT_1, fixtures.mockCoord, "myRingGroup", null) {
+      @Override
+      public boolean getUpdateWhileServing() {
+        return true;
+      }
+    };
+    final List<PartitionUpdateListener> updateListeners = new ArrayList<PartitionUpdateListener>();
+    final PartitionServer partitionServer = new MockPartitionServer(configurator, "localhost") {
+      @Override
+      protected IfaceWithShutdown getHandler() throws IOException {
+        final IfaceWithShutdown delegate = super.getHandler();
+        return new UpdatableHandler(delegate, handler);
+      }
+
+      @Override
+      protected IUpdateManager getUpdateManager(final PartitionUpdateListener listener) {
+        return new MockUpdateManager() {
+          @Override
+          public void update() throws IOException {
+            updateListeners.add(listener);
+            listener.onPartitionUpdate(null, new MockHostDomainPartition(0, 1), 1);
+            listener.onPartitionDelete(null, 2);
+            listener.onPartitionUpdate(null, new MockHostDomainPartition(1, 1), 1);
+          }
+        };
+      }
+    };
+
+    Thread thread = createPartitionServerThread(partitionServer);
+    thread.start();
+    waitUntilHost(HostState.IDLE, fixtures.host);
+    fixtures.host.enqueueCommand(HostCommand.SERVE_DATA);
+    waitUntilHost(HostState.SERVING, fixtures.host);
+    assertFalse(Hosts.isDataServerRestartRequired(fixtures.host));
+
+    fixtures.host.enqueueCommand(HostCommand.EXECUTE_UPDATE);
+    WaitUntil.orDie(new Condition() {
+      @Override
+      public boolean test() {
+        try {
+          return updateListeners.size() == 1 && fixtures.host.getCurrentCommand() == null;
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+
+    // Host kept serving and the update went through the data server
+    assertEquals(HostState.SERVING, fixtures.host.getState());
+    assertNotNull("Update got a listener", updateListeners.get(0));
+    assertEquals(Collections.singletonList(0), swappedPartitions);
+    assertEquals(Collections.singletonList(2), deletedPartitions);
+
+    // Partition 1 could not be swapped in: the restart is left to the ring group conductor
+    assertTrue(Hosts.isDataServerRestartRequired(fixtures.host));
+    assertTrue(fixtures.host.getCommandQueue().isEmpty());
+    assertEquals(HostState.SERVING, fixtures.host.getState());
+
+    // Restarting the data server clears the request
+    fixtures.host.enqueueCommand(HostCommand.GO_TO_IDLE);
+    fixtures.host.enqueueCommand(HostCommand.SERVE_DATA);
+    WaitUntil.orDie(new Condition() {
+      @Override
+      public boolean test() {
+        try {
+          return fixtures.host.getCommandQueue().isEmpty()
+              && fixtures.host.getCurrentCommand() == null
+              && HostState.SERVING.equals(fixtures.host.getState());
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+    assertFalse(Hosts.isDataServerRestartRequired(fixtures.host));
+
+    partitionServer.stopSynchronized();
+    thread.join();
+    assertEquals(HostState.OFFLINE, fixtures.host.getState());
+  }
+
+  // Data server handler that forwards partition updates to the given listener
+  private static class UpdatableHandler implements IfaceWithShutdown, PartitionUpdateListener {
+
+    private final IfaceWithShutdown delegate;
+    private final PartitionUpdateListener listener;
+
+    public UpdatableHandler(IfaceWithShutdown delegate, PartitionUpdateListener listener) {
+      this.delegate = delegate;
+      this.listener = listener;
+    }
+
+    @Override
+    public HankResponse get(int domainId, ByteBuffer key) throws TException {
+      return delegate.get(domainId, key);
+    }
+
+    @Override
+    public HankBulkResponse getBulk(int domainId, List<ByteBuffer> keys) throws TException {
+      return delegate.getBulk(domainId, keys);
+    }
+
+    @Override
+    public void shutDown() throws InterruptedException {
+      delegate.shutDown();
+    }
+
+    @Override
+    public boolean onPartitionUpdate(HostDomain hostDomain, HostDomainPartition partition, int versionNumber) throws IOException {
+      return listener.onPartitionUpdate(hostDomain, partition, versionNumber);
+    }
+
+    @Override
+    public void onPartitionDelete(HostDomain hostDomain, int partitionNumber) throws IOException {
+      listener.onPartitionDelete(hostDomain, partitionNumber);
+    }
+  }
+
   @Test
   public void testHostSetStateFailure() throws Exception {
     final PartitionServer partitionServer = new MockPartitionServer(fixtures.CONFIGURATOR2, "localhost");
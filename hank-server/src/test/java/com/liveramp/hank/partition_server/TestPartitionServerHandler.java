@@ -56,6 +56,8 @@ import com.liveramp.hank.test.coordinator.MockRingGroup;
 import com.liveramp.hank.test.partitioner.MapPartitioner;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class TestPartitionServerHandler extends BaseTestCase {
@@ -66,6 +68,7 @@ public class TestPartitionServerHandler extends BaseTestCase {
   private static final ByteBuffer K4 = bb(4);
   private static final ByteBuffer K5 = bb(5);
   private static final byte[] V1 = new byte[]{9};
+  private static final byte[] V2 = new byte[]{10};
   private static final Host mockHostConfig = new MockHost(
       new PartitionServerAddress("localhost", 12345)) {
 
@@ -139,9 +142,90 @@ public class TestPartitionServerHandler extends BaseTestCase {
     assertEquals(HankBulkResponse.responses(responses2), handler.getBulk(0, keys2));
   }
 
+  @Test
+  public void testServeBulkGroupedByPartition() throws Exception {
+    PartitionServerHandler handler = createHandler(0, true);
+
+    // Keys of different partitions, interleaved, must be answered in request order
+    List<ByteBuffer> keys = new ArrayList<ByteBuffer>();
+    ArrayList<HankResponse> responses = new ArrayList<HankResponse>();
+    for (int i = 0; i < 1000; ++i) {
+      keys.add(K5);
+      responses.add(HankResponse.value(V1));
+      keys.add(K2);
+      responses.add(HankResponse.xception(HankException.wrong_host(true)));
+      keys.add(K1);
+      responses.add(HankResponse.value(V1));
+      if (i % 7 == 0) {
+        keys.add(K3);
+        responses.add(HankResponse.xception(HankException.wrong_host(true)));
+      }
+    }
+    assertEquals(HankBulkResponse.responses(responses), handler.getBulk(0, keys));
+
+    // Empty bulk request
+    assertEquals(HankBulkResponse.responses(new ArrayList<HankResponse>()),
+        handler.getBulk(0, new ArrayList<ByteBuffer>()));
+  }
+
+  @Test
+  public void testSwapUpdatedPartition() throws Exception {
+    // Readers created from now on are at the given version and return the given value
+    final int[] readerVersionNumber = new int[]{0};
+    final byte[][] readerValue = new byte[][]{V1};
+    MockStorageEngine storageEngine = new MockStorageEngine() {
+      @Override
+      public Reader getReader(ReaderConfigurator configurator, int partitionNumber)
+          throws IOException {
+        final int versionNumber = readerVersionNumber[0];
+        return new MockReader(configurator, partitionNumber, readerValue[0], versionNumber) {
+          @Override
+          public Integer getVersionNumber() {
+            return versionNumber;
+          }
+        };
+      }
+    };
+    Domain domain = createDomain(storageEngine);
+    HostDomain hostDomain = mockHostConfig.getHostDomain(domain);
+    PartitionServerHandler handler = createHandler(domain, false);
+
+    assertEquals(HankResponse.value(V1), handler.get(0, K1));
+    assertEquals(HankResponse.value(V1), handler.get(0, K5));
+
+    // Only the updated partition serves the new version
+    readerVersionNumber[0] = 1;
+    readerValue[0] = V2;
+    assertTrue(handler.onPartitionUpdate(hostDomain, new MockHostDomainPartition(0, 1), 1));
+    assertEquals(HankResponse.value(V2), handler.get(0, K1));
+    assertEquals(HankResponse.value(V1), handler.get(0, K5));
+
+    // Readers at another version than the update are not swapped in
+    try {
+      handler.onPartitionUpdate(hostDomain, new MockHostDomainPartition(4, 2), 2);
+      fail("Should throw an exception.");
+    } catch (IOException e) {
+    }
+    assertEquals(HankResponse.value(V1), handler.get(0, K5));
+
+    // Partitions of domains that are not served cannot be swapped in
+    Domain otherDomain = new MockDomain("otherDomain", 1, 5, null, storageEngine, null, null);
+    assertFalse(handler.onPartitionUpdate(mockHostConfig.getHostDomain(otherDomain), new MockHostDomainPartition(0, 1), 1));
+
+    // Deleted partitions are not served anymore
+    handler.onPartitionDelete(hostDomain, 0);
+    assertEquals(HankResponse.xception(HankException.wrong_host(true)), handler.get(0, K1));
+    assertEquals(HankResponse.value(V1), handler.get(0, K5));
+
+    handler.shutDown();
+  }
+
   private PartitionServerHandler createHandler(final int readerVersionNumber) throws IOException {
-    Partitioner partitioner = new MapPartitioner(K1, 0, K2, 1, K3, 2, K4, 3,
-        K5, 4);
+    return createHandler(readerVersionNumber, false);
+  }
+
+  private PartitionServerHandler createHandler(final int readerVersionNumber,
+                                               final boolean getBulkGroupByPartition) throws IOException {
     MockStorageEngine storageEngine = new MockStorageEngine() {
       @Override
       public Reader getReader(ReaderConfigurator configurator, int partitionNumber)
@@ -154,8 +238,17 @@ public class TestPartitionServerHandler extends BaseTestCase {
         };
       }
     };
-    final Domain domain = new MockDomain("myDomain", 0, 5, partitioner, storageEngine, null, null);
+    return createHandler(createDomain(storageEngine), getBulkGroupByPartition);
+  }
+
+  private static Domain createDomain(MockStorageEngine storageEngine) {
+    Partitioner partitioner = new MapPartitioner(K1, 0, K2, 1, K3, 2, K4, 3,
+        K5, 4);
+    return new MockDomain("myDomain", 0, 5, partitioner, storageEngine, null, null);
+  }
 
+  private PartitionServerHandler createHandler(final Domain domain,
+                                               final boolean getBulkGroupByPartition) throws IOException {
     final MockDomainGroup dg = new MockDomainGroup("myDomainGroup") {
       @Override
       public Set<DomainAndVersion> getDomainVersions() throws IOException {
@@ -186,7 +279,12 @@ public class TestPartitionServerHandler extends BaseTestCase {
       }
     };
     PartitionServerConfigurator config = new MockPartitionServerConfigurator(12345,
-        mockCoordinator, "myRingGroupName", "/tmp/local/data/dir");
+        mockCoordinator, "myRingGroupName", "/tmp/local/data/dir") {
+      @Override
+      public boolean getGetBulkGroupByPartition() {
+        return getBulkGroupByPartition;
+      }
+    };
     PartitionServerHandler handler = new PartitionServerHandler(new PartitionServerAddress(
         "localhost", 12345), config, mockCoordinator);
     return handler;
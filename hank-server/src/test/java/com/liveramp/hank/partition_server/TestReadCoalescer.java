@@ -0,0 +1,187 @@
+package com.liveramp.hank.partition_server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.liveramp.hank.storage.CacheStatistics;
+import com.liveramp.hank.storage.Reader;
+import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.test.BaseTestCase;
+import com.liveramp.hank.util.Condition;
+import com.liveramp.hank.util.WaitUntil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestReadCoalescer extends BaseTestCase {
+
+  // Returns the key as value, except for key {0} which is not found. Blocks until released.
+  private static class BlockingReader implements Reader {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger numReads = new AtomicInteger(0);
+    private volatile boolean fail = false;
+
+    @Override
+    public void get(ByteBuffer key, ReaderResult result) throws IOException {
+      numReads.incrementAndGet();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      if (fail) {
+        throw new IOException("Failed read");
+      }
+      if (key.remaining() == 1 && key.get(key.position()) == 0) {
+        result.notFound();
+      } else {
+        result.deepCopyIntoResultBuffer(key);
+        result.found();
+      }
+    }
+
+    @Override
+    public Integer getVersionNumber() {
+      return null;
+    }
+
+    @Override
+    public CacheStatistics getCacheStatistics() {
+      return new CacheStatistics(0, 0, 0, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+  }
+
+  private static class GetThread extends Thread {
+
+    private final ReadCoalescer readCoalescer;
+    private final Reader reader;
+    private final ByteBuffer key;
+    private final ReaderResult result = new ReaderResult();
+    private volatile boolean performedRead;
+    private volatile IOException exception;
+
+    private GetThread(ReadCoalescer readCoalescer, Reader reader, ByteBuffer key) {
+      this.readCoalescer = readCoalescer;
+      this.reader = reader;
+      this.key = key;
+    }
+
+    @Override
+    public void run() {
+      try {
+        performedRead = readCoalescer.get(reader, key, result);
+      } catch (IOException e) {
+        exception = e;
+      }
+    }
+  }
+
+  private GetThread[] startGets(final ReadCoalescer readCoalescer,
+                                BlockingReader reader,
+                                ByteBuffer key,
+                                final int numThreads) throws Exception {
+    GetThread[] threads = new GetThread[numThreads];
+    for (int i = 0; i < numThreads; ++i) {
+      threads[i] = new GetThread(readCoalescer, reader, key.duplicate());
+      threads[i].start();
+    }
+    // Wait until every thread either reads or waits for the read in flight
+    WaitUntil.orDie(new Condition() {
+      @Override
+      public boolean test() {
+        return readCoalescer.getNumInFlightReads() == 1;
+      }
+    });
+    Thread.sleep(100);
+    return threads;
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    ReadCoalescer readCoalescer = new ReadCoalescer();
+    BlockingReader reader = new BlockingReader();
+    ByteBuffer key = ByteBuffer.wrap(new byte[]{1, 2, 3});
+    GetThread[] threads = startGets(readCoalescer, reader, key, 8);
+    reader.release.countDown();
+    int numPerformedReads = 0;
+    for (GetThread thread : threads) {
+      thread.join();
+      if (thread.performedRead) {
+        ++numPerformedReads;
+      }
+      assertTrue(thread.result.isFound());
+      assertEquals(key, thread.result.getBuffer());
+    }
+    assertEquals(1, numPerformedReads);
+    assertEquals(1, reader.numReads.get());
+    assertEquals(0, readCoalescer.getNumInFlightReads());
+
+    // Later reads are not coalesced with completed ones
+    ReaderResult result = new ReaderResult();
+    assertTrue(readCoalescer.get(reader, key, result));
+    assertEquals(2, reader.numReads.get());
+
+    // Not found
+    result.clear();
+    assertTrue(readCoalescer.get(reader, ByteBuffer.wrap(new byte[]{0}), result));
+    assertFalse(result.isFound());
+  }
+
+  @Test
+  public void testReadsOfKeysInTheSameSlotAreNotCoalesced() throws Exception {
+    ReadCoalescer readCoalescer = new ReadCoalescer();
+    final BlockingReader reader = new BlockingReader();
+    ByteBuffer key = ByteBuffer.wrap(new byte[]{1, 2, 3});
+    ByteBuffer otherKey = null;
+    for (int i = 1; otherKey == null; ++i) {
+      ByteBuffer candidate = ByteBuffer.wrap(new byte[]{(byte)i, (byte)(i >> 8), 4});
+      if (ReadCoalescer.getSlot(candidate) == ReadCoalescer.getSlot(key)) {
+        otherKey = candidate;
+      }
+    }
+    GetThread[] threads = startGets(readCoalescer, reader, key, 1);
+    GetThread otherThread = new GetThread(readCoalescer, reader, otherKey);
+    otherThread.start();
+    // The other key is read while the first read is still in flight
+    WaitUntil.orDie(new Condition() {
+      @Override
+      public boolean test() {
+        return reader.numReads.get() == 2;
+      }
+    });
+    assertEquals(1, readCoalescer.getNumInFlightReads());
+    reader.release.countDown();
+    threads[0].join();
+    otherThread.join();
+    assertTrue(threads[0].performedRead);
+    assertTrue(otherThread.performedRead);
+    assertEquals(key, threads[0].result.getBuffer());
+    assertEquals(otherKey, otherThread.result.getBuffer());
+    assertEquals(2, reader.numReads.get());
+    assertEquals(0, readCoalescer.getNumInFlightReads());
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    ReadCoalescer readCoalescer = new ReadCoalescer();
+    BlockingReader reader = new BlockingReader();
+    reader.fail = true;
+    GetThread[] threads = startGets(readCoalescer, reader, ByteBuffer.wrap(new byte[]{1}), 4);
+    reader.release.countDown();
+    for (GetThread thread : threads) {
+      thread.join();
+      assertTrue(thread.exception != null);
+    }
+    assertEquals(0, readCoalescer.getNumInFlightReads());
+  }
+}
@@ -46,15 +46,18 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -247,6 +250,58 @@ public class TestUpdateManager extends BaseTestCase {
         mockHostDomain.isRemoved(fixtures.PARTITION_FOR_DELETION.getPartitionNumber()));
   }
 
+  @Test
+  public void testUpdateWithPartitionUpdateListener() throws Exception {
+    final MockPartitionUpdater mockUpdater = new MockPartitionUpdater();
+
+    StorageEngine mockStorageEngine = fixtures.getMockStorageEngine(mockUpdater);
+    Domain mockDomain = fixtures.getMockDomain(mockStorageEngine);
+    MockHostDomain mockHostDomain = fixtures.getMockHostDomain(mockDomain);
+    Host mockHost = fixtures.getMockHost(mockHostDomain);
+    DomainGroup mockDomainGroup = fixtures.getMockDomainGroup(mockDomain);
+    Fixtures.MockRingGroupLocal mockRingGroup = fixtures.getMockRingGroup(mockDomainGroup);
+    Ring mockRing = fixtures.getMockRing(mockHost, mockRingGroup);
+    mockRingGroup.setRing(mockRing);
+
+    final List<Integer> updatedPartitions = new ArrayList<Integer>();
+    final List<Integer> deletedPartitions = new ArrayList<Integer>();
+    PartitionUpdateListener listener = new PartitionUpdateListener() {
+      @Override
+      public boolean onPartitionUpdate(HostDomain hostDomain, HostDomainPartition partition, int versionNumber) throws IOException {
+        assertTrue("files are updated before the partition is swapped in", mockUpdater.isUpdated());
+        assertNull("new version is not recorded before the partition is swapped in", partition.getCurrentDomainVersion());
+        assertEquals(2, versionNumber);
+        updatedPartitions.add(partition.getPartitionNumber());
+        // Refusing to swap in the partition does not fail the update
+        return false;
+      }
+
+      @Override
+      public void onPartitionDelete(HostDomain hostDomain, int partitionNumber) throws IOException {
+        assertFalse("partition is not deleted before the listener is notified", fixtures.MOCK_DELETER.hasDeleted());
+        deletedPartitions.add(partitionNumber);
+      }
+    };
+
+    UpdateManager ud = new UpdateManager(new MockPartitionServerConfigurator(1,
+        null, "myRingGroup", "/local/data/dir"), mockHost,
+        mockRingGroup, listener);
+    ud.update();
+    assertEquals(Collections.singletonList(fixtures.HOST_DOMAIN_PARTITION.getPartitionNumber()), updatedPartitions);
+    assertEquals("current version", Integer.valueOf(2),
+        fixtures.HOST_DOMAIN_PARTITION.getCurrentDomainVersion());
+    assertTrue(deletedPartitions.isEmpty());
+
+    // Up-to-date partitions are not swapped in again
+    fixtures.PARTITION_FOR_DELETION.setDeletable(true);
+    ud.update();
+
+    assertEquals(1, updatedPartitions.size());
+    assertEquals(Collections.singletonList(fixtures.PARTITION_FOR_DELETION.getPartitionNumber()), deletedPartitions);
+    assertTrue("host domain does not contain the partition",
+        fixtures.MOCK_DELETER.hasDeleted());
+  }
+
   @Test
   public void testGarbageCollectDomain() throws Exception {
     final MockPartitionUpdater mockUpdater = new MockPartitionUpdater();
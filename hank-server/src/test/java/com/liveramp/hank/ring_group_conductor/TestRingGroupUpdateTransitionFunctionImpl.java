@@ -34,6 +34,7 @@ import com.liveramp.hank.coordinator.HostCommand;
 import com.liveramp.hank.coordinator.HostDomain;
 import com.liveramp.hank.coordinator.HostDomainPartition;
 import com.liveramp.hank.coordinator.HostState;
+import com.liveramp.hank.coordinator.Hosts;
 import com.liveramp.hank.coordinator.PartitionServerAddress;
 import com.liveramp.hank.coordinator.Ring;
 import com.liveramp.hank.coordinator.mock.MockDomain;
@@ -360,6 +361,71 @@ public class TestRingGroupUpdateTransitionFunctionImpl extends BaseTestCase {
     assertNull(r2h1.getAndClearLastEnqueuedCommand());
   }
 
+  @Test
+  public void testUpdateWhileServingWhenStartingUpdate() throws IOException {
+    domainGroup.setDomainVersions(versionsMap2);
+
+    setUpRing(r0, v1, v2, HostState.SERVING);
+    setUpRing(r1, v1, v2, HostState.SERVING);
+    setUpRing(r2, v1, v2, HostState.SERVING);
+    Hosts.setUpdateWhileServing(r0h0, true);
+    Hosts.setUpdateWhileServing(r0h1, true);
+
+    testTransitionFunction.manageTransitions(rg);
+
+    // Hosts in r0 should be updated without going idle
+    assertEquals(HostCommand.EXECUTE_UPDATE, r0h0.getAndClearLastEnqueuedCommand());
+    assertEquals(HostCommand.EXECUTE_UPDATE, r0h1.getAndClearLastEnqueuedCommand());
+
+    // No commands should have been issued to other rings
+    assertNull(r1h0.getAndClearLastEnqueuedCommand());
+    assertNull(r1h1.getAndClearLastEnqueuedCommand());
+    assertNull(r2h0.getAndClearLastEnqueuedCommand());
+    assertNull(r2h1.getAndClearLastEnqueuedCommand());
+  }
+
+  @Test
+  public void testDataServerRestartRequired() throws IOException {
+    domainGroup.setDomainVersions(versionsMap1);
+
+    setUpRing(r0, v1, v1, HostState.SERVING);
+    setUpRing(r1, v1, v1, HostState.SERVING);
+    setUpRing(r2, v1, v1, HostState.SERVING);
+    // Hosts serving the same partitions in two rings need a restart
+    Hosts.setDataServerRestartRequired(r0h0, true);
+    Hosts.setDataServerRestartRequired(r1h0, true);
+
+    testTransitionFunction.manageTransitions(rg);
+
+    // Only r0h0 should be taken down, r1h0 waits to keep enough replicas serving
+    assertEquals(HostCommand.GO_TO_IDLE, r0h0.getAndClearLastEnqueuedCommand());
+    assertNull(r0h1.getAndClearLastEnqueuedCommand());
+    assertNull(r1h0.getAndClearLastEnqueuedCommand());
+    assertNull(r1h1.getAndClearLastEnqueuedCommand());
+    assertNull(r2h0.getAndClearLastEnqueuedCommand());
+    assertNull(r2h1.getAndClearLastEnqueuedCommand());
+
+    // r0h0 is now idle and up-to-date, serve
+    r0h0.setState(HostState.IDLE);
+    r0h0.clearCommandQueue();
+    r0h0.setCurrentCommand(null);
+
+    testTransitionFunction.manageTransitions(rg);
+
+    assertEquals(HostCommand.SERVE_DATA, r0h0.getAndClearLastEnqueuedCommand());
+    assertNull(r1h0.getAndClearLastEnqueuedCommand());
+
+    // r0h0 is serving again with a restarted data server, r1h0 can go
+    r0h0.setState(HostState.SERVING);
+    r0h0.clearCommandQueue();
+    Hosts.setDataServerRestartRequired(r0h0, false);
+
+    testTransitionFunction.manageTransitions(rg);
+
+    assertNull(r0h0.getAndClearLastEnqueuedCommand());
+    assertEquals(HostCommand.GO_TO_IDLE, r1h0.getAndClearLastEnqueuedCommand());
+  }
+
   @Test
   public void testAssignWhenOneHostIsServing() throws IOException {
     domainGroup.setDomainVersions(versionsMap3);
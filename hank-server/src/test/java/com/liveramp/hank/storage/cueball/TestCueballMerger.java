@@ -16,6 +16,7 @@
 package com.liveramp.hank.storage.cueball;
 
 import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.hasher.IdentityHasher;
 import org.junit.Test;
 
 import java.io.*;
@@ -23,6 +24,7 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class TestCueballMerger extends AbstractCueballTest {
   private final String LOCAL_ROOT = localTmpDir;
@@ -187,4 +189,69 @@ public class TestCueballMerger extends AbstractCueballTest {
 
     assertEquals(ByteBuffer.wrap(EXPECTED_MERGED_DATA), ByteBuffer.wrap(actualMergedData));
   }
+
+  @Test
+  public void testMergeSortLatestValueWins() throws Exception {
+    new File(LOCAL_ROOT).mkdirs();
+    // Key 1 is in every file, key 2 only in the base and delta 1
+    writeSingleBlockFile(BASE.getPath(), new byte[]{1, 10, 2, 20});
+    writeSingleBlockFile(DELTA_1.getPath(), new byte[]{1, 11, 2, 21});
+    writeSingleBlockFile(DELTA_2.getPath(), new byte[]{1, 12});
+
+    CueballStreamBufferMergeSort mergeSort = new CueballStreamBufferMergeSort(BASE,
+        Arrays.asList(DELTA_1, DELTA_2), 1, 1, 1, new NoCueballCompressionCodec(), null);
+
+    KeyHashAndValueAndStreamIndex record = mergeSort.nextKeyHashAndValueAndStreamIndex();
+    assertEquals(ByteBuffer.wrap(new byte[]{1}), record.keyHash);
+    assertEquals(ByteBuffer.wrap(new byte[]{12}), record.value);
+    assertEquals(2, record.streamIndex);
+
+    record = mergeSort.nextKeyHashAndValueAndStreamIndex();
+    assertEquals(ByteBuffer.wrap(new byte[]{2}), record.keyHash);
+    assertEquals(ByteBuffer.wrap(new byte[]{21}), record.value);
+    assertEquals(1, record.streamIndex);
+
+    assertNull(mergeSort.nextKeyHashAndValueAndStreamIndex());
+    mergeSort.close();
+  }
+
+  @Test
+  public void testMergeKeepsKeyHashFilters() throws Exception {
+    new File(LOCAL_ROOT).mkdirs();
+    CueballWriter writer = new CueballWriter(new FileOutputStream(BASE.getPath()), 1, new IdentityHasher(), 1,
+        new NoCueballCompressionCodec(), 1, 10);
+    writer.write(ByteBuffer.wrap(new byte[]{1}), ByteBuffer.wrap(new byte[]{10}));
+    writer.write(ByteBuffer.wrap(new byte[]{(byte) 0x81}), ByteBuffer.wrap(new byte[]{11}));
+    writer.close();
+    writeSingleBlockFile(DELTA_1.getPath(), new byte[]{2, 20});
+
+    new CueballMerger().merge(BASE,
+        Arrays.asList(DELTA_1),
+        NEW_BASE_PATH,
+        1,
+        1,
+        null,
+        1,
+        new NoCueballCompressionCodec());
+
+    FileInputStream in = new FileInputStream(NEW_BASE_PATH);
+    Footer footer = new Footer(in.getChannel(), 1);
+    in.close();
+    assertEquals(10, footer.getKeyHashFilterBitsPerKey());
+    assertEquals(6, footer.getDataLength());
+  }
+
+  // Write records that all belong to block 0, with a hash index of 1 bit
+  private static void writeSingleBlockFile(String path, byte[] records) throws IOException {
+    OutputStream s = new FileOutputStream(path);
+    s.write(records);
+    // block 0 offset
+    s.write(new byte[]{0, 0, 0, 0, 0, 0, 0, 0});
+    // block 1 is empty
+    s.write(new byte[]{-1, -1, -1, -1, -1, -1, -1, -1});
+    // max uncompressed and compressed sizes
+    s.write(new byte[]{(byte) records.length, 0, 0, 0});
+    s.write(new byte[]{(byte) records.length, 0, 0, 0});
+    s.close();
+  }
 }
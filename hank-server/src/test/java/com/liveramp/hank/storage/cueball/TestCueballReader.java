@@ -17,12 +17,27 @@ package com.liveramp.hank.storage.cueball;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
+import com.liveramp.commons.util.BytesUtils;
+import com.liveramp.hank.compression.cueball.CueballCompressionCodec;
+import com.liveramp.hank.compression.cueball.GzipCueballCompressionCodec;
+import com.liveramp.hank.compression.cueball.Lz4CueballCompressionCodec;
 import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.compression.cueball.SnappyCueballCompressionCodec;
+import com.liveramp.hank.hasher.Murmur64Hasher;
+import com.liveramp.hank.storage.CacheStatistics;
 import com.liveramp.hank.storage.ReaderResult;
 
 import static org.junit.Assert.assertEquals;
@@ -30,18 +45,256 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class TestCueballReader extends AbstractCueballTest {
+
+  private static final int COMPRESSED_KEY_HASH_SIZE = 10;
+  private static final int COMPRESSED_VALUE_SIZE = 32;
+  private static final int COMPRESSED_HASH_INDEX_BITS = 4;
+  private static final int COMPRESSED_NUM_RECORDS = 2000;
+  // Hashes are uniform, this leaves plenty of slack
+  private static final int MAX_NUM_RECORDS_PER_BLOCK = 2 * COMPRESSED_NUM_RECORDS / (1 << COMPRESSED_HASH_INDEX_BITS);
+
   @Test
   public void testRead() throws Exception {
+    String root = writeCueballFile();
+    doTestRead(new CueballReader(root, 10, HASHER, 5, 1, new NoCueballCompressionCodec(), 1 << 20, 1));
+  }
+
+  @Test
+  public void testReadMemoryMapped() throws Exception {
+    String root = writeCueballFile();
+    doTestRead(new CueballReader(root, 10, HASHER, 5, 1, new NoCueballCompressionCodec(), 1 << 20, 1, true,
+        1, 0, false));
+  }
+
+  @Test
+  public void testReadBinarySearch() throws Exception {
+    doTestRead(new CueballReader(writeCueballFile(), 10, HASHER, 5, 1, new NoCueballCompressionCodec(), 1 << 20, 1,
+        false, 1, 0, true));
+  }
+
+  @Test
+  public void testReadMemoryMappedBinarySearch() throws Exception {
+    doTestRead(new CueballReader(writeCueballFile(), 10, HASHER, 5, 1, new NoCueballCompressionCodec(), 1 << 20, 1,
+        true, 1, 0, true));
+  }
+
+  @Test
+  public void testBlockOffset() throws Exception {
+    CueballReader reader = new CueballReader(writeCueballFile(), 10, HASHER, 5, 1, new NoCueballCompressionCodec(), 0, 0);
+    assertEquals(0, reader.getBlockOffset(ByteBuffer.wrap(KEY1)));
+    assertEquals(0, reader.getBlockOffset(ByteBuffer.wrap(KEY2)));
+    assertEquals(30, reader.getBlockOffset(ByteBuffer.wrap(KEY3)));
+    assertEquals(30, reader.getBlockOffset(ByteBuffer.wrap(KEY10)));
+  }
+
+  @Test
+  public void testReadersDoNotShareDecompressedBlocks() throws Exception {
+    byte[] otherData = EXPECTED_DATA.clone();
+    otherData[10] = 7;
+    CueballReader reader = new CueballReader(writeCueballFile("1", EXPECTED_DATA), 10, HASHER, 5, 1,
+        new NoCueballCompressionCodec(), 0, 0);
+    CueballReader otherReader = new CueballReader(writeCueballFile("2", otherData), 10, HASHER, 5, 1,
+        new NoCueballCompressionCodec(), 0, 0);
+    // The same block of both readers is looked up in turn, by the same thread
+    for (int i = 0; i < 2; ++i) {
+      ReaderResult result = new ReaderResult();
+      reader.get(ByteBuffer.wrap(KEY1), result);
+      assertEquals(ByteBuffer.wrap(new byte[]{1, 2, 1, 2, 1}), result.getBuffer());
+      result.clear();
+      otherReader.get(ByteBuffer.wrap(KEY1), result);
+      assertEquals(ByteBuffer.wrap(new byte[]{7, 2, 1, 2, 1}), result.getBuffer());
+      result.clear();
+      otherReader.get(ByteBuffer.wrap(KEY2), result);
+      assertEquals(ByteBuffer.wrap(new byte[]{2, 1, 2, 1, 2}), result.getBuffer());
+    }
+  }
+
+  @Test
+  public void testReadCompressed() throws Exception {
+    CueballCompressionCodec[] codecs = new CueballCompressionCodec[]{
+        new NoCueballCompressionCodec(),
+        new GzipCueballCompressionCodec(),
+        new Lz4CueballCompressionCodec(),
+        new SnappyCueballCompressionCodec()};
+    for (int i = 0; i < codecs.length; ++i) {
+      Map<ByteBuffer, ByteBuffer> records = new HashMap<ByteBuffer, ByteBuffer>();
+      String root = writeCompressedCueballFile(Integer.toString(i), codecs[i], records);
+      // Blocks must be decompressed from their exact bytes, whether read from the channel or the mapping
+      for (boolean memoryMapped : new boolean[]{false, true}) {
+        CueballReader reader = new CueballReader(root, COMPRESSED_KEY_HASH_SIZE, new Murmur64Hasher(),
+            COMPRESSED_VALUE_SIZE, COMPRESSED_HASH_INDEX_BITS, codecs[i], 0, 0, memoryMapped, 1, 0, false);
+        checkRecords(reader, records);
+        reader.close();
+      }
+    }
+  }
+
+  @Test
+  public void testBlockCache() throws Exception {
+    doTestBlockCache(false);
+  }
+
+  @Test
+  public void testBlockCacheMemoryMapped() throws Exception {
+    doTestBlockCache(true);
+  }
+
+  @Test
+  public void testBlockCacheEviction() throws Exception {
+    Map<ByteBuffer, ByteBuffer> records = new HashMap<ByteBuffer, ByteBuffer>();
+    String root = writeCompressedCueballFile("1", new GzipCueballCompressionCodec(), records);
+    // Room for a few decompressed blocks only
+    long blockCacheNumBytesCapacity = 4 * MAX_NUM_RECORDS_PER_BLOCK * (COMPRESSED_KEY_HASH_SIZE + COMPRESSED_VALUE_SIZE);
+    CueballReader reader = new CueballReader(root, COMPRESSED_KEY_HASH_SIZE, new Murmur64Hasher(), COMPRESSED_VALUE_SIZE,
+        COMPRESSED_HASH_INDEX_BITS, new GzipCueballCompressionCodec(), 0, 0, false, 1, blockCacheNumBytesCapacity,
+        false);
+    checkRecords(reader, records);
+    CacheStatistics statistics = reader.getCacheStatistics();
+    assertTrue(statistics.getNumItems() > 0);
+    assertTrue(statistics.getNumItems() < (1 << COMPRESSED_HASH_INDEX_BITS));
+    assertTrue(statistics.getNumManagedBytes() <= statistics.getMaxNumManagedBytes());
+    // Evicted blocks are read again
+    checkRecords(reader, records);
+  }
+
+  private void doTestBlockCache(boolean memoryMapped) throws Exception {
+    Map<ByteBuffer, ByteBuffer> records = new HashMap<ByteBuffer, ByteBuffer>();
+    String root = writeCompressedCueballFile("1", new GzipCueballCompressionCodec(), records);
+    // No value cache, so that every GET reaches the blocks
+    final CueballReader reader = new CueballReader(root, COMPRESSED_KEY_HASH_SIZE, new Murmur64Hasher(),
+        COMPRESSED_VALUE_SIZE, COMPRESSED_HASH_INDEX_BITS, new GzipCueballCompressionCodec(), 0, 0, memoryMapped, 1,
+        1 << 20, false);
+
+    // Find keys of two different blocks
+    ByteBuffer key1 = null;
+    ByteBuffer key2 = null;
+    for (ByteBuffer key : records.keySet()) {
+      if (key1 == null) {
+        key1 = key;
+      } else if (reader.getBlockOffset(key) != reader.getBlockOffset(key1)) {
+        key2 = key;
+        break;
+      }
+    }
+
+    // First reads of each block miss
+    ReaderResult result = new ReaderResult();
+    reader.get(key1, result);
+    assertEquals(records.get(key1), result.getBuffer());
+    assertEquals(0, result.getNumBlockCacheHits());
+    assertEquals(1, result.getNumBlockCacheMisses());
+    result.clear();
+    reader.get(key2, result);
+    assertEquals(records.get(key2), result.getBuffer());
+    assertEquals(0, result.getNumBlockCacheHits());
+    assertEquals(1, result.getNumBlockCacheMisses());
+    result.clear();
+    // Following reads hit, either in the block cache or in the last decompressed block
+    reader.get(key1, result);
+    assertEquals(records.get(key1), result.getBuffer());
+    assertEquals(1, result.getNumBlockCacheHits());
+    assertEquals(0, result.getNumBlockCacheMisses());
+    result.clear();
+    reader.get(key1, result);
+    assertEquals(records.get(key1), result.getBuffer());
+    assertEquals(1, result.getNumBlockCacheHits());
+    assertEquals(0, result.getNumBlockCacheMisses());
+    assertEquals(2, reader.getCacheStatistics().getNumItems());
+
+    // Cached blocks are shared by concurrent readers and must yield correct values
+    checkRecords(reader, records);
+    final Map<ByteBuffer, ByteBuffer> expectedRecords = records;
+    final AtomicInteger numErrors = new AtomicInteger();
+    Thread[] threads = new Thread[4];
+    for (int t = 0; t < threads.length; ++t) {
+      threads[t] = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < 10; ++i) {
+              checkRecords(reader, expectedRecords);
+            }
+          } catch (Throwable e) {
+            numErrors.incrementAndGet();
+          }
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(0, numErrors.get());
+  }
+
+  // Check that all records are found, and that keys that are not in the partition are not
+  private static void checkRecords(CueballReader reader, Map<ByteBuffer, ByteBuffer> records) throws IOException {
+    ReaderResult result = new ReaderResult();
+    for (Map.Entry<ByteBuffer, ByteBuffer> entry : records.entrySet()) {
+      result.clear();
+      reader.get(entry.getKey(), result);
+      assertTrue(result.isFound());
+      assertEquals(entry.getValue(), result.getBuffer());
+    }
+    for (int i = 0; i < 100; ++i) {
+      result.clear();
+      reader.get(compressedRecordKey(-1 - i), result);
+      assertFalse(result.isFound());
+    }
+  }
+
+  // Write a Cueball base spanning all the blocks of the hash index, and fill the given map with its records
+  private String writeCompressedCueballFile(String partition,
+                                            CueballCompressionCodec codec,
+                                            Map<ByteBuffer, ByteBuffer> records) throws Exception {
+    String root = localTmpDir + "/" + partition;
+    new File(root).mkdir();
+    Murmur64Hasher hasher = new Murmur64Hasher();
+    SortedMap<ByteBuffer, ByteBuffer> hashToValue = new TreeMap<ByteBuffer, ByteBuffer>(new Comparator<ByteBuffer>() {
+      @Override
+      public int compare(ByteBuffer a, ByteBuffer b) {
+        return BytesUtils.compareBytesUnsigned(a.array(), 0, b.array(), 0, COMPRESSED_KEY_HASH_SIZE);
+      }
+    });
+    for (int i = 0; i < COMPRESSED_NUM_RECORDS; ++i) {
+      ByteBuffer key = compressedRecordKey(i);
+      byte[] keyHash = new byte[COMPRESSED_KEY_HASH_SIZE];
+      hasher.hash(key, COMPRESSED_KEY_HASH_SIZE, keyHash);
+      // Values are compressible
+      byte[] value = new byte[COMPRESSED_VALUE_SIZE];
+      Arrays.fill(value, 0, COMPRESSED_VALUE_SIZE / 2, (byte)i);
+      records.put(key, ByteBuffer.wrap(value));
+      hashToValue.put(ByteBuffer.wrap(keyHash), ByteBuffer.wrap(value));
+    }
+    CueballWriter writer = new CueballWriter(new FileOutputStream(root + "/" + Cueball.getName(0, true)),
+        COMPRESSED_KEY_HASH_SIZE, hasher, COMPRESSED_VALUE_SIZE, codec, COMPRESSED_HASH_INDEX_BITS);
+    for (Map.Entry<ByteBuffer, ByteBuffer> entry : hashToValue.entrySet()) {
+      writer.writeHash(entry.getKey(), entry.getValue());
+    }
+    writer.close();
+    return root;
+  }
+
+  private static ByteBuffer compressedRecordKey(int i) {
+    return ByteBuffer.wrap(new byte[]{(byte)(i >> 24), (byte)(i >> 16), (byte)(i >> 8), (byte)i});
+  }
+
+  private String writeCueballFile() throws Exception {
+    return writeCueballFile("1", EXPECTED_DATA);
+  }
+
+  private String writeCueballFile(String partition, byte[] data) throws Exception {
     // set up fake cueball file
-    String root = localTmpDir + "/1";
+    String root = localTmpDir + "/" + partition;
     new File(root).mkdir();
     OutputStream os = new FileOutputStream(root + "/00000.base.cueball");
-    os.write(EXPECTED_DATA);
+    os.write(data);
     os.flush();
     os.close();
+    return root;
+  }
 
-    CueballReader reader = new CueballReader(root, 10, HASHER, 5, 1, new NoCueballCompressionCodec(), 1 << 20, 1);
-
+  private void doTestRead(CueballReader reader) throws Exception {
     // test version number
     assertEquals(Integer.valueOf(0), reader.getVersionNumber());
 
@@ -0,0 +1,151 @@
+package com.liveramp.hank.storage.cueball;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.liveramp.commons.util.BytesUtils;
+import com.liveramp.hank.compression.cueball.NoCueballCompressionCodec;
+import com.liveramp.hank.hasher.IdentityHasher;
+import com.liveramp.hank.storage.ReaderResult;
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestKeyHashFilter extends BaseTestCase {
+
+  private static final int KEY_HASH_SIZE = 10;
+  private static final int VALUE_SIZE = 2;
+  private static final int HASH_INDEX_BITS = 4;
+  private static final int NUM_KEYS = 2000;
+  private static final int NUM_MISSING_KEYS = 10000;
+
+  private final String root = localTmpDir + "/partition";
+  private final Random random = new Random(0);
+  private TreeSet<ByteBuffer> keys;
+
+  @Before
+  public void setUp() throws Exception {
+    new File(root).mkdirs();
+    keys = new TreeSet<ByteBuffer>(new Comparator<ByteBuffer>() {
+      @Override
+      public int compare(ByteBuffer a, ByteBuffer b) {
+        return BytesUtils.compareBytesUnsigned(a, b);
+      }
+    });
+    while (keys.size() < NUM_KEYS) {
+      keys.add(randomKey());
+    }
+  }
+
+  @Test
+  public void testNoFilter() throws Exception {
+    String path = writeCueballFile(0);
+    FileChannel channel = new FileInputStream(path).getChannel();
+    Footer footer = new Footer(channel, HASH_INDEX_BITS);
+    assertEquals(0, footer.getKeyHashFilterLength());
+    assertEquals(0, footer.getKeyHashFilterBitsPerKey());
+    assertNull(KeyHashFilter.read(channel, footer));
+    channel.close();
+  }
+
+  @Test
+  public void testFilter() throws Exception {
+    String path = writeCueballFile(10);
+    FileChannel channel = new FileInputStream(path).getChannel();
+    Footer footer = new Footer(channel, HASH_INDEX_BITS);
+    assertTrue(footer.getKeyHashFilterLength() > 0);
+    assertEquals(10, footer.getKeyHashFilterBitsPerKey());
+    assertEquals(footer.getFileSize() - footer.getFooterLength() - footer.getKeyHashFilterLength(), footer.getDataLength());
+    KeyHashFilter filter = KeyHashFilter.read(channel, footer);
+    channel.close();
+
+    HashPrefixCalculator prefixer = new HashPrefixCalculator(HASH_INDEX_BITS);
+    // No false negatives
+    for (ByteBuffer key : keys) {
+      assertTrue(filter.mightContain(prefixer.getHashPrefix(key.array(), 0), key.array(), KEY_HASH_SIZE));
+    }
+    // About 1% of false positives with 10 bits per key
+    int numFalsePositives = 0;
+    for (ByteBuffer key : getMissingKeys()) {
+      if (filter.mightContain(prefixer.getHashPrefix(key.array(), 0), key.array(), KEY_HASH_SIZE)) {
+        ++numFalsePositives;
+      }
+    }
+    assertTrue(numFalsePositives < NUM_MISSING_KEYS / 50);
+  }
+
+  @Test
+  public void testReaderDoesNotCacheFilteredMisses() throws Exception {
+    writeCueballFile(10);
+    CueballReader reader = new CueballReader(root, KEY_HASH_SIZE, new IdentityHasher(), VALUE_SIZE, HASH_INDEX_BITS,
+        new NoCueballCompressionCodec(), 1 << 20, 0);
+    ReaderResult result = new ReaderResult();
+    for (ByteBuffer key : keys) {
+      result.clear();
+      reader.get(key, result);
+      assertTrue(result.isFound());
+      assertEquals(getValue(key), result.getBuffer());
+    }
+    // Misses answered by the filter are not cached
+    int numCachedMisses = 0;
+    for (ByteBuffer key : getMissingKeys()) {
+      result.clear();
+      reader.get(key, result);
+      assertFalse(result.isFound());
+      result.clear();
+      reader.get(key, result);
+      assertFalse(result.isFound());
+      if (result.getL1CacheHit()) {
+        ++numCachedMisses;
+      }
+    }
+    assertTrue(numCachedMisses < NUM_MISSING_KEYS / 50);
+    reader.close();
+  }
+
+  private String writeCueballFile(int keyHashFilterBitsPerKey) throws Exception {
+    String path = root + "/00000.base.cueball";
+    CueballWriter writer = new CueballWriter(new FileOutputStream(path), KEY_HASH_SIZE, new IdentityHasher(),
+        VALUE_SIZE, new NoCueballCompressionCodec(), HASH_INDEX_BITS, keyHashFilterBitsPerKey);
+    for (ByteBuffer key : keys) {
+      writer.write(key, getValue(key));
+    }
+    writer.close();
+    return path;
+  }
+
+  private List<ByteBuffer> getMissingKeys() {
+    List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+    while (result.size() < NUM_MISSING_KEYS) {
+      ByteBuffer key = randomKey();
+      if (!keys.contains(key)) {
+        result.add(key);
+      }
+    }
+    return result;
+  }
+
+  private ByteBuffer randomKey() {
+    byte[] key = new byte[KEY_HASH_SIZE];
+    random.nextBytes(key);
+    return ByteBuffer.wrap(key);
+  }
+
+  private static ByteBuffer getValue(ByteBuffer key) {
+    return ByteBuffer.wrap(new byte[]{key.get(KEY_HASH_SIZE - 1), key.get(KEY_HASH_SIZE - 2)});
+  }
+}
@@ -0,0 +1,61 @@
+package com.liveramp.hank.storage.cueball;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.Test;
+
+import com.liveramp.hank.test.BaseTestCase;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestMappedDataRegion extends BaseTestCase {
+  private final String filePath = localTmpDir + "/testfile";
+
+  @Test
+  public void testSegments() throws Exception {
+    final FileOutputStream out = new FileOutputStream(filePath);
+    byte[] data = new byte[25];
+    for (int i = 0; i < data.length; ++i) {
+      data[i] = (byte)i;
+    }
+    out.write(data);
+    out.flush();
+    out.close();
+
+    FileChannel channel = new FileInputStream(filePath).getChannel();
+    // Segments of 10 bytes overlapping by 4 bytes
+    MappedDataRegion region = new MappedDataRegion(channel, 25, 4, 10);
+    assertEquals(3, region.getNumSegments());
+
+    // Offset at the end of the first segment can read into the overlap
+    assertEquals(9, region.getOffsetInSegment(9));
+    assertEquals(5, region.getNumBytesAvailable(9));
+    ByteBuffer segment = region.getSegment(9);
+    assertEquals(13, segment.get(region.getOffsetInSegment(9) + 4));
+
+    // Offset in the second segment
+    assertEquals(2, region.getOffsetInSegment(12));
+    assertEquals(12, region.getSegment(12).get(region.getOffsetInSegment(12)));
+
+    // Last segment is truncated to the data length
+    assertEquals(0, region.getOffsetInSegment(20));
+    assertEquals(5, region.getNumBytesAvailable(20));
+    assertEquals(24, region.getSegment(24).get(region.getOffsetInSegment(24)));
+
+    channel.close();
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testOutOfBounds() throws Exception {
+    final FileOutputStream out = new FileOutputStream(filePath);
+    out.write(new byte[10]);
+    out.flush();
+    out.close();
+    FileChannel channel = new FileInputStream(filePath).getChannel();
+    MappedDataRegion region = new MappedDataRegion(channel, 10, 2, 4);
+    region.getSegment(10);
+  }
+}
@@ -17,6 +17,8 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import static org.junit.Assert.assertEquals;
@@ -42,6 +44,37 @@ public class TestCurlyCompactingMerger extends BaseTestCase {
 
   @Test
   public void testMain() throws IOException {
+    checkMerge(merger, new ArrayList<String>(), 1);
+  }
+
+  @Test
+  public void testRecordsAreReadInFileOrder() throws IOException {
+    List<String> reads = new ArrayList<String>();
+    // Batches of 4 records
+    checkMerge(new CurlyCompactingMerger(recordFileReadBufferBytes, 1, 4), reads, 1);
+    // Within a batch, records are read file by file, in offset order
+    assertEquals(Arrays.asList(
+        "0:0", "0:3", "1:0", "1:1",
+        "0:8", "2:0", "2:2"), reads);
+  }
+
+  @Test
+  public void testLargeValues() throws IOException {
+    List<String> reads = new ArrayList<String>();
+    // Batches of 4 records, but values of 100 bytes and at most 250 bytes buffered
+    checkMerge(new CurlyCompactingMerger(recordFileReadBufferBytes, 1, 4, 250), reads, 100);
+    assertEquals(Arrays.asList(
+        // Reading the first batch exceeds the number of bytes
+        "0:0", "0:3", "1:0",
+        // It is read 2 records at a time
+        "0:0", "1:0",
+        "0:3", "1:1",
+        // And so is the next batch
+        "2:0", "2:2",
+        "0:8"), reads);
+  }
+
+  private void checkMerge(CurlyCompactingMerger merger, final List<String> reads, final int valueSize) throws IOException {
 
     CurlyFilePath curlyBasePath = CURLY_BASE_PATH;
     List<CurlyFilePath> curlyDeltas = new ArrayList<CurlyFilePath>();
@@ -92,20 +125,21 @@ public class TestCurlyCompactingMerger extends BaseTestCase {
           public void readRecord(ByteBuffer location, ReaderResult result) throws IOException {
             long recordFileOffset = EncodingHelper.decodeLittleEndianVarInt(location);
             System.err.println("Reading record at offset " + recordFileOffset + " of " + curlyFilePath.getPath());
+            reads.add(curlyFilePath.getVersion() + ":" + recordFileOffset);
             switch (curlyFilePath.getVersion()) {
               case 0:
                 result.getBuffer().clear();
-                result.getBuffer().put(BASE_DATA[((int)recordFileOffset)]);
+                result.getBuffer().put(getValue(BASE_DATA[((int)recordFileOffset)], valueSize));
                 result.getBuffer().flip();
                 break;
               case 1:
                 result.getBuffer().clear();
-                result.getBuffer().put(DELTA_1_DATA[((int)recordFileOffset)]);
+                result.getBuffer().put(getValue(DELTA_1_DATA[((int)recordFileOffset)], valueSize));
                 result.getBuffer().flip();
                 break;
               case 2:
                 result.getBuffer().clear();
-                result.getBuffer().put(DELTA_2_DATA[((int)recordFileOffset)]);
+                result.getBuffer().put(getValue(DELTA_2_DATA[((int)recordFileOffset)], valueSize));
                 result.getBuffer().flip();
                 break;
               default:
@@ -135,7 +169,8 @@ public class TestCurlyCompactingMerger extends BaseTestCase {
       }
     };
 
-    final MapWriter recordFileWriter = new MapWriter();
+    // Keeps the write order
+    final MapWriter recordFileWriter = new MapWriter(new LinkedHashMap<ByteBuffer, ByteBuffer>());
 
     // Perform merging
     merger.merge(curlyBasePath, curlyDeltas, keyFileStreamBufferMergeSort, curlyReaderFactory, recordFileWriter);
@@ -148,14 +183,17 @@ public class TestCurlyCompactingMerger extends BaseTestCase {
 
     // Check merged data
     assertEquals(7, recordFileWriter.entries.size());
-
-    assertEquals(0, BytesUtils.compareBytesUnsigned(getBB(0), recordFileWriter.entries.get(getBB(0))));  // 0,0
-    assertEquals(0, BytesUtils.compareBytesUnsigned(getBB(11), recordFileWriter.entries.get(getBB(1)))); // 1,11
-    assertEquals(0, BytesUtils.compareBytesUnsigned(getBB(12), recordFileWriter.entries.get(getBB(2)))); // 2,12
-    assertEquals(0, BytesUtils.compareBytesUnsigned(getBB(3), recordFileWriter.entries.get(getBB(3)))); // 3,3
-    assertEquals(0, BytesUtils.compareBytesUnsigned(getBB(14), recordFileWriter.entries.get(getBB(4)))); // 4,14
-    assertEquals(0, BytesUtils.compareBytesUnsigned(getBB(16), recordFileWriter.entries.get(getBB(5)))); // 5,16
-    assertEquals(0, BytesUtils.compareBytesUnsigned(getBB(8), recordFileWriter.entries.get(getBB(6)))); // 6,8
+    // Records are written in key hash order
+    assertEquals(Arrays.asList(getBB(0), getBB(1), getBB(2), getBB(3), getBB(4), getBB(5), getBB(6)),
+        new ArrayList<ByteBuffer>(recordFileWriter.entries.keySet()));
+
+    assertEquals(0, BytesUtils.compareBytesUnsigned(getValue((byte)0, valueSize), recordFileWriter.entries.get(getBB(0))));  // 0,0
+    assertEquals(0, BytesUtils.compareBytesUnsigned(getValue((byte)11, valueSize), recordFileWriter.entries.get(getBB(1)))); // 1,11
+    assertEquals(0, BytesUtils.compareBytesUnsigned(getValue((byte)12, valueSize), recordFileWriter.entries.get(getBB(2)))); // 2,12
+    assertEquals(0, BytesUtils.compareBytesUnsigned(getValue((byte)3, valueSize), recordFileWriter.entries.get(getBB(3)))); // 3,3
+    assertEquals(0, BytesUtils.compareBytesUnsigned(getValue((byte)14, valueSize), recordFileWriter.entries.get(getBB(4)))); // 4,14
+    assertEquals(0, BytesUtils.compareBytesUnsigned(getValue((byte)16, valueSize), recordFileWriter.entries.get(getBB(5)))); // 5,16
+    assertEquals(0, BytesUtils.compareBytesUnsigned(getValue((byte)8, valueSize), recordFileWriter.entries.get(getBB(6)))); // 6,8
   }
 
   private ByteBuffer getBB(int b) {
@@ -164,6 +202,12 @@ public class TestCurlyCompactingMerger extends BaseTestCase {
     return ByteBuffer.wrap(bytes);
   }
 
+  private ByteBuffer getValue(byte b, int size) {
+    byte[] bytes = new byte[size];
+    Arrays.fill(bytes, b);
+    return ByteBuffer.wrap(bytes);
+  }
+
   private void writeFile(byte[] data, String path) throws IOException {
     OutputStream s = new FileOutputStream(path);
     s.write(data);
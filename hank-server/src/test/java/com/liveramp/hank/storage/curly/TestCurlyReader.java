@@ -15,15 +15,17 @@
  */
 package com.liveramp.hank.storage.curly;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 
-import com.liveramp.hank.compression.CompressionCodec;
 import com.liveramp.hank.storage.ReaderResult;
 import com.liveramp.hank.storage.map.MapReader;
+import com.liveramp.hank.storage.map.MapWriter;
+import com.liveramp.hank.util.EncodingHelper;
 
 public class TestCurlyReader extends AbstractCurlyTestBase {
   private static final String TMP_TEST_CURLY_READER = "/tmp/TestCurlyReader";
@@ -107,7 +109,7 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
     result.clear();
   }
 
-  private void doTestBlockCompression(CompressionCodec blockCompressionCodec, byte[] compressedBlock) throws IOException {
+  private void doTestBlockCompression(CurlyBlockCompressionCodec blockCompressionCodec, byte[] compressedBlock) throws IOException {
     new File(TMP_TEST_CURLY_READER).mkdirs();
     OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
     s.write(compressedBlock);
@@ -145,19 +147,114 @@ public class TestCurlyReader extends AbstractCurlyTestBase {
     result.clear();
   }
 
+  public void testBlockCache() throws Exception {
+    new File(TMP_TEST_CURLY_READER).mkdirs();
+    OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
+    s.write(EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_DEFLATE);
+    s.flush();
+    s.close();
+
+    // All records are in the first block
+    MapReader keyfileReader = new MapReader(0,
+        KEY1.array(), new byte[]{0, 0, 0, 0, 0},
+        KEY2.array(), new byte[]{0, 0, 0, 5, 0},
+        KEY3.array(), new byte[]{0, 0, 0, 10, 0}
+    );
+
+    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, keyfileReader, -1, -1,
+        CurlyBlockCompressionCodec.DEFLATE, 3, 2, false, 0, 1, 1 << 20);
+
+    ReaderResult result = new ReaderResult();
+
+    reader.get(KEY1, result);
+    assertEquals(VALUE1, result.getBuffer());
+    assertEquals(0, result.getNumBlockCacheHits());
+    assertEquals(1, result.getNumBlockCacheMisses());
+    result.clear();
+
+    reader.get(KEY3, result);
+    assertEquals(VALUE3, result.getBuffer());
+    assertEquals(1, result.getNumBlockCacheHits());
+    assertEquals(0, result.getNumBlockCacheMisses());
+    result.clear();
+
+    reader.get(KEY2, result);
+    assertEquals(VALUE2, result.getBuffer());
+    assertEquals(1, result.getNumBlockCacheHits());
+    assertEquals(0, result.getNumBlockCacheMisses());
+    result.clear();
+
+    assertEquals(1, reader.getCacheStatistics().getNumItems());
+  }
+
   public void testBlockCompressionSlowNoCompression() throws Exception {
-    doTestBlockCompression(CompressionCodec.SLOW_NO_COMPRESSION, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SLOW_NO_COMPRESSION);
+    doTestBlockCompression(CurlyBlockCompressionCodec.SLOW_NO_COMPRESSION, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SLOW_NO_COMPRESSION);
   }
 
   public void testBlockCompressionDeflate() throws Exception {
-    doTestBlockCompression(CompressionCodec.DEFLATE, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_DEFLATE);
+    doTestBlockCompression(CurlyBlockCompressionCodec.DEFLATE, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_DEFLATE);
   }
 
   public void testBlockCompressionGzip() throws Exception {
-    doTestBlockCompression(CompressionCodec.GZIP, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_GZIP);
+    doTestBlockCompression(CurlyBlockCompressionCodec.GZIP, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_GZIP);
   }
 
   public void testBlockCompressionSnappy() throws Exception {
-    doTestBlockCompression(CompressionCodec.SNAPPY, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SNAPPY);
+    doTestBlockCompression(CurlyBlockCompressionCodec.SNAPPY, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SNAPPY);
+  }
+
+  public void testBlockCompressionZstd() throws Exception {
+    // Write two record files and append the second one to the first one, as when merging a delta
+    MapWriter firstKeyfileWriter = new MapWriter();
+    byte[] first = writeZstdRecordFile(firstKeyfileWriter, 0, 1000);
+    MapWriter secondKeyfileWriter = new MapWriter();
+    byte[] second = writeZstdRecordFile(secondKeyfileWriter, 1000, 200);
+
+    new File(TMP_TEST_CURLY_READER).mkdirs();
+    OutputStream s = new FileOutputStream(TMP_TEST_CURLY_READER + "/00000.base.curly");
+    s.write(first);
+    s.write(second);
+    s.close();
+
+    CurlyReader reader = new CurlyReader(CurlyReader.getLatestBase(TMP_TEST_CURLY_READER), 1024, null, -1, -1,
+        CurlyBlockCompressionCodec.ZSTD, 3, 2, true, 0);
+    ReaderResult result = new ReaderResult();
+    for (int i = 0; i < 1200; ++i) {
+      ByteBuffer key = ByteBuffer.wrap(getZstdKey(i));
+      ByteBuffer location;
+      if (i < 1000) {
+        location = firstKeyfileWriter.entries.get(key);
+      } else {
+        // Block offsets of the second file are shifted by the size of the first one
+        location = ByteBuffer.wrap(secondKeyfileWriter.entries.get(key).array().clone());
+        long blockOffset = EncodingHelper.decodeLittleEndianFixedWidthLong(location.array(), 0, 3);
+        EncodingHelper.encodeLittleEndianFixedWidthLong(blockOffset + first.length, location.array(), 0, 3);
+      }
+      result.requiresBufferSize(1024);
+      reader.readRecord(location, result);
+      assertEquals(getZstdValue(i), result.getBuffer());
+      result.clear();
+    }
+    reader.close();
+  }
+
+  private static byte[] writeZstdRecordFile(MapWriter keyfileWriter, int firstKey, int numKeys) throws IOException {
+    ByteArrayOutputStream s = new ByteArrayOutputStream();
+    CurlyWriter writer = new CurlyWriter(s, keyfileWriter, 3, -1, CurlyBlockCompressionCodec.ZSTD, 1024, 2);
+    for (int i = firstKey; i < firstKey + numKeys; ++i) {
+      writer.write(ByteBuffer.wrap(getZstdKey(i)), getZstdValue(i));
+    }
+    writer.close();
+    return s.toByteArray();
+  }
+
+  private static byte[] getZstdKey(int i) {
+    byte[] key = new byte[4];
+    EncodingHelper.encodeLittleEndianFixedWidthLong(i, key);
+    return key;
+  }
+
+  private static ByteBuffer getZstdValue(int i) {
+    return ByteBuffer.wrap(("{\"id\":" + i + ",\"segment\":\"segment_" + (i % 7) + "\",\"active\":" + (i % 2 == 0) + "}").getBytes());
   }
 }
@@ -16,7 +16,6 @@
 package com.liveramp.hank.storage.curly;
 
 import com.liveramp.commons.util.BytesUtils;
-import com.liveramp.hank.compression.CompressionCodec;
 import com.liveramp.hank.storage.map.MapWriter;
 
 import java.io.ByteArrayOutputStream;
@@ -77,7 +76,7 @@ public class TestCurlyWriter extends AbstractCurlyTestBase {
     assertEquals(ByteBuffer.wrap(EXPECTED_FOLDED_RECORD_FILE), ByteBuffer.wrap(s.toByteArray()));
   }
 
-  private void doTestBlockCompression(CompressionCodec blockCompressionCodec, byte[] expectedBlock) throws IOException {
+  private void doTestBlockCompression(CurlyBlockCompressionCodec blockCompressionCodec, byte[] expectedBlock) throws IOException {
     ByteArrayOutputStream s = new ByteArrayOutputStream();
     MapWriter keyfileWriter = new MapWriter();
     CurlyWriter writer = new CurlyWriter(s, keyfileWriter, 3, -1, blockCompressionCodec, 1024, 2);
@@ -105,18 +104,18 @@ public class TestCurlyWriter extends AbstractCurlyTestBase {
   }
 
   public void testBlockCompressionSlowNoCompression() throws Exception {
-    doTestBlockCompression(CompressionCodec.SLOW_NO_COMPRESSION, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SLOW_NO_COMPRESSION);
+    doTestBlockCompression(CurlyBlockCompressionCodec.SLOW_NO_COMPRESSION, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SLOW_NO_COMPRESSION);
   }
 
   public void testBlockCompressionDeflate() throws Exception {
-    doTestBlockCompression(CompressionCodec.DEFLATE, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_DEFLATE);
+    doTestBlockCompression(CurlyBlockCompressionCodec.DEFLATE, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_DEFLATE);
   }
 
   public void testBlockCompressionGzip() throws Exception {
-    doTestBlockCompression(CompressionCodec.GZIP, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_GZIP);
+    doTestBlockCompression(CurlyBlockCompressionCodec.GZIP, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_GZIP);
   }
 
   public void testBlockCompressionSnappy() throws Exception {
-    doTestBlockCompression(CompressionCodec.SNAPPY, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SNAPPY);
+    doTestBlockCompression(CurlyBlockCompressionCodec.SNAPPY, EXPECTED_RECORD_FILE_BLOCK_COMPRESSED_SNAPPY);
   }
 }
@@ -26,7 +26,14 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.Assert.assertNull;
 import static org.junit.Assert.assertEquals;
@@ -342,6 +349,154 @@ public class TestIncrementalPartitionUpdater extends IncrementalPartitionUpdater
     }
   }
 
+  @Test
+  public void testParallelFetches() throws Exception {
+    final DomainVersion v0 = new MockDomainVersion(0, 0l);
+    final DomainVersion v1 = new MockDomainVersion(1, 0l);
+    final DomainVersion v2 = new MockDomainVersion(2, 0l);
+    final DomainVersion v3 = new MockDomainVersion(3, 0l);
+
+    final AtomicInteger numRunningFetches = new AtomicInteger(0);
+    final AtomicInteger maxNumRunningFetches = new AtomicInteger(0);
+    final List<Integer> fetchedVersions = Collections.synchronizedList(new ArrayList<Integer>());
+    // v0 completes last
+    final CountDownLatch otherVersionsFetched = new CountDownLatch(3);
+    IncrementalPartitionUpdater updater =
+        new MockIncrementalPartitionUpdater(localPartitionRoot, null, null) {
+          @Override
+          protected void fetchVersion(DomainVersion version, String fetchRoot) throws IOException {
+            int numRunning = numRunningFetches.incrementAndGet();
+            synchronized (maxNumRunningFetches) {
+              maxNumRunningFetches.set(Math.max(maxNumRunningFetches.get(), numRunning));
+            }
+            try {
+              if (version.getVersionNumber() == 0) {
+                otherVersionsFetched.await();
+              }
+              if (!new File(fetchRoot + "/" + version.getVersionNumber() + ".data").createNewFile()) {
+                throw new IOException("Failed to fetch version " + version);
+              }
+              fetchedVersions.add(version.getVersionNumber());
+              if (version.getVersionNumber() != 0) {
+                otherVersionsFetched.countDown();
+              }
+            } catch (InterruptedException e) {
+              throw new IOException("Interrupted", e);
+            } finally {
+              numRunningFetches.decrementAndGet();
+            }
+          }
+        };
+
+    ExecutorService fetchExecutor = Executors.newFixedThreadPool(2);
+    try {
+      updater.setFetchExecutor(fetchExecutor);
+      updater.cacheVersionsNeededToUpdate(null,
+          Collections.<DomainVersion>emptySet(),
+          Collections.<DomainVersion>emptySet(),
+          new IncrementalUpdatePlan(v0, v1, v2, v3));
+    } finally {
+      fetchExecutor.shutdownNow();
+    }
+
+    // Versions were fetched concurrently, by at most as many threads as the executor has
+    assertEquals(2, maxNumRunningFetches.get());
+    // Fetches completing in any order are all committed to cache
+    assertEquals(4, fetchedVersions.size());
+    assertEquals(Integer.valueOf(0), fetchedVersions.get(3));
+    assertTrue(existsCacheFile("0.data"));
+    assertTrue(existsCacheFile("1.data"));
+    assertTrue(existsCacheFile("2.data"));
+    assertTrue(existsCacheFile("3.data"));
+  }
+
+  @Test
+  public void testFailingParallelFetch() throws Exception {
+    final DomainVersion v0 = new MockDomainVersion(0, 0l);
+    final DomainVersion v1 = new MockDomainVersion(1, 0l);
+    final DomainVersion v2 = new MockDomainVersion(2, 0l);
+    final DomainVersion v3 = new MockDomainVersion(3, 0l);
+
+    final AtomicInteger numRunningFetches = new AtomicInteger(0);
+    final AtomicBoolean v0Interrupted = new AtomicBoolean(false);
+    final CountDownLatch v0Started = new CountDownLatch(1);
+    final AtomicBoolean failV1 = new AtomicBoolean(true);
+    IncrementalPartitionUpdater updater =
+        new MockIncrementalPartitionUpdater(localPartitionRoot, null, null) {
+          @Override
+          protected void fetchVersion(DomainVersion version, String fetchRoot) throws IOException {
+            numRunningFetches.incrementAndGet();
+            try {
+              if (failV1.get()) {
+                if (version.getVersionNumber() == 0) {
+                  // Blocks until interrupted
+                  v0Started.countDown();
+                  try {
+                    Thread.sleep(60000);
+                  } catch (InterruptedException e) {
+                    v0Interrupted.set(true);
+                    throw new IOException("Interrupted", e);
+                  }
+                } else if (version.getVersionNumber() == 1) {
+                  try {
+                    v0Started.await();
+                  } catch (InterruptedException e) {
+                    throw new IOException("Interrupted", e);
+                  }
+                  throw new IOException("Failed to fetch version " + version);
+                }
+              }
+              if (!new File(fetchRoot + "/" + version.getVersionNumber() + ".data").createNewFile()) {
+                throw new IOException("Failed to fetch version " + version);
+              }
+            } finally {
+              numRunningFetches.decrementAndGet();
+            }
+          }
+
+          @Override
+          protected void cleanCachedVersions() throws IOException {
+            FileUtils.deleteDirectory(new File(localPartitionRootCache));
+          }
+        };
+
+    ExecutorService fetchExecutor = Executors.newFixedThreadPool(2);
+    try {
+      updater.setFetchExecutor(fetchExecutor);
+      try {
+        updater.cacheVersionsNeededToUpdate(null,
+            Collections.<DomainVersion>emptySet(),
+            Collections.<DomainVersion>emptySet(),
+            new IncrementalUpdatePlan(v0, v1, v2, v3));
+        fail("Should fail");
+      } catch (IOException e) {
+        // The failure of v1 is propagated
+        assertEquals("Failed to fetch version " + v1, e.getMessage());
+      }
+      // The other fetches were interrupted and stopped before returning
+      assertTrue(v0Interrupted.get());
+      assertEquals(0, numRunningFetches.get());
+      // Nothing was committed to cache and the fetch root was deleted
+      assertEquals(0, new File(updater.localPartitionRootCache).list().length);
+      for (File file : new File(updater.localPartitionRoot).listFiles()) {
+        if (file.getName().startsWith(IncrementalPartitionUpdater.FETCH_ROOT_PREFIX)) {
+          fail("Should not contain any remaining fetch root: " + file.getPath());
+        }
+      }
+
+      // The shared executor is still usable
+      failV1.set(false);
+      updater.cacheVersionsNeededToUpdate(null,
+          Collections.<DomainVersion>emptySet(),
+          Collections.<DomainVersion>emptySet(),
+          new IncrementalUpdatePlan(v0, v1, v2, v3));
+      assertTrue(existsCacheFile("0.data"));
+      assertTrue(existsCacheFile("3.data"));
+    } finally {
+      fetchExecutor.shutdownNow();
+    }
+  }
+
   @Test
   public void testCommitFiles() throws IOException {
 
@@ -24,6 +24,7 @@ import com.liveramp.hank.coordinator.UpdateProgress;
 import com.liveramp.hank.coordinator.UpdateProgressAggregator;
 import com.liveramp.hank.partition_server.DoublePopulationStatisticsAggregator;
 import com.liveramp.hank.partition_server.FilesystemStatisticsAggregator;
+import com.liveramp.hank.partition_server.LatencyHistogram;
 import com.liveramp.hank.partition_server.RuntimeStatisticsAggregator;
 import com.liveramp.hank.util.FormatUtils;
 
@@ -152,23 +153,24 @@ public class UiUtils {
     }
   }
 
-  public static String formatPopulationStatistics(String title,
-                                                  DoublePopulationStatisticsAggregator populationStatistics) {
-    if (populationStatistics == null) {
+  public static String formatLatencyHistogram(String title, LatencyHistogram latencyHistogram) {
+    if (latencyHistogram == null || latencyHistogram.getTotalCount() == 0) {
       return "-";
     } else {
-      double[] deciles = populationStatistics.computeDeciles();
+      double maximum = latencyHistogram.getMaximum();
       StringBuilder tooltipContent = new StringBuilder();
 
       tooltipContent.append("<table>");
-      addBar(tooltipContent, "min", populationStatistics.getMinimum(), populationStatistics.getMaximum(), "ms");
-      for (int i = 0; i < 9; ++i) {
-        addBar(tooltipContent, ((i + 1) * 10) + "%", deciles[i], populationStatistics.getMaximum(), "ms");
+      addBar(tooltipContent, "min", latencyHistogram.getMinimum(), maximum, "ms");
+      for (int i = 1; i < 10; ++i) {
+        addBar(tooltipContent, (i * 10) + "%", latencyHistogram.getValueAtPercentile(i * 10), maximum, "ms");
       }
-      addBar(tooltipContent, "max", populationStatistics.getMaximum(), populationStatistics.getMaximum(), "ms");
+      addBar(tooltipContent, "99%", latencyHistogram.getValueAtPercentile(99), maximum, "ms");
+      addBar(tooltipContent, "99.9%", latencyHistogram.getValueAtPercentile(99.9), maximum, "ms");
+      addBar(tooltipContent, "max", maximum, maximum, "ms");
       tooltipContent.append("</table>");
 
-      return htmlTooltip(populationStatistics.format(), title, tooltipContent.toString());
+      return htmlTooltip(latencyHistogram.format(), title + " (mean / 50% / 99% / 99.9%)", tooltipContent.toString());
     }
   }
 
@@ -180,21 +182,23 @@ public class UiUtils {
         ;
   }
 
+  // L1 / L2 / decompressed block cache hit rates
   public static String formatCacheHits(RuntimeStatisticsAggregator runtimeStatisticsAggregator) {
     double l1 = runtimeStatisticsAggregator.getL1CacheHitRate();
     double l2 = runtimeStatisticsAggregator.getL2CacheHitRate();
-    if (l1 == 0 && l2 == 0) {
+    double block = runtimeStatisticsAggregator.getBlockCacheHitRate();
+    if (l1 == 0 && l2 == 0 && block == 0) {
       return "-";
     } else {
-      String l1Str = "-";
-      String l2Str = "-";
-      if (l1 != 0) {
-        l1Str = FormatUtils.formatDouble(l1 * 100.0) + "%";
-      }
-      if (l2 != 0) {
-        l2Str = FormatUtils.formatDouble(l2 * 100.0) + "%";
-      }
-      return l1Str + " / " + l2Str;
+      return formatCacheHitRate(l1) + " / " + formatCacheHitRate(l2) + " / " + formatCacheHitRate(block);
+    }
+  }
+
+  private static String formatCacheHitRate(double hitRate) {
+    if (hitRate == 0) {
+      return "-";
+    } else {
+      return FormatUtils.formatDouble(hitRate * 100.0) + "%";
     }
   }
 
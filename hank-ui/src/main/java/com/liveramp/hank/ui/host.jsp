@@ -96,7 +96,7 @@
     <tr>
     <td>Latency:</td>
     <td>
-      <%= UiUtils.formatPopulationStatistics("Server-side latency on " + host.getAddress(), runtimeStatisticsForHost.getGetRequestsPopulationStatistics()) %>
+      <%= UiUtils.formatLatencyHistogram("Server-side latency on " + host.getAddress(), runtimeStatisticsForHost.getGetRequestsLatencyHistogram()) %>
     </td>
     </tr>
 
@@ -219,7 +219,7 @@
     (<%= FormatUtils.formatDataThroughput(runtimeStatisticsForDomain.getResponseDataThroughput()) %>)
     </td>
     <td
-    class='centered'><%= UiUtils.formatPopulationStatistics("Server-side latency for " + domain.getName() + " on " + host.getAddress(), runtimeStatisticsForDomain.getGetRequestsPopulationStatistics()) %>
+    class='centered'><%= UiUtils.formatLatencyHistogram("Server-side latency for " + domain.getName() + " on " + host.getAddress(), runtimeStatisticsForDomain.getGetRequestsLatencyHistogram()) %>
     </td>
     <td class='centered'><%= FormatUtils.formatDouble(runtimeStatisticsForDomain.getHitRate() * 100) %>%</td>
     <td class='centered'><%= UiUtils.formatCacheHits(runtimeStatisticsForDomain) %></td>
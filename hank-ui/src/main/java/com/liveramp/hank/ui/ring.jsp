@@ -81,7 +81,7 @@ Ring ring = ringGroup.getRing(Integer.parseInt(request.getParameter("n")));
     <tr>
     <td>Latency:</td>
     <td>
-      <%= UiUtils.formatPopulationStatistics("Server-side latency on " + ringGroup.getName() + " Ring " + ring.getRingNumber(), runtimeStatisticsForRing.getGetRequestsPopulationStatistics()) %>
+      <%= UiUtils.formatLatencyHistogram("Server-side latency on " + ringGroup.getName() + " Ring " + ring.getRingNumber(), runtimeStatisticsForRing.getGetRequestsLatencyHistogram()) %>
     </td>
     </tr>
 
@@ -164,7 +164,7 @@ Ring ring = ringGroup.getRing(Integer.parseInt(request.getParameter("n")));
     qps
     (<%= FormatUtils.formatDataThroughput(runtimeStatisticsForDomain.getResponseDataThroughput()) %>)</td>
     <td
-    class='centered'><%= UiUtils.formatPopulationStatistics("Server-side latency for " + domain.getName() + " on " + ringGroup.getName() + " Ring " + ring.getRingNumber(), runtimeStatisticsForDomain.getGetRequestsPopulationStatistics()) %>
+    class='centered'><%= UiUtils.formatLatencyHistogram("Server-side latency for " + domain.getName() + " on " + ringGroup.getName() + " Ring " + ring.getRingNumber(), runtimeStatisticsForDomain.getGetRequestsLatencyHistogram()) %>
     </td>
     <td class='centered'><%= FormatUtils.formatDouble(runtimeStatisticsForDomain.getHitRate() * 100) %>%</td>
     <td class='centered'><%= UiUtils.formatCacheHits(runtimeStatisticsForDomain) %></td>
@@ -247,7 +247,7 @@ Ring ring = ringGroup.getRing(Integer.parseInt(request.getParameter("n")));
     qps
     (<%= FormatUtils.formatDataThroughput(runtimeStatisticsForHost.getResponseDataThroughput()) %>)</td>
     <td
-    class='centered'><%= UiUtils.formatPopulationStatistics("Server-side latency on " + host.getAddress(), runtimeStatisticsForHost.getGetRequestsPopulationStatistics()) %>
+    class='centered'><%= UiUtils.formatLatencyHistogram("Server-side latency on " + host.getAddress(), runtimeStatisticsForHost.getGetRequestsLatencyHistogram()) %>
     </td>
     <td class='centered'><%= FormatUtils.formatDouble(runtimeStatisticsForHost.getHitRate() * 100) %>% </td>
     <td class='centered'><%= UiUtils.formatCacheHits(runtimeStatisticsForHost) %></td>
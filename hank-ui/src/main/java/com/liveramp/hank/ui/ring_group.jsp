@@ -111,7 +111,7 @@ Collections.sort(clients, new ClientMetadataComparator());
     <tr>
     <td>Latency:</td>
     <td>
-      <%= UiUtils.formatPopulationStatistics("Server-side latency on " + ringGroup.getName(), runtimeStatisticsForRingGroup.getGetRequestsPopulationStatistics()) %>
+      <%= UiUtils.formatLatencyHistogram("Server-side latency on " + ringGroup.getName(), runtimeStatisticsForRingGroup.getGetRequestsLatencyHistogram()) %>
     </td>
     </tr>
 
@@ -208,7 +208,7 @@ Collections.sort(clients, new ClientMetadataComparator());
     qps
     (<%= FormatUtils.formatDataThroughput(runtimeStatisticsForDomain.getResponseDataThroughput()) %>)</td>
     <td
-    class='centered'><%= UiUtils.formatPopulationStatistics("Server-side latency for " + domain.getName() + " on " + ringGroup.getName(), runtimeStatisticsForDomain.getGetRequestsPopulationStatistics()) %>
+    class='centered'><%= UiUtils.formatLatencyHistogram("Server-side latency for " + domain.getName() + " on " + ringGroup.getName(), runtimeStatisticsForDomain.getGetRequestsLatencyHistogram()) %>
     </td>
     <td class='centered'><%= FormatUtils.formatDouble(runtimeStatisticsForDomain.getHitRate() * 100) %>%</td>
     <td class='centered'><%= UiUtils.formatCacheHits(runtimeStatisticsForDomain) %></td>
@@ -349,7 +349,7 @@ Collections.sort(clients, new ClientMetadataComparator());
     qps
     (<%= FormatUtils.formatDataThroughput(runtimeStatisticsForRing.getResponseDataThroughput()) %>)</td>
     <td
-    class='centered'><%= UiUtils.formatPopulationStatistics("Server-side latency on " + ringGroup.getName() + " Ring " + ring.getRingNumber(), runtimeStatisticsForRing.getGetRequestsPopulationStatistics()) %>
+    class='centered'><%= UiUtils.formatLatencyHistogram("Server-side latency on " + ringGroup.getName() + " Ring " + ring.getRingNumber(), runtimeStatisticsForRing.getGetRequestsLatencyHistogram()) %>
     </td>
     <td class='centered'><%= FormatUtils.formatDouble(runtimeStatisticsForRing.getHitRate() * 100) %>% </td>
     <td class='centered'><%= UiUtils.formatCacheHits(runtimeStatisticsForRing) %></td>
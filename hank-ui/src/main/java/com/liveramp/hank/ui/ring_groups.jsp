@@ -145,7 +145,7 @@
     qps
     (<%= FormatUtils.formatDataThroughput(runtimeStatisticsForRingGroup.getResponseDataThroughput()) %>)</td>
     <td
-    class='centered'><%= UiUtils.formatPopulationStatistics("Server-side latency on " + ringGroup.getName(), runtimeStatisticsForRingGroup.getGetRequestsPopulationStatistics()) %>
+    class='centered'><%= UiUtils.formatLatencyHistogram("Server-side latency on " + ringGroup.getName(), runtimeStatisticsForRingGroup.getGetRequestsLatencyHistogram()) %>
     </td>
     <td class='centered'><%= FormatUtils.formatDouble(runtimeStatisticsForRingGroup.getHitRate() * 100) %>% </td>
     <td class='centered'><%= UiUtils.formatCacheHits(runtimeStatisticsForRingGroup) %></td>
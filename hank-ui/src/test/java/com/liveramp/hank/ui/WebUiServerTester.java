@@ -33,7 +33,7 @@ import com.liveramp.hank.generated.HankResponse;
 import com.liveramp.hank.generated.SmartClient;
 import com.liveramp.hank.partition_assigner.PartitionAssigner;
 import com.liveramp.hank.partition_assigner.RendezVousPartitionAssigner;
-import com.liveramp.hank.partition_server.DoublePopulationStatisticsAggregator;
+import com.liveramp.hank.partition_server.LatencyHistogram;
 import com.liveramp.hank.partition_server.FilesystemStatisticsAggregator;
 import com.liveramp.hank.partition_server.RuntimeStatisticsAggregator;
 import com.liveramp.hank.partitioner.Murmur64Partitioner;
@@ -149,11 +149,7 @@ public class WebUiServerTester extends ZkMockCoordinatorTestCase {
         int numHits = (int)(randomNumHitsRatio() * numRequests);
         int numHitsL1 = (int)(randomL1HitsRatio() * numHits);
         int numHitsL2 = numHits - numHitsL1;
-        double requestMinimum = randomRequestMinimum();
-        double requestMaximum = randomRequestMaximum();
-        long requestValues = randomRequestValues();
-        long requestTotal = randomRequestsTotal();
-        double[] randomSample = randomRequestSample();
+        LatencyHistogram getRequestsLatencyHistogram = randomLatencyHistogram();
         CacheStatistics randomCacheStatistics = randomCacheStatistics();
         runtimeStatistics.put(hd.getDomain(),
             new RuntimeStatisticsAggregator(
@@ -163,12 +159,7 @@ public class WebUiServerTester extends ZkMockCoordinatorTestCase {
                 numHits,
                 numHitsL1,
                 numHitsL2,
-                new DoublePopulationStatisticsAggregator(
-                    requestMinimum,
-                    requestMaximum,
-                    requestValues,
-                    requestTotal,
-                    randomSample),
+                getRequestsLatencyHistogram,
                 randomCacheStatistics
             )
         );
@@ -283,22 +274,6 @@ public class WebUiServerTester extends ZkMockCoordinatorTestCase {
     return (random.nextInt(500) + 500) * (long)Math.pow(1021, 3);
   }
 
-  private long randomRequestsTotal() {
-    return 10000;
-  }
-
-  private long randomRequestValues() {
-    return 1000;
-  }
-
-  private double randomRequestMaximum() {
-    return random.nextInt(10) + 80;
-  }
-
-  private double randomRequestMinimum() {
-    return random.nextInt(10) * 0.001;
-  }
-
   private double randomL1HitsRatio() {
     return ((double)random.nextInt(100) / 100);
   }
@@ -316,13 +291,15 @@ public class WebUiServerTester extends ZkMockCoordinatorTestCase {
     return new CacheStatistics((1L * scale) << 18, (1L * scale) << 20, (100L * scale) << 20, (1L * scale) << 30);
   }
 
-  private double[] randomRequestSample() {
+  private LatencyHistogram randomLatencyHistogram() {
     int scale = random.nextInt(3) + 1;
-    double[] input = new double[]{0.01 * scale, 0.01 * scale, 0.1 * scale, 0.5 * scale, 0.8 * scale, 1 * scale, 1.5 * scale, 3 * scale, 8 * scale};
-    double[] result = new double[1000];
-    for (int i = 0; i < result.length; ++i) {
-      result[i] = input[random.nextInt(input.length)];
+    // Latencies in microseconds, with a long tail
+    long[] input = new long[]{10 * scale, 10 * scale, 100 * scale, 500 * scale, 800 * scale, 1000 * scale, 1500 * scale, 3000 * scale, 8000 * scale};
+    LatencyHistogram result = new LatencyHistogram();
+    for (int i = 0; i < 1000; ++i) {
+      result.recordValue(input[random.nextInt(input.length)]);
     }
+    result.recordValue(80000 + random.nextInt(10000));
     return result;
   }
 